@@ -0,0 +1,81 @@
+/*
+ * BenchmarkSessionHandler.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.server.xmppsession.SessionManagerHandler;
+
+import tigase.util.TigaseStringprepException;
+
+import tigase.xmpp.BareJID;
+import tigase.xmpp.JID;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.XMPPSession;
+
+/**
+ * Minimal session manager handler for sessions created outside of
+ * <code>SessionManager</code>. Each login creates a new user session.
+ *
+ * @author andrzej
+ */
+public class BenchmarkSessionHandler
+				implements SessionManagerHandler {
+	private final JID compId = JID.jidInstanceNS("sess-man", Fixtures.DOMAIN, null);
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public void handleLogin(BareJID userId, XMPPResourceConnection conn) {
+		XMPPSession session = new XMPPSession(userId.getLocalpart());
+
+		try {
+			session.addResourceConnection(conn);
+		} catch (TigaseStringprepException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	@Override
+	public void handleLogout(BareJID userId, XMPPResourceConnection conn) {}
+
+	@Override
+	public void handlePresenceSet(XMPPResourceConnection conn) {}
+
+	@Override
+	public void handleResourceBind(XMPPResourceConnection conn) {}
+
+	//~--- get methods ----------------------------------------------------------
+
+	@Override
+	public JID getComponentId() {
+		return compId;
+	}
+
+	@Override
+	public boolean isLocalDomain(String domain, boolean includeComponents) {
+		return Fixtures.DOMAIN.equals(domain);
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * BenchmarkSessionManager.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.server.Packet;
+import tigase.server.xmppsession.SessionManager;
+
+import tigase.xmpp.BareJID;
+import tigase.xmpp.JID;
+import tigase.xmpp.XMPPResourceConnection;
+
+/**
+ * <code>SessionManager</code> which drops all packets it sends out instead of
+ * queuing them for the router, so it can be used without the rest of the
+ * server.
+ *
+ * @author andrzej
+ */
+public class BenchmarkSessionManager
+				extends SessionManager {
+	private long sent = 0;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method creates authorized user session bound to the connection, as it
+	 * would be created after successful authentication and resource binding.
+	 *
+	 * @param connId connection ID
+	 * @param userId user JID
+	 * @param resource bound resource
+	 *
+	 * @return user session
+	 */
+	public XMPPResourceConnection login(JID connId, BareJID userId, String resource) {
+		return loginUserSession(connId, userId.getDomain(), userId, resource, "sess-" +
+				connId.getResource(), false);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns number of packets sent out by the session manager.
+	 *
+	 * @return number of packets
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public boolean addOutPacket(Packet packet) {
+		++sent;
+
+		return true;
+	}
+
+	@Override
+	protected boolean addOutPacketNB(Packet packet) {
+		++sent;
+
+		return true;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * BenchmarkVHostManager.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.vhosts.VHostItem;
+import tigase.vhosts.VHostManager;
+import tigase.vhosts.VhostConfigRepository;
+
+/**
+ * <code>VHostManager</code> keeping virtual hosts in memory, without any
+ * configuration or database.
+ *
+ * @author andrzej
+ */
+public class BenchmarkVHostManager
+				extends VHostManager {
+	/**
+	 * Creates manager for given virtual hosts.
+	 *
+	 * @param vhosts names of virtual hosts
+	 *
+	 * @throws Exception
+	 */
+	public BenchmarkVHostManager(String... vhosts) throws Exception {
+		setName("vhost-man");
+		repo = new VhostConfigRepository();
+		for (String vhost : vhosts) {
+			repo.addItem(new VHostItem(vhost));
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * ClusterFramingBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tigase.cluster.ClusterFrameReader;
+import tigase.cluster.ClusterFrameWriter;
+import tigase.cluster.api.ClusterElement;
+
+import tigase.server.Packet;
+
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import tigase.xmpp.JID;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.UTF8ElementWriter;
+import tigase.xmpp.XMPPDomBuilderHandler;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of passing packets between two cluster nodes: serialization of
+ * cluster packets with client stanzas on the sending node and reading them
+ * back to <code>ClusterElement</code> on the receiving node. <code>xml</code>
+ * is the XML stream, <code>binary</code> are binary frames. Both nodes run in
+ * the benchmark thread and data is passed in memory, so the results show the
+ * processing cost without the network.
+ *
+ * @author andrzej
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ClusterFramingBenchmark {
+	private static final JID NODE1 = JID.jidInstanceNS("sess-man", "node1." + Fixtures
+			.DOMAIN, null);
+	private static final JID NODE2 = JID.jidInstanceNS("sess-man", "node2." + Fixtures
+			.DOMAIN, null);
+
+	//~--- fields ---------------------------------------------------------------
+
+	private CharBuffer                    chars;
+	private final CharsetDecoder          decoder = StandardCharsets.UTF_8.newDecoder();
+	private XMPPDomBuilderHandler<Object> domHandler;
+	private final Queue<Element>          elements = new ArrayDeque<Element>();
+	private Element[]                     packets;
+	private final SimpleParser            parser   = SingletonFactory.getParserInstance();
+	private ClusterFrameReader            reader;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		List<Packet> stanzas = Fixtures.loadPackets(JID.jidInstanceNS(Fixtures.user(1,
+				Fixtures.DOMAIN), "res"), Fixtures.connectionId(1), JID.jidInstanceNS("sess-man",
+				Fixtures.DOMAIN, null));
+
+		packets = new Element[stanzas.size()];
+		for (int i = 0; i < packets.length; i++) {
+			ClusterElement clel = new ClusterElement(NODE1, NODE2, StanzaType.set, stanzas.get(
+					i));
+
+			clel.addVisitedNode(NODE1);
+			packets[i] = clel.getClusterElement("cl-" + i);
+		}
+		domHandler = Fixtures.newDomHandler();
+		reader     = new ClusterFrameReader(16 * 1024 * 1024);
+		chars      = CharBuffer.allocate(1024 * 1024);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public void binary(Blackhole bh) throws Exception {
+		ClusterFrameWriter writer = ClusterFrameWriter.getInstance();
+
+		writer.begin();
+		for (Element packet : packets) {
+			writer.append(packet);
+		}
+
+		ByteBuffer data = writer.finish();
+
+		reader.read(data, elements);
+		writer.release(data);
+		readClusterElements(elements, bh);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public void xml(Blackhole bh) throws Exception {
+		UTF8ElementWriter writer = UTF8ElementWriter.getInstance();
+
+		writer.begin();
+		for (Element packet : packets) {
+			writer.append(packet);
+		}
+
+		ByteBuffer data = writer.finish();
+
+		chars.clear();
+		decoder.reset();
+		decoder.decode(data, chars, true);
+		writer.release(data);
+		chars.flip();
+		parser.parse(domHandler, chars.array(), 0, chars.limit());
+		readClusterElements(domHandler.getParsedElements(), bh);
+	}
+
+	private void readClusterElements(Queue<Element> parsed, Blackhole bh) {
+		Element elem;
+
+		while ((elem = parsed.poll()) != null) {
+			bh.consume(new ClusterElement(elem).getDataPackets());
+		}
+	}
+}
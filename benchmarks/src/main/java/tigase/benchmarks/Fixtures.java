@@ -0,0 +1,272 @@
+/*
+ * Fixtures.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.db.AuthRepositoryImpl;
+import tigase.db.xml.XMLRepository;
+
+import tigase.server.Packet;
+
+import tigase.vhosts.VHostItem;
+
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import tigase.xmpp.BareJID;
+import tigase.xmpp.JID;
+import tigase.xmpp.XMPPDomBuilderHandler;
+import tigase.xmpp.XMPPIOService;
+import tigase.xmpp.XMPPResourceConnection;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Reproducible data shared by benchmarks. Stanzas are loaded from
+ * <code>fixtures/client-stanzas.xml</code>, all other data (virtual hosts,
+ * users, rosters) is generated from indexes so every run works on exactly
+ * the same input.
+ *
+ * @author andrzej
+ */
+public class Fixtures {
+	/** Main domain used by all benchmarks */
+	public static final String DOMAIN = "example.com";
+
+	/** Resource with client stanzas */
+	public static final String STANZAS = "/fixtures/client-stanzas.xml";
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method creates XML user repository in a temporary file. Users are created
+	 * automatically when accessed.
+	 *
+	 * @return user repository
+	 *
+	 * @throws Exception
+	 */
+	public static XMLRepository createUserRepository() throws Exception {
+		File file = File.createTempFile("tigase-benchmark-", ".xml");
+
+		file.delete();
+		file.deleteOnExit();
+
+		XMLRepository repo = new XMLRepository();
+
+		repo.initRepository(file.getPath() + "?autoCreateUser=true", new HashMap<String,
+				String>());
+
+		return repo;
+	}
+
+	/**
+	 * Method creates authentication repository on top of the user repository.
+	 *
+	 * @param repo user repository
+	 *
+	 * @return authentication repository
+	 */
+	public static AuthRepositoryImpl createAuthRepository(XMLRepository repo) {
+		return new AuthRepositoryImpl(repo);
+	}
+
+	/**
+	 * Method creates authorized session of the user with given index, with
+	 * resource bound.
+	 *
+	 * @param repo user repository
+	 * @param idx of the user
+	 *
+	 * @return user session
+	 *
+	 * @throws Exception
+	 */
+	public static XMPPResourceConnection createSession(XMLRepository repo, int idx)
+					throws Exception {
+		XMPPResourceConnection session = new XMPPResourceConnection(connectionId(idx), repo,
+				createAuthRepository(repo), new BenchmarkSessionHandler());
+
+		session.setDomain(new VHostItem(DOMAIN).getUnmodifiableVHostItem());
+		session.authorizeJID(user(idx, DOMAIN), false);
+		session.setResource("res");
+
+		return session;
+	}
+
+	/**
+	 * Method loads client stanzas fixture as it would be read from the network.
+	 *
+	 * @return stanzas data
+	 *
+	 * @throws IOException
+	 */
+	public static char[] loadStanzas() throws IOException {
+		StringBuilder sb = new StringBuilder();
+
+		try (InputStream in = Fixtures.class.getResourceAsStream(STANZAS);
+				Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+			char[] buf = new char[4096];
+			int    read;
+
+			while ((read = reader.read(buf)) != -1) {
+				sb.append(buf, 0, read);
+			}
+		}
+
+		char[] result = new char[sb.length()];
+
+		sb.getChars(0, sb.length(), result, 0);
+
+		return result;
+	}
+
+	/**
+	 * Method parses stanzas data the same way as <code>XMPPIOService</code>
+	 * does.
+	 *
+	 * @param data to parse
+	 *
+	 * @return parsed elements
+	 */
+	public static List<Element> parse(char[] data) {
+		SimpleParser                  parser  = SingletonFactory.getParserInstance();
+		XMPPDomBuilderHandler<Object> handler = newDomHandler();
+
+		parser.parse(handler, data, 0, data.length);
+
+		Queue<Element> parsed = handler.getParsedElements();
+		List<Element>  result = new ArrayList<Element>(parsed);
+
+		parsed.clear();
+
+		return result;
+	}
+
+	/**
+	 * Method parses client stanzas fixture.
+	 *
+	 * @return parsed elements
+	 *
+	 * @throws IOException
+	 */
+	public static List<Element> loadElements() throws IOException {
+		return parse(loadStanzas());
+	}
+
+	/**
+	 * Method creates packets from client stanzas fixture sent by the user
+	 * through the connection.
+	 *
+	 * @param from user full JID set as stanza sender
+	 * @param connId connection ID set as packet source
+	 * @param to address of the component receiving packets
+	 *
+	 * @return packets
+	 *
+	 * @throws Exception
+	 */
+	public static List<Packet> loadPackets(JID from, JID connId, JID to) throws Exception {
+		List<Packet> result = new ArrayList<Packet>();
+
+		for (Element elem : loadElements()) {
+			elem.setAttribute("from", from.toString());
+
+			Packet packet = Packet.packetInstance(elem);
+
+			packet.setPacketFrom(connId);
+			packet.setPacketTo(to);
+			result.add(packet);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Method creates new DOM handler for stanzas parsing.
+	 *
+	 * @return DOM handler
+	 */
+	public static XMPPDomBuilderHandler<Object> newDomHandler() {
+		return new XMPPDomBuilderHandler<Object>(new XMPPIOService<Object>());
+	}
+
+	/**
+	 * Method returns connection ID of user connection with given index.
+	 *
+	 * @param idx of the connection
+	 *
+	 * @return connection ID
+	 */
+	public static JID connectionId(int idx) {
+		return JID.jidInstanceNS("c2s", DOMAIN, "127.0.0.1_5222_10.0.0.1_" + (10000 + idx));
+	}
+
+	/**
+	 * Method returns JID of user with given index.
+	 *
+	 * @param idx of the user
+	 * @param domain of the user
+	 *
+	 * @return user JID
+	 */
+	public static BareJID user(int idx, String domain) {
+		return BareJID.bareJIDInstanceNS("user" + idx, domain);
+	}
+
+	/**
+	 * Method returns names of virtual hosts. First one is always the main
+	 * domain.
+	 *
+	 * @param count of virtual hosts
+	 *
+	 * @return names of virtual hosts
+	 */
+	public static String[] vhosts(int count) {
+		String[] result = new String[count];
+
+		result[0] = DOMAIN;
+		for (int i = 1; i < count; i++) {
+			result[i] = "vhost" + i + ".example.net";
+		}
+
+		return result;
+	}
+}
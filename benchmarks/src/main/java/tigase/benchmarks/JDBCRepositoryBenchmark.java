@@ -0,0 +1,213 @@
+/*
+ * JDBCRepositoryBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.apache.derby.tools.ij;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import tigase.db.RepositoryFactory;
+import tigase.db.UserRepository;
+
+import tigase.xmpp.BareJID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Comparison of <code>JDBCRepository</code> and
+ * <code>AsyncJDBCRepository</code> on an embedded in-memory Derby database
+ * with Tigase schema loaded from <code>database</code> directory, which may
+ * be set by <code>tigase.benchmark.database</code> system property, and of
+ * <code>LocalRepository</code> storing data in a temporary directory.
+ * Several threads read and write data of random users, as session manager
+ * threads do when users log in and update their rosters.
+ *
+ * @author andrzej
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class JDBCRepositoryBenchmark {
+	private static final AtomicInteger databases = new AtomicInteger();
+	private static final String[]      SCHEMA    = { "derby-schema-4-schema.sql",
+			"derby-schema-4-sp.sql", "derby-schema-5-1-sp.sql", "derby-schema-5-1-props.sql" };
+	private static final int USERS = 1000;
+
+	//~--- fields ---------------------------------------------------------------
+
+	/** Repository implementation */
+	@Param({ "tigase.db.jdbc.JDBCRepository", "tigase.db.jdbc.AsyncJDBCRepository",
+			"tigase.db.local.LocalRepository" })
+	public String implementation;
+
+	/** Number of database connections */
+	@Param({ "4" })
+	public int     connections;
+	private File   dir;
+	private String uri;
+	private UserRepository repo;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return a value of <code>String</code>
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public String getData() throws Exception {
+		return repo.getData(randomUser(), "roster", "item");
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public void setData() throws Exception {
+		repo.setData(randomUser(), "roster", "item", "value-" + ThreadLocalRandom.current()
+				.nextInt());
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		if (implementation.equals(RepositoryFactory.LOCAL_REPO_CLASS_PROP_VAL)) {
+			dir = Files.createTempDirectory("tigase-benchmark-").toFile();
+			uri = dir.getPath();
+		} else {
+			uri = "jdbc:derby:memory:tigase-benchmark-" + databases.incrementAndGet() +
+					";create=true";
+			loadSchema(uri);
+		}
+
+		Map<String, String> params = new HashMap<String, String>();
+
+		params.put(RepositoryFactory.DATA_REPO_POOL_SIZE_PROP_KEY, String.valueOf(
+				connections));
+
+		repo = RepositoryFactory.getUserRepository(implementation, uri, params);
+		for (int i = 0; i < USERS; i++) {
+			BareJID user = Fixtures.user(i, Fixtures.DOMAIN);
+
+			repo.addUser(user);
+			repo.setData(user, "roster", "item", "value");
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (dir != null) {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+
+			return;
+		}
+		try {
+			DriverManager.getConnection(uri.replace(";create=true", ";drop=true"));
+		} catch (SQLException e) {
+
+			// Derby always reports dropped database with an exception
+		}
+	}
+
+	private static void loadSchema(String uri) throws Exception {
+		File dir = new File(System.getProperty("tigase.benchmark.database", "../database"));
+
+		try (Connection conn = DriverManager.getConnection(uri)) {
+			for (String file : SCHEMA) {
+				StringBuilder sb = new StringBuilder();
+
+				// Nested scripts are loaded explicitly as paths in them are relative to
+				// the server directory
+				for (String line : Files.readAllLines(new File(dir, file).toPath(),
+						StandardCharsets.UTF_8)) {
+					if (!line.startsWith("run ")) {
+						sb.append(line).append('\n');
+					}
+				}
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				int errors = ij.runScript(conn, new ByteArrayInputStream(sb.toString().getBytes(
+						StandardCharsets.UTF_8)), "UTF-8", out, "UTF-8");
+
+				if (errors > 0) {
+					throw new IllegalStateException("Errors loading " + file + ":\n" + out
+							.toString("UTF-8"));
+				}
+			}
+		}
+	}
+
+	private static BareJID randomUser() {
+		return Fixtures.user(ThreadLocalRandom.current().nextInt(USERS), Fixtures.DOMAIN);
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * MessageRouterBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import tigase.server.MessageRouter;
+import tigase.server.Packet;
+
+import tigase.xml.Element;
+
+import tigase.xmpp.JID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing of packets by <code>MessageRouter</code> to components which do
+ * nothing with them. Destinations are a mix of user JIDs in local virtual
+ * hosts, component IDs, component subdomains of virtual hosts and JIDs in
+ * remote domains.
+ *
+ * @author andrzej
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageRouterBenchmark {
+	private static final int PACKETS = 1000;
+
+	//~--- fields ---------------------------------------------------------------
+
+	private Packet[]      packets;
+	private MessageRouter router;
+
+	/** Number of components besides session manager and s2s */
+	@Param({ "10", "50" })
+	public int components;
+
+	/** Number of virtual hosts */
+	@Param({ "1", "100" })
+	public int vhosts;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		String[]              hosts = Fixtures.vhosts(vhosts);
+		BenchmarkVHostManager vhm   = new BenchmarkVHostManager(hosts);
+
+		router = new MessageRouter();
+		router.setName("message-router");
+		router.setVHostManager(vhm);
+		router.addRegistrator(vhm);
+		router.addComponent(new NullComponent("sess-man", true, false));
+		router.addComponent(new NullComponent("s2s", false, true));
+		for (int i = 0; i < components; i++) {
+			router.addComponent(new NullComponent("comp-" + i));
+		}
+
+		JID from = JID.jidInstanceNS("sender", Fixtures.DOMAIN, "res");
+
+		packets = new Packet[PACKETS];
+		for (int i = 0; i < PACKETS; i++) {
+			String to;
+
+			switch (i % 4) {
+			case 0 :
+				to = Fixtures.user(i, hosts[i % hosts.length]) + "/res";
+
+				break;
+
+			case 1 :
+				to = "comp-" + (i % components) + "@" + Fixtures.DOMAIN;
+
+				break;
+
+			case 2 :
+				to = "comp-" + (i % components) + "." + hosts[i % hosts.length];
+
+				break;
+
+			default :
+				to = "user" + i + "@remote" + (i % 100) + ".example.org";
+			}
+
+			Element elem = new Element("message", new Element[] { new Element("body",
+					"Message " + i) }, new String[] { "from",
+					"to", "type" }, new String[] { from.toString(), to, "chat" });
+
+			packets[i] = Packet.packetInstance(elem);
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 */
+	@Benchmark
+	public void processPacket() {
+		for (Packet packet : packets) {
+			router.processPacket(packet);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * NullComponent.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.server.ComponentInfo;
+import tigase.server.Packet;
+import tigase.server.ServerComponent;
+
+import tigase.vhosts.VHostListener;
+import tigase.vhosts.VHostManagerIfc;
+
+import tigase.xmpp.JID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.Queue;
+
+/**
+ * Component which only counts packets routed to it, used to measure routing
+ * cost without any packet processing.
+ *
+ * @author andrzej
+ */
+public class NullComponent
+				implements ServerComponent, VHostListener {
+	private JID           compId    = null;
+	private final boolean localDomains;
+	private String        name      = null;
+	private final boolean nonLocalDomains;
+	private long          processed = 0;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Creates component handling only packets addressed directly to it.
+	 *
+	 * @param name of the component
+	 */
+	public NullComponent(String name) {
+		this(name, false, false);
+	}
+
+	/**
+	 * Creates component which may also handle packets to local or non-local
+	 * domains.
+	 *
+	 * @param name of the component
+	 * @param localDomains <code>true</code> if the component handles local
+	 * domains, like session manager
+	 * @param nonLocalDomains <code>true</code> if the component handles
+	 * non-local domains, like s2s
+	 */
+	public NullComponent(String name, boolean localDomains, boolean nonLocalDomains) {
+		this.localDomains    = localDomains;
+		this.nonLocalDomains = nonLocalDomains;
+		setName(name);
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public boolean handlesLocalDomains() {
+		return localDomains;
+	}
+
+	@Override
+	public boolean handlesNameSubdomains() {
+		return !localDomains &&!nonLocalDomains;
+	}
+
+	@Override
+	public boolean handlesNonLocalDomains() {
+		return nonLocalDomains;
+	}
+
+	@Override
+	public void initializationCompleted() {}
+
+	@Override
+	public void processPacket(Packet packet, Queue<Packet> results) {
+		++processed;
+	}
+
+	@Override
+	public void release() {}
+
+	//~--- get methods ----------------------------------------------------------
+
+	@Override
+	public JID getComponentId() {
+		return compId;
+	}
+
+	@Override
+	public ComponentInfo getComponentInfo() {
+		return new ComponentInfo(name, getClass());
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Method returns number of packets routed to the component.
+	 *
+	 * @return number of packets
+	 */
+	public long getProcessed() {
+		return processed;
+	}
+
+	@Override
+	public boolean isInitializationComplete() {
+		return true;
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	@Override
+	public void setName(String name) {
+		this.name   = name;
+		this.compId = JID.jidInstanceNS(name, Fixtures.DOMAIN, null);
+	}
+
+	@Override
+	public void setVHostManager(VHostManagerIfc manager) {}
+}
@@ -0,0 +1,88 @@
+/*
+ * PacketBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tigase.server.Packet;
+
+import tigase.xml.Element;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of <code>Packet</code> instances from parsed client stanzas,
+ * including parsing and stringprep of stanza addresses.
+ *
+ * @author andrzej
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PacketBenchmark {
+	private Element[] elements;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		List<Element> elems = Fixtures.loadElements();
+
+		elements = elems.toArray(new Element[elems.size()]);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public void packetInstance(Blackhole bh) throws Exception {
+		for (Element elem : elements) {
+			bh.consume(Packet.packetInstance(elem));
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * ParserBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import tigase.xmpp.XMPPDomBuilderHandler;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of client stanzas by <code>SimpleParser</code> and
+ * <code>XMPPDomBuilderHandler</code>, the same way as data read from a client
+ * connection is parsed.
+ *
+ * @author andrzej
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParserBenchmark {
+	private char[]                        data;
+	private XMPPDomBuilderHandler<Object> handler;
+	private SimpleParser                  parser;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		data    = Fixtures.loadStanzas();
+		parser  = SingletonFactory.getParserInstance();
+		handler = Fixtures.newDomHandler();
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 */
+	@Benchmark
+	public void parse(Blackhole bh) {
+		parser.parse(handler, data, 0, data.length);
+
+		Queue<Element> parsed = handler.getParsedElements();
+		Element        elem;
+
+		while ((elem = parsed.poll()) != null) {
+			bh.consume(elem);
+		}
+	}
+}
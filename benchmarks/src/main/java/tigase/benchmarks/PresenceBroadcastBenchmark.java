@@ -0,0 +1,272 @@
+/*
+ * PresenceBroadcastBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tigase.conf.Configurable;
+
+import tigase.db.RepositoryFactory;
+import tigase.db.xml.XMLRepository;
+
+import tigase.server.Packet;
+
+import tigase.xml.Element;
+
+import tigase.xmpp.BareJID;
+import tigase.xmpp.JID;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.UTF8ElementWriter;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.Presence;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterAbstract.SubscriptionType;
+import tigase.xmpp.impl.roster.RosterElement;
+import tigase.xmpp.impl.roster.RosterFactory;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcast of user presence to all contacts subscribed to the user presence,
+ * for rosters of different size. <code>broadcast</code> creates a copy of the
+ * presence stanza for each contact, <code>broadcastShared</code> shares single
+ * stanza between all packets. <code>...Write</code> variants also serialize
+ * all packets the same way as <code>XMPPIOService</code> does.
+ * <code>...Process</code> variants pass all packets to
+ * <code>SessionManager.processPacket()</code>, where contacts with even
+ * indexes are logged in local users, so shared packets go through the same
+ * processor selection as delivered presences. Run with <code>-prof gc</code>
+ * to compare allocation rates.
+ *
+ * @author andrzej
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PresenceBroadcastBenchmark {
+	private Element                 presence;
+	private Queue<Packet>           results  = new ArrayDeque<Packet>();
+	private RosterAbstract          roster;
+	private BenchmarkSessionManager sessMan;
+	private XMPPResourceConnection  session;
+	private Map<String, Object>     settings = new HashMap<String, Object>();
+
+	/** Number of contacts in the user roster */
+	@Param({ "100", "1000", "5000" })
+	public int rosterSize;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public void broadcast(Blackhole bh) throws Exception {
+		Presence.sendPresenceBroadcast(StanzaType.available, session, RosterAbstract
+				.FROM_SUBSCRIBED, results, presence, settings, roster);
+		bh.consume(results.size());
+		results.clear();
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public void broadcastProcess(Blackhole bh) throws Exception {
+		Presence.sendPresenceBroadcast(StanzaType.available, session, RosterAbstract
+				.FROM_SUBSCRIBED, results, presence, settings, roster);
+		bh.consume(results.size());
+
+		Packet packet;
+
+		while ((packet = results.poll()) != null) {
+			sessMan.processPacket(packet);
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	@Fork(jvmArgsAppend = "-Dpresence-shared-broadcast=true")
+	public void broadcastShared(Blackhole bh) throws Exception {
+		broadcast(bh);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	@Fork(jvmArgsAppend = "-Dpresence-shared-broadcast=true")
+	public void broadcastSharedProcess(Blackhole bh) throws Exception {
+		broadcastProcess(bh);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	@Fork(jvmArgsAppend = "-Dpresence-shared-broadcast=true")
+	public void broadcastSharedWrite(Blackhole bh) throws Exception {
+		broadcastWrite(bh);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public void broadcastWrite(Blackhole bh) throws Exception {
+		Presence.sendPresenceBroadcast(StanzaType.available, session, RosterAbstract
+				.FROM_SUBSCRIBED, results, presence, settings, roster);
+
+		UTF8ElementWriter writer = UTF8ElementWriter.getInstance();
+		Packet            packet;
+
+		while ((packet = results.poll()) != null) {
+			writer.begin();
+			if (packet.isElementShared()) {
+				writer.append(packet.getSharedElement(), packet.getStanzaTo().toString());
+			} else {
+				writer.append(packet.getElement());
+			}
+
+			ByteBuffer data = writer.finish();
+
+			bh.consume(data.remaining());
+			data.position(data.limit());
+			writer.release(data);
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		XMLRepository       repo   = Fixtures.createUserRepository();
+		Map<String, Object> params = new HashMap<String, Object>();
+
+		roster  = RosterFactory.getRosterImplementation(true);
+		session = Fixtures.createSession(repo, 0);
+		params.put(Configurable.GEN_TEST, Boolean.FALSE);
+		params.put(Configurable.GEN_VIRT_HOSTS, Fixtures.DOMAIN);
+		sessMan = new BenchmarkSessionManager();
+		sessMan.setName("sess-man");
+
+		Map<String, Object> props = sessMan.getDefaults(params);
+
+		props.put(RepositoryFactory.SHARED_USER_REPO_PROP_KEY, repo);
+		props.put(RepositoryFactory.SHARED_AUTH_REPO_PROP_KEY, Fixtures.createAuthRepository(
+				repo));
+		sessMan.setProperties(props);
+		sessMan.setVHostManager(new BenchmarkVHostManager(Fixtures.DOMAIN));
+
+		// Roster is put directly into the session cache, the same way it is kept
+		// after it has been loaded from the repository
+		Map<BareJID, RosterElement> items = new ConcurrentHashMap<BareJID,
+				RosterElement>();
+
+		for (int i = 1; i <= rosterSize; i++) {
+			JID           buddy = JID.jidInstanceNS(Fixtures.user(i, (i % 2 == 0)
+					? Fixtures.DOMAIN
+					: "remote" + (i % 100) + ".example.org"), null);
+			RosterElement item  = new RosterElement(buddy, "User " + i, new String[] {
+					"Group " + (i % 10) }, session);
+
+			item.setSubscription(SubscriptionType.both);
+			items.put(buddy.getBareJID(), item);
+			if (i % 2 == 0) {
+				sessMan.login(Fixtures.connectionId(i), buddy.getBareJID(), "res");
+			}
+		}
+		session.putCommonSessionData(RosterAbstract.ROSTER, items);
+		presence = new Element("presence", new Element[] { new Element("show", "chat"),
+				new Element("priority", "5") }, null, null);
+		session.setPresence(presence);
+	}
+
+	/**
+	 * Method description
+	 *
+	 */
+	@TearDown
+	public void tearDown() {
+		sessMan.stop();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * PriorityQueueBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tigase.util.PriorityQueueAbstract;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparison of priority queue implementations used for component queues.
+ * <code>offerTake</code> measures uncontended cost of a single element,
+ * <code>contended</code> group has several producers and a single consumer
+ * as a component queue with many threads submitting packets.
+ *
+ * @author andrzej
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PriorityQueueBenchmark {
+	private static final int    MAX_SIZE   = 10000;
+	private static final int    PRIORITIES = 6;
+	private static final Object ELEMENT    = new Object();
+
+	//~--- fields ---------------------------------------------------------------
+
+	/** Queue implementation */
+	@Param({ "tigase.util.PriorityQueueRelaxed", "tigase.util.PriorityQueueStrict",
+			"tigase.util.NonpriorityQueue", "tigase.util.PriorityQueueLockFree" })
+	public String implementation;
+	private PriorityQueueAbstract<Object> queue;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param bh
+	 *
+	 * @throws InterruptedException
+	 */
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void consumer(Blackhole bh) throws InterruptedException {
+
+		// Blocking take() would hang at the end of iteration when producers stop
+		if (queue.totalSize() > 0) {
+			bh.consume(queue.take());
+		} else {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	@Group("offerTake")
+	@GroupThreads(1)
+	public Object offerTake() throws Exception {
+		queue.offer(ELEMENT, 1);
+
+		return queue.take();
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return <code>true</code> if element was added to the queue
+	 */
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public boolean producer() {
+		return queue.offer(ELEMENT, 1);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		queue = (PriorityQueueAbstract<Object>) Class.forName(implementation).newInstance();
+		queue.init(PRIORITIES, MAX_SIZE);
+	}
+}
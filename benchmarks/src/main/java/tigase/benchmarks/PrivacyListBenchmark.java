@@ -0,0 +1,159 @@
+/*
+ * PrivacyListBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import tigase.server.Packet;
+
+import tigase.xml.Element;
+
+import tigase.xmpp.JID;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.JabberIqPrivacy;
+import tigase.xmpp.impl.Privacy;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of the active privacy list of a user for inbound and outbound
+ * stanzas by <code>JabberIqPrivacy</code>. None of the list items matches
+ * checked stanzas except the last one allowing everything, so each stanza
+ * goes through the whole list. Most items block JIDs, every tenth one blocks
+ * a roster group and one blocks a subscription type.
+ *
+ * @author andrzej
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PrivacyListBenchmark {
+	private static final String LIST_NAME = "benchmark";
+
+	//~--- fields ---------------------------------------------------------------
+
+	private Packet[]               packets;
+	private JabberIqPrivacy        privacy;
+	private Queue<Packet>          results  = new ArrayDeque<Packet>();
+	private XMPPResourceConnection session;
+	private Map<String, Object>    settings = new HashMap<String, Object>();
+
+	/** Number of items of the privacy list */
+	@Param({ "10", "100", "1000" })
+	public int items;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return number of blocked stanzas
+	 */
+	@Benchmark
+	public int preProcess() {
+		int blocked = 0;
+
+		for (Packet packet : packets) {
+			if (privacy.preProcess(packet, session, null, results, settings)) {
+				++blocked;
+			}
+		}
+
+		return blocked;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		privacy = new JabberIqPrivacy();
+		session = Fixtures.createSession(Fixtures.createUserRepository(), 0);
+
+		Element list = new Element("list", new String[] { "name" }, new String[] {
+				LIST_NAME });
+
+		for (int i = 1; i < items; i++) {
+			Element item;
+
+			if (i == 1) {
+				item = new Element("item", new String[] { "type", "value", "action",
+						"order" }, new String[] { "subscription", "none", "deny", "" + i });
+			} else if (i % 10 == 0) {
+				item = new Element("item", new String[] { "type", "value", "action",
+						"order" }, new String[] { "group", "Blocked " + i, "deny", "" + i });
+			} else {
+				item = new Element("item", new String[] { "type", "value", "action",
+						"order" }, new String[] { "jid", Fixtures.user(1000 + i, Fixtures.DOMAIN)
+						.toString(), "deny", "" + i });
+				item.addChild(new Element("message"));
+			}
+			list.addChild(item);
+		}
+		list.addChild(new Element("item", new String[] { "action", "order" },
+				new String[] { "allow", "" + items }));
+		Privacy.addList(session, list);
+		Privacy.setActiveList(session, LIST_NAME);
+
+		JID user = session.getJID();
+		JID peer = JID.jidInstanceNS(Fixtures.user(1, Fixtures.DOMAIN), "res");
+
+		packets = new Packet[] {
+			packet(new Element("message", new String[] { "type" }, new String[] { "chat" }),
+					peer, user),
+			packet(new Element("presence"), peer, user),
+			packet(new Element("iq", new String[] { "type" }, new String[] { "get" }), peer,
+					user),
+			packet(new Element("message", new String[] { "type" }, new String[] { "chat" }),
+					user, peer)
+		};
+	}
+
+	private static Packet packet(Element elem, JID from, JID to) throws Exception {
+		elem.setAttribute("from", from.toString());
+		elem.setAttribute("to", to.toString());
+
+		return Packet.packetInstance(elem);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * RepositoryCacheBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import tigase.db.RepositoryCacheIfc;
+import tigase.db.SegmentedRepositoryCache;
+
+import tigase.stats.StatisticsList;
+
+import tigase.util.SimpleCache;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded lookup throughput of user repository caches. Each lookup
+ * reads a key of a user and puts the value on a miss, as
+ * <code>UserRepositoryPool</code> does. Users are picked with a skewed
+ * distribution, a few are much more active than the rest. The
+ * <code>withInvalidation</code> variant removes a user's subnode every 16th
+ * operation.
+ *
+ * <code>synchronized</code> is the synchronized <code>SimpleCache</code>
+ * used by repositories before, <code>segmented</code> is
+ * <code>SegmentedRepositoryCache</code>.
+ *
+ * @author andrzej
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class RepositoryCacheBenchmark {
+	private static final String[] NODES = { "roster", "privacy", "public/vcard-temp",
+			"offline" };
+	private static final String   VALUE = "value";
+
+	//~--- fields ---------------------------------------------------------------
+
+	/** Maximum number of cached keys */
+	@Param({ "10000", "100000" })
+	public int cacheSize;
+
+	/** Cache implementation */
+	@Param({ "synchronized", "segmented" })
+	public String implementation;
+
+	/** Number of users */
+	@Param({ "200000" })
+	public int users;
+	private RepositoryCacheIfc cache;
+	private String[]           keys;
+	private String[]           subnodes;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return cached value
+	 */
+	@Benchmark
+	public Object lookup() {
+		return lookup(ThreadLocalRandom.current());
+	}
+
+	/**
+	 * Method description
+	 *
+	 */
+	@Setup
+	public void setUp() {
+		if ("synchronized".equals(implementation)) {
+			cache = new SynchronizedSimpleCache();
+		} else {
+			cache = new SegmentedRepositoryCache();
+		}
+		cache.init(cacheSize, 60 * 1000);
+		keys     = new String[users * NODES.length];
+		subnodes = new String[users * NODES.length];
+		for (int i = 0; i < users; i++) {
+			String user = Fixtures.user(i, Fixtures.DOMAIN).toString();
+
+			for (int j = 0; j < NODES.length; j++) {
+				subnodes[i * NODES.length + j] = user + "/" + NODES[j];
+				keys[i * NODES.length + j]     = user + "/" + NODES[j] + "/items";
+			}
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return cached value
+	 */
+	@Benchmark
+	public Object withInvalidation() {
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+
+		if (rand.nextInt(16) == 0) {
+			cache.remove(subnodes[index(rand)]);
+
+			return null;
+		}
+
+		return lookup(rand);
+	}
+
+	private int index(ThreadLocalRandom rand) {
+
+		// Squared uniform value gives more weight to users with low indexes
+		double r = rand.nextDouble();
+
+		return (int) (r * r * keys.length);
+	}
+
+	private Object lookup(ThreadLocalRandom rand) {
+		String key   = keys[index(rand)];
+		Object value = cache.get(key);
+
+		if (value == null) {
+			value = VALUE;
+			cache.put(key, value);
+		}
+
+		return value;
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	/**
+	 * Cache used by repositories before: synchronized <code>SimpleCache</code>
+	 * removing keys by scanning all keys.
+	 */
+	private static class SynchronizedSimpleCache
+					implements RepositoryCacheIfc {
+		private Map<String, Object> map;
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public void clear() {
+			map.clear();
+		}
+
+		@Override
+		public void init(int maxSize, long cacheTime) {
+			map = Collections.synchronizedMap(new SimpleCache<String, Object>(maxSize,
+					cacheTime));
+		}
+
+		@Override
+		public void put(String key, Object value) {
+			map.put(key, value);
+		}
+
+		@Override
+		public void remove(String key) {
+			synchronized (map) {
+				map.remove(key);
+
+				Iterator<String> it = map.keySet().iterator();
+
+				while (it.hasNext()) {
+					if (it.next().startsWith(key)) {
+						it.remove();
+					}
+				}
+			}
+		}
+
+		//~--- get methods --------------------------------------------------------
+
+		@Override
+		public Object get(String key) {
+			return map.get(key);
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public void getStatistics(String compName, StatisticsList list) {}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * RosterBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import tigase.xml.Element;
+
+import tigase.xmpp.JID;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterAbstract.SubscriptionType;
+import tigase.xmpp.impl.roster.RosterElement;
+import tigase.xmpp.impl.roster.RosterFactory;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Roster storage implementations for rosters of different size.
+ * <code>login</code> loads the roster from the repository and builds roster
+ * items as for the roster request sent by a client after login,
+ * <code>update</code> changes subscription of a single contact and stores
+ * the change.
+ *
+ * Users start with a roster in the flat format, so for
+ * <code>RosterBinary</code> conversion is done once in the setup.
+ * <code>XMLRepository</code> used here rewrites whole data list when an entry
+ * is added, database repositories just insert the new entry.
+ *
+ * @author andrzej
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RosterBenchmark {
+	private JID[]                  buddies;
+	private int                    next = 0;
+	private RosterAbstract         roster;
+	private XMPPResourceConnection session;
+
+	/** Roster implementation */
+	@Param({ "tigase.xmpp.impl.roster.RosterFlat",
+			"tigase.xmpp.impl.roster.RosterBinary" })
+	public String implementation;
+
+	/** Number of contacts in the user roster */
+	@Param({ "100", "1000", "2000", "5000" })
+	public int rosterSize;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return roster items
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public List<Element> login() throws Exception {
+		session.removeCommonSessionData(RosterAbstract.ROSTER);
+
+		return roster.getRosterItems(session);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		roster  = RosterFactory.getRosterImplementation(implementation, false);
+		session = Fixtures.createSession(Fixtures.createUserRepository(), 0);
+		buddies = new JID[rosterSize];
+
+		StringBuilder sb = new StringBuilder(rosterSize * 200);
+
+		for (int i = 0; i < rosterSize; i++) {
+			buddies[i] = JID.jidInstanceNS(Fixtures.user(i + 1, (i % 2 == 0)
+					? Fixtures.DOMAIN
+					: "remote" + (i % 100) + ".example.org"), null);
+
+			RosterElement item = new RosterElement(buddies[i], "User " + i, new String[] {
+					"Group " + (i % 10) }, session);
+
+			item.setSubscription(SubscriptionType.both);
+			sb.append(item.getRosterElement().toString());
+		}
+		session.setData(null, RosterAbstract.ROSTER, sb.toString());
+
+		// Loads the roster and converts it if needed
+		login();
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	public void update() throws Exception {
+		JID buddy = buddies[next++ % buddies.length];
+
+		roster.setBuddySubscription(session, ((next & 1) == 0)
+				? SubscriptionType.both
+				: SubscriptionType.from, buddy);
+	}
+}
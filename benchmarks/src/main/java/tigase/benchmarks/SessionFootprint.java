@@ -0,0 +1,171 @@
+/*
+ * SessionFootprint.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.vhosts.VHostItem;
+
+import tigase.xml.Element;
+
+import tigase.xmpp.JID;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.XMPPSession;
+import tigase.xmpp.impl.Presence;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Heap footprint of idle user sessions. The program creates idle sessions
+ * holding typical session data and prints heap used by a single session and
+ * by its session data storage. For comparison it also prints size of the same
+ * data kept in per-session <code>ConcurrentHashMap</code> instances as they
+ * were used before typed slots.
+ *
+ * Values stored in sessions are shared, so only the storage itself is
+ * measured. Run it with a fixed heap, for example:
+ * <pre>
+ * java -Xms2g -Xmx2g -cp target/benchmarks.jar tigase.benchmarks.SessionFootprint 100000
+ * </pre>
+ *
+ * @author andrzej
+ */
+public class SessionFootprint {
+	private static final String[] COMMON_KEYS = { XMPPResourceConnection.ALL_RESOURCES_KEY,
+			"message-carbons-enabled-resources" };
+	private static final Element  PRESENCE = new Element("presence");
+	private static final String[] SESSION_KEYS = { XMPPResourceConnection.PRESENCE_KEY,
+			Presence.DIRECT_PRESENCE, Presence.OFFLINE_BUD_SENT, "cid" };
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param args number of sessions, 100000 by default
+	 *
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int       count = (args.length > 0)
+				? Integer.parseInt(args[0])
+				: 100000;
+		VHostItem vhost = new VHostItem(Fixtures.DOMAIN).getUnmodifiableVHostItem();
+
+		// Sessions without any data are the base for the storage size
+		long                     base  = usedHeap();
+		XMPPResourceConnection[] empty = new XMPPResourceConnection[count];
+
+		for (int i = 0; i < count; i++) {
+			empty[i] = createSession(vhost, i);
+		}
+
+		long emptySize = usedHeap() - base;
+
+		empty = null;
+		base  = usedHeap();
+
+		XMPPResourceConnection[] sessions = new XMPPResourceConnection[count];
+
+		for (int i = 0; i < count; i++) {
+			sessions[i] = createSession(vhost, i);
+			fill(sessions[i]);
+		}
+
+		long sessionsSize = usedHeap() - base;
+
+		sessions = null;
+		base     = usedHeap();
+
+		Object[] maps = new Object[count];
+
+		for (int i = 0; i < count; i++) {
+			maps[i] = createLegacyMaps();
+		}
+
+		long mapsSize = usedHeap() - base;
+
+		maps = null;
+		System.out.println("Sessions:                     " + count);
+		System.out.println("Session with data, bytes:     " + (sessionsSize / count));
+		System.out.println("Slot storage, bytes:          " + ((sessionsSize - emptySize) /
+				count));
+		System.out.println("ConcurrentHashMap data, bytes: " + (mapsSize / count));
+	}
+
+	private static Object[] createLegacyMaps() {
+		Map<String, Object> sessionData = new ConcurrentHashMap<String, Object>(4, 0.9f);
+		Map<String, Object> commonData  = new ConcurrentHashMap<String, Object>();
+
+		for (String key : SESSION_KEYS) {
+			sessionData.put(key, PRESENCE);
+		}
+		for (String key : COMMON_KEYS) {
+			commonData.put(key, PRESENCE);
+		}
+
+		return new Object[] { sessionData, commonData };
+	}
+
+	private static XMPPResourceConnection createSession(VHostItem vhost, int idx)
+					throws Exception {
+		XMPPResourceConnection conn = new XMPPResourceConnection(Fixtures.connectionId(idx),
+				null, null, new BenchmarkSessionHandler());
+
+		conn.setDomain(vhost);
+		conn.setParentSession(new XMPPSession("user" + idx));
+
+		return conn;
+	}
+
+	private static void fill(XMPPResourceConnection conn) {
+		Set<JID> direct = Collections.emptySet();
+
+		conn.putSessionData(XMPPResourceConnection.PRESENCE_SLOT, PRESENCE);
+		conn.putSessionData(Presence.DIRECT_PRESENCE_SLOT, direct);
+		conn.putSessionData(Presence.OFFLINE_BUD_SENT_SLOT, Presence.OFFLINE_BUD_SENT);
+		conn.putSessionData("cid", PRESENCE);
+		for (String key : COMMON_KEYS) {
+			conn.putCommonSessionData(key, PRESENCE);
+		}
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime rt = Runtime.getRuntime();
+
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * SessionManagerBenchmark.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.benchmarks;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import tigase.conf.Configurable;
+
+import tigase.db.RepositoryFactory;
+import tigase.db.xml.XMLRepository;
+
+import tigase.server.Packet;
+
+import tigase.xmpp.BareJID;
+import tigase.xmpp.JID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processing of client stanzas by <code>SessionManager</code> with the default
+ * set of plugins and logged in user sessions. Plugins process packets in
+ * their own worker threads, so the benchmark measures work done by the thread
+ * calling <code>processPacket()</code>: session lookup, pre-processors,
+ * selection of processors and queuing packets for them, and post-processors.
+ *
+ * @author andrzej
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionManagerBenchmark {
+	private JID[]                   connIds;
+	private Packet[][]              packets;
+	private BenchmarkSessionManager sessMan;
+
+	/** Number of logged in user sessions */
+	@Param({ "100", "10000" })
+	public int sessions;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		XMLRepository       repo   = Fixtures.createUserRepository();
+		Map<String, Object> params = new HashMap<String, Object>();
+
+		params.put(Configurable.GEN_TEST, Boolean.FALSE);
+		params.put(Configurable.GEN_VIRT_HOSTS, Fixtures.DOMAIN);
+		sessMan = new BenchmarkSessionManager();
+		sessMan.setName("sess-man");
+
+		Map<String, Object> props = sessMan.getDefaults(params);
+
+		props.put(RepositoryFactory.SHARED_USER_REPO_PROP_KEY, repo);
+		props.put(RepositoryFactory.SHARED_AUTH_REPO_PROP_KEY, Fixtures.createAuthRepository(
+				repo));
+		sessMan.setProperties(props);
+		sessMan.setVHostManager(new BenchmarkVHostManager(Fixtures.DOMAIN));
+
+		// Packets are prepared for a few users only, processing does not depend on
+		// which of logged in users sent the packet
+		connIds = new JID[sessions];
+		packets = new Packet[Math.min(sessions, 100)][];
+		for (int i = 0; i < sessions; i++) {
+			BareJID user = Fixtures.user(i, Fixtures.DOMAIN);
+
+			connIds[i] = Fixtures.connectionId(i);
+			sessMan.login(connIds[i], user, "res");
+			if (i < packets.length) {
+				List<Packet> list = Fixtures.loadPackets(JID.jidInstanceNS(user, "res"),
+						connIds[i], sessMan.getComponentId());
+
+				packets[i] = list.toArray(new Packet[list.size()]);
+			}
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 */
+	@TearDown
+	public void tearDown() {
+		sessMan.stop();
+	}
+
+	/**
+	 * Method description
+	 *
+	 */
+	@Benchmark
+	public void processPacket() {
+		for (Packet[] userPackets : packets) {
+			for (Packet template : userPackets) {
+
+				// Processing modifies the packet, so each run gets a fresh copy
+				Packet packet = template.copyElementOnly();
+
+				packet.setPacketFrom(template.getPacketFrom());
+				packet.setPacketTo(template.getPacketTo());
+				sessMan.processPacket(packet);
+			}
+		}
+	}
+}
@@ -111,6 +111,9 @@ public class ClusterConnectionManager
 	/** Field description */
 	public static final int CLUSTER_CONNECTIONS_PER_NODE_VAL = 2;
 
+	/** Field description */
+	public static final String BINARY_FRAMES_PROP_KEY = "binary-frames";
+
 	/** Field description */
 	public static final String CLUSTER_CONTR_ID_PROP_KEY = "cluster-controller-id";
 
@@ -161,6 +164,9 @@ public class ClusterConnectionManager
 
 	/** Field description */
 	public static final boolean COMPRESS_STREAM_PROP_VAL = false;
+
+	/** Field description */
+	public static final boolean BINARY_FRAMES_PROP_VAL = false;
 	private static final String SERVICE_CONNECTED_TASK_FUTURE =
 			"service-connected-task-future";
 
@@ -178,6 +184,7 @@ public class ClusterConnectionManager
 			new ConcurrentSkipListMap<>();
 	private boolean                              connect_all = CONNECT_ALL_PROP_VAL;
 	private boolean                              compress_stream = COMPRESS_STREAM_PROP_VAL;
+	private boolean                              binary_frames = BINARY_FRAMES_PROP_VAL;
 	private long[]                               lastDay               = new long[24];
 	private int                                  lastDayIdx            = 0;
 	private long[]                               lastHour              = new long[60];
@@ -526,7 +533,9 @@ public class ClusterConnectionManager
 
 			String data = "<stream:stream" + " xmlns='" + XMLNS + "'" +
 					" xmlns:stream='http://etherx.jabber.org/streams'" + " from='" +
-					getDefHostName() + "'" + " to='" + remote_host + "'" + ">";
+					getDefHostName() + "'" + " to='" + remote_host + "'" + (binary_frames
+					? framesAttribute()
+					: "") + ">";
 
 			log.log(Level.INFO, "cid: {0}, sending: {1}", new Object[] { (String) serv
 					.getSessionData().get("cid"),
@@ -692,6 +701,15 @@ public class ClusterConnectionManager
 							secret, digest });
 				}
 
+				if (isBinaryFrames(service)) {
+
+					// Stream already switched to binary frames
+					writePacketToSocket(service, Packet.packetInstance(new Element("handshake",
+							digest), null, null));
+
+					return null;
+				}
+
 				return "<handshake>" + digest + "</handshake>";
 			} catch (NoSuchAlgorithmException e) {
 				log.log(Level.SEVERE, "Can not generate digest for pass phrase.", e);
@@ -714,9 +732,15 @@ public class ClusterConnectionManager
 			service.getSessionData().put(XMPPIOService.SESSION_ID_KEY, id);
 			updateConnectionDetails(service.getSessionData());
 
+			boolean binary = (service instanceof ClusterIOService) && ((ClusterIOService) service)
+					.isBinaryFramesOffered(attribs);
+
 			return "<stream:stream" + " xmlns='" + XMLNS + "'" +
 					" xmlns:stream='http://etherx.jabber.org/streams'" + " from='" +
-					getDefHostName() + "'" + " to='" + remote_host + "'" + " id='" + id + "'" + ">";
+					getDefHostName() + "'" + " to='" + remote_host + "'" + " id='" + id + "'" +
+					(binary
+					? framesAttribute()
+					: "") + ">";
 		}
 
 		default :
@@ -787,6 +811,7 @@ public class ClusterConnectionManager
 		}
 		props.put(CLUSTER_CONTR_ID_PROP_KEY, DEF_CLUST_CONTR_NAME + "@" + getDefHostName());
 		props.put(COMPRESS_STREAM_PROP_KEY, COMPRESS_STREAM_PROP_VAL);
+		props.put(BINARY_FRAMES_PROP_KEY, BINARY_FRAMES_PROP_VAL);
 
 		String conns     = (String) params.get(CLUSTER_CONNECTIONS_PER_NODE_PAR);
 		int    conns_int = CLUSTER_CONNECTIONS_PER_NODE_VAL;
@@ -850,6 +875,8 @@ public class ClusterConnectionManager
 		list.add(getName(), "Average decompression ratio", ioStatsGetter
 				.getAverageDecompressionRatio(), Level.FINE);
 		list.add(getName(), "Waiting to send", ioStatsGetter.getWaitingToSend(), Level.FINE);
+		list.add(getName(), "Binary frames connections", ioStatsGetter.getBinaryFrames(),
+				Level.FINE);
 
 		// list.add(getName(), StatisticType.MSG_RECEIVED_OK.getDescription(),
 		// packetsReceived,
@@ -886,6 +913,9 @@ public class ClusterConnectionManager
 		if (props.get(IDENTITY_TYPE_KEY) != null) {
 			identity_type = (String) props.get(IDENTITY_TYPE_KEY);
 		}
+		if (props.get(BINARY_FRAMES_PROP_KEY) != null) {
+			binary_frames = (Boolean) props.get(BINARY_FRAMES_PROP_KEY);
+		}
 		if (props.get(COMPRESS_STREAM_PROP_KEY) != null) {
 			compress_stream = (Boolean) props.get(COMPRESS_STREAM_PROP_KEY);
 		}
@@ -1097,7 +1127,11 @@ public class ClusterConnectionManager
 	 */
 	@Override
 	protected XMPPIOService<Object> getXMPPIOServiceInstance() {
-		return new XMPPIOService<>();
+		ClusterIOService serv = new ClusterIOService();
+
+		serv.setBinaryFramesEnabled(binary_frames);
+
+		return serv;
 	}
 
 	/**
@@ -1115,6 +1149,11 @@ public class ClusterConnectionManager
 
 	//~--- methods --------------------------------------------------------------
 
+	private String framesAttribute() {
+		return " " + ClusterIOService.FRAMES_ATT + "='" + ClusterIOService.FRAMES_BINARY +
+				"'";
+	}
+
 	private void processHandshake(Packet p, XMPPIOService<Object> serv) {
 		switch (serv.connectionType()) {
 		case connect : {
@@ -1173,6 +1212,11 @@ public class ClusterConnectionManager
 		}    // end of switch (service.connectionType())
 	}
 
+	private boolean isBinaryFrames(XMPPIOService<Object> serv) {
+		return (serv instanceof ClusterIOService) && ((ClusterIOService) serv)
+				.isBinaryFrames();
+	}
+
 	private void updateRoutings(String[] routings, boolean add) {
 		if (add) {
 			for (String route : routings) {
@@ -1201,6 +1245,7 @@ public class ClusterConnectionManager
 
 	private class IOServiceStatisticsGetter
 					implements ServiceChecker<XMPPIOService<Object>> {
+		private int            binaryFrames       = 0;
 		private int            clIOQueue          = 0;
 		private float          compressionRatio   = 0f;
 		private int            counter            = 0;
@@ -1222,6 +1267,9 @@ public class ClusterConnectionManager
 			decompressionRatio += list.getValue("zlibio", "Average decompression rate", -1f);
 			++counter;
 			clIOQueue += service.waitingToSendSize();
+			if (isBinaryFrames(service)) {
+				++binaryFrames;
+			}
 		}
 
 		/**
@@ -1235,6 +1283,7 @@ public class ClusterConnectionManager
 			// any stats in case of the disconnection.
 			// bytesReceived = 0;
 			// bytesSent = 0;
+			binaryFrames       = 0;
 			clIOQueue          = 0;
 			counter            = 0;
 			compressionRatio   = 0f;
@@ -1278,6 +1327,15 @@ public class ClusterConnectionManager
 		public int getWaitingToSend() {
 			return clIOQueue;
 		}
+
+		/**
+		 * Method returns number of connections using binary frames.
+		 *
+		 * @return a value of <code>int</code>
+		 */
+		public int getBinaryFrames() {
+			return binaryFrames;
+		}
 	}
 
 
@@ -0,0 +1,332 @@
+/*
+ * ClusterFrameReader.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.cluster;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.cluster.api.ClusterElement;
+
+import tigase.xml.Element;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.IOException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import java.util.Queue;
+
+/**
+ * <code>ClusterFrameReader</code> reads frames written by
+ * <code>ClusterFrameWriter</code> from data received over a cluster
+ * connection. Data of incomplete frames is kept until the rest of the frame
+ * arrives, so a reader is bound to a single connection and must not be used
+ * concurrently.
+ *
+ * @author andrzej
+ */
+public class ClusterFrameReader {
+	private static final int INITIAL_CAPACITY      = 4096;
+	private static final int MAX_DEPTH             = 100;
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	//~--- fields ---------------------------------------------------------------
+
+	private ByteBuffer buffer    = ByteBuffer.allocate(INITIAL_CAPACITY);
+	private final int  maxFrameSize;
+	private boolean    streamEnd = false;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Constructs reader accepting frames up to the given size.
+	 *
+	 * @param maxFrameSize maximum size of a frame body in bytes
+	 */
+	public ClusterFrameReader(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method reads all complete frames from the received data and adds decoded
+	 * elements to the queue. Remaining data of an incomplete frame is kept for
+	 * the next call.
+	 *
+	 * @param data received data ready for reading, it is consumed entirely
+	 * @param results queue for decoded elements
+	 *
+	 * @throws IOException if the data is not a correct frames stream
+	 */
+	public void read(ByteBuffer data, Queue<Element> results) throws IOException {
+		if (buffer.remaining() < data.remaining()) {
+			ByteBuffer tmp = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer
+					.position() + data.remaining()));
+
+			buffer.flip();
+			tmp.put(buffer);
+			buffer = tmp;
+		}
+		buffer.put(data);
+		buffer.flip();
+		try {
+			while (buffer.remaining() >= 4) {
+				int start = buffer.position();
+				int size  = buffer.getInt(start);
+
+				if ((size < 1) || (size > maxFrameSize)) {
+					throw new IOException("Incorrect cluster frame size: " + size);
+				}
+				if (buffer.remaining() < size + 4) {
+					break;
+				}
+
+				int end   = start + 4 + size;
+				int limit = buffer.limit();
+
+				buffer.position(start + 4);
+				buffer.limit(end);
+
+				byte kind = buffer.get();
+
+				switch (kind) {
+				case ClusterFrameWriter.FRAME_ELEMENT :
+					results.offer(readElement(0));
+
+					break;
+
+				case ClusterFrameWriter.FRAME_CLUSTER :
+					results.offer(readClusterPacket());
+
+					break;
+
+				case ClusterFrameWriter.FRAME_PING :
+					break;
+
+				case ClusterFrameWriter.FRAME_STREAM_END :
+					streamEnd = true;
+
+					break;
+
+				default :
+					throw new IOException("Unknown cluster frame kind: " + kind);
+				}
+				if (buffer.hasRemaining()) {
+					throw new IOException("Incorrect cluster frame length: " + size);
+				}
+				buffer.limit(limit);
+				buffer.position(end);
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Incorrect cluster frame data", e);
+		} finally {
+			buffer.compact();
+			shrink();
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns <code>true</code> if the stream end frame was received.
+	 *
+	 * @return <code>true</code> if the stream was closed by the other side
+	 */
+	public boolean isStreamEnd() {
+		return streamEnd;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	private Element readClusterPacket() throws IOException {
+		String  from    = readString();
+		String  to      = readString();
+		String  type    = readString();
+		String  id      = readString();
+		String  first   = readString();
+		if ((from == null) || (to == null)) {
+			throw new IOException("Missing cluster packet address");
+		}
+
+		Element cluster = new Element(ClusterElement.CLUSTER_EL_NAME);
+
+		cluster.setAttribute("from", from);
+		cluster.setAttribute("to", to);
+		if (type != null) {
+			cluster.setAttribute("type", type);
+		}
+		cluster.setXMLNS(ClusterElement.XMLNS);
+		if (id != null) {
+			cluster.setAttribute("id", id);
+		}
+
+		Element control = new Element(ClusterElement.CLUSTER_CONTROL_EL_NAME);
+		Element visited = new Element(ClusterElement.VISITED_NODES_EL_NAME);
+		int     nodes   = readVarInt();
+
+		for (int i = 0; i < nodes; i++) {
+			visited.addChild(new Element(ClusterElement.NODE_ID_EL_NAME, readString()));
+		}
+		control.addChild(visited);
+		if (first != null) {
+			control.addChild(new Element(ClusterElement.FIRST_NODE_EL_NAME, first));
+		}
+		if (readVarInt() > 0) {
+			control.addChild(readElement(2));
+		}
+		cluster.addChild(control);
+
+		int packets = readVarInt() - 1;
+
+		if (packets >= 0) {
+			Element data = new Element(ClusterElement.CLUSTER_DATA_EL_NAME);
+
+			for (int i = 0; i < packets; i++) {
+				data.addChild(readElement(2));
+			}
+			cluster.addChild(data);
+		}
+
+		return cluster;
+	}
+
+	private Element readElement(int depth) throws IOException {
+		String  name = readString();
+		Element elem;
+
+		if (depth >= MAX_DEPTH) {
+			throw new IOException("Too deeply nested element: " + name);
+		}
+		if (name == null) {
+			throw new IOException("Missing element name");
+		}
+		elem = new Element(name.intern());
+
+		int attrs = readVarInt();
+
+		for (int i = 0; i < attrs; i++) {
+			String key   = readString();
+			String value = readString();
+
+			if ((key == null) || (value == null)) {
+				throw new IOException("Missing attribute name or value");
+			}
+			key = key.intern();
+			if (key == "xmlns") {
+				elem.setXMLNS(value);
+			} else {
+				elem.setAttribute(key, value);
+			}
+		}
+
+		int nodes = readVarInt();
+
+		for (int i = 0; i < nodes; i++) {
+			byte type = buffer.get();
+
+			if (type == ClusterFrameWriter.NODE_ELEMENT) {
+				elem.addChild(readElement(depth + 1));
+			} else if (type == ClusterFrameWriter.NODE_CDATA) {
+				String cdata = readString();
+
+				if (cdata == null) {
+					throw new IOException("Missing character data");
+				}
+				elem.addCData(cdata);
+			} else {
+				throw new IOException("Unknown element node type: " + type);
+			}
+		}
+
+		return elem;
+	}
+
+	private String readString() throws IOException {
+		int len = readVarInt() - 1;
+
+		if (len < 0) {
+			return null;
+		}
+		if (len > buffer.remaining()) {
+			throw new IOException("Incorrect string length: " + len);
+		}
+
+		char[] chars = new char[len];
+
+		for (int i = 0; i < len; i++) {
+			int b = buffer.get() & 0xFF;
+
+			if (b < 0x80) {
+				chars[i] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				chars[i] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+			} else if ((b & 0xF0) == 0xE0) {
+				int b2 = buffer.get() & 0x3F;
+
+				chars[i] = (char) (((b & 0x0F) << 12) | (b2 << 6) | (buffer.get() & 0x3F));
+			} else {
+				throw new IOException("Incorrect character encoding");
+			}
+		}
+
+		return new String(chars);
+	}
+
+	/**
+	 * Frames up to the maximum frame size may grow the buffer a lot, so it is
+	 * replaced with a small one once data of a large frame is processed.
+	 */
+	private void shrink() {
+		if ((buffer.capacity() > MAX_RETAINED_CAPACITY) && (buffer.position() <=
+				INITIAL_CAPACITY)) {
+			ByteBuffer tmp = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+			buffer.flip();
+			tmp.put(buffer);
+			buffer = tmp;
+		}
+	}
+
+	private int readVarInt() throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) {
+					throw new IOException("Incorrect length: " + value);
+				}
+
+				return value;
+			}
+		}
+
+		throw new IOException("Incorrect length encoding");
+	}
+}
@@ -0,0 +1,436 @@
+/*
+ * ClusterFrameWriter.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.cluster;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.cluster.api.ClusterElement;
+
+import tigase.xml.CData;
+import tigase.xml.Element;
+import tigase.xml.XMLNodeIfc;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.nio.ByteBuffer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>ClusterFrameWriter</code> serializes elements sent over cluster
+ * connections to binary, length-prefixed frames. Each frame consists of
+ * 4 bytes of the frame body length, 1 byte of the frame kind and the body.
+ *
+ * Cluster packets are written as a fixed header with <code>from</code>,
+ * <code>to</code>, <code>type</code> and <code>id</code> attributes, first
+ * node and visited nodes, followed by the method call and data stanzas. All
+ * other elements and cluster packets of an unknown structure are written as
+ * a plain element. Elements are encoded as a tree of names, attributes,
+ * character data and children, so the receiving side rebuilds them without
+ * XML parsing. Attribute values and character data are stored escaped in the
+ * <code>Element</code> and they are written as they are.
+ *
+ * Strings are written as a variable length number of characters increased by
+ * one, <code>0</code> stands for <code>null</code>, followed by characters
+ * encoded as in modified UTF-8, each character on 1 to 3 bytes.
+ *
+ * Writers are kept per thread, buffers are reused the same way as in
+ * <code>UTF8ElementWriter</code>.
+ *
+ * @author andrzej
+ */
+public class ClusterFrameWriter {
+	/** Frame with a cluster packet */
+	public static final byte FRAME_CLUSTER = 2;
+
+	/** Frame with an element */
+	public static final byte FRAME_ELEMENT = 1;
+
+	/** Empty frame keeping the connection alive */
+	public static final byte FRAME_PING = 3;
+
+	/** Frame closing the stream */
+	public static final byte FRAME_STREAM_END = 4;
+
+	/** Node type of character data in an encoded element */
+	static final byte NODE_CDATA = 0;
+
+	/** Node type of a child element in an encoded element */
+	static final byte NODE_ELEMENT = 1;
+	private static final String[] CLUSTER_ATTRS = { "from", "to", "type", "id", "xmlns" };
+	private static final int      HEADER_SIZE           = 5;
+	private static final int      INITIAL_CAPACITY      = 1024;
+	private static final int      MAX_RETAINED_CAPACITY = 64 * 1024;
+	private static final ThreadLocal<ClusterFrameWriter> writers =
+			new ThreadLocal<ClusterFrameWriter>() {
+		@Override
+		protected ClusterFrameWriter initialValue() {
+			return new ClusterFrameWriter();
+		}
+	};
+
+	//~--- fields ---------------------------------------------------------------
+
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns writer for the current thread.
+	 *
+	 * @return writer for the current thread
+	 */
+	public static ClusterFrameWriter getInstance() {
+		return writers.get();
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method appends frame with the element to the data serialized since last
+	 * call to <code>begin()</code>.
+	 *
+	 * @param elem element to serialize
+	 */
+	public void append(Element elem) {
+		int start = startFrame();
+
+		if (isClusterPacket(elem)) {
+			buffer.put(start + 4, FRAME_CLUSTER);
+			writeClusterPacket(elem);
+		} else {
+			buffer.put(start + 4, FRAME_ELEMENT);
+			writeElement(elem);
+		}
+		endFrame(start);
+	}
+
+	/**
+	 * Method appends empty frame of the given kind.
+	 *
+	 * @param kind <code>FRAME_PING</code> or <code>FRAME_STREAM_END</code>
+	 */
+	public void appendEmpty(byte kind) {
+		int start = startFrame();
+
+		buffer.put(start + 4, kind);
+		endFrame(start);
+	}
+
+	/**
+	 * Method starts serialization of a new batch of frames.
+	 */
+	public void begin() {
+		buffer.clear();
+	}
+
+	/**
+	 * Method finishes serialization of frames appended since last call to
+	 * <code>begin()</code>.
+	 *
+	 * @return buffer ready for reading with serialized frames
+	 */
+	public ByteBuffer finish() {
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Method must be called after data returned by <code>finish()</code> was
+	 * passed to the I/O layer, so the buffer can be reused if possible.
+	 *
+	 * @param data buffer returned by <code>finish()</code>
+	 */
+	public void release(ByteBuffer data) {
+		if (data != buffer) {
+			return;
+		}
+
+		// Data which was not sent at once is queued by the I/O layer so we can
+		// not touch the buffer anymore
+		if (data.hasRemaining() || (data.capacity() > MAX_RETAINED_CAPACITY)) {
+			buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+		} else {
+			buffer.clear();
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns number of bytes serialized since last call to
+	 * <code>begin()</code>.
+	 *
+	 * @return number of bytes
+	 */
+	public int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * Method checks whether the element has structure of a cluster packet
+	 * created by <code>ClusterElement</code>, which can be written with the
+	 * fixed header.
+	 *
+	 * @param elem element to check
+	 *
+	 * @return <code>true</code> if the element can be written as a cluster frame
+	 */
+	static boolean isClusterPacket(Element elem) {
+		if ((elem.getName() != ClusterElement.CLUSTER_EL_NAME) ||!ClusterElement.XMLNS
+				.equals(elem.getXMLNS()) || (elem.getAttributeStaticStr("from") == null) ||
+				(elem.getAttributeStaticStr("to") == null) || (elem.getCData() != null)) {
+			return false;
+		}
+		Map<String, String> attrs = elem.getAttributes();
+
+		if (attrs != null) {
+			for (String key : attrs.keySet()) {
+				if (!isClusterAttribute(key)) {
+					return false;
+				}
+			}
+		}
+
+		boolean visited = false;
+		int     data    = 0;
+		int     control = 0;
+
+		for (Element child : children(elem)) {
+			if (child.getName() == ClusterElement.CLUSTER_DATA_EL_NAME) {
+				if ((++data > 1) || hasAttributes(child) || (child.getCData() != null)) {
+					return false;
+				}
+			} else if (child.getName() == ClusterElement.CLUSTER_CONTROL_EL_NAME) {
+				if ((++control > 1) || hasAttributes(child) || (child.getCData() != null)) {
+					return false;
+				}
+
+				int first  = 0;
+				int method = 0;
+
+				for (Element ctrl : children(child)) {
+					if (ctrl.getName() == ClusterElement.VISITED_NODES_EL_NAME) {
+						if (visited || hasAttributes(ctrl) || (ctrl.getCData() != null)) {
+							return false;
+						}
+						visited = true;
+						for (Element node : children(ctrl)) {
+							if ((node.getName() != ClusterElement.NODE_ID_EL_NAME) ||!isSimple(node)) {
+								return false;
+							}
+						}
+					} else if (ctrl.getName() == ClusterElement.FIRST_NODE_EL_NAME) {
+						if ((++first > 1) ||!isSimple(ctrl)) {
+							return false;
+						}
+					} else if (ctrl.getName() == ClusterElement.CLUSTER_METHOD_EL_NAME) {
+						if (++method > 1) {
+							return false;
+						}
+					} else {
+						return false;
+					}
+				}
+			} else {
+				return false;
+			}
+		}
+
+		return visited;
+	}
+
+	private static List<Element> children(Element elem) {
+		List<Element> children = elem.getChildren();
+
+		return (children == null)
+				? Collections.<Element>emptyList()
+				: children;
+	}
+
+	private static boolean hasAttributes(Element elem) {
+		Map<String, String> attrs = elem.getAttributes();
+
+		return (attrs != null) &&!attrs.isEmpty();
+	}
+
+	private static boolean isClusterAttribute(String key) {
+		for (String attr : CLUSTER_ATTRS) {
+			if (attr.equals(key)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isSimple(Element elem) {
+		return !hasAttributes(elem) && (elem.getCData() != null) && children(elem)
+				.isEmpty();
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	private void endFrame(int start) {
+		buffer.putInt(start, buffer.position() - start - 4);
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (buffer.remaining() < bytes) {
+			ByteBuffer tmp = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer
+					.position() + bytes));
+
+			buffer.flip();
+			tmp.put(buffer);
+			buffer = tmp;
+		}
+	}
+
+	private int startFrame() {
+		ensureCapacity(HEADER_SIZE);
+
+		int start = buffer.position();
+
+		buffer.position(start + HEADER_SIZE);
+
+		return start;
+	}
+
+	private void writeClusterPacket(Element elem) {
+		writeString(elem.getAttributeStaticStr("from"));
+		writeString(elem.getAttributeStaticStr("to"));
+		writeString(elem.getAttributeStaticStr("type"));
+		writeString(elem.getAttributeStaticStr("id"));
+
+		Element       control = elem.getChild(ClusterElement.CLUSTER_CONTROL_EL_NAME);
+		Element       first   = control.getChild(ClusterElement.FIRST_NODE_EL_NAME);
+		Element       method  = control.getChild(ClusterElement.CLUSTER_METHOD_EL_NAME);
+		List<Element> nodes   = children(control.getChild(ClusterElement
+				.VISITED_NODES_EL_NAME));
+
+		writeString((first == null)
+				? null
+				: first.getCData());
+		writeVarInt(nodes.size());
+		for (Element node : nodes) {
+			writeString(node.getCData());
+		}
+		if (method == null) {
+			writeVarInt(0);
+		} else {
+			writeVarInt(1);
+			writeElement(method);
+		}
+
+		Element data = elem.getChild(ClusterElement.CLUSTER_DATA_EL_NAME);
+
+		if (data == null) {
+			writeVarInt(0);
+		} else {
+			List<Element> packets = children(data);
+
+			writeVarInt(packets.size() + 1);
+			for (Element packet : packets) {
+				writeElement(packet);
+			}
+		}
+	}
+
+	private void writeElement(Element elem) {
+		writeString(elem.getName());
+
+		Map<String, String> attrs = elem.getAttributes();
+
+		if (attrs == null) {
+			writeVarInt(0);
+		} else {
+			writeVarInt(attrs.size());
+			for (Map.Entry<String, String> attr : attrs.entrySet()) {
+				writeString(attr.getKey());
+				writeString(attr.getValue());
+			}
+		}
+
+		List<XMLNodeIfc> nodes = elem.getChildrenNodes();
+
+		if (nodes == null) {
+			writeVarInt(0);
+		} else {
+			writeVarInt(nodes.size());
+			for (XMLNodeIfc node : nodes) {
+				if (node instanceof Element) {
+					ensureCapacity(1);
+					buffer.put(NODE_ELEMENT);
+					writeElement((Element) node);
+				} else {
+					ensureCapacity(1);
+					buffer.put(NODE_CDATA);
+					writeString(((CData) node).getCData());
+				}
+			}
+		}
+	}
+
+	private void writeString(String str) {
+		if (str == null) {
+			writeVarInt(0);
+
+			return;
+		}
+
+		int len = str.length();
+
+		writeVarInt(len + 1);
+
+		// Each character takes at most 3 bytes
+		ensureCapacity(len * 3);
+		for (int i = 0; i < len; i++) {
+			char c = str.charAt(i);
+
+			if ((c < 0x80) && (c != 0)) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	private void writeVarInt(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+}
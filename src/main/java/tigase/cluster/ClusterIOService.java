@@ -0,0 +1,333 @@
+/*
+ * ClusterIOService.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.cluster;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.net.ConnectionType;
+
+import tigase.server.Packet;
+
+import tigase.util.TigaseStringprepException;
+
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import tigase.xmpp.XMPPIOService;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * <code>ClusterIOService</code> is a cluster connection which may switch from
+ * the XML stream to binary frames written by <code>ClusterFrameWriter</code>.
+ *
+ * Binary frames are negotiated in stream headers. The connecting node offers
+ * them with the <code>cluster-frames='binary'</code> attribute and the
+ * accepting node confirms them with the same attribute in its stream header.
+ * Each side switches right after the stream headers exchange, when the other
+ * side waits for data, so XML and binary data never arrive in the same read.
+ * Nodes which do not know the attribute ignore it and the XML stream is used
+ * as before.
+ *
+ * @author andrzej
+ */
+public class ClusterIOService
+				extends XMPPIOService<Object> {
+	/** Stream header attribute used to negotiate binary frames */
+	public static final String FRAMES_ATT = "cluster-frames";
+
+	/** Value of the stream header attribute for binary frames */
+	public static final String FRAMES_BINARY = "binary";
+
+	/** System property with the maximum size of a received frame */
+	public static final String MAX_FRAME_SIZE_PROP_KEY = "cluster-max-frame-size";
+	private static final Logger log = Logger.getLogger(ClusterIOService.class.getName());
+	private static final int    BATCH_MAX_BYTES = 64 * 1024;
+	private static final String STREAM_END      = "</stream:stream>";
+	private static final int maxFrameSize = Integer.getInteger(MAX_FRAME_SIZE_PROP_KEY,
+			16 * 1024 * 1024);
+	private static final SimpleParser parser = SingletonFactory.getParserInstance();
+
+	//~--- fields ---------------------------------------------------------------
+
+	private boolean            binaryEnabled = false;
+	private boolean            binaryIn      = false;
+	private volatile boolean   binaryOut     = false;
+	private final Queue<Element> elements    = new ArrayDeque<Element>();
+	private ClusterFrameReader reader        = null;
+	private volatile boolean   streamEndSent = false;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void processWaitingPackets() throws IOException {
+		if (binaryOut) {
+			processWaitingPacketsFramed();
+		}
+		super.processWaitingPackets();
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param data
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void writeRawData(String data) throws IOException {
+		if (!binaryOut || (data == null)) {
+			super.writeRawData(data);
+
+			return;
+		}
+
+		String  xml       = data;
+		boolean streamEnd = xml.endsWith(STREAM_END);
+
+		if (streamEnd) {
+			if (streamEndSent) {
+				return;
+			}
+			streamEndSent = true;
+			xml           = xml.substring(0, xml.length() - STREAM_END.length());
+		}
+
+		ClusterFrameWriter writer = ClusterFrameWriter.getInstance();
+
+		writer.begin();
+		if (!xml.trim().isEmpty()) {
+
+			// Raw data, like stream errors or acks, is parsed and sent as elements
+			DomBuilderHandler domHandler = new DomBuilderHandler();
+			char[]            chars      = xml.toCharArray();
+
+			parser.parse(domHandler, chars, 0, chars.length);
+
+			Queue<Element> elems = domHandler.getParsedElements();
+
+			if ((elems == null) || elems.isEmpty()) {
+				log.log(Level.WARNING, "{0}, Raw data can not be sent with binary frames: {1}",
+						new Object[] { toString(),
+						data });
+			} else {
+				Element elem;
+
+				while ((elem = elems.poll()) != null) {
+					writer.append(elem);
+				}
+			}
+		} else if (!streamEnd) {
+			writer.appendEmpty(ClusterFrameWriter.FRAME_PING);
+		}
+		if (streamEnd) {
+			writer.appendEmpty(ClusterFrameWriter.FRAME_STREAM_END);
+		}
+		if (writer.size() > 0) {
+			writeFrames(writer);
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns <code>true</code> if the connection switched to binary
+	 * frames.
+	 *
+	 * @return <code>true</code> if binary frames are used
+	 */
+	public boolean isBinaryFrames() {
+		return binaryOut;
+	}
+
+	/**
+	 * Method returns <code>true</code> if binary frames may be negotiated for
+	 * the connection.
+	 *
+	 * @return <code>true</code> if binary frames are enabled
+	 */
+	public boolean isBinaryFramesEnabled() {
+		return binaryEnabled;
+	}
+
+	/**
+	 * Method checks whether binary frames are enabled and offered by the other
+	 * side in the stream header.
+	 *
+	 * @param attribs stream header attributes received from the other side
+	 *
+	 * @return <code>true</code> if the connection will use binary frames
+	 */
+	public boolean isBinaryFramesOffered(Map<String, String> attribs) {
+		return binaryEnabled && FRAMES_BINARY.equals(attribs.get(FRAMES_ATT));
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Method enables negotiation of binary frames for the connection, it must be
+	 * called before the stream is opened.
+	 *
+	 * @param enabled
+	 */
+	public void setBinaryFramesEnabled(boolean enabled) {
+		this.binaryEnabled = enabled;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return a value of <code>char[]</code>
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	protected char[] readData() throws IOException {
+		if (!binaryIn) {
+			return super.readData();
+		}
+
+		ByteBuffer data = readBytes();
+
+		if (data == null) {
+			return null;
+		}
+		try {
+			reader.read(data, elements);
+		} catch (IOException e) {
+			log.log(Level.INFO, toString() + ", Incorrect binary frames data, " +
+					"stopping connection: " + getConnectionId() + ", exception: ", e);
+			forceStop();
+
+			return null;
+		} finally {
+			data.clear();
+		}
+
+		Element elem;
+
+		while ((elem = elements.poll()) != null) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "{0}, Read packet: {1}", new Object[] { toString(),
+						elem });
+			}
+			try {
+				addReceivedPacket(Packet.packetInstance(elem));
+			} catch (TigaseStringprepException ex) {
+				log.log(Level.INFO, toString() + ", Incorrect to/from JID format for stanza: " +
+						elem, ex);
+			}
+		}
+		if (reader.isStreamEnd()) {
+			xmppStreamClosed();
+		}
+
+		// All data is processed here, there are no characters to parse
+		return null;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param attribs
+	 */
+	@Override
+	protected void xmppStreamOpened(Map<String, String> attribs) {
+		boolean binary = isBinaryFramesOffered(attribs);
+
+		// Connecting side sends the handshake already in a binary frame, accepting
+		// side has to send its stream header first
+		if (binary && (connectionType() == ConnectionType.connect)) {
+			startBinaryFrames();
+		}
+		super.xmppStreamOpened(attribs);
+		if (binary && (connectionType() == ConnectionType.accept)) {
+			startBinaryFrames();
+		}
+	}
+
+	private void processWaitingPacketsFramed() {
+		ClusterFrameWriter writer = ClusterFrameWriter.getInstance();
+		Packet             packet = null;
+
+		writer.begin();
+		while ((packet = pollWaitingPacket()) != null) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[] { toString(),
+						packet });
+			}
+			writer.append(packet.getElement());
+			if (writer.size() >= BATCH_MAX_BYTES) {
+				writeFrames(writer);
+				writer.begin();
+			}
+		}
+		if (writer.size() > 0) {
+			writeFrames(writer);
+		}
+	}
+
+	private void startBinaryFrames() {
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "{0}, Switching to binary frames", toString());
+		}
+		reader    = new ClusterFrameReader(maxFrameSize);
+		binaryIn  = true;
+		binaryOut = true;
+	}
+
+	private void writeFrames(ClusterFrameWriter writer) {
+		ByteBuffer data = writer.finish();
+
+		try {
+			writeBytes(data);
+		} finally {
+			writer.release(data);
+		}
+	}
+}
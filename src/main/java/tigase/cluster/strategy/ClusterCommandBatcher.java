@@ -0,0 +1,450 @@
+/*
+ * ClusterCommandBatcher.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.cluster.strategy;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.ClusterControllerIfc;
+import tigase.cluster.api.CommandListener;
+import tigase.cluster.api.CommandListenerAbstract;
+
+import tigase.stats.StatisticsList;
+
+import tigase.util.HashedWheelTimer;
+
+import tigase.xml.Element;
+import tigase.xml.XMLUtils;
+
+import tigase.xmpp.JID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>ClusterCommandBatcher</code> coalesces small cluster commands sent by
+ * a clustering strategy, like user connected and user presence notifications,
+ * into batches sent to each node in a single cluster packet. Commands for a
+ * node are collected for a short time window or until the batch reaches its
+ * maximum size, whichever comes first, and they are executed on the
+ * receiving node in the order they were sent by calling the command
+ * listeners registered for them.
+ *
+ * With the time window set to <code>0</code> commands are sent immediately,
+ * as without the batcher. All cluster nodes must know the batch command
+ * before batching is enabled on any of them.
+ *
+ * @author andrzej
+ */
+public class ClusterCommandBatcher {
+	/** Name of the cluster command carrying batched commands */
+	public static final String BATCH_CMD = "batch-sm-cmd";
+
+	/** Name of the property with the maximum number of commands in a batch */
+	public static final String BATCH_MAX_SIZE_PROP_KEY = "batch-max-size";
+
+	/** Default maximum number of commands in a batch */
+	public static final int BATCH_MAX_SIZE_PROP_VAL = 100;
+
+	/** Name of the property with the batching time window in milliseconds */
+	public static final String BATCH_WINDOW_PROP_KEY = "batch-window";
+
+	/** Default batching time window, batching is disabled */
+	public static final long BATCH_WINDOW_PROP_VAL = 0;
+	private static final String CMD_EL_NAME   = "cmd";
+	private static final String NAME_ATTR     = "name";
+	private static final String PAR_EL_NAME   = "par";
+	private static final Logger log           = Logger.getLogger(ClusterCommandBatcher
+			.class.getName());
+	private static HashedWheelTimer ownTimer  = null;
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final Map<JID, NodeBatch> batches = new ConcurrentHashMap<JID, NodeBatch>();
+	private long                      batchCommands    = 0;
+	private long                      batchLatency     = 0;
+	private final BatchCommand        batchCommand     = new BatchCommand(BATCH_CMD);
+	private long                      batchesSent      = 0;
+	private ClusterControllerIfc      cluster          = null;
+	private final Map<String, CommandListener> listeners = new ConcurrentHashMap<String,
+			CommandListener>();
+	private int                       maxBatchLatency  = 0;
+	private int                       maxBatchSize     = 0;
+	private int                       maxSize          = BATCH_MAX_SIZE_PROP_VAL;
+	private long                      receivedBatches  = 0;
+	private long                      receivedCommands = 0;
+	private long                      window           = BATCH_WINDOW_PROP_VAL;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method flushes all batches waiting to be sent.
+	 */
+	public void flush() {
+		for (NodeBatch batch : batches.values()) {
+			batch.flush();
+		}
+	}
+
+	/**
+	 * Method drops commands waiting for a node which disconnected.
+	 *
+	 * @param node
+	 */
+	public void nodeDisconnected(JID node) {
+		NodeBatch batch = batches.remove(node);
+
+		if (batch != null) {
+			batch.drop();
+		}
+	}
+
+	/**
+	 * Method registers command listener which executes batched commands with
+	 * its name on the receiving node.
+	 *
+	 * @param listener
+	 */
+	public void register(CommandListener listener) {
+		listeners.put(listener.getName(), listener);
+	}
+
+	/**
+	 * Method sends command to the given nodes, either immediately or in the
+	 * next batch for each node.
+	 *
+	 * @param command name of the command
+	 * @param data command parameters
+	 * @param packet command packet or <code>null</code>
+	 * @param fromNode sending node
+	 * @param toNodes receiving nodes
+	 */
+	public void send(String command, Map<String, String> data, Element packet,
+			JID fromNode, JID... toNodes) {
+		if (window <= 0) {
+			if (packet == null) {
+				cluster.sendToNodes(command, data, fromNode, toNodes);
+			} else {
+				cluster.sendToNodes(command, data, packet, fromNode, null, toNodes);
+			}
+
+			return;
+		}
+
+		Element cmd = createCommandElement(command, data, packet);
+
+		for (JID node : toNodes) {
+			NodeBatch batch = batches.get(node);
+
+			if (batch == null) {
+				batch = new NodeBatch(node, fromNode);
+
+				NodeBatch old = ((ConcurrentHashMap<JID, NodeBatch>) batches).putIfAbsent(node,
+						batch);
+
+				if (old != null) {
+					batch = old;
+				}
+			}
+			batch.add(cmd);
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns command listener receiving batches, it has to be
+	 * registered in the cluster controller. The listener reports batching
+	 * statistics as well.
+	 *
+	 * @return batch command listener
+	 */
+	public CommandListener getBatchCommand() {
+		return batchCommand;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param list
+	 */
+	public synchronized void getStatistics(StatisticsList list) {
+		list.add("cluster-strat", "Batches sent", batchesSent, Level.FINE);
+		list.add("cluster-strat", "Batched commands", batchCommands, Level.FINE);
+		list.add("cluster-strat", "Average batch size", (batchesSent == 0)
+				? 0f
+				: (float) batchCommands / batchesSent, Level.FINE);
+		list.add("cluster-strat", "Max batch size", maxBatchSize, Level.FINE);
+		list.add("cluster-strat", "Average batch latency [ms]", (batchCommands == 0)
+				? 0f
+				: (float) batchLatency / batchCommands, Level.FINE);
+		list.add("cluster-strat", "Max batch latency [ms]", maxBatchLatency, Level.FINE);
+		list.add("cluster-strat", "Batches received", receivedBatches, Level.FINE);
+		list.add("cluster-strat", "Batched commands received", receivedCommands, Level
+				.FINE);
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param cluster
+	 */
+	public void setClusterController(ClusterControllerIfc cluster) {
+		this.cluster = cluster;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param props
+	 */
+	public void setProperties(Map<String, Object> props) {
+		if (props.get(BATCH_WINDOW_PROP_KEY) != null) {
+			window = ((Number) props.get(BATCH_WINDOW_PROP_KEY)).longValue();
+		}
+		if (props.get(BATCH_MAX_SIZE_PROP_KEY) != null) {
+			maxSize = ((Number) props.get(BATCH_MAX_SIZE_PROP_KEY)).intValue();
+		}
+		if (window <= 0) {
+			flush();
+		}
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	private static Element createCommandElement(String command, Map<String, String> data,
+			Element packet) {
+		Element cmd = new Element(CMD_EL_NAME, new String[] { NAME_ATTR }, new String[] {
+				command });
+
+		if (data != null) {
+			for (Map.Entry<String, String> entry : data.entrySet()) {
+				if (entry.getValue() != null) {
+					cmd.addChild(new Element(PAR_EL_NAME, XMLUtils.escape(entry.getValue()),
+							new String[] { NAME_ATTR }, new String[] { XMLUtils.escape(entry
+							.getKey()) }));
+				}
+			}
+		}
+		if (packet != null) {
+			cmd.addChild(packet);
+		}
+
+		return cmd;
+	}
+
+	private static synchronized HashedWheelTimer getTimer() {
+		HashedWheelTimer timer = HashedWheelTimer.getSharedInstance();
+
+		if (timer == null) {
+			if (ownTimer == null) {
+				ownTimer = new HashedWheelTimer("cluster-batch-timer", 10, TimeUnit.MILLISECONDS,
+						HashedWheelTimer.WHEEL_SIZE_PROP_VAL);
+			}
+			timer = ownTimer;
+		}
+
+		return timer;
+	}
+
+	private synchronized void batchSent(int size, long oldest) {
+		int latency = (int) (System.currentTimeMillis() - oldest);
+
+		++batchesSent;
+		batchCommands += size;
+		batchLatency  += (long) latency * size;
+		if (size > maxBatchSize) {
+			maxBatchSize = size;
+		}
+		if (latency > maxBatchLatency) {
+			maxBatchLatency = latency;
+		}
+	}
+
+	private synchronized void batchReceived(int size) {
+		++receivedBatches;
+		receivedCommands += size;
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private class BatchCommand
+					extends CommandListenerAbstract {
+		private BatchCommand(String name) {
+			super(name);
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		/**
+		 * Method description
+		 *
+		 *
+		 * @param fromNode is a <code>JID</code>
+		 * @param visitedNodes is a <code>Set<JID></code>
+		 * @param data is a <code>Map<String,String></code>
+		 * @param packets is a <code>Queue<Element></code>
+		 *
+		 * @throws ClusterCommandException
+		 */
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String,
+				String> data, Queue<Element> packets)
+				throws ClusterCommandException {
+			if (packets == null) {
+				return;
+			}
+			batchReceived(packets.size());
+
+			Element cmd;
+
+			while ((cmd = packets.poll()) != null) {
+				String          name     = cmd.getAttributeStaticStr(NAME_ATTR);
+				CommandListener listener = (name == null)
+						? null
+						: listeners.get(name);
+
+				if (listener == null) {
+					log.log(Level.WARNING, "No listener for batched command {0} from node: {1}",
+							new Object[] { name,
+							fromNode });
+
+					continue;
+				}
+
+				Map<String, String> params   = new LinkedHashMap<String, String>();
+				Queue<Element>      cmdPackets = new ArrayDeque<Element>(1);
+				List<Element>       children = cmd.getChildren();
+
+				if (children != null) {
+					for (Element child : children) {
+						if (child.getName() == PAR_EL_NAME) {
+							params.put(XMLUtils.unescape(child.getAttributeStaticStr(NAME_ATTR)),
+									XMLUtils.unescape(child.getCData()));
+						} else {
+							cmdPackets.offer(child);
+						}
+					}
+				}
+				try {
+					listener.executeCommand(fromNode, visitedNodes, params, cmdPackets);
+				} catch (Exception e) {
+					log.log(Level.WARNING, "Problem executing batched command " + name +
+							" from node: " + fromNode, e);
+				}
+			}
+		}
+
+		//~--- get methods --------------------------------------------------------
+
+		@Override
+		public void getStatistics(StatisticsList list) {
+			ClusterCommandBatcher.this.getStatistics(list);
+		}
+	}
+
+
+	private class NodeBatch
+					implements Runnable {
+		private List<Element> commands  = new ArrayList<Element>();
+		private final JID     fromNode;
+		private final JID     node;
+		private long          oldest    = 0;
+		private boolean       scheduled = false;
+
+		//~--- constructors -------------------------------------------------------
+
+		private NodeBatch(JID node, JID fromNode) {
+			this.node     = node;
+			this.fromNode = fromNode;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public void run() {
+			flush();
+		}
+
+		/**
+		 * Batches are handed off to the cluster controller while holding the
+		 * lock, so a full batch can not be overtaken by a later flush and
+		 * commands are received in the order they were added.
+		 */
+		private synchronized void add(Element cmd) {
+			if (commands.isEmpty()) {
+				oldest = System.currentTimeMillis();
+			}
+			commands.add(cmd);
+			if (commands.size() >= maxSize) {
+				send(commands, oldest);
+				commands = new ArrayList<Element>();
+			} else if (!scheduled) {
+				scheduled = true;
+				getTimer().schedule(this, window, TimeUnit.MILLISECONDS, null);
+			}
+		}
+
+		private synchronized void drop() {
+			commands.clear();
+		}
+
+		private synchronized void flush() {
+			scheduled = false;
+			if (commands.isEmpty()) {
+				return;
+			}
+			send(commands, oldest);
+			commands = new ArrayList<Element>();
+		}
+
+		private void send(List<Element> ready, long since) {
+			cluster.sendToNodes(BATCH_CMD, new ArrayDeque<Element>(ready), fromNode, null,
+					node);
+			batchSent(ready.size(), since);
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Sent batch of {0} commands to node: {1}", new Object[] {
+						ready.size(),
+						node });
+			}
+		}
+	}
+}
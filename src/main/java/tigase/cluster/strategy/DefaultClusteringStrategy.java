@@ -107,6 +107,8 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 
 	//~--- fields ---------------------------------------------------------------
 
+	private final ClusterCommandBatcher batcher = new ClusterCommandBatcher();
+
 	// Simple random generator, we do not need a strong randomization here.
 	// Just enough to ensure better traffic distribution
 	private Random rand = new Random();
@@ -119,8 +121,15 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 	 */
 	public DefaultClusteringStrategy() {
 		super();
-		addCommandListener(new UserPresenceCommand(USER_PRESENCE_CMD));
-		addCommandListener(new UserConnectedCommand(USER_CONNECTED_CMD));
+
+		CommandListener presenceCmd  = new UserPresenceCommand(USER_PRESENCE_CMD);
+		CommandListener connectedCmd = new UserConnectedCommand(USER_CONNECTED_CMD);
+
+		addCommandListener(presenceCmd);
+		addCommandListener(connectedCmd);
+		batcher.register(presenceCmd);
+		batcher.register(connectedCmd);
+		addCommandListener(batcher.getBatchCommand());
 	}
 
 	//~--- methods --------------------------------------------------------------
@@ -159,8 +168,8 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 				if ((cl_nodes != null) && (cl_nodes.size() > 0)) {
 
 					// ++clusterSyncOutTraffic;
-					cluster.sendToNodes(USER_PRESENCE_CMD, params, presence, sm.getComponentId(),
-							null, cl_nodes.toArray(new JID[cl_nodes.size()]));
+					batcher.send(USER_PRESENCE_CMD, params, presence, sm.getComponentId(),
+							cl_nodes.toArray(new JID[cl_nodes.size()]));
 				}
 			} catch (Exception e) {
 				log.log(Level.WARNING, "Problem with broadcast user presence for: " + conn, e);
@@ -182,7 +191,7 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 			List<JID> cl_nodes = getAllNodes();
 
 			// ++clusterSyncOutTraffic;
-			cluster.sendToNodes(USER_CONNECTED_CMD, params, sm.getComponentId(), cl_nodes
+			batcher.send(USER_CONNECTED_CMD, params, null, sm.getComponentId(), cl_nodes
 					.toArray(new JID[cl_nodes.size()]));
 		} catch (Exception e) {
 			log.log(Level.WARNING, "Problem with broadcast user presence for: " + conn, e);
@@ -220,16 +229,48 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 			if ((cl_nodes != null) && (cl_nodes.size() > 0)) {
 
 				// ++clusterSyncOutTraffic;
-				cluster.sendToNodes(USER_PRESENCE_CMD, params, presence, sm.getComponentId(),
-						null, cl_nodes.toArray(new JID[cl_nodes.size()]));
+				batcher.send(USER_PRESENCE_CMD, params, presence, sm.getComponentId(),
+						cl_nodes.toArray(new JID[cl_nodes.size()]));
 			}
 		} catch (Exception e) {
 			log.log(Level.WARNING, "Problem with broadcast user presence for: " + conn, e);
 		}
 	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param jid
+	 */
+	@Override
+	public void nodeDisconnected(JID jid) {
+		super.nodeDisconnected(jid);
+		batcher.nodeDisconnected(jid);
+	}
 	
 	//~--- get methods ----------------------------------------------------------
 
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param params
+	 *
+	 * @return
+	 */
+	@Override
+	public Map<String, Object> getDefaults(Map<String, Object> params) {
+		Map<String, Object> props = super.getDefaults(params);
+
+		props.put(ClusterCommandBatcher.BATCH_WINDOW_PROP_KEY, ClusterCommandBatcher
+				.BATCH_WINDOW_PROP_VAL);
+		props.put(ClusterCommandBatcher.BATCH_MAX_SIZE_PROP_KEY, ClusterCommandBatcher
+				.BATCH_MAX_SIZE_PROP_VAL);
+
+		return props;
+	}
+
 	/**
 	 * Method description
 	 *
@@ -290,6 +331,32 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 		}
 	}
 
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param clComp
+	 */
+	@Override
+	public void setClusterController(ClusterControllerIfc clComp) {
+		super.setClusterController(clComp);
+		batcher.setClusterController(clComp);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param props
+	 */
+	@Override
+	public void setProperties(Map<String, Object> props) {
+		super.setProperties(props);
+		batcher.setProperties(props);
+	}
+
 	//~--- methods --------------------------------------------------------------
 
 	/**
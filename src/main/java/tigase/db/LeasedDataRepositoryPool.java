@@ -0,0 +1,131 @@
+/*
+ * LeasedDataRepositoryPool.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.db;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.xmpp.BareJID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Data repository pool which lends each connection exclusively to a single
+ * thread. While a thread holds a lease all statements it requests are
+ * prepared on the leased connection, regardless of the user they are for, so
+ * a slow query occupies only its own connection. Threads without a lease
+ * are served as by <code>DataRepositoryPool</code>.
+ *
+ * @author andrzej
+ */
+public class LeasedDataRepositoryPool
+				extends DataRepositoryPool {
+	private final LinkedBlockingQueue<DataRepository> idle =
+			new LinkedBlockingQueue<DataRepository>();
+	private final ThreadLocal<DataRepository> leased = new ThreadLocal<DataRepository>();
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param repo
+	 */
+	@Override
+	public void addRepo(DataRepository repo) {
+		super.addRepo(repo);
+		idle.offer(repo);
+	}
+
+	/**
+	 * Method binds an idle connection to the current thread, waiting for one to
+	 * be returned if all are in use.
+	 *
+	 * @param timeout maximum time to wait for a connection
+	 * @param unit of the timeout
+	 *
+	 * @return <code>true</code> if connection was leased
+	 *
+	 * @throws InterruptedException
+	 */
+	public boolean lease(long timeout, TimeUnit unit) throws InterruptedException {
+		if (leased.get() != null) {
+			return true;
+		}
+
+		DataRepository repo = idle.poll(timeout, unit);
+
+		if (repo == null) {
+			return false;
+		}
+		leased.set(repo);
+
+		return true;
+	}
+
+	/**
+	 * Method returns connection leased by the current thread to the pool.
+	 */
+	public void release() {
+		DataRepository repo = leased.get();
+
+		if (repo != null) {
+			leased.remove();
+			idle.offer(repo);
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user_id
+	 *
+	 * @return connection leased by the current thread or a connection selected
+	 * by the user ID if the thread does not hold any lease
+	 */
+	@Override
+	public DataRepository takeRepo(BareJID user_id) {
+		DataRepository repo = leased.get();
+
+		return (repo != null)
+				? repo
+				: super.takeRepo(user_id);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns number of connections which are not leased.
+	 *
+	 * @return number of idle connections
+	 */
+	public int getIdle() {
+		return idle.size();
+	}
+}
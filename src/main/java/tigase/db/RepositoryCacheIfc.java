@@ -0,0 +1,113 @@
+/*
+ * RepositoryCacheIfc.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.db;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.stats.StatisticsList;
+
+/**
+ * Cache of data read from a user repository. Keys have a form of
+ * <code>user/node/.../key</code>, with the user JID up to the first
+ * <code>/</code> character. Removing a key removes also all keys under it, so
+ * removing <code>user/node</code> invalidates all cached data of the node and
+ * its subnodes, removing <code>user</code> all cached data of the user.
+ *
+ * Implementations are created by <code>RepositoryFactory</code> and must be
+ * thread safe.
+ *
+ * @author andrzej
+ */
+public interface RepositoryCacheIfc {
+	/** Value cached for keys which are known not to exist in the repository */
+	Object MISSING = new Object() {
+		@Override
+		public String toString() {
+			return "MISSING";
+		}
+	};
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method removes all cached data.
+	 */
+	void clear();
+
+	/**
+	 * Method initializes the cache.
+	 *
+	 * @param maxSize maximum number of cached keys, <code>0</code> disables
+	 * the cache
+	 * @param cacheTime time in ms for which a value is valid
+	 */
+	void init(int maxSize, long cacheTime);
+
+	/**
+	 * Method caches value for the key. <code>null</code> value caches the key
+	 * as missing. Missing keys are kept only for the time set by
+	 * <code>repo-cache-missing-time</code> system property, if it is shorter
+	 * than the cache time, so data added by another cluster node is noticed
+	 * soon. Writes through the same repository invalidate them at once.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	void put(String key, Object value);
+
+	/**
+	 * Method removes the key and all keys under it.
+	 *
+	 * @param key
+	 */
+	void remove(String key);
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns cached value for the key.
+	 *
+	 * @param key
+	 *
+	 * @return cached value, <code>MISSING</code> if the key is known not to
+	 * exist or <code>null</code> if the key is not cached
+	 */
+	Object get(String key);
+
+	/**
+	 * Method returns number of cached keys.
+	 *
+	 * @return number of cached keys
+	 */
+	int size();
+
+	/**
+	 * Method adds cache statistics to the list.
+	 *
+	 * @param compName name of the component using the repository
+	 * @param list
+	 */
+	void getStatistics(String compName, StatisticsList list);
+}
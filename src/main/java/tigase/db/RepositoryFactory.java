@@ -151,6 +151,12 @@ public abstract class RepositoryFactory {
 	/** Field description */
 	public static final String GEN_USER_DB_URI_PROP_KEY = "user-db-uri";
 
+	/** Class of the embedded log-structured repository */
+	public static final String LOCAL_REPO_CLASS_PROP_VAL = "tigase.db.local.LocalRepository";
+
+	/** Default directory of the embedded log-structured repository */
+	public static final String LOCAL_REPO_URL_PROP_VAL = "tigase-local-db";
+
 	/** Field description */
 	public static final String LIBRESOURCE_REPO_CLASS_PROP_VAL =
 			"tigase.db.jdbc.LibreSourceAuth";
@@ -263,6 +269,37 @@ public abstract class RepositoryFactory {
 	/** Field description */
 	public static final String DATABASE_TYPE_PROP_KEY = "database-type";
 
+	/** Class of the cache used by user repositories */
+	public static final String REPO_CACHE_CLASS_PROP_KEY = "repo-cache-class";
+
+	/** Default class of the cache used by user repositories */
+	public static final String REPO_CACHE_CLASS_PROP_VAL =
+			"tigase.db.SegmentedRepositoryCache";
+
+	/** Maximum number of keys cached by a user repository */
+	public static final String REPO_CACHE_SIZE_PROP_KEY = "repo-cache-size";
+
+	/** Default maximum number of keys cached by a user repository */
+	public static final int REPO_CACHE_SIZE_PROP_VAL = 100000;
+
+	/** Time in ms for which data cached by a user repository is valid */
+	public static final String REPO_CACHE_TIME_PROP_KEY = "repo-cache-time";
+
+	/** Default time in ms for which data cached by a user repository is valid */
+	public static final long REPO_CACHE_TIME_PROP_VAL = 60 * 1000;
+
+	/**
+	 * Time in ms for which a user repository caches keys missing in the
+	 * repository
+	 */
+	public static final String REPO_CACHE_MISSING_TIME_PROP_KEY = "repo-cache-missing-time";
+
+	/**
+	 * Default time in ms for which a user repository caches keys missing in the
+	 * repository
+	 */
+	public static final long REPO_CACHE_MISSING_TIME_PROP_VAL = 5 * 1000;
+
 	/** Field description */
 	private static ConcurrentMap<String, UserRepository> user_repos =
 			new ConcurrentHashMap<String, UserRepository>(5);
@@ -436,10 +473,47 @@ public abstract class RepositoryFactory {
 		if (repo_name.equals("sqlserver")) {
 			result = SQLSERVER_REPO_CLASS_PROP_VAL;
 		}
+		if (repo_name.equals("local")) {
+			result = LOCAL_REPO_CLASS_PROP_VAL;
+		}
 
 		return result;
 	}
 
+	/**
+	 * Method creates cache for a user repository. Class, size and validity
+	 * time of the cache are set by system properties:
+	 * <code>repo-cache-class</code>, <code>repo-cache-size</code> and
+	 * <code>repo-cache-time</code>. The cache is disabled if the repository
+	 * resource URI contains <code>cacheRepo=off</code>.
+	 *
+	 * @param resource URI of the repository
+	 *
+	 * @return initialized cache
+	 *
+	 * @throws DBInitException if the cache class could not be loaded
+	 */
+	public static RepositoryCacheIfc getRepositoryCache(String resource)
+					throws DBInitException {
+		String             cls = System.getProperty(REPO_CACHE_CLASS_PROP_KEY,
+				REPO_CACHE_CLASS_PROP_VAL);
+		RepositoryCacheIfc cache;
+
+		try {
+			cache = (RepositoryCacheIfc) Class.forName(cls).newInstance();
+		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+			throw new DBInitException("Problem creating repository cache: " + cls, e);
+		}
+		if ((resource != null) && resource.contains("cacheRepo=off")) {
+			cache.init(0, 0);
+		} else {
+			cache.init(Integer.getInteger(REPO_CACHE_SIZE_PROP_KEY, REPO_CACHE_SIZE_PROP_VAL),
+					Long.getLong(REPO_CACHE_TIME_PROP_KEY, REPO_CACHE_TIME_PROP_VAL));
+		}
+
+		return cache;
+	}
+
 	/**
 	 * Method description
 	 *
@@ -0,0 +1,443 @@
+/*
+ * SegmentedRepositoryCache.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.db;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.stats.StatisticsList;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Default implementation of <code>RepositoryCacheIfc</code>. Keys are
+ * spread over segments, each with its own lock, by the user part of the key
+ * and cached data of a user is kept together, so invalidation of a user
+ * node does not need to scan the whole cache.
+ *
+ * When a segment is full, data of the least recently used user is evicted,
+ * but only if the new user was requested more often than the evicted one.
+ * Frequencies are estimated by a small count-min sketch which is halved
+ * periodically, so a burst of one-time lookups does not flush data of active
+ * users out of the cache.
+ *
+ * @author andrzej
+ */
+public class SegmentedRepositoryCache
+				implements RepositoryCacheIfc {
+	private static final int MAX_SEGMENTS         = 16;
+	private static final int MIN_SEGMENT_SIZE     = 64;
+
+	//~--- fields ---------------------------------------------------------------
+
+	private long      cacheTime   = 0;
+	private long      missingTime = 0;
+	private Segment[] segments    = null;
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public void clear() {
+		Segment[] segs = segments;
+
+		if (segs == null) {
+			return;
+		}
+		for (Segment seg : segs) {
+			synchronized (seg) {
+				seg.users.clear();
+				seg.size = 0;
+			}
+		}
+	}
+
+	@Override
+	public void init(int maxSize, long cacheTime) {
+		this.cacheTime   = cacheTime;
+		this.missingTime = Math.min(cacheTime, Long.getLong(RepositoryFactory
+				.REPO_CACHE_MISSING_TIME_PROP_KEY, RepositoryFactory
+				.REPO_CACHE_MISSING_TIME_PROP_VAL));
+		if ((maxSize <= 0) || (cacheTime <= 0)) {
+			segments = null;
+
+			return;
+		}
+
+		int count = 1;
+
+		while ((count < MAX_SEGMENTS) && (count * 2 * MIN_SEGMENT_SIZE <= maxSize)) {
+			count <<= 1;
+		}
+
+		Segment[] segs = new Segment[count];
+
+		for (int i = 0; i < count; i++) {
+			segs[i] = new Segment((maxSize + count - 1) / count);
+		}
+		segments = segs;
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		Segment[] segs = segments;
+
+		if (segs == null) {
+			return;
+		}
+
+		int     idx  = key.indexOf('/');
+		String  user = (idx < 0)
+				? key
+				: key.substring(0, idx);
+		String  path = (idx < 0)
+				? ""
+				: key.substring(idx + 1);
+		int     hash = hash(user);
+		Segment seg  = segs[segmentIndex(hash, segs.length)];
+		Entry   entry = (value == null)
+				? new Entry(MISSING, System.currentTimeMillis() + missingTime)
+				: new Entry(value, System.currentTimeMillis() + cacheTime);
+
+		synchronized (seg) {
+			Map<String, Entry> data = seg.users.get(user);
+
+			if (data == null) {
+				if ((seg.size >= seg.maxSize) &&!seg.users.isEmpty()) {
+					String victim = seg.users.keySet().iterator().next();
+
+					if (seg.sketch.frequency(hash) <= seg.sketch.frequency(hash(victim))) {
+						++seg.rejections;
+
+						return;
+					}
+				}
+				data = new HashMap<String, Entry>(4);
+				seg.users.put(user, data);
+			}
+			if (data.put(path, entry) == null) {
+				++seg.size;
+			}
+
+			Iterator<Map<String, Entry>> it = seg.users.values().iterator();
+
+			while ((seg.size > seg.maxSize) && it.hasNext()) {
+				Map<String, Entry> evicted = it.next();
+
+				if (evicted != data) {
+					seg.size -= evicted.size();
+					it.remove();
+					++seg.evictions;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void remove(String key) {
+		Segment[] segs = segments;
+
+		if (segs == null) {
+			return;
+		}
+
+		int     idx  = key.indexOf('/');
+		String  user = (idx < 0)
+				? key
+				: key.substring(0, idx);
+		Segment seg  = segs[segmentIndex(hash(user), segs.length)];
+
+		synchronized (seg) {
+			++seg.invalidations;
+			if (idx < 0) {
+				Map<String, Entry> data = seg.users.remove(user);
+
+				if (data != null) {
+					seg.size -= data.size();
+				}
+
+				return;
+			}
+
+			Map<String, Entry> data = seg.users.get(user);
+
+			if (data == null) {
+				return;
+			}
+
+			String           path   = key.substring(idx + 1);
+			String           prefix = path + "/";
+			Iterator<String> it     = data.keySet().iterator();
+
+			while (it.hasNext()) {
+				String k = it.next();
+
+				if (k.equals(path) || k.startsWith(prefix)) {
+					it.remove();
+					--seg.size;
+				}
+			}
+			if (data.isEmpty()) {
+				seg.users.remove(user);
+			}
+		}
+	}
+
+	private static int hash(String user) {
+		int h = user.hashCode();
+
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+
+		return h;
+	}
+
+	private static int segmentIndex(int hash, int count) {
+		return (hash >>> 24) & (count - 1);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	@Override
+	public Object get(String key) {
+		Segment[] segs = segments;
+
+		if (segs == null) {
+			return null;
+		}
+
+		int     idx  = key.indexOf('/');
+		String  user = (idx < 0)
+				? key
+				: key.substring(0, idx);
+		String  path = (idx < 0)
+				? ""
+				: key.substring(idx + 1);
+		int     hash = hash(user);
+		Segment seg  = segs[segmentIndex(hash, segs.length)];
+		long    now  = System.currentTimeMillis();
+
+		synchronized (seg) {
+			seg.sketch.increment(hash);
+
+			Map<String, Entry> data  = seg.users.get(user);
+			Entry              entry = (data == null)
+					? null
+					: data.get(path);
+
+			if (entry == null) {
+				++seg.misses;
+
+				return null;
+			}
+			if (entry.expires <= now) {
+				data.remove(path);
+				--seg.size;
+				if (data.isEmpty()) {
+					seg.users.remove(user);
+				}
+				++seg.misses;
+
+				return null;
+			}
+			if (entry.value == MISSING) {
+				++seg.negativeHits;
+			} else {
+				++seg.hits;
+			}
+
+			return entry.value;
+		}
+	}
+
+	@Override
+	public int size() {
+		Segment[] segs = segments;
+		int       size = 0;
+
+		if (segs != null) {
+			for (Segment seg : segs) {
+				synchronized (seg) {
+					size += seg.size;
+				}
+			}
+		}
+
+		return size;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		Segment[] segs = segments;
+
+		if (segs == null) {
+			return;
+		}
+
+		long hits          = 0;
+		long negativeHits  = 0;
+		long misses        = 0;
+		long evictions     = 0;
+		long rejections    = 0;
+		long invalidations = 0;
+		int  size          = 0;
+
+		for (Segment seg : segs) {
+			synchronized (seg) {
+				hits          += seg.hits;
+				negativeHits  += seg.negativeHits;
+				misses        += seg.misses;
+				evictions     += seg.evictions;
+				rejections    += seg.rejections;
+				invalidations += seg.invalidations;
+				size          += seg.size;
+			}
+		}
+
+		long requests = hits + negativeHits + misses;
+
+		list.add(compName, "Repository cache size", size, Level.FINE);
+		list.add(compName, "Repository cache hits", hits, Level.FINE);
+		list.add(compName, "Repository cache negative hits", negativeHits, Level.FINE);
+		list.add(compName, "Repository cache misses", misses, Level.FINE);
+		list.add(compName, "Repository cache hit ratio [%]", (requests == 0)
+				? 0f
+				: 100f * (hits + negativeHits) / requests, Level.FINE);
+		list.add(compName, "Repository cache evictions", evictions, Level.FINE);
+		list.add(compName, "Repository cache rejected", rejections, Level.FINER);
+		list.add(compName, "Repository cache invalidations", invalidations, Level.FINER);
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static class Entry {
+		private final long   expires;
+		private final Object value;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Entry(Object value, long expires) {
+			this.value   = value;
+			this.expires = expires;
+		}
+	}
+
+
+	/**
+	 * Count-min sketch with 4-bit counters estimating how often users are
+	 * requested. All counters are halved after a number of increments
+	 * proportional to the sketch size, so old popularity fades out.
+	 */
+	private static class FrequencySketch {
+		private static final int   DEPTH = 4;
+		private static final int   MAX   = 15;
+		private static final int[] SEEDS = { 0x97cb3127, 0x9e3779b9, 0xc2b2ae35, 0x27d4eb2f };
+
+		//~--- fields -------------------------------------------------------------
+
+		private int          additions = 0;
+		private final int    mask;
+		private final int    sampleSize;
+		private final byte[] table;
+		private final int    width;
+
+		//~--- constructors -------------------------------------------------------
+
+		private FrequencySketch(int maxSize) {
+			width      = Integer.highestOneBit(Math.max(16, maxSize) - 1) << 1;
+			mask       = width - 1;
+			sampleSize = 10 * width;
+			table      = new byte[width * DEPTH];
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		private void increment(int hash) {
+			boolean added = false;
+
+			for (int i = 0; i < DEPTH; i++) {
+				int idx = i * width + index(hash, i);
+
+				if (table[idx] < MAX) {
+					++table[idx];
+					added = true;
+				}
+			}
+			if (added && (++additions >= sampleSize)) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] = (byte) (table[i] >>> 1);
+				}
+				additions >>>= 1;
+			}
+		}
+
+		private int index(int hash, int i) {
+			int h = hash * SEEDS[i];
+
+			h ^= h >>> 16;
+
+			return h & mask;
+		}
+
+		//~--- get methods --------------------------------------------------------
+
+		private int frequency(int hash) {
+			int result = MAX;
+
+			for (int i = 0; i < DEPTH; i++) {
+				result = Math.min(result, table[i * width + index(hash, i)]);
+			}
+
+			return result;
+		}
+	}
+
+
+	private static class Segment {
+		private long                                          evictions     = 0;
+		private long                                          hits          = 0;
+		private long                                          invalidations = 0;
+		private final int                                     maxSize;
+		private long                                          misses        = 0;
+		private long                                          negativeHits  = 0;
+		private long                                          rejections    = 0;
+		private int                                           size          = 0;
+		private final FrequencySketch                         sketch;
+		private final LinkedHashMap<String, Map<String, Entry>> users =
+				new LinkedHashMap<String, Map<String, Entry>>(16, 0.75f, true);
+
+		//~--- constructors -------------------------------------------------------
+
+		private Segment(int maxSize) {
+			this.maxSize = maxSize;
+			this.sketch  = new FrequencySketch(maxSize);
+		}
+	}
+}
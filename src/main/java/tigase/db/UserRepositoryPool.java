@@ -24,14 +24,10 @@ package tigase.db;
 
 //~--- non-JDK imports --------------------------------------------------------
 
-import tigase.util.SimpleCache;
-
 import tigase.xmpp.BareJID;
 
 //~--- JDK imports ------------------------------------------------------------
 
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -51,7 +47,7 @@ public class UserRepositoryPool implements UserRepository {
 
 	//~--- fields ---------------------------------------------------------------
 
-	private Map<String, Object> cache = null;
+	private RepositoryCacheIfc cache = null;
 	private LinkedBlockingQueue<UserRepository> repoPool =
 		new LinkedBlockingQueue<UserRepository>();
 
@@ -72,6 +68,8 @@ public class UserRepositoryPool implements UserRepository {
 	@Override
 	public void addDataList(BareJID user, String subnode, String key, String[] list)
 			throws UserNotFoundException, TigaseDBException {
+		cache.remove(cacheKey(user, subnode, key));
+
 		UserRepository repo = takeRepo();
 
 		if (repo != null) {
@@ -138,25 +136,11 @@ public class UserRepositoryPool implements UserRepository {
 	@Override
 	public String getData(BareJID user, String subnode, String key, String def)
 			throws UserNotFoundException, TigaseDBException {
-		String data = (String) cache.get(user + "/" + subnode + "/" + key);
-
-		if (data != null) {
-			return data;
-		}
-
-		UserRepository repo = takeRepo();
-
-		if (repo != null) {
-			try {
-				return repo.getData(user, subnode, key, def);
-			} finally {
-				addRepo(repo);
-			}
-		} else {
-			log.log(Level.WARNING, "repo is NULL, pool empty? - {0}", repoPool.size());
-		}
+		String data = getData(user, subnode, key);
 
-		return null;
+		return (data != null)
+				? data
+				: def;
 	}
 
 	/**
@@ -175,17 +159,26 @@ public class UserRepositoryPool implements UserRepository {
 	@Override
 	public String getData(BareJID user, String subnode, String key)
 			throws UserNotFoundException, TigaseDBException {
-		String data = (String) cache.get(user + "/" + subnode + "/" + key);
+		String cacheKey = cacheKey(user, subnode, key);
+		Object data     = cache.get(cacheKey);
 
-		if (data != null) {
-			return data;
+		if (data == RepositoryCacheIfc.MISSING) {
+			return null;
+		}
+		if (data instanceof String) {
+			return (String) data;
 		}
 
 		UserRepository repo = takeRepo();
 
 		if (repo != null) {
 			try {
-				return repo.getData(user, subnode, key);
+				String result = repo.getData(user, subnode, key);
+
+				// Missing keys are cached for a shorter time, see RepositoryCacheIfc
+				cache.put(cacheKey, result);
+
+				return result;
 			} finally {
 				addRepo(repo);
 			}
@@ -211,17 +204,26 @@ public class UserRepositoryPool implements UserRepository {
 	@Override
 	public String getData(BareJID user, String key)
 			throws UserNotFoundException, TigaseDBException {
-		String data = (String) cache.get(user + "/" + key);
+		String cacheKey = cacheKey(user, null, key);
+		Object data     = cache.get(cacheKey);
 
-		if (data != null) {
-			return data;
+		if (data == RepositoryCacheIfc.MISSING) {
+			return null;
+		}
+		if (data instanceof String) {
+			return (String) data;
 		}
 
 		UserRepository repo = takeRepo();
 
 		if (repo != null) {
 			try {
-				return repo.getData(user, key);
+				String result = repo.getData(user, key);
+
+				// Missing keys are cached for a shorter time, see RepositoryCacheIfc
+				cache.put(cacheKey, result);
+
+				return result;
 			} finally {
 				addRepo(repo);
 			}
@@ -321,6 +323,32 @@ public class UserRepositoryPool implements UserRepository {
 		return null;
 	}
 
+	/**
+	 * Method returns key under which data is cached, data stored without a
+	 * subnode has the same key regardless of whether <code>null</code> subnode
+	 * was passed explicitly.
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 *
+	 * @return cache key
+	 */
+	private static String cacheKey(BareJID user, String subnode, String key) {
+		return (subnode == null)
+				? user + "/" + key
+				: user + "/" + subnode + "/" + key;
+	}
+
+	/**
+	 * Method returns cache of data read through the pool.
+	 *
+	 * @return repository cache
+	 */
+	public RepositoryCacheIfc getCache() {
+		return cache;
+	}
+
 	/**
 	 * Method description
 	 *
@@ -506,10 +534,8 @@ public class UserRepositoryPool implements UserRepository {
 			throws DBInitException {
 		if (resource_uri.contains("cacheRepo=off")) {
 			log.fine("Disabling cache.");
-			cache = Collections.synchronizedMap(new RepoCache(0, -1000));
-		} else {
-			cache = Collections.synchronizedMap(new RepoCache(10000, 60 * 1000));
 		}
+		cache = RepositoryFactory.getRepositoryCache(resource_uri);
 	}
 
 	/**
@@ -526,7 +552,7 @@ public class UserRepositoryPool implements UserRepository {
 	@Override
 	public void removeData(BareJID user, String subnode, String key)
 			throws UserNotFoundException, TigaseDBException {
-		cache.remove(user + "/" + subnode + "/" + key);
+		cache.remove(cacheKey(user, subnode, key));
 
 		UserRepository repo = takeRepo();
 
@@ -554,7 +580,7 @@ public class UserRepositoryPool implements UserRepository {
 	@Override
 	public void removeData(BareJID user, String key)
 			throws UserNotFoundException, TigaseDBException {
-		cache.remove(user + "/" + key);
+		cache.remove(cacheKey(user, null, key));
 
 		UserRepository repo = takeRepo();
 
@@ -608,6 +634,8 @@ public class UserRepositoryPool implements UserRepository {
 	 */
 	@Override
 	public void removeUser(BareJID user) throws UserNotFoundException, TigaseDBException {
+		cache.remove(user.toString());
+
 		UserRepository repo = takeRepo();
 
 		if (repo != null) {
@@ -650,7 +678,7 @@ public class UserRepositoryPool implements UserRepository {
 			log.log(Level.WARNING, "repo is NULL, pool empty? - {0}", repoPool.size());
 		}
 
-		cache.put(user + "/" + subnode + "/" + key, value);
+		cache.put(cacheKey(user, subnode, key), value);
 	}
 
 	/**
@@ -679,7 +707,7 @@ public class UserRepositoryPool implements UserRepository {
 			log.log(Level.WARNING, "repo is NULL, pool empty? - {0}", repoPool.size());
 		}
 
-		cache.put(user + "/" + key, value);
+		cache.put(cacheKey(user, null, key), value);
 	}
 
 	/**
@@ -697,6 +725,8 @@ public class UserRepositoryPool implements UserRepository {
 	@Override
 	public void setDataList(BareJID user, String subnode, String key, String[] list)
 			throws UserNotFoundException, TigaseDBException {
+		cache.remove(cacheKey(user, subnode, key));
+
 		UserRepository repo = takeRepo();
 
 		if (repo != null) {
@@ -752,53 +782,6 @@ public class UserRepositoryPool implements UserRepository {
 
 		return false;
 	}
-
-	//~--- inner classes --------------------------------------------------------
-
-	private class RepoCache extends SimpleCache<String, Object> {
-
-		/**
-		 * Constructs ...
-		 *
-		 *
-		 * @param maxsize
-		 * @param cache_time
-		 */
-		public RepoCache(int maxsize, long cache_time) {
-			super(maxsize, cache_time);
-		}
-
-		//~--- methods ------------------------------------------------------------
-
-		/**
-		 * Method description
-		 *
-		 *
-		 * @param key
-		 *
-		 * 
-		 */
-		@Override
-		public Object remove(Object key) {
-			if (cache_off) {
-				return null;
-			}
-
-			Object val = super.remove(key);
-			String strk = key.toString();
-			Iterator<String> ks = keySet().iterator();
-
-			while (ks.hasNext()) {
-				String k = ks.next().toString();
-
-				if (k.startsWith(strk)) {
-					ks.remove();
-				}    // end of if (k.startsWith(strk))
-			}      // end of while (ks.hasNext())
-
-			return val;
-		}
-	}
 }
 
 
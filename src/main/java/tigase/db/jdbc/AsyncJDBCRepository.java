@@ -0,0 +1,1181 @@
+/*
+ * AsyncJDBCRepository.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.db.jdbc;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.db.AuthorizationException;
+import tigase.db.AuthRepository;
+import tigase.db.DataRepository;
+import tigase.db.DBInitException;
+import tigase.db.LeasedDataRepositoryPool;
+import tigase.db.RepositoryFactory;
+import tigase.db.TigaseDBException;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+import tigase.db.UserRepository;
+
+import tigase.xmpp.BareJID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JDBC user and authentication repository executing queries asynchronously
+ * on a dedicated executor. Each executor thread leases a database connection
+ * from a bounded pool for the time of a single query, so any free connection
+ * serves any user and a slow query blocks only the connection it runs on.
+ *
+ * Queries are executed by <code>JDBCRepository</code>, so the database schema
+ * and SQL statements are the same. Blocking methods of
+ * <code>UserRepository</code> and <code>AuthRepository</code> wait for the
+ * result at most <code>async-timeout</code> milliseconds, asynchronous
+ * methods return a <code>Future</code> and notify an optional
+ * <code>ResultHandler</code> when the query completes.
+ *
+ * Number of queued and running queries is limited to
+ * <code>async-queue-size</code> for each connection. When the limit is
+ * reached blocking calls wait up to the timeout for a free slot and
+ * asynchronous calls fail immediately, so callers slow down instead of
+ * piling up work the database can not handle. Queries which waited in the
+ * queue longer than the timeout are not executed at all. A query which timed
+ * out while running keeps its slot until the statement finishes, statements
+ * are executed with the query timeout set to <code>async-timeout</code>
+ * unless <code>sql-query-timeout</code> is configured.
+ *
+ * All instances for the same database share connections and executor.
+ * Number of connections is set by <code>data-repo-pool-size</code>.
+ *
+ * @author andrzej
+ */
+public class AsyncJDBCRepository
+				implements AuthRepository, UserRepository {
+	/** Maximum number of pending queries for each connection */
+	public static final String QUEUE_SIZE_PROP_KEY = "async-queue-size";
+
+	/** Default maximum number of pending queries for each connection */
+	public static final int QUEUE_SIZE_PROP_VAL = 100;
+
+	/** Time in milliseconds after which a query fails */
+	public static final String TIMEOUT_PROP_KEY = "async-timeout";
+
+	/** Default time in milliseconds after which a query fails */
+	public static final long TIMEOUT_PROP_VAL = TimeUnit.SECONDS.toMillis(DataRepositoryImpl
+			.QUERY_TIMEOUT);
+	private static final Logger log = Logger.getLogger(AsyncJDBCRepository.class
+			.getName());
+	private static final Map<String, QueryExecutor> executors = new ConcurrentHashMap<String,
+			QueryExecutor>();
+
+	//~--- fields ---------------------------------------------------------------
+
+	private QueryExecutor executor = null;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 * @param list
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void addDataList(final BareJID user, final String subnode, final String key,
+			final String[] list)
+					throws UserNotFoundException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.addDataList(user, subnode, key, list);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserExistsException
+	 */
+	@Override
+	public void addUser(final BareJID user) throws UserExistsException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.addUser(user);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param password
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserExistsException
+	 */
+	@Override
+	public void addUser(final BareJID user, final String password)
+					throws UserExistsException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.addUser(user, password);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param digest
+	 * @param id
+	 * @param alg
+	 *
+	 * @return a value of <code>boolean</code>
+	 *
+	 * @throws AuthorizationException
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	@Deprecated
+	public boolean digestAuth(final BareJID user, final String digest, final String id,
+			final String alg)
+					throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return executor.execute(new Query<Boolean>() {
+			@Override
+			public Boolean execute(JDBCRepository repo)
+							throws TigaseDBException, AuthorizationException {
+				return repo.digestAuth(user, digest, id, alg);
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param resource_uri
+	 * @param params
+	 *
+	 * @throws DBInitException
+	 */
+	@Override
+	public void initRepository(String resource_uri, Map<String, String> params)
+					throws DBInitException {
+		synchronized (executors) {
+			executor = executors.get(resource_uri);
+			if (executor == null) {
+				executor = new QueryExecutor(resource_uri, params);
+				executors.put(resource_uri, executor);
+			}
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void logout(final BareJID user) throws UserNotFoundException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.logout(user);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param authProps
+	 *
+	 * @return a value of <code>boolean</code>
+	 *
+	 * @throws AuthorizationException
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public boolean otherAuth(final Map<String, Object> authProps)
+					throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return executor.execute(new Query<Boolean>() {
+			@Override
+			public Boolean execute(JDBCRepository repo)
+							throws TigaseDBException, AuthorizationException {
+				return repo.otherAuth(authProps);
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param password
+	 *
+	 * @return a value of <code>boolean</code>
+	 *
+	 * @throws AuthorizationException
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	@Deprecated
+	public boolean plainAuth(final BareJID user, final String password)
+					throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return executor.execute(new Query<Boolean>() {
+			@Override
+			public Boolean execute(JDBCRepository repo)
+							throws TigaseDBException, AuthorizationException {
+				return repo.plainAuth(user, password);
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param authProps
+	 */
+	@Override
+	public void queryAuth(Map<String, Object> authProps) {
+
+		// Only describes supported mechanisms, no database access
+		executor.repo.queryAuth(authProps);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void removeData(final BareJID user, final String subnode, final String key)
+					throws UserNotFoundException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.removeData(user, subnode, key);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param key
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void removeData(BareJID user, String key)
+					throws UserNotFoundException, TigaseDBException {
+		removeData(user, null, key);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void removeSubnode(final BareJID user, final String subnode)
+					throws UserNotFoundException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.removeSubnode(user, subnode);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void removeUser(final BareJID user)
+					throws UserNotFoundException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.removeUser(user);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Method submits query for asynchronous execution.
+	 *
+	 * @param query to execute
+	 * @param handler notified about the query result, may be <code>null</code>
+	 *
+	 * @return future result of the query
+	 */
+	public <T> Future<T> submit(Query<T> query, ResultHandler<T> handler) {
+		return executor.submit(query, handler);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param password
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void updatePassword(final BareJID user, final String password)
+					throws UserNotFoundException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.updatePassword(user, password);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 *
+	 * @return a value of <code>boolean</code>
+	 */
+	@Override
+	public boolean userExists(final BareJID user) {
+		try {
+			return call(new Query<Boolean>() {
+				@Override
+				public Boolean execute(JDBCRepository repo) {
+					return repo.userExists(user);
+				}
+			});
+		} catch (TigaseDBException ex) {
+			log.log(Level.WARNING, "Problem checking if user exists: " + user, ex);
+
+			return false;
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 * @param def
+	 *
+	 * @return a value of <code>String</code>
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public String getData(BareJID user, String subnode, String key, String def)
+					throws UserNotFoundException, TigaseDBException {
+		return call(getDataQuery(user, subnode, key, def));
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 *
+	 * @return a value of <code>String</code>
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public String getData(BareJID user, String subnode, String key)
+					throws UserNotFoundException, TigaseDBException {
+		return getData(user, subnode, key, null);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param key
+	 *
+	 * @return a value of <code>String</code>
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public String getData(BareJID user, String key)
+					throws UserNotFoundException, TigaseDBException {
+		return getData(user, null, key, null);
+	}
+
+	/**
+	 * Method loads data asynchronously.
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 * @param def value returned if there is no data for the key
+	 * @param handler notified about the result, may be <code>null</code>
+	 *
+	 * @return future data
+	 */
+	public Future<String> getDataAsync(BareJID user, String subnode, String key,
+			String def, ResultHandler<String> handler) {
+		return submit(getDataQuery(user, subnode, key, def), handler);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 *
+	 * @return a value of <code>String[]</code>
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public String[] getDataList(BareJID user, String subnode, String key)
+					throws UserNotFoundException, TigaseDBException {
+		return call(getDataListQuery(user, subnode, key));
+	}
+
+	/**
+	 * Method loads data list asynchronously.
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 * @param handler notified about the result, may be <code>null</code>
+	 *
+	 * @return future data list
+	 */
+	public Future<String[]> getDataListAsync(BareJID user, String subnode, String key,
+			ResultHandler<String[]> handler) {
+		return submit(getDataListQuery(user, subnode, key), handler);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 *
+	 * @return a value of <code>String[]</code>
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public String[] getKeys(final BareJID user, final String subnode)
+					throws UserNotFoundException, TigaseDBException {
+		return call(new Query<String[]>() {
+			@Override
+			public String[] execute(JDBCRepository repo) throws TigaseDBException {
+				return repo.getKeys(user, subnode);
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 *
+	 * @return a value of <code>String[]</code>
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public String[] getKeys(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getKeys(user, null);
+	}
+
+	/**
+	 * Method returns number of queries waiting for execution or being executed.
+	 *
+	 * @return number of pending queries
+	 */
+	public int getPending() {
+		return executor.getPending();
+	}
+
+	/**
+	 * Method returns number of queries rejected because too many queries were
+	 * pending.
+	 *
+	 * @return number of rejected queries
+	 */
+	public long getRejected() {
+		return executor.rejected.get();
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return a value of <code>String</code>
+	 */
+	@Override
+	public String getResourceUri() {
+		return executor.repo.getResourceUri();
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 *
+	 * @return a value of <code>String[]</code>
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public String[] getSubnodes(final BareJID user, final String subnode)
+					throws UserNotFoundException, TigaseDBException {
+		return call(new Query<String[]>() {
+			@Override
+			public String[] execute(JDBCRepository repo) throws TigaseDBException {
+				return repo.getSubnodes(user, subnode);
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 *
+	 * @return a value of <code>String[]</code>
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public String[] getSubnodes(BareJID user)
+					throws UserNotFoundException, TigaseDBException {
+		return getSubnodes(user, null);
+	}
+
+	/**
+	 * Method returns number of queries which did not complete in time.
+	 *
+	 * @return number of timed out queries
+	 */
+	public long getTimeouts() {
+		return executor.timeouts.get();
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 *
+	 * @return a value of <code>long</code>
+	 *
+	 * @throws TigaseDBException
+	 */
+	@Override
+	public long getUserUID(final BareJID user) throws TigaseDBException {
+		return call(new Query<Long>() {
+			@Override
+			public Long execute(JDBCRepository repo) throws TigaseDBException {
+				return repo.getUserUID(user);
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return a value of <code>List<BareJID></code>
+	 *
+	 * @throws TigaseDBException
+	 */
+	@Override
+	public List<BareJID> getUsers() throws TigaseDBException {
+		return call(new Query<List<BareJID>>() {
+			@Override
+			public List<BareJID> execute(JDBCRepository repo) throws TigaseDBException {
+				return repo.getUsers();
+			}
+		});
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return a value of <code>long</code>
+	 */
+	@Override
+	public long getUsersCount() {
+		return getUsersCount(null);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param domain
+	 *
+	 * @return a value of <code>long</code>
+	 */
+	@Override
+	public long getUsersCount(final String domain) {
+		try {
+			return call(new Query<Long>() {
+				@Override
+				public Long execute(JDBCRepository repo) {
+					return (domain == null)
+							? repo.getUsersCount()
+							: repo.getUsersCount(domain);
+				}
+			});
+		} catch (TigaseDBException ex) {
+			log.log(Level.WARNING, "Problem counting users", ex);
+
+			return -1;
+		}
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 * @param value
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void setData(BareJID user, String subnode, String key, String value)
+					throws UserNotFoundException, TigaseDBException {
+		call(setDataQuery(user, subnode, key, value));
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param key
+	 * @param value
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void setData(BareJID user, String key, String value)
+					throws UserNotFoundException, TigaseDBException {
+		setData(user, null, key, value);
+	}
+
+	/**
+	 * Method stores data asynchronously.
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 * @param value
+	 * @param handler notified when data is stored, may be <code>null</code>
+	 *
+	 * @return future completed when data is stored
+	 */
+	public Future<Void> setDataAsync(BareJID user, String subnode, String key,
+			String value, ResultHandler<Void> handler) {
+		return submit(setDataQuery(user, subnode, key, value), handler);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param user
+	 * @param subnode
+	 * @param key
+	 * @param list
+	 *
+	 * @throws TigaseDBException
+	 * @throws UserNotFoundException
+	 */
+	@Override
+	public void setDataList(final BareJID user, final String subnode, final String key,
+			final String[] list)
+					throws UserNotFoundException, TigaseDBException {
+		call(new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.setDataList(user, subnode, key, list);
+
+				return null;
+			}
+		});
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	private <T> T call(Query<T> query) throws TigaseDBException {
+		try {
+			return executor.execute(query);
+		} catch (AuthorizationException ex) {
+
+			// User repository queries never fail with authorization problem
+			throw new TigaseDBException("Unexpected authorization error", ex);
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	private Query<String> getDataQuery(final BareJID user, final String subnode,
+			final String key, final String def) {
+		return new Query<String>() {
+			@Override
+			public String execute(JDBCRepository repo) throws TigaseDBException {
+				return repo.getData(user, subnode, key, def);
+			}
+		};
+	}
+
+	private Query<String[]> getDataListQuery(final BareJID user, final String subnode,
+			final String key) {
+		return new Query<String[]>() {
+			@Override
+			public String[] execute(JDBCRepository repo) throws TigaseDBException {
+				return repo.getDataList(user, subnode, key);
+			}
+		};
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	private Query<Void> setDataQuery(final BareJID user, final String subnode,
+			final String key, final String value) {
+		return new Query<Void>() {
+			@Override
+			public Void execute(JDBCRepository repo) throws TigaseDBException {
+				repo.setData(user, subnode, key, value);
+
+				return null;
+			}
+		};
+	}
+
+	//~--- inner interfaces -----------------------------------------------------
+
+	/**
+	 * Database operation executed on a leased connection.
+	 *
+	 * @param <T> type of the result
+	 */
+	public static interface Query<T> {
+		/**
+		 * Method executes the operation. All calls to the repository are done on
+		 * the same connection.
+		 *
+		 * @param repo repository bound to the leased connection
+		 *
+		 * @return result of the operation
+		 *
+		 * @throws TigaseDBException
+		 * @throws AuthorizationException
+		 */
+		T execute(JDBCRepository repo) throws TigaseDBException, AuthorizationException;
+	}
+
+
+	/**
+	 * Handler notified about completion of an asynchronous query. It is called
+	 * by the executor thread, so it should not block.
+	 *
+	 * @param <T> type of the result
+	 */
+	public static interface ResultHandler<T> {
+		/**
+		 * Method called when query failed, timed out or was rejected.
+		 *
+		 * @param ex cause of the failure
+		 */
+		void handleError(Exception ex);
+
+		/**
+		 * Method called with result of successfully executed query.
+		 *
+		 * @param result of the query
+		 */
+		void handleResult(T result);
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	/**
+	 * Connections, executor and limits shared by all repository instances for
+	 * the same database.
+	 */
+	private static class QueryExecutor {
+		private final AtomicLong               rejected = new AtomicLong();
+		private final AtomicLong               timeouts = new AtomicLong();
+		private final ThreadPoolExecutor       executor;
+		private final int                      maxPending;
+		private final Semaphore                permits;
+		private final LeasedDataRepositoryPool pool;
+		private final JDBCRepository           repo;
+		private final long                     timeout;
+
+		//~--- constructors -------------------------------------------------------
+
+		private QueryExecutor(final String resource_uri, Map<String, String> params)
+						throws DBInitException {
+			int size = getParam(params, RepositoryFactory.DATA_REPO_POOL_SIZE_PROP_KEY, Integer
+					.getInteger(RepositoryFactory.DATA_REPO_POOL_SIZE_PROP_KEY, RepositoryFactory
+					.DATA_REPO_POOL_SIZE_PROP_VAL));
+
+			maxPending = size * getParam(params, QUEUE_SIZE_PROP_KEY, QUEUE_SIZE_PROP_VAL);
+			timeout    = getParam(params, TIMEOUT_PROP_KEY, (int) TIMEOUT_PROP_VAL);
+			permits    = new Semaphore(maxPending);
+			pool       = new LeasedDataRepositoryPool();
+			try {
+				pool.initRepository(resource_uri, params);
+
+				String cls = System.getProperty(RepositoryFactory.DATA_REPO_CLASS_PROP_KEY,
+						RepositoryFactory.DATA_REPO_CLASS_PROP_VAL);
+
+				// Statements must not run longer than callers wait for them, otherwise
+				// timed out queries would keep connections busy.
+				Map<String, String> repo_params = new HashMap<String, String>();
+
+				if (params != null) {
+					repo_params.putAll(params);
+				}
+				if (!repo_params.containsKey(DataRepositoryImpl.QUERY_TIMEOUT_PROP_KEY)) {
+					repo_params.put(DataRepositoryImpl.QUERY_TIMEOUT_PROP_KEY, String.valueOf(Math
+							.max(1, TimeUnit.MILLISECONDS.toSeconds(timeout + 999))));
+				}
+				for (int i = 0; i < size; i++) {
+					DataRepository data_repo = (DataRepository) Class.forName(cls).newInstance();
+
+					data_repo.initRepository(resource_uri, repo_params);
+					pool.addRepo(data_repo);
+				}
+			} catch (Exception ex) {
+				throw new DBInitException("Problem initializing connection pool: " +
+						resource_uri, ex);
+			}
+			repo = new JDBCRepository() {
+				@Override
+				protected DataRepository createDataRepository(String connection_str, Map<String,
+						String> params) {
+					return pool;
+				}
+			};
+			repo.initRepository(resource_uri, params);
+
+			final AtomicInteger threads = new AtomicInteger();
+
+			executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "jdbc-async-" + threads.incrementAndGet());
+
+					t.setDaemon(true);
+
+					return t;
+				}
+			});
+			log.log(Level.CONFIG, "Initialized asynchronous repository: {0}, connections: {1}, " +
+					"max pending queries: {2}, timeout: {3}ms", new Object[] { resource_uri,
+					size, maxPending, timeout });
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		private <T> T execute(Query<T> query)
+						throws TigaseDBException, AuthorizationException {
+			long deadline = System.currentTimeMillis() + timeout;
+
+			try {
+				if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+					rejected.incrementAndGet();
+
+					throw new TigaseDBException("Too many pending queries: " + maxPending);
+				}
+			} catch (InterruptedException ex) {
+				throw new TigaseDBException("Interrupted waiting for query slot", ex);
+			}
+
+			QueryTask<T> task = new QueryTask<T>(query, null, deadline, true);
+
+			executor.execute(task);
+			try {
+				return task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit
+						.MILLISECONDS);
+			} catch (TimeoutException ex) {
+				task.cancel(false);
+				timeouts.incrementAndGet();
+
+				throw new TigaseDBException("Query not completed in " + timeout + "ms");
+			} catch (InterruptedException ex) {
+				task.cancel(false);
+
+				throw new TigaseDBException("Interrupted waiting for query result", ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+
+				if (cause instanceof TigaseDBException) {
+					throw(TigaseDBException) cause;
+				}
+				if (cause instanceof AuthorizationException) {
+					throw(AuthorizationException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw(RuntimeException) cause;
+				}
+
+				throw new TigaseDBException("Query execution failed", cause);
+			}
+		}
+
+		private <T> Future<T> submit(Query<T> query, ResultHandler<T> handler) {
+			if (!permits.tryAcquire()) {
+				rejected.incrementAndGet();
+
+				QueryTask<T> task = new QueryTask<T>(query, handler, 0, false);
+
+				task.fail(new TigaseDBException("Too many pending queries: " + maxPending));
+
+				return task;
+			}
+
+			QueryTask<T> task = new QueryTask<T>(query, handler, System.currentTimeMillis() +
+					timeout, true);
+
+			executor.execute(task);
+
+			return task;
+		}
+
+		//~--- get methods --------------------------------------------------------
+
+		private int getPending() {
+			return maxPending - permits.availablePermits();
+		}
+
+		private static int getParam(Map<String, String> params, String key, int def) {
+			String value = (params != null)
+					? params.get(key)
+					: null;
+
+			return (value != null)
+					? Integer.parseInt(value.trim())
+					: def;
+		}
+
+		//~--- inner classes ------------------------------------------------------
+
+		private class QueryTask<T>
+						extends FutureTask<T> {
+			private final boolean          acquired;
+			private final ResultHandler<T> handler;
+
+			//~--- constructors -----------------------------------------------------
+
+			private QueryTask(final Query<T> query, ResultHandler<T> handler,
+					final long deadline, boolean acquired) {
+				super(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						if (System.currentTimeMillis() > deadline) {
+							timeouts.incrementAndGet();
+
+							throw new TigaseDBException("Query expired waiting in queue");
+						}
+						if (!pool.lease(timeout, TimeUnit.MILLISECONDS)) {
+							throw new TigaseDBException("No free database connection");
+						}
+						try {
+							return query.execute(repo);
+						} finally {
+							pool.release();
+						}
+					}
+				});
+				this.handler  = handler;
+				this.acquired = acquired;
+			}
+
+			//~--- methods ----------------------------------------------------------
+
+			/**
+			 * Slot is released when the query is finished, not when the task is
+			 * cancelled after a timeout, so the number of statements running in the
+			 * database is limited as well.
+			 */
+			@Override
+			public void run() {
+				try {
+					super.run();
+				} finally {
+					if (acquired) {
+						permits.release();
+					}
+				}
+			}
+
+			@Override
+			protected void done() {
+				if (handler == null) {
+					return;
+				}
+				try {
+					if (isCancelled()) {
+						handler.handleError(new TigaseDBException("Query cancelled"));
+					} else {
+						try {
+							handler.handleResult(get());
+						} catch (ExecutionException ex) {
+							handler.handleError((ex.getCause() instanceof Exception)
+									? (Exception) ex.getCause()
+									: ex);
+						}
+					}
+				} catch (Exception ex) {
+					log.log(Level.WARNING, "Exception in query result handler", ex);
+				}
+			}
+
+			private void fail(Exception ex) {
+				setException(ex);
+			}
+		}
+	}
+}
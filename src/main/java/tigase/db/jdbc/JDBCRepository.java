@@ -31,14 +31,13 @@ import tigase.db.AuthRepository;
 import tigase.db.AuthRepositoryImpl;
 import tigase.db.DataRepository;
 import tigase.db.DBInitException;
+import tigase.db.RepositoryCacheIfc;
 import tigase.db.RepositoryFactory;
 import tigase.db.TigaseDBException;
 import tigase.db.UserExistsException;
 import tigase.db.UserNotFoundException;
 import tigase.db.UserRepository;
 
-import tigase.util.SimpleCache;
-
 import tigase.xmpp.BareJID;
 
 //~--- JDK imports ------------------------------------------------------------
@@ -51,8 +50,6 @@ import java.sql.Types;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -144,7 +141,7 @@ public class JDBCRepository
 	private AuthRepository auth = null;
 
 	// Cache moved to connection pool
-	private Map<String, Object> cache = null;
+	private RepositoryCacheIfc cache = null;
 	private DataRepository data_repo  = null;
 	private String get_users_query    = null;
 	private boolean autoCreateUser    = false;
@@ -615,6 +612,15 @@ public class JDBCRepository
 		return getSubnodes(user_id, null);
 	}
 
+	/**
+	 * Method returns cache of user and node IDs.
+	 *
+	 * @return repository cache
+	 */
+	public RepositoryCacheIfc getCache() {
+		return cache;
+	}
+
 	/**
 	 * Method description
 	 *
@@ -798,6 +804,24 @@ public class JDBCRepository
 
 	// ~--- methods --------------------------------------------------------------
 
+	/**
+	 * Method creates data repository used to access the database. By default
+	 * the repository shared by all users of the same database is returned.
+	 *
+	 * @param connection_str
+	 *          a <code>String</code> value
+	 * @param params
+	 *
+	 * @return a value of <code>DataRepository</code>
+	 *
+	 * @throws Exception
+	 */
+	protected DataRepository createDataRepository(String connection_str, Map<String,
+			String> params)
+					throws Exception {
+		return RepositoryFactory.getDataRepository(null, connection_str, params);
+	}
+
 	/**
 	 * Describe <code>initRepository</code> method here.
 	 *
@@ -811,17 +835,15 @@ public class JDBCRepository
 	public void initRepository(final String connection_str, Map<String, String> params)
 					throws DBInitException {
 		try {
-			data_repo  = RepositoryFactory.getDataRepository(null, connection_str, params);
+			data_repo  = createDataRepository(connection_str, params);
 			checkDBSchema();
 			if (connection_str.contains("autoCreateUser=true")) {
 				autoCreateUser = true;
 			}    // end of if (db_conn.contains())
 			if (connection_str.contains("cacheRepo=off")) {
 				log.fine("Disabling cache.");
-				cache = Collections.synchronizedMap(new RepoCache(0, -1000));
-			} else {
-				cache = Collections.synchronizedMap(new RepoCache(10000, 60 * 1000));
 			}
+			cache = RepositoryFactory.getRepositoryCache(connection_str);
 			data_repo.initPreparedStatement(GET_USER_DB_UID_QUERY, GET_USER_DB_UID_QUERY);
 			data_repo.initPreparedStatement(GET_USERS_COUNT_QUERY, GET_USERS_COUNT_QUERY);
 			if (connection_str.startsWith("jdbc:postgresql")) {
@@ -1561,56 +1583,6 @@ public class JDBCRepository
 
 		return result;
 	}
-
-	//~--- inner classes --------------------------------------------------------
-
-	// ~--- inner classes --------------------------------------------------------
-	private class RepoCache
-					extends SimpleCache<String, Object> {
-		/**
-		 * Constructs ...
-		 *
-		 *
-		 * @param maxsize
-		 * @param cache_time
-		 */
-		public RepoCache(int maxsize, long cache_time) {
-			super(maxsize, cache_time);
-		}
-
-		//~--- methods ------------------------------------------------------------
-
-		// ~--- methods ------------------------------------------------------------
-
-		/**
-		 * Method description
-		 *
-		 *
-		 * @param key
-		 *
-		 * 
-		 */
-		@Override
-		public Object remove(Object key) {
-			if (cache_off) {
-				return null;
-			}
-
-			Object val          = super.remove(key);
-			String strk         = key.toString();
-			Iterator<String> ks = keySet().iterator();
-
-			while (ks.hasNext()) {
-				String k = ks.next().toString();
-
-				if (k.startsWith(strk)) {
-					ks.remove();
-				}    // end of if (k.startsWith(strk))
-			}      // end of while (ks.hasNext())
-
-			return val;
-		}
-	}
 }    // JDBCRepository
 
 
@@ -0,0 +1,320 @@
+/*
+ * LocalRepository.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.db.local;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.db.AuthRepository;
+import tigase.db.AuthRepositoryImpl;
+import tigase.db.AuthorizationException;
+import tigase.db.DBInitException;
+import tigase.db.TigaseDBException;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+import tigase.db.UserRepository;
+
+import tigase.xmpp.BareJID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class <code>LocalRepository</code> is an implementation of
+ * <code>UserRepository</code> and <code>AuthRepository</code> keeping data
+ * in an embedded <code>LogStore</code>, so no external database is needed.
+ *
+ * Resource URI is a path to the store directory with optional parameters
+ * after <code>?</code>, for example:
+ * <pre>local-db?autoCreateUser=true&amp;segmentSize=16777216&amp;sync=false</pre>
+ * Parameters <code>segmentSize</code>, <code>sync</code>,
+ * <code>compactionRatio</code> and <code>compactionInterval</code> are
+ * described in <code>LogStore</code>.
+ *
+ * @author andrzej
+ */
+public class LocalRepository
+				implements AuthRepository, UserRepository {
+	private static final Logger log = Logger.getLogger(LocalRepository.class.getName());
+
+	//~--- fields ---------------------------------------------------------------
+
+	private AuthRepository auth           = null;
+	private boolean        autoCreateUser = false;
+	private String         resource_uri   = null;
+	private LogStore       store          = null;
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public void addDataList(BareJID user, String subnode, String key, String[] list)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+		store.addDataList(user, subnode, key, list);
+	}
+
+	@Override
+	public void addUser(BareJID user) throws UserExistsException, TigaseDBException {
+		if (!store.addUser(user)) {
+			throw new UserExistsException("User: " + user + " already exists.");
+		}
+	}
+
+	@Override
+	public void addUser(BareJID user, String password)
+			throws UserExistsException, TigaseDBException {
+		auth.addUser(user, password);
+	}
+
+	@Override
+	@Deprecated
+	public boolean digestAuth(BareJID user, String digest, String id, String alg)
+			throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return auth.digestAuth(user, digest, id, alg);
+	}
+
+	@Override
+	public void initRepository(String resource_uri, Map<String, String> params)
+			throws DBInitException {
+		this.resource_uri = resource_uri;
+
+		String              path         = resource_uri;
+		Map<String, String> store_params = new HashMap<String, String>();
+		int                 idx          = resource_uri.indexOf('?');
+
+		if (idx >= 0) {
+			path = resource_uri.substring(0, idx);
+			for (String param : resource_uri.substring(idx + 1).split("&")) {
+				int eq = param.indexOf('=');
+
+				if (eq > 0) {
+					store_params.put(param.substring(0, eq), param.substring(eq + 1));
+				}
+			}
+		}
+		autoCreateUser = Boolean.parseBoolean(store_params.get("autoCreateUser"));
+		try {
+			store = LogStore.getInstance(new File(path), store_params);
+			auth  = new AuthRepositoryImpl(this);
+			log.log(Level.INFO, "Initialized local repository: {0}", resource_uri);
+		} catch (IOException e) {
+			throw new DBInitException("Problem opening local repository: " + resource_uri, e);
+		}
+	}
+
+	@Override
+	public void logout(BareJID user) throws UserNotFoundException, TigaseDBException {
+		auth.logout(user);
+	}
+
+	@Override
+	public boolean otherAuth(Map<String, Object> authProps)
+			throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return auth.otherAuth(authProps);
+	}
+
+	@Override
+	@Deprecated
+	public boolean plainAuth(BareJID user, String password)
+			throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return auth.plainAuth(user, password);
+	}
+
+	@Override
+	public void queryAuth(Map<String, Object> authProps) {
+		auth.queryAuth(authProps);
+	}
+
+	@Override
+	public void removeData(BareJID user, String subnode, String key)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+		store.removeData(user, subnode, key);
+	}
+
+	@Override
+	public void removeData(BareJID user, String key)
+			throws UserNotFoundException, TigaseDBException {
+		removeData(user, null, key);
+	}
+
+	@Override
+	public void removeSubnode(BareJID user, String subnode)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+		store.removeSubnode(user, subnode);
+	}
+
+	@Override
+	public void removeUser(BareJID user) throws UserNotFoundException, TigaseDBException {
+		if (!store.removeUser(user)) {
+			throw new UserNotFoundException("User: " + user +
+					" has not been found in repository.");
+		}
+	}
+
+	@Override
+	public void updatePassword(BareJID user, String password)
+			throws UserNotFoundException, TigaseDBException {
+		auth.updatePassword(user, password);
+	}
+
+	@Override
+	public boolean userExists(BareJID user) {
+		return store.userExists(user);
+	}
+
+	/**
+	 * Creates the user if it does not exist and <code>autoCreateUser</code> is
+	 * enabled, otherwise the store reports missing user.
+	 */
+	private void checkUser(BareJID user) throws TigaseDBException {
+		if (autoCreateUser &&!store.userExists(user)) {
+			store.addUser(user);
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	@Override
+	public String getData(BareJID user, String subnode, String key, String def)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+
+		String result = store.getData(user, subnode, key);
+
+		return (result == null)
+				? def
+				: result;
+	}
+
+	@Override
+	public String getData(BareJID user, String subnode, String key)
+			throws UserNotFoundException, TigaseDBException {
+		return getData(user, subnode, key, null);
+	}
+
+	@Override
+	public String getData(BareJID user, String key)
+			throws UserNotFoundException, TigaseDBException {
+		return getData(user, null, key, null);
+	}
+
+	@Override
+	public String[] getDataList(BareJID user, String subnode, String key)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+
+		return store.getDataList(user, subnode, key);
+	}
+
+	@Override
+	public String[] getKeys(BareJID user, String subnode)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+
+		return store.getKeys(user, subnode);
+	}
+
+	@Override
+	public String[] getKeys(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getKeys(user, null);
+	}
+
+	@Override
+	public String getResourceUri() {
+		return resource_uri;
+	}
+
+	@Override
+	public String[] getSubnodes(BareJID user, String subnode)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+
+		return store.getSubnodes(user, subnode);
+	}
+
+	@Override
+	public String[] getSubnodes(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getSubnodes(user, null);
+	}
+
+	@Override
+	public long getUserUID(BareJID user) throws TigaseDBException {
+		return Math.abs(user.hashCode());
+	}
+
+	@Override
+	public List<BareJID> getUsers() throws TigaseDBException {
+		return store.getUsers();
+	}
+
+	@Override
+	public long getUsersCount() {
+		return store.getUsersCount();
+	}
+
+	@Override
+	public long getUsersCount(String domain) {
+		long res = 0;
+
+		for (BareJID jid : store.getUsers()) {
+			if (jid.getDomain().equals(domain)) {
+				++res;
+			}
+		}
+
+		return res;
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	@Override
+	public void setData(BareJID user, String subnode, String key, String value)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+		store.setData(user, subnode, key, value);
+	}
+
+	@Override
+	public void setData(BareJID user, String key, String value)
+			throws UserNotFoundException, TigaseDBException {
+		setData(user, null, key, value);
+	}
+
+	@Override
+	public void setDataList(BareJID user, String subnode, String key, String[] list)
+			throws UserNotFoundException, TigaseDBException {
+		checkUser(user);
+		store.setDataList(user, subnode, key, list);
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * LogSegment.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.db.local;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One file of the <code>LogStore</code> log. The whole file is mapped to
+ * memory when it is created or opened. Records are appended only to the
+ * newest segment, by the thread holding the store write lock, older segments
+ * are read only until they are removed by compaction.
+ *
+ * Readers get a duplicate of the mapped buffer, so a segment may be deleted
+ * while a reader still uses a location from it: the mapping stays valid until
+ * the buffer is garbage collected.
+ *
+ * @author andrzej
+ */
+class LogSegment {
+	/** Extension of segment files */
+	static final String SUFFIX = ".log";
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final MappedByteBuffer buffer;
+	private final File             file;
+	private volatile long          garbage  = 0;
+	private final long             id;
+	private int                    position = 0;
+	private final ByteBuffer       writer;
+
+	//~--- constructors ---------------------------------------------------------
+
+	private LogSegment(long id, File file, MappedByteBuffer buffer) {
+		this.id     = id;
+		this.file   = file;
+		this.buffer = buffer;
+		this.writer = buffer.duplicate();
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Creates new, zero filled segment file and maps it to memory.
+	 *
+	 * @param dir directory of the store
+	 * @param id sequence number of the segment
+	 * @param size size of the file in bytes
+	 *
+	 * @return a new segment
+	 *
+	 * @throws IOException
+	 */
+	static LogSegment create(File dir, long id, int size) throws IOException {
+		File file = new File(dir, fileName(id));
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(size);
+
+			return new LogSegment(id, file, raf.getChannel().map(FileChannel.MapMode
+					.READ_WRITE, 0, size));
+		}
+	}
+
+	/**
+	 * Maps existing segment file to memory. Write position is set by the
+	 * store after the records of the segment have been verified.
+	 *
+	 * @param file segment file
+	 *
+	 * @return opened segment
+	 *
+	 * @throws IOException
+	 */
+	static LogSegment open(File file) throws IOException {
+		String name = file.getName();
+		long   id   = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			return new LogSegment(id, file, raf.getChannel().map(FileChannel.MapMode
+					.READ_WRITE, 0, raf.length()));
+		}
+	}
+
+	static String fileName(long id) {
+		return String.format("%020d%s", id, SUFFIX);
+	}
+
+	static boolean isSegmentFile(File file) {
+		String name = file.getName();
+
+		return name.endsWith(SUFFIX) && (name.length() == 20 + SUFFIX.length());
+	}
+
+	/**
+	 * Copies the record to the end of the segment. Must be called with the
+	 * store write lock held and only if <code>hasRoom()</code> returned
+	 * <code>true</code>.
+	 *
+	 * @param record bytes of the record, from position to limit
+	 *
+	 * @return offset of the record in the segment
+	 */
+	int append(ByteBuffer record) {
+		int offset = position;
+
+		writer.position(offset);
+		writer.put(record);
+		position = writer.position();
+
+		return offset;
+	}
+
+	void addGarbage(int size) {
+		garbage += size;
+	}
+
+	boolean delete() {
+		return file.delete();
+	}
+
+	void force() {
+		buffer.force();
+	}
+
+	/**
+	 * Checks whether the record fits in the segment, leaving at least 4 zero
+	 * bytes after it which mark the end of the log.
+	 *
+	 * @param size size of the record
+	 *
+	 * @return <code>true</code> if the record may be appended
+	 */
+	boolean hasRoom(int size) {
+		return (long) position + size + 4 <= buffer.capacity();
+	}
+
+	ByteBuffer reader(int offset) {
+		ByteBuffer buf = buffer.duplicate();
+
+		buf.position(offset);
+
+		return buf;
+	}
+
+	/**
+	 * Zeroes bytes of the segment from the given offset to the end, used to
+	 * remove a damaged record found during recovery.
+	 *
+	 * @param offset first byte to clear
+	 */
+	void truncate(int offset) {
+		byte[] zeros = new byte[8192];
+
+		writer.position(offset);
+		while (writer.hasRemaining()) {
+			writer.put(zeros, 0, Math.min(zeros.length, writer.remaining()));
+		}
+		position = offset;
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	int capacity() {
+		return buffer.capacity();
+	}
+
+	long getGarbage() {
+		return garbage;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	int getPosition() {
+		return position;
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	void setPosition(int position) {
+		this.position = position;
+	}
+
+	@Override
+	public String toString() {
+		return file.getName();
+	}
+}
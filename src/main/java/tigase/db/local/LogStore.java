@@ -0,0 +1,1140 @@
+/*
+ * LogStore.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.db.local;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.db.TigaseDBException;
+import tigase.db.UserNotFoundException;
+
+import tigase.sys.ShutdownHook;
+import tigase.sys.TigaseRuntime;
+
+import tigase.xmpp.BareJID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded storage engine of <code>LocalRepository</code>. All changes are
+ * appended to a log made of memory mapped segment files and an in-memory
+ * index keeps, for each user, subnode and key, location of the record with
+ * the current value. Reading a value is an index lookup and decoding of the
+ * record straight from the mapped segment, without any locking.
+ *
+ * Writes are serialized by a single lock. Each record is protected by CRC32,
+ * so on startup the log is replayed to rebuild the index and replay stops at
+ * the first damaged or incomplete record, which is the tail of a write
+ * interrupted by a crash. Records are durable when the process dies, they
+ * are forced to the disk after each write only with <code>sync=true</code>.
+ *
+ * Removals and overwrites leave garbage in the log. When garbage is at least
+ * <code>compactionRatio</code> of the log, background compaction starts a
+ * new segment, copies records which are still current from all older
+ * segments to the end of the log and deletes the old segment files.
+ *
+ * There is one store for a directory, shared by user and auth repositories
+ * using it.
+ *
+ * @author andrzej
+ */
+public class LogStore {
+	/** Parameter with minimal ratio of garbage to log size starting compaction */
+	public static final String COMPACTION_RATIO_KEY = "compactionRatio";
+
+	/** Default minimal ratio of garbage starting compaction */
+	public static final double COMPACTION_RATIO_VAL = 0.5;
+
+	/** Parameter with interval in seconds between compaction checks */
+	public static final String COMPACTION_INTERVAL_KEY = "compactionInterval";
+
+	/** Default interval in seconds between compaction checks */
+	public static final long COMPACTION_INTERVAL_VAL = 60;
+
+	/** Parameter with size of segment files in bytes */
+	public static final String SEGMENT_SIZE_KEY = "segmentSize";
+
+	/** Default size of segment files */
+	public static final int SEGMENT_SIZE_VAL = 64 * 1024 * 1024;
+
+	/** Parameter enabling forcing each record to the disk */
+	public static final String SYNC_KEY = "sync";
+	private static final long   COMPACTION_MIN_GARBAGE = 1024 * 1024;
+	private static final int    HEADER_SIZE            = 8;
+	private static final byte   ADD_USER               = 1;
+	private static final byte   REMOVE_USER            = 2;
+	private static final byte   PUT                    = 3;
+	private static final byte   PUT_LIST               = 4;
+	private static final byte   REMOVE                 = 5;
+	private static final byte   REMOVE_SUBNODE         = 6;
+	private static final Logger log = Logger.getLogger(LogStore.class.getName());
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Map<String, LogStore> stores = new ConcurrentHashMap<String,
+			LogStore>();
+
+	//~--- fields ---------------------------------------------------------------
+
+	private LogSegment              active           = null;
+	private Compactor               compactor        = null;
+	private double                  compactionRatio  = COMPACTION_RATIO_VAL;
+	private final File              dir;
+	private final ReentrantLock     lock             = new ReentrantLock();
+	private int                     segmentSize      = SEGMENT_SIZE_VAL;
+	private final List<LogSegment>  segments         = new ArrayList<LogSegment>();
+	private boolean                 sync             = false;
+	private final ConcurrentHashMap<BareJID, UserEntry> users = new ConcurrentHashMap<BareJID,
+			UserEntry>();
+
+	//~--- constructors ---------------------------------------------------------
+
+	private LogStore(File dir) {
+		this.dir = dir;
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Returns store for the directory, opening it if necessary. Parameters are
+	 * used only when the store is opened.
+	 *
+	 * @param dir directory of the store, created if it does not exist
+	 * @param params store parameters
+	 *
+	 * @return opened store
+	 *
+	 * @throws IOException if the store could not be opened
+	 */
+	public static synchronized LogStore getInstance(File dir, Map<String, String> params)
+			throws IOException {
+		String   path  = dir.getCanonicalPath();
+		LogStore store = stores.get(path);
+
+		if (store == null) {
+			store = new LogStore(new File(path));
+			store.open(params);
+			stores.put(path, store);
+		}
+
+		return store;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Adds new data to the list stored under the key.
+	 *
+	 * @param user
+	 * @param node
+	 * @param key
+	 * @param list
+	 *
+	 * @throws TigaseDBException
+	 */
+	public void addDataList(BareJID user, String node, String key, String[] list)
+			throws TigaseDBException {
+		node = path(node);
+
+		lock.lock();
+		try {
+			String[] old = getDataList(user, node, key);
+
+			if (old != null) {
+				String[] all = Arrays.copyOf(old, old.length + list.length);
+
+				System.arraycopy(list, 0, all, old.length, list.length);
+				list = all;
+			}
+			write(PUT_LIST, user, node, key, list);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds user to the store.
+	 *
+	 * @param user
+	 *
+	 * @return <code>false</code> if the user already exists
+	 *
+	 * @throws TigaseDBException
+	 */
+	public boolean addUser(BareJID user) throws TigaseDBException {
+		lock.lock();
+		try {
+			UserEntry entry = users.get(user);
+
+			if ((entry != null) && (entry.location != null)) {
+				return false;
+			}
+			write(ADD_USER, user, null, null, null);
+
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the store. Mapped segments are released when they are garbage
+	 * collected.
+	 */
+	public void close() {
+		synchronized (LogStore.class) {
+			stores.remove(dir.getPath());
+		}
+		lock.lock();
+		try {
+			if (compactor != null) {
+				compactor.stop();
+			}
+			for (LogSegment seg : segments) {
+				seg.force();
+			}
+			segments.clear();
+			users.clear();
+			active = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Starts a new segment and copies records which are still current from all
+	 * older segments to the end of the log, then deletes the older segments.
+	 * Removal records are not copied: all older records which they could hide
+	 * are deleted with them.
+	 *
+	 * @throws TigaseDBException
+	 */
+	public void compact() throws TigaseDBException {
+		List<LogSegment> sealed;
+		long             start = System.currentTimeMillis();
+
+		lock.lock();
+		try {
+			roll(0);
+			sealed = new ArrayList<LogSegment>(segments.subList(0, segments.size() - 1));
+		} catch (IOException e) {
+			throw new TigaseDBException("Problem starting new log segment in " + dir, e);
+		} finally {
+			lock.unlock();
+		}
+
+		int copied = 0;
+
+		for (LogSegment seg : sealed) {
+			int limit = seg.getPosition();
+			int pos   = 0;
+
+			while (pos < limit) {
+				ByteBuffer buf  = seg.reader(pos);
+				int        size = buf.getInt();
+
+				buf.getInt();
+
+				byte type = buf.get();
+
+				if ((type == ADD_USER) || (type == PUT) || (type == PUT_LIST)) {
+					BareJID user = BareJID.bareJIDInstanceNS(readString(buf));
+					String  node = null;
+					String  key  = null;
+
+					if (type != ADD_USER) {
+						node = readString(buf);
+						key  = readString(buf);
+					}
+					lock.lock();
+					try {
+						Location loc = getLocation(type, user, node, key);
+
+						if ((loc != null) && (loc.segment == seg) && (loc.offset == pos)) {
+							ByteBuffer record = seg.reader(pos);
+
+							record.limit(pos + loc.size);
+							apply(type, user, node, key, append(record, loc.value - loc.offset, type));
+							++copied;
+						}
+					} catch (IOException e) {
+						throw new TigaseDBException("Problem compacting log segment " + seg, e);
+					} finally {
+						lock.unlock();
+					}
+				}
+				pos += HEADER_SIZE + size;
+			}
+		}
+		lock.lock();
+		try {
+			for (LogSegment seg : segments) {
+				seg.force();
+			}
+			segments.removeAll(sealed);
+		} finally {
+			lock.unlock();
+		}
+		for (LogSegment seg : sealed) {
+			if (!seg.delete()) {
+				log.log(Level.WARNING, "Can not delete compacted log segment {0}", seg);
+			}
+		}
+		log.log(Level.INFO, "Compacted {0} log segments in {1}, {2} records copied in {3}ms",
+				new Object[] { sealed.size(),
+				dir, copied, System.currentTimeMillis() - start });
+	}
+
+	/**
+	 * Removes the key with its value from the subnode.
+	 *
+	 * @param user
+	 * @param node
+	 * @param key
+	 *
+	 * @throws TigaseDBException
+	 */
+	public void removeData(BareJID user, String node, String key) throws TigaseDBException {
+		node = path(node);
+
+		lock.lock();
+		try {
+			getUser(user);
+			write(REMOVE, user, node, key, null);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all data stored in the subnode and its subnodes.
+	 *
+	 * @param user
+	 * @param node
+	 *
+	 * @throws TigaseDBException
+	 */
+	public void removeSubnode(BareJID user, String node) throws TigaseDBException {
+		node = path(node);
+
+		lock.lock();
+		try {
+			getUser(user);
+			write(REMOVE_SUBNODE, user, node, null, null);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes user and all user data.
+	 *
+	 * @param user
+	 *
+	 * @return <code>false</code> if the user does not exist
+	 *
+	 * @throws TigaseDBException
+	 */
+	public boolean removeUser(BareJID user) throws TigaseDBException {
+		lock.lock();
+		try {
+			if (!users.containsKey(user)) {
+				return false;
+			}
+			write(REMOVE_USER, user, null, null, null);
+
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks whether the user exists.
+	 *
+	 * @param user
+	 *
+	 * @return <code>true</code> if the user exists
+	 */
+	public boolean userExists(BareJID user) {
+		return users.containsKey(user);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Returns value stored under the key or the first value of a list.
+	 *
+	 * @param user
+	 * @param node
+	 * @param key
+	 *
+	 * @return stored value or <code>null</code>
+	 *
+	 * @throws UserNotFoundException
+	 */
+	public String getData(BareJID user, String node, String key)
+			throws UserNotFoundException {
+		node = path(node);
+
+		Location loc = getLocation(getUser(user), node, key);
+
+		if (loc == null) {
+			return null;
+		}
+
+		ByteBuffer buf = loc.segment.reader(loc.value);
+
+		if (loc.type == PUT_LIST) {
+			return (buf.getInt() > 0)
+					? readString(buf)
+					: null;
+		}
+
+		return readString(buf);
+	}
+
+	/**
+	 * Returns list of values stored under the key.
+	 *
+	 * @param user
+	 * @param node
+	 * @param key
+	 *
+	 * @return stored values or <code>null</code>
+	 *
+	 * @throws UserNotFoundException
+	 */
+	public String[] getDataList(BareJID user, String node, String key)
+			throws UserNotFoundException {
+		node = path(node);
+
+		Location loc = getLocation(getUser(user), node, key);
+
+		if (loc == null) {
+			return null;
+		}
+
+		ByteBuffer buf = loc.segment.reader(loc.value);
+
+		if (loc.type == PUT) {
+			return new String[] { readString(buf) };
+		}
+
+		String[] list = new String[buf.getInt()];
+
+		for (int i = 0; i < list.length; i++) {
+			list[i] = readString(buf);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Returns keys stored in the subnode.
+	 *
+	 * @param user
+	 * @param node
+	 *
+	 * @return keys or <code>null</code> if there are no keys
+	 *
+	 * @throws UserNotFoundException
+	 */
+	public String[] getKeys(BareJID user, String node) throws UserNotFoundException {
+		node = path(node);
+
+		Map<String, Location> keys = getUser(user).nodes.get(node);
+
+		if ((keys == null) || keys.isEmpty()) {
+			return null;
+		}
+
+		return keys.keySet().toArray(new String[keys.size()]);
+	}
+
+	/**
+	 * Returns names of direct subnodes of the subnode.
+	 *
+	 * @param user
+	 * @param node
+	 *
+	 * @return subnode names or <code>null</code> if there are no subnodes
+	 *
+	 * @throws UserNotFoundException
+	 */
+	public String[] getSubnodes(BareJID user, String node) throws UserNotFoundException {
+		node = path(node);
+
+		String      prefix = node.isEmpty()
+				? ""
+				: node + "/";
+		Set<String> result = new LinkedHashSet<String>();
+
+		for (String path : getUser(user).nodes.keySet()) {
+			if ((path.length() > prefix.length()) && path.startsWith(prefix)) {
+				int idx = path.indexOf('/', prefix.length());
+
+				result.add((idx < 0)
+						? path.substring(prefix.length())
+						: path.substring(prefix.length(), idx));
+			}
+		}
+
+		return result.isEmpty()
+				? null
+				: result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Returns all users of the store.
+	 *
+	 * @return list of users
+	 */
+	public List<BareJID> getUsers() {
+		return new ArrayList<BareJID>(users.keySet());
+	}
+
+	/**
+	 * Returns number of users of the store.
+	 *
+	 * @return number of users
+	 */
+	public long getUsersCount() {
+		return users.size();
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Stores value under the key, replacing previous value.
+	 *
+	 * @param user
+	 * @param node
+	 * @param key
+	 * @param value
+	 *
+	 * @throws TigaseDBException
+	 */
+	public void setData(BareJID user, String node, String key, String value)
+			throws TigaseDBException {
+		node = path(node);
+
+		lock.lock();
+		try {
+			getUser(user);
+			write(PUT, user, node, key, value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stores list of values under the key, replacing previous value.
+	 *
+	 * @param user
+	 * @param node
+	 * @param key
+	 * @param list
+	 *
+	 * @throws TigaseDBException
+	 */
+	public void setDataList(BareJID user, String node, String key, String[] list)
+			throws TigaseDBException {
+		node = path(node);
+
+		lock.lock();
+		try {
+			getUser(user);
+			write(PUT_LIST, user, node, key, list);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Checks whether there is enough garbage in the log to run compaction.
+	 *
+	 * @return <code>true</code> if compaction should be run
+	 */
+	boolean needsCompaction() {
+		long used    = 0;
+		long garbage = 0;
+
+		lock.lock();
+		try {
+			for (LogSegment seg : segments) {
+				used    += seg.getPosition();
+				garbage += seg.getGarbage();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		return (garbage >= COMPACTION_MIN_GARBAGE) && (garbage >= used * compactionRatio);
+	}
+
+	private Location append(ByteBuffer record, int valueOffset, byte type)
+			throws IOException {
+		int size = record.remaining();
+
+		if ((active == null) ||!active.hasRoom(size)) {
+			roll(size);
+		}
+
+		int offset = active.append(record);
+
+		if (sync) {
+			active.force();
+		}
+
+		return new Location(active, offset, size, offset + valueOffset, type);
+	}
+
+	/**
+	 * Applies change recorded at the location to the index. Garbage of
+	 * segments holding records which are no longer current is updated.
+	 */
+	private void apply(byte type, BareJID user, String node, String key, Location loc) {
+		UserEntry entry = users.get(user);
+
+		switch (type) {
+		case ADD_USER :
+			if (entry == null) {
+				entry = new UserEntry();
+				users.put(user, entry);
+			}
+			if (entry.location != null) {
+				entry.location.garbage();
+			}
+			entry.location = loc;
+
+			return;
+
+		case REMOVE_USER :
+			if (entry != null) {
+				users.remove(user);
+				if (entry.location != null) {
+					entry.location.garbage();
+				}
+				for (Map<String, Location> keys : entry.nodes.values()) {
+					for (Location old : keys.values()) {
+						old.garbage();
+					}
+				}
+			}
+			loc.garbage();
+
+			return;
+
+		case PUT :
+		case PUT_LIST :
+			if (entry == null) {
+
+				// Should not happen, but data are not lost if the user record is
+				entry = new UserEntry();
+				users.put(user, entry);
+			}
+
+			ConcurrentHashMap<String, Location> keys = entry.nodes.get(node);
+
+			if (keys == null) {
+				keys = new ConcurrentHashMap<String, Location>(4, 0.75f, 1);
+				entry.nodes.put(node, keys);
+			}
+
+			Location old = keys.put(key, loc);
+
+			if (old != null) {
+				old.garbage();
+			}
+
+			return;
+
+		case REMOVE :
+			if (entry != null) {
+				Map<String, Location> node_keys = entry.nodes.get(node);
+
+				if (node_keys != null) {
+					Location removed = node_keys.remove(key);
+
+					if (removed != null) {
+						removed.garbage();
+					}
+					if (node_keys.isEmpty()) {
+						entry.nodes.remove(node);
+					}
+				}
+			}
+			loc.garbage();
+
+			return;
+
+		case REMOVE_SUBNODE :
+			if (entry != null) {
+				String prefix = node + "/";
+
+				for (Iterator<Map.Entry<String, ConcurrentHashMap<String, Location>>> it = entry
+						.nodes.entrySet().iterator(); it.hasNext(); ) {
+					Map.Entry<String, ConcurrentHashMap<String, Location>> e = it.next();
+
+					if (node.isEmpty() || e.getKey().equals(node) || e.getKey().startsWith(
+							prefix)) {
+						it.remove();
+						for (Location removed : e.getValue().values()) {
+							removed.garbage();
+						}
+					}
+				}
+			}
+			loc.garbage();
+
+			return;
+
+		default :
+			log.log(Level.WARNING, "Unknown record type {0} at {1}", new Object[] { type, loc });
+		}
+	}
+
+	private void open(Map<String, String> params) throws IOException {
+		if (params != null) {
+			if (params.get(SEGMENT_SIZE_KEY) != null) {
+				segmentSize = Integer.parseInt(params.get(SEGMENT_SIZE_KEY));
+			}
+			if (params.get(COMPACTION_RATIO_KEY) != null) {
+				compactionRatio = Double.parseDouble(params.get(COMPACTION_RATIO_KEY));
+			}
+			sync = Boolean.parseBoolean(params.get(SYNC_KEY));
+		}
+		if (!dir.isDirectory() &&!dir.mkdirs()) {
+			throw new IOException("Can not create directory " + dir);
+		}
+
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return LogSegment.isSegmentFile(file);
+			}
+		});
+
+		Arrays.sort(files);
+
+		long start   = System.currentTimeMillis();
+		int  records = 0;
+
+		for (File file : files) {
+			LogSegment seg = LogSegment.open(file);
+
+			segments.add(seg);
+			records += recover(seg);
+		}
+		if (!segments.isEmpty()) {
+			active = segments.get(segments.size() - 1);
+		}
+		log.log(Level.CONFIG, "Opened {0}: {1} segments, {2} records, {3} users in {4}ms",
+				new Object[] { dir,
+				segments.size(), records, users.size(), System.currentTimeMillis() - start });
+
+		long interval = COMPACTION_INTERVAL_VAL;
+
+		if ((params != null) && (params.get(COMPACTION_INTERVAL_KEY) != null)) {
+			interval = Long.parseLong(params.get(COMPACTION_INTERVAL_KEY));
+		}
+		if (interval > 0) {
+			compactor = new Compactor(interval * 1000);
+
+			compactor.thread = new Thread(compactor, compactor.getName());
+			compactor.thread.setDaemon(true);
+			compactor.thread.start();
+			TigaseRuntime.getTigaseRuntime().addShutdownHook(compactor);
+		}
+	}
+
+	/**
+	 * Replays records of the segment into the index. Replay stops at the end
+	 * of the log, marked by zero length, or at a record which is incomplete or
+	 * has wrong checksum, which is then removed from the segment.
+	 *
+	 * @return number of replayed records
+	 */
+	private int recover(LogSegment seg) {
+		CRC32 crc     = new CRC32();
+		int   pos     = 0;
+		int   records = 0;
+
+		while (pos + HEADER_SIZE <= seg.capacity()) {
+			ByteBuffer buf  = seg.reader(pos);
+			int        size = buf.getInt();
+
+			if (size == 0) {
+				break;
+			}
+			if ((size < 0) || (size > seg.capacity() - pos - HEADER_SIZE)) {
+				log.log(Level.WARNING, "Damaged record at {0} in {1}, {2} bytes dropped",
+						new Object[] { pos,
+						seg, seg.capacity() - pos });
+				seg.truncate(pos);
+
+				break;
+			}
+
+			int    checksum = buf.getInt();
+			byte[] payload  = new byte[size];
+
+			buf.get(payload);
+			crc.reset();
+			crc.update(payload, 0, size);
+			if ((int) crc.getValue() != checksum) {
+				log.log(Level.WARNING, "Damaged record at {0} in {1}, {2} bytes dropped",
+						new Object[] { pos,
+						seg, seg.capacity() - pos });
+				seg.truncate(pos);
+
+				break;
+			}
+
+			ByteBuffer rec  = ByteBuffer.wrap(payload);
+			byte       type = rec.get();
+			BareJID    user = BareJID.bareJIDInstanceNS(readString(rec));
+			String     node = null;
+			String     key  = null;
+
+			if (type >= PUT) {
+				node = readString(rec);
+			}
+			if ((type == PUT) || (type == PUT_LIST) || (type == REMOVE)) {
+				key = readString(rec);
+			}
+			apply(type, user, node, key, new Location(seg, pos, HEADER_SIZE + size, pos +
+					HEADER_SIZE + rec.position(), type));
+			pos += HEADER_SIZE + size;
+			++records;
+		}
+		seg.setPosition(pos);
+
+		return records;
+	}
+
+	/**
+	 * Starts a new segment, big enough for a record of the given size.
+	 */
+	private void roll(int size) throws IOException {
+		long id = (active == null)
+				? 1
+				: active.getId() + 1;
+
+		if (active != null) {
+			active.force();
+		}
+		active = LogSegment.create(dir, id, Math.max(segmentSize, size + 4));
+		segments.add(active);
+	}
+
+	/**
+	 * Encodes change as a new record, appends it to the log and applies it to
+	 * the index. Must be called with the write lock held.
+	 */
+	private void write(byte type, BareJID user, String node, String key, Object value)
+			throws TigaseDBException {
+		byte[]   user_b  = bytes(user.toString());
+		byte[]   node_b  = bytes(node);
+		byte[]   key_b   = bytes(key);
+		byte[][] value_b = null;
+		int      size    = 1 + 4 + user_b.length;
+
+		if (node != null) {
+			size += 4 + node_b.length;
+		}
+		if (key != null) {
+			size += 4 + key_b.length;
+		}
+		if (type == PUT) {
+			value_b = new byte[][] { bytes((String) value) };
+		}
+		if (type == PUT_LIST) {
+			String[] list = (String[]) value;
+
+			value_b = new byte[list.length][];
+			for (int i = 0; i < list.length; i++) {
+				value_b[i] = bytes(list[i]);
+			}
+			size += 4;
+		}
+		if (value_b != null) {
+			for (byte[] b : value_b) {
+				size += 4 + ((b == null)
+						? 0
+						: b.length);
+			}
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + size);
+
+		buf.putInt(size);
+		buf.putInt(0);
+		buf.put(type);
+		putBytes(buf, user_b);
+		if (node != null) {
+			putBytes(buf, node_b);
+		}
+		if (key != null) {
+			putBytes(buf, key_b);
+		}
+
+		int value_offset = buf.position();
+
+		if (type == PUT_LIST) {
+			buf.putInt(value_b.length);
+		}
+		if (value_b != null) {
+			for (byte[] b : value_b) {
+				putBytes(buf, b);
+			}
+		}
+
+		CRC32 crc = new CRC32();
+
+		crc.update(buf.array(), HEADER_SIZE, size);
+		buf.putInt(4, (int) crc.getValue());
+		buf.flip();
+		try {
+			apply(type, user, node, key, append(buf, value_offset, type));
+		} catch (IOException e) {
+			throw new TigaseDBException("Problem writing to log in " + dir, e);
+		}
+	}
+
+	/**
+	 * Normalizes subnode path: <code>null</code> is the user root node, leading
+	 * and trailing slashes are removed.
+	 */
+	private static String path(String subnode) {
+		if (subnode == null) {
+			return "";
+		}
+
+		int start = 0;
+		int end   = subnode.length();
+
+		while ((start < end) && (subnode.charAt(start) == '/')) {
+			++start;
+		}
+		while ((end > start) && (subnode.charAt(end - 1) == '/')) {
+			--end;
+		}
+
+		return subnode.substring(start, end);
+	}
+
+	private static byte[] bytes(String str) {
+		return (str == null)
+				? null
+				: str.getBytes(UTF8);
+	}
+
+	private static void putBytes(ByteBuffer buf, byte[] b) {
+		if (b == null) {
+			buf.putInt(-1);
+		} else {
+			buf.putInt(b.length);
+			buf.put(b);
+		}
+	}
+
+	private static String readString(ByteBuffer buf) {
+		int len = buf.getInt();
+
+		if (len < 0) {
+			return null;
+		}
+
+		byte[] b = new byte[len];
+
+		buf.get(b);
+
+		return new String(b, UTF8);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	private Location getLocation(byte type, BareJID user, String node, String key) {
+		UserEntry entry = users.get(user);
+
+		if (entry == null) {
+			return null;
+		}
+		if (type == ADD_USER) {
+			return entry.location;
+		}
+
+		return getLocation(entry, node, key);
+	}
+
+	private Location getLocation(UserEntry entry, String node, String key) {
+		Map<String, Location> keys = entry.nodes.get(node);
+
+		return (keys == null)
+				? null
+				: keys.get(key);
+	}
+
+	private UserEntry getUser(BareJID user) throws UserNotFoundException {
+		UserEntry entry = users.get(user);
+
+		if (entry == null) {
+			throw new UserNotFoundException("User: " + user +
+					" has not been found in repository.");
+		}
+
+		return entry;
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	/**
+	 * Position of a record in the log. <code>value</code> is the offset of the
+	 * stored value in the segment.
+	 */
+	private static final class Location {
+		private final int        offset;
+		private final LogSegment segment;
+		private final int        size;
+		private final byte       type;
+		private final int        value;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Location(LogSegment segment, int offset, int size, int value, byte type) {
+			this.segment = segment;
+			this.offset  = offset;
+			this.size    = size;
+			this.value   = value;
+			this.type    = type;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		private void garbage() {
+			segment.addGarbage(size);
+		}
+
+		@Override
+		public String toString() {
+			return segment + ":" + offset;
+		}
+	}
+
+
+	/**
+	 * Index entry of a user: location of the record adding the user and
+	 * locations of current values by subnode and key.
+	 */
+	private static final class UserEntry {
+		private volatile Location location = null;
+		private final ConcurrentHashMap<String, ConcurrentHashMap<String, Location>> nodes =
+				new ConcurrentHashMap<String, ConcurrentHashMap<String, Location>>(4, 0.75f, 1);
+	}
+
+
+	/**
+	 * Thread checking periodically whether compaction is needed. Segments are
+	 * forced to the disk when the server is stopped.
+	 */
+	private class Compactor
+					implements Runnable, ShutdownHook {
+		private final long       interval;
+		private volatile boolean stopped = false;
+		private Thread           thread  = null;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Compactor(long interval) {
+			this.interval = interval;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public void run() {
+			while (!stopped) {
+				try {
+					Thread.sleep(interval);
+					if (!stopped && needsCompaction()) {
+						compact();
+					}
+				} catch (InterruptedException ex) {
+				} catch (Exception ex) {
+					log.log(Level.WARNING, "Problem compacting " + dir, ex);
+				}
+			}
+		}
+
+		@Override
+		public String shutdown() {
+			lock.lock();
+			try {
+				for (LogSegment seg : segments) {
+					seg.force();
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			return "Local repository " + dir + " saved.\n";
+		}
+
+		private void stop() {
+			stopped = true;
+			if (thread != null) {
+				thread.interrupt();
+			}
+		}
+
+		//~--- get methods --------------------------------------------------------
+
+		@Override
+		public String getName() {
+			return "local-repository-compactor";
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * BufferPool.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.io;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.stats.StatisticsList;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of byte buffers shared by connections I/O layers. Buffers are grouped
+ * in size classes with 1KB granularity, so buffers of the same purpose (TLS
+ * packet buffers, socket input buffers) end up in the same class. Each class
+ * keeps at most configured number of free buffers, buffers above the limit
+ * and buffers bigger than the maximum pooled size are left for the garbage
+ * collector.
+ *
+ * A buffer obtained by <code>acquire()</code> is leased by its user until it
+ * is passed to <code>release()</code>. It must not be used in any way after
+ * it has been released. A buffer which is never released is not a leak, it is
+ * simply garbage collected.
+ *
+ * The pool is disabled by default, in which case <code>acquire()</code>
+ * allocates a heap buffer of requested size and <code>release()</code> does
+ * nothing. It is configured with system properties:
+ * <ul>
+ * <li><code>buffer-pool-size</code> - maximum number of free buffers kept in
+ * each size class, <code>0</code> disables the pool,</li>
+ * <li><code>buffer-pool-direct</code> - pool direct buffers instead of heap
+ * buffers,</li>
+ * <li><code>buffer-pool-max-buffer-size</code> - maximum size of pooled
+ * buffer in bytes, 64KB by default.</li>
+ * </ul>
+ *
+ * @author andrzej
+ */
+public class BufferPool {
+	/** Field description */
+	public static final String DIRECT_PROP_KEY = "buffer-pool-direct";
+
+	/** Shared empty buffer used to drive TLS handshake */
+	public static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0)
+			.asReadOnlyBuffer();
+
+	/** Field description */
+	public static final String MAX_BUFFER_SIZE_PROP_KEY = "buffer-pool-max-buffer-size";
+
+	/** Field description */
+	public static final int MAX_BUFFER_SIZE_PROP_VAL = 64 * 1024;
+
+	/** Field description */
+	public static final String POOL_SIZE_PROP_KEY = "buffer-pool-size";
+
+	/** Field description */
+	public static final int POOL_SIZE_PROP_VAL = 0;
+	private static final int    GRANULARITY = 1024;
+	private static final Logger log = Logger.getLogger(BufferPool.class.getName());
+	private static final BufferPool instance = new BufferPool(Integer.getInteger(
+			POOL_SIZE_PROP_KEY, POOL_SIZE_PROP_VAL), Boolean.getBoolean(DIRECT_PROP_KEY),
+			Integer.getInteger(MAX_BUFFER_SIZE_PROP_KEY, MAX_BUFFER_SIZE_PROP_VAL));
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final SizeClass[] classes;
+	private final boolean     direct;
+	private final AtomicLong  discarded = new AtomicLong();
+	private final int         maxBufferSize;
+	private final int         poolSize;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Creates pool of buffers.
+	 *
+	 * @param poolSize maximum number of free buffers in each size class,
+	 * <code>0</code> disables pooling
+	 * @param direct <code>true</code> if direct buffers should be pooled
+	 * @param maxBufferSize maximum size of pooled buffer
+	 */
+	public BufferPool(int poolSize, boolean direct, int maxBufferSize) {
+		this.poolSize      = Math.max(poolSize, 0);
+		this.direct        = direct;
+		this.maxBufferSize = (Math.max(maxBufferSize, GRANULARITY) / GRANULARITY) *
+				GRANULARITY;
+		classes = new SizeClass[(this.poolSize > 0)
+				? this.maxBufferSize / GRANULARITY
+				: 0];
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = new SizeClass((i + 1) * GRANULARITY);
+		}
+		if ((this.poolSize > 0) && log.isLoggable(Level.CONFIG)) {
+			log.log(Level.CONFIG, "Buffer pool enabled, buffers per size class: {0}, " +
+					"direct: {1}, max buffer size: {2}", new Object[] { this.poolSize,
+					direct, this.maxBufferSize });
+		}
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method returns cleared buffer with capacity at least of given size. The
+	 * capacity may be bigger than requested, it is always equal to
+	 * <code>getCapacity(size)</code>.
+	 *
+	 * @param size minimal capacity of the buffer
+	 *
+	 * @return buffer leased to the caller
+	 */
+	public ByteBuffer acquire(int size) {
+		SizeClass sc = getSizeClass(size);
+
+		if (sc == null) {
+			return ByteBuffer.allocate(size);
+		}
+
+		ByteBuffer buf = sc.free.poll();
+
+		if (buf != null) {
+			sc.count.decrementAndGet();
+			sc.hits.incrementAndGet();
+
+			return buf;
+		}
+		sc.misses.incrementAndGet();
+
+		return direct
+				? ByteBuffer.allocateDirect(sc.capacity)
+				: ByteBuffer.allocate(sc.capacity);
+	}
+
+	/**
+	 * Method returns buffer to the pool. Buffers which were not created by the
+	 * pool are ignored.
+	 *
+	 * @param buf to release, may be <code>null</code>
+	 */
+	public void release(ByteBuffer buf) {
+		if ((buf == null) || (classes.length == 0)) {
+			return;
+		}
+
+		int capacity = buf.capacity();
+
+		if ((buf.isDirect() != direct) || buf.isReadOnly() || (capacity == 0) ||
+				(capacity % GRANULARITY != 0) || (capacity > maxBufferSize)) {
+			return;
+		}
+
+		SizeClass sc = classes[capacity / GRANULARITY - 1];
+
+		if (sc.count.incrementAndGet() > poolSize) {
+			sc.count.decrementAndGet();
+			discarded.incrementAndGet();
+
+			return;
+		}
+		buf.clear();
+		buf.order(ByteOrder.BIG_ENDIAN);
+		sc.free.offer(buf);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns capacity of buffer returned by <code>acquire()</code> for
+	 * given size.
+	 *
+	 * @param size requested size
+	 *
+	 * @return capacity of the buffer
+	 */
+	public int getCapacity(int size) {
+		SizeClass sc = getSizeClass(size);
+
+		return (sc == null)
+				? size
+				: sc.capacity;
+	}
+
+	/**
+	 * Method returns shared instance of the pool configured with system
+	 * properties.
+	 *
+	 * @return shared pool
+	 */
+	public static BufferPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Method adds pool statistics to the list.
+	 *
+	 * @param compName name of the component reporting statistics
+	 * @param list of statistics
+	 */
+	public void getStatistics(String compName, StatisticsList list) {
+		if (classes.length == 0) {
+			return;
+		}
+
+		long free   = 0;
+		long bytes  = 0;
+		long hits   = 0;
+		long misses = 0;
+
+		for (SizeClass sc : classes) {
+			int count = sc.count.get();
+
+			free   += count;
+			bytes  += (long) count * sc.capacity;
+			hits   += sc.hits.get();
+			misses += sc.misses.get();
+		}
+		list.add(compName, "Buffer pool free buffers", free, Level.FINE);
+		list.add(compName, "Buffer pool free bytes", bytes, Level.FINE);
+		list.add(compName, "Buffer pool hits", hits, Level.FINER);
+		list.add(compName, "Buffer pool allocations", misses, Level.FINER);
+		list.add(compName, "Buffer pool discarded", discarded.get(), Level.FINER);
+		list.add(compName, "Buffer pool hit ratio %", (hits + misses > 0)
+				? (100f * hits / (hits + misses))
+				: 0f, Level.FINE);
+	}
+
+	/**
+	 * Method checks whether buffers are pooled.
+	 *
+	 * @return <code>true</code> if the pool is enabled
+	 */
+	public boolean isEnabled() {
+		return classes.length > 0;
+	}
+
+	private SizeClass getSizeClass(int size) {
+		if ((size <= 0) || (size > maxBufferSize) || (classes.length == 0)) {
+			return null;
+		}
+
+		return classes[(size + GRANULARITY - 1) / GRANULARITY - 1];
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static class SizeClass {
+		private final int                   capacity;
+		private final AtomicInteger         count  = new AtomicInteger();
+		private final Queue<ByteBuffer>     free   = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final AtomicLong            hits   = new AtomicLong();
+		private final AtomicLong            misses = new AtomicLong();
+
+		//~--- constructors -------------------------------------------------------
+
+		private SizeClass(int capacity) {
+			this.capacity = capacity;
+		}
+	}
+}
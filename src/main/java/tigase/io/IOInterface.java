@@ -78,6 +78,15 @@ public interface IOInterface {
 
 	ByteBuffer read(final ByteBuffer buff) throws IOException;
 
+	/**
+	 * Method returns to <code>BufferPool</code> buffers which do not keep any
+	 * data, so an idle connection does not hold them. It is called after the
+	 * data read from the connection has been processed. Buffers are acquired
+	 * again when needed. Once the connection is closed all buffers are returned,
+	 * regardless of their content.
+	 */
+	void releaseIdleBuffers();
+
 	void stop() throws IOException;
 
 	boolean waitingToSend();
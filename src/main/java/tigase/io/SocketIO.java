@@ -332,6 +332,17 @@ public class SocketIO
 		return buff;
 	}
 
+	/**
+	 * Method description
+	 *
+	 */
+	@Override
+	public void releaseIdleBuffers() {
+
+		// Direct buffers used for socket reads and writes are taken from
+		// per thread cache and returned to it right after each call
+	}
+
 	/**
 	 * Method description
 	 *
@@ -63,6 +63,16 @@ public class TLSIO implements IOInterface {
 	// ~--- fields ---------------------------------------------------------------
 
 	private IOInterface io = null;
+
+	/**
+	 * <code>order</code> of bytes in <code>tlsInput</code> buffer.
+	 */
+	private final ByteOrder order;
+
+	/**
+	 * <code>pool</code> of buffers used for encryption and decryption.
+	 */
+	private final BufferPool pool = BufferPool.getInstance();
 	
 	/**
 	 * <code>tlsInput</code> buffer keeps data decoded from tlsWrapper.
@@ -100,8 +110,9 @@ public class TLSIO implements IOInterface {
 		io = ioi;
 		tlsWrapper = wrapper;
 		tlsWrapper.setDebugId(toString());
-		tlsInput = ByteBuffer.allocate(tlsWrapper.getAppBuffSize());
-                tlsInput.order(order);
+		this.order = order;
+		tlsInput = pool.acquire(tlsWrapper.getAppBuffSize());
+		tlsInput.order(order);
 
 		if (log.isLoggable(Level.FINER)) {
 			log.log(Level.FINER, "TLS Socket created: {0}", io.toString());
@@ -112,7 +123,7 @@ public class TLSIO implements IOInterface {
 				log.finer("TLS - client mode, starting handshaking now...");
 			}
 
-			write(ByteBuffer.allocate(0));
+			write(BufferPool.EMPTY_BUFFER);
 		} // end of if (tlsWrapper.isClientMode())
 	}
 
@@ -271,6 +282,28 @@ public class TLSIO implements IOInterface {
 		} // end of else
 	}
 
+	/**
+	 * Method description
+	 * 
+	 */
+	@Override
+	public void releaseIdleBuffers() {
+		if (pool.isEnabled() && (tlsInput != null)) {
+
+			// Handshake data may be unwrapped to the buffer by a write in
+			// progress, so it is kept until the handshake is finished.
+			boolean idle = (tlsInput.position() == 0) && (tlsInput.limit() == tlsInput
+					.capacity()) && (tlsWrapper.getTlsEngine().getHandshakeStatus() ==
+					SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING);
+
+			if (idle ||!io.isConnected()) {
+				pool.release(tlsInput);
+				tlsInput = null;
+			}
+		}
+		io.releaseIdleBuffers();
+	}
+
 	/**
 	 * Method description
 	 * 
@@ -350,7 +383,7 @@ public class TLSIO implements IOInterface {
 				&& (++loop_cnt < max_loop_runs)) {
 			switch (stat) {
 				case NEED_WRITE:
-					writeBuff(ByteBuffer.allocate(0));
+					writeBuff(BufferPool.EMPTY_BUFFER);
 
 					break;
 
@@ -372,7 +405,7 @@ public class TLSIO implements IOInterface {
 					// I wonder if some real data can be read from the socket here (and we
 					// would
 					// loose the data) or this is just TLS stuff here.....
-					ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+					readHandshake();
 
 					break;
 
@@ -455,6 +488,10 @@ public class TLSIO implements IOInterface {
 			// log.finer("tlsInput.limit()=" + tlsInput.limit());
 			// log.finer("tlsInput.position()=" + tlsInput.position());
 			// }
+			if (tlsInput == null) {
+				tlsInput = pool.acquire(tlsWrapper.getAppBuffSize());
+				tlsInput.order(order);
+			}
 			tlsInput = tlsWrapper.unwrap(input, tlsInput);
 
 			// if (log.isLoggable(Level.FINEST)) {
@@ -476,7 +513,7 @@ public class TLSIO implements IOInterface {
 			// }// end of if (input.hasRemaining())
 			switch (tlsWrapper.getStatus()) {
 				case NEED_WRITE:
-					writeBuff(ByteBuffer.allocate(0));
+					writeBuff(BufferPool.EMPTY_BUFFER);
 
 					break;
 
@@ -543,6 +580,16 @@ public class TLSIO implements IOInterface {
 		return tlsInput;
 	}
 
+	private void readHandshake() throws IOException {
+		ByteBuffer rbuff = pool.acquire(tlsWrapper.getNetBuffSize());
+
+		try {
+			read(rbuff);
+		} finally {
+			pool.release(rbuff);
+		}
+	}
+
 	private int writeBuff(ByteBuffer buff) throws IOException {
 		int result = 0;
 		int wr = 0;
@@ -568,22 +615,30 @@ public class TLSIO implements IOInterface {
 				// I wonder if some real data can be read from the socket here (and we
 				// would
 				// loose the data) or this is just TLS stuff here.....
-				ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+				readHandshake();
 			}
 
-			ByteBuffer tlsOutput = ByteBuffer.allocate(tlsWrapper.getNetBuffSize());
+			ByteBuffer tlsOutput = pool.acquire(tlsWrapper.getNetBuffSize());
 
 			// Not sure if this is really needed, I guess not...
 			tlsOutput.clear();
 			tlsWrapper.wrap(buff, tlsOutput);
 
 			if (tlsWrapper.getStatus() == TLSStatus.CLOSED) {
+				pool.release(tlsOutput);
+
 				throw new EOFException("Socket has been closed.");
 			} // end of if (tlsWrapper.getStatus() == TLSStatus.CLOSED)
 
 			tlsOutput.flip();
 			wr = io.write(tlsOutput);
 			result += wr;
+
+			// Buffer which has not been sent completely is queued by the
+			// underlying layer and is left for the garbage collector
+			if (!tlsOutput.hasRemaining()) {
+				pool.release(tlsOutput);
+			}
 		} while (buff.hasRemaining() && (++loop_cnt < max_loop_runs));
 
 		if (loop_cnt > (max_loop_runs / 2)) {
@@ -595,7 +650,7 @@ public class TLSIO implements IOInterface {
 		}
 
 		if (tlsWrapper.getStatus() == TLSStatus.NEED_WRITE) {
-			writeBuff(ByteBuffer.allocate(0));
+			writeBuff(BufferPool.EMPTY_BUFFER);
 		} // end of if ()
 
 		return result;
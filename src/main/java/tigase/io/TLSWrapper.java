@@ -438,13 +438,16 @@ public class TLSWrapper {
 			log.log(Level.FINE, "Resizing tlsInput to {0} bytes, {1}", new Object[] { (2048 + app.capacity()), debugId });
 		}
 
-		ByteBuffer bb = ByteBuffer.allocate(app.capacity() + 2048);
+		ByteBuffer bb = BufferPool.getInstance().acquire(app.capacity() + 2048);
 
 		// bb.clear();
 		bb.order(app.order());
 		app.flip();
 		bb.put(app);
 
+		// Data has been moved to the new buffer, old one is not used anymore
+		BufferPool.getInstance().release(app);
+
 		return bb;
 
 		// } else {
@@ -0,0 +1,80 @@
+/*
+ * TransportIO.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.io;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+//~--- interfaces -------------------------------------------------------------
+
+/**
+ * <code>TransportIO</code> is implemented by I/O layers which are not backed
+ * by a <code>SocketChannel</code> but by a network transport framework. Such
+ * transport takes care about TLS and stream compression on its own, so
+ * <code>IOService</code> delegates to it instead of wrapping the layer in
+ * <code>TLSIO</code> or <code>ZLibIO</code>.
+ *
+ * @author andrzej
+ */
+public interface TransportIO
+				extends IOInterface {
+	/**
+	 * Method returns local address of the connection.
+	 *
+	 * @return local address of the connection
+	 */
+	InetSocketAddress getLocalAddress();
+
+	/**
+	 * Method returns remote address of the connection.
+	 *
+	 * @return remote address of the connection
+	 */
+	InetSocketAddress getRemoteAddress();
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method starts TLS on the connection using <code>SSLEngine</code> from the
+	 * passed wrapper. Data written before this call is sent unencrypted.
+	 *
+	 * @param wrapper configured for the connection
+	 * @param eventHandler notified when handshake is completed
+	 *
+	 * @throws IOException
+	 */
+	void startTLS(TLSWrapper wrapper, TLSEventHandler eventHandler) throws IOException;
+
+	/**
+	 * Method starts stream compression on the connection. Data written before
+	 * this call is sent uncompressed.
+	 *
+	 * @param level of compression
+	 */
+	void startZLib(int level);
+}
@@ -231,6 +231,15 @@ public class ZLibIO implements IOInterface {
 		return null;
 	}
 
+	/**
+	 * Method description
+	 *
+	 */
+	@Override
+	public void releaseIdleBuffers() {
+		io.releaseIdleBuffers();
+	}
+
 	/**
 	 * Method description
 	 *
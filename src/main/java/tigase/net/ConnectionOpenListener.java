@@ -24,6 +24,10 @@
 
 package tigase.net;
 
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.io.TransportIO;
+
 //~--- JDK imports ------------------------------------------------------------
 
 import java.net.InetSocketAddress;
@@ -72,6 +76,15 @@ public interface ConnectionOpenListener {
 	 */
 	void accept(SocketChannel sc);
 
+	/**
+	 * Method called by transports which are not based on
+	 * <code>SocketChannel</code> when a new connection was opened.
+	 *
+	 *
+	 * @param io
+	 */
+	void accept(TransportIO io);
+
 	//~--- get methods ----------------------------------------------------------
 
 	/**
@@ -311,7 +311,7 @@ public class ConnectionOpenThread
 				addPort(al);
 			} catch (Exception e) {
 				log.log(Level.WARNING, "Error: creating connection for: " + al, e);
-				al.accept(null);
+				al.accept((SocketChannel) null);
 			}    // end of try-catch
 		}      // end of for ()
 	}
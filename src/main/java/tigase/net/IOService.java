@@ -29,6 +29,7 @@ package tigase.net;
 import tigase.cert.CertCheckResult;
 import tigase.cert.CertificateUtil;
 
+import tigase.io.BufferPool;
 import tigase.io.BufferUnderflowException;
 import tigase.io.IOInterface;
 import tigase.io.SocketIO;
@@ -36,6 +37,7 @@ import tigase.io.TLSEventHandler;
 import tigase.io.TLSIO;
 import tigase.io.TLSUtil;
 import tigase.io.TLSWrapper;
+import tigase.io.TransportIO;
 import tigase.io.ZLibIO;
 
 import tigase.stats.StatisticsList;
@@ -46,6 +48,7 @@ import tigase.xmpp.JID;
 
 import java.io.IOException;
 
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
 import java.nio.ByteBuffer;
@@ -158,6 +161,7 @@ public abstract class IOService<RefObject>
 	 */
 	private long                                    lastTransferTime = 0;
 	private String                                  local_address    = null;
+	private int                                     local_port       = 0;
 	private long[]                                  rdData           = new long[60];
 	private RefObject                               refObject        = null;
 	private String                                  remote_address   = null;
@@ -167,6 +171,7 @@ public abstract class IOService<RefObject>
 	 * <code>socketInput</code> buffer keeps data read from socket.
 	 */
 	private ByteBuffer                    socketInput     = null;
+	private final BufferPool              pool            = BufferPool.getInstance();
 	private int                           socketInputSize = 2048;
 	private IOInterface                   socketIO        = null;
 	private boolean                       stopping        = false;
@@ -230,18 +235,44 @@ public abstract class IOService<RefObject>
 			throw e;
 		}
 		socketInputSize = socketIO.getSocketChannel().socket().getReceiveBufferSize();
-		socketInput     = ByteBuffer.allocate(socketInputSize);
+		socketInput     = pool.acquire(socketInputSize);
 		socketInput.order(byteOrder());
 
 		Socket sock = socketIO.getSocketChannel().socket();
 
 		local_address  = sock.getLocalAddress().getHostAddress();
+		local_port     = sock.getLocalPort();
 		remote_address = sock.getInetAddress().getHostAddress();
 		id = local_address + "_" + sock.getLocalPort() + "_" + remote_address + "_" + sock
 				.getPort();
 		setLastTransferTime();
 	}
 
+	/**
+	 * Method <code>accept</code> binds the service to a connection opened by a
+	 * transport which is not based on <code>SocketChannel</code>.
+	 *
+	 * @param io connection I/O layer
+	 *
+	 * @throws IOException
+	 */
+	public void accept(final TransportIO io) throws IOException {
+		socketIO        = io;
+		socketInputSize = io.getInputPacketSize();
+		socketInput     = pool.acquire(socketInputSize);
+		socketInput.order(byteOrder());
+
+		InetSocketAddress local  = io.getLocalAddress();
+		InetSocketAddress remote = io.getRemoteAddress();
+
+		local_address  = local.getAddress().getHostAddress();
+		local_port     = local.getPort();
+		remote_address = remote.getAddress().getHostAddress();
+		id = local_address + "_" + local_port + "_" + remote_address + "_" + remote
+				.getPort();
+		setLastTransferTime();
+	}
+
 	/**
 	 * Method
 	 * <code>run</code> is used to perform
@@ -317,6 +348,7 @@ public abstract class IOService<RefObject>
 						", Exception while stopping service: " + connectionId, e);
 			}
 		} finally {
+			releaseBuffers();
 			if (serviceListener != null) {
 				if (log.isLoggable(Level.FINER)) {
 					log.log(Level.FINER, "Calling stop on the listener: {0}", serviceListener);
@@ -396,7 +428,11 @@ public abstract class IOService<RefObject>
 		TLSWrapper wrapper = new TLSWrapper(TLSUtil.getSSLContext("SSL", (String) sessionData.get(HOSTNAME_KEY), clientMode),
 				this, clientMode, wantClientAuth);
 
-		socketIO = new TLSIO(socketIO, wrapper, byteOrder());
+		if (socketIO instanceof TransportIO) {
+			((TransportIO) socketIO).startTLS(wrapper, this);
+		} else {
+			socketIO = new TLSIO(socketIO, wrapper, byteOrder());
+		}
 		setLastTransferTime();
 		encoder.reset();
 		decoder.reset();
@@ -445,7 +481,11 @@ public abstract class IOService<RefObject>
 
 			TLSWrapper wrapper = new TLSWrapper(sslContext, this, clientMode, wantClientAuth);
 
-			socketIO = new TLSIO(socketIO, wrapper, byteOrder());
+			if (socketIO instanceof TransportIO) {
+				((TransportIO) socketIO).startTLS(wrapper, this);
+			} else {
+				socketIO = new TLSIO(socketIO, wrapper, byteOrder());
+			}
 			setLastTransferTime();
 			encoder.reset();
 			decoder.reset();
@@ -462,8 +502,12 @@ public abstract class IOService<RefObject>
 		if (socketIO.checkCapabilities(ZLibIO.ZLIB_CAPS)) {
 			throw new IllegalStateException("ZLIB mode is already activated.");
 		}
-		socketIO = new ZLibIO(socketIO, level);
-		((ZLibIO) socketIO).setIOListener(this);
+		if (socketIO instanceof TransportIO) {
+			((TransportIO) socketIO).startZLib(level);
+		} else {
+			socketIO = new ZLibIO(socketIO, level);
+			((ZLibIO) socketIO).setIOListener(this);
+		}
 	}
 
 	/**
@@ -601,8 +645,7 @@ public abstract class IOService<RefObject>
 	 * @return
 	 */
 	public int getLocalPort() {
-        Socket sock = socketIO.getSocketChannel().socket();
-        return sock.getLocalPort();
+		return local_port;
 	}
 	
 	/**
@@ -655,6 +698,15 @@ public abstract class IOService<RefObject>
 		return sessionData;
 	}
 
+	/**
+	 * Method returns I/O layer used by the service.
+	 *
+	 * @return I/O layer used by the service
+	 */
+	public IOInterface getIOInterface() {
+		return socketIO;
+	}
+
 	/**
 	 * Method
 	 * <code>getSocketChannel</code> is used to perform
@@ -926,6 +978,8 @@ public abstract class IOService<RefObject>
 			log.log(Level.FINEST, "Socket: " + socketIO, thr);
 		}
 		try {
+			acquireInputBuffer();
+
 			ByteBuffer tmpBuffer = socketIO.read(socketInput);
 
 			if (socketIO.bytesRead() > 0) {
@@ -986,11 +1040,12 @@ public abstract class IOService<RefObject>
 		// call() which has concurrent call protection.
 		// synchronized (socketIO) {
 		try {
+			acquireInputBuffer();
 
 			// resizeInputBuffer();
 			// Maybe we can shrink the input buffer??
-			if ((socketInput.capacity() > socketInputSize) && (socketInput.remaining() ==
-					socketInput.capacity())) {
+			if ((socketInput.capacity() > pool.getCapacity(socketInputSize)) && (socketInput
+					.remaining() == socketInput.capacity())) {
 
 				// Yes, looks like we can
 				if (log.isLoggable(Level.FINE)) {
@@ -998,7 +1053,8 @@ public abstract class IOService<RefObject>
 							new Object[] { socketIO,
 							socketInputSize });
 				}
-				socketInput = ByteBuffer.allocate(socketInputSize);
+				pool.release(socketInput);
+				socketInput = pool.acquire(socketInputSize);
 				socketInput.order(byteOrder());
 				cb = CharBuffer.allocate(socketInputSize * 4);
 			}
@@ -1157,6 +1213,8 @@ public abstract class IOService<RefObject>
 
 			// eof.printStackTrace();
 			forceStop();
+		} finally {
+			releaseIdleBuffers();
 		}    // end of try-catch
 
 		// }
@@ -1322,11 +1380,63 @@ public abstract class IOService<RefObject>
 	 * 
 	 */
 	protected boolean isInputBufferEmpty() {
-		return (socketInput != null) && (socketInput.remaining() == socketInput.capacity());
+		return (socketInput == null) || (socketInput.remaining() == socketInput.capacity());
 	}
 
 	//~--- methods --------------------------------------------------------------
 
+	private void acquireInputBuffer() {
+		if (socketInput == null) {
+			socketInput = pool.acquire(socketInputSize);
+			socketInput.order(byteOrder());
+		}
+	}
+
+	/**
+	 * Method returns input buffers to the pool after the connection has been
+	 * stopped. If data is being read in another thread the buffers are released
+	 * by that thread once reading is finished.
+	 */
+	private void releaseBuffers() {
+		if ((socketIO == null) || readInProgress.isHeldByCurrentThread() ||!readInProgress
+				.tryLock()) {
+			return;
+		}
+		try {
+			releaseIdleBuffers();
+		} finally {
+			readInProgress.unlock();
+		}
+	}
+
+	/**
+	 * Method returns input buffers to the pool when all data read from the
+	 * connection has been processed, so an idle connection does not keep them.
+	 * All buffers are returned if the connection has been closed.
+	 */
+	private void releaseIdleBuffers() {
+
+		// Write in progress may read handshake data to TLS buffers, they will be
+		// released after the next read.
+		if (!writeInProgress.tryLock()) {
+			return;
+		}
+		try {
+			boolean stopped = !socketIO.isConnected();
+
+			if (pool.isEnabled() && (socketInput != null) && (stopped || (socketInput
+					.remaining() == socketInput.capacity()))) {
+				pool.release(socketInput);
+				socketInput = null;
+				socketIO.releaseIdleBuffers();
+			} else if (stopped) {
+				socketIO.releaseIdleBuffers();
+			}
+		} finally {
+			writeInProgress.unlock();
+		}
+	}
+
 	private void resizeInputBuffer() throws IOException {
 		int netSize = socketIO.getInputPacketSize();
 
@@ -1346,10 +1456,11 @@ public abstract class IOService<RefObject>
 						newSize });
 			}
 
-			ByteBuffer b = ByteBuffer.allocate(newSize);
+			ByteBuffer b = pool.acquire(newSize);
 
 			b.order(byteOrder());
 			b.put(socketInput);
+			pool.release(socketInput);
 			socketInput = b;
 		} else {
 
@@ -0,0 +1,93 @@
+/*
+ * IOServiceTransport.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.net;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.stats.StatisticsList;
+
+//~--- interfaces -------------------------------------------------------------
+
+/**
+ * <code>IOServiceTransport</code> is a network transport used by a connection
+ * manager. It opens listening and outgoing connections for registered
+ * <code>ConnectionOpenListener</code> instances and takes care about reading
+ * from and writing to the sockets of <code>IOService</code> instances.
+ *
+ * The default implementation is {@link SocketThreadTransport}, other
+ * implementations are obtained from {@link IOServiceTransportFactory}.
+ *
+ * @author andrzej
+ */
+public interface IOServiceTransport {
+	/**
+	 * Method opens listening socket or connects to remote host depending on
+	 * the connection type of the listener.
+	 *
+	 * @param al listener for the new connection
+	 */
+	void addConnectionOpenListener(ConnectionOpenListener al);
+
+	/**
+	 * Method registers service for processing of socket events. It is also
+	 * called after data was written to the service so the transport can send
+	 * any data which is still waiting.
+	 *
+	 * @param serv service to register
+	 */
+	void addSocketService(IOService<?> serv);
+
+	/**
+	 * Method closes listening socket opened for the listener.
+	 *
+	 * @param al listener to remove
+	 */
+	void removeConnectionOpenListener(ConnectionOpenListener al);
+
+	/**
+	 * Method stops reading data for the service until it is registered again
+	 * with <code>addSocketService</code>.
+	 *
+	 * @param serv service to unregister
+	 */
+	void removeSocketService(IOService<?> serv);
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns name of the transport.
+	 *
+	 * @return name of the transport
+	 */
+	String getName();
+
+	/**
+	 * Method adds transport statistics to the list.
+	 *
+	 * @param compName name of the component
+	 * @param list statistics list
+	 */
+	void getStatistics(String compName, StatisticsList list);
+}
@@ -0,0 +1,108 @@
+/*
+ * IOServiceTransportFactory.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.net;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Factory returning transport instances by name. Transports are shared by all
+ * components which selected the same transport, so for example all components
+ * using Netty share the same event loops.
+ *
+ * Accepted names are <code>socket-thread</code>, <code>netty</code> or a fully
+ * qualified name of a class implementing {@link IOServiceTransport}.
+ *
+ * @author andrzej
+ */
+public class IOServiceTransportFactory {
+	/** Name of the Netty based transport */
+	public static final String NETTY = "netty";
+
+	/** Class implementing Netty based transport */
+	public static final String NETTY_CLASS = "tigase.net.netty.NettyTransport";
+	private static final Logger log = Logger.getLogger(IOServiceTransportFactory.class
+			.getName());
+	private static final ConcurrentMap<String, IOServiceTransport> transports =
+			new ConcurrentHashMap<String, IOServiceTransport>();
+
+	static {
+		transports.put(SocketThreadTransport.NAME, new SocketThreadTransport());
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns default transport.
+	 *
+	 * @return default transport
+	 */
+	public static IOServiceTransport getDefaultTransport() {
+		return transports.get(SocketThreadTransport.NAME);
+	}
+
+	/**
+	 * Method returns transport for the name, creating it if necessary.
+	 *
+	 * @param name of the transport or name of the class implementing it
+	 *
+	 * @return transport instance
+	 *
+	 * @throws ClassNotFoundException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 */
+	public static IOServiceTransport getTransport(String name)
+					throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+		if ((name == null) || name.isEmpty()) {
+			return getDefaultTransport();
+		}
+
+		IOServiceTransport transport = transports.get(name);
+
+		if (transport == null) {
+			synchronized (transports) {
+				transport = transports.get(name);
+				if (transport == null) {
+					String cls = NETTY.equals(name)
+							? NETTY_CLASS
+							: name;
+
+					transport = (IOServiceTransport) Class.forName(cls).newInstance();
+					transports.put(name, transport);
+					log.log(Level.CONFIG, "Created network transport: {0}", transport.getName());
+				}
+			}
+		}
+
+		return transport;
+	}
+}
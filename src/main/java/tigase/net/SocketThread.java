@@ -26,6 +26,8 @@ package tigase.net;
 
 import tigase.annotations.TODO;
 
+import tigase.stats.StatisticsList;
+
 //~--- JDK imports ------------------------------------------------------------
 
 import java.io.IOException;
@@ -44,6 +46,8 @@ import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,6 +67,15 @@ public class SocketThread implements Runnable {
 
 	/** Field description */
 	public static final int DEF_MAX_THREADS_PER_CPU = 8;
+
+	/**
+	 * System property switching selector threads to persistent keys mode. In
+	 * this mode a channel is registered with the selector once for its whole
+	 * life and only the interest ops are toggled between readiness events
+	 * instead of cancelling and re-registering the key each time.
+	 */
+	public static final String PERSISTENT_KEYS_PROP_KEY = "net-persistent-keys";
+	private static final boolean persistentKeys = Boolean.getBoolean(PERSISTENT_KEYS_PROP_KEY);
 	private static final int MAX_EMPTY_SELECTIONS = 10;
 	private static SocketThread[] socketReadThread = null;
 	private static SocketThread[] socketWriteThread = null;
@@ -114,6 +127,9 @@ public class SocketThread implements Runnable {
 			}
 
 			log.log(Level.WARNING, "{0} socketWriteThreads started.", socketWriteThread.length);
+			if (persistentKeys) {
+				log.log(Level.WARNING, "Socket threads are using persistent selection keys.");
+			}
 		}    // end of if (acceptThread == null)
 	}
 
@@ -129,6 +145,10 @@ public class SocketThread implements Runnable {
 		new ConcurrentSkipListSet<IOService<?>>(new IOServiceComparator());
 	private boolean stopping = false;
 
+	// Set when a wakeup call is already pending for the selector, used in the
+	// persistent keys mode to avoid a wakeup call for each completed service.
+	private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
 	// IOServices must be added to thread pool after they are removed from
 	// the selector and the selector and key is cleared, otherwise we have
 	// dead-lock somewhere down in the:
@@ -136,6 +156,18 @@ public class SocketThread implements Runnable {
 	private ConcurrentSkipListSet<IOService<?>> forCompletion =
 		new ConcurrentSkipListSet<IOService<?>>(new IOServiceComparator());
 
+	// Counters below are approximations of the number of selector related
+	// system calls made by this thread, they are used to compare both
+	// selector loop modes.
+	private final AtomicLong selectCalls     = new AtomicLong();
+	private final AtomicLong selectNowCalls  = new AtomicLong();
+	private final AtomicLong wakeupCalls     = new AtomicLong();
+	private final AtomicLong registerCalls   = new AtomicLong();
+	private final AtomicLong cancelCalls     = new AtomicLong();
+	private final AtomicLong interestUpdates = new AtomicLong();
+	private final AtomicLong readyEvents     = new AtomicLong();
+	private final AtomicLong recreations     = new AtomicLong();
+
 	//~--- constructors ---------------------------------------------------------
 
 	/**
@@ -234,7 +266,10 @@ public class SocketThread implements Runnable {
 
 		// Calling lazy wakeup to avoid multiple wakeup calls
 		// when lots of new services are added....
-		clientsSel.wakeup();
+		if (!persistentKeys || wakeupPending.compareAndSet(false, true)) {
+			wakeupCalls.incrementAndGet();
+			clientsSel.wakeup();
+		}
 
 		// wakeupHelper.wakeup();
 	}
@@ -248,8 +283,13 @@ public class SocketThread implements Runnable {
 	public void run() {
 		while ( !stopping) {
 			try {
+				selectCalls.incrementAndGet();
 				clientsSel.select();
 
+				// Must be reset before services waiting for registration are
+				// picked up, otherwise a service added in between may wait
+				// for the next selection.
+				wakeupPending.set(false);
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Selector AWAKE: {0}", clientsSel);
 				}
@@ -265,10 +305,17 @@ public class SocketThread implements Runnable {
 					if ((++empty_selections) > MAX_EMPTY_SELECTIONS) {
 						recreateSelector();
 					}
+				} else if (persistentKeys) {
+					empty_selections = 0;
+					if (selectedKeys > 0) {
+						readyEvents.addAndGet(selectedKeys);
+						processSelectedPersistent(selected);
+					}
 				} else {
 					empty_selections = 0;
 
 					if (selectedKeys > 0) {
+						readyEvents.addAndGet(selectedKeys);
 
 						// This is dirty but selectNow() causes concurrent modification exception
 						// and the selectNow() is needed because of a bug in JVM mentioned below
@@ -306,6 +353,7 @@ public class SocketThread implements Runnable {
 								// and
 								// http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6403933
 								sk.cancel();
+								cancelCalls.incrementAndGet();
 								forCompletion.add(s);
 
 								// IOServices must be added to thread pool after they are removed from
@@ -332,6 +380,7 @@ public class SocketThread implements Runnable {
 					}
 
 					// Clean-up cancelled keys...
+					selectNowCalls.incrementAndGet();
 					clientsSel.selectNow();
 				}
 
@@ -411,8 +460,106 @@ public class SocketThread implements Runnable {
 		setMaxThread(threads * cpus);
 	}
 
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Adds selector loop statistics to the given list. Each socket thread keeps
+	 * its own counters, they are summed separately for reading and writing
+	 * threads.
+	 *
+	 *
+	 * @param compName is the name of the component for which statistics are
+	 * collected.
+	 * @param list is the statistics list to which records are added.
+	 */
+	public static void getStatistics(String compName, StatisticsList list) {
+		if (list.checkLevel(Level.FINEST)) {
+			list.add(compName, "Socket threads persistent keys", String.valueOf(persistentKeys),
+					Level.FINEST);
+			getStatistics(compName, "Socket read threads ", socketReadThread, list);
+			getStatistics(compName, "Socket write threads ", socketWriteThread, list);
+		}
+	}
+
+	private static void getStatistics(String compName, String prefix, SocketThread[] threads,
+			StatisticsList list) {
+		long ready = 0, select = 0, selectNow = 0, wakeup = 0, register = 0, cancel = 0,
+				interest = 0, recreate = 0;
+
+		for (SocketThread thread : threads) {
+			ready     += thread.readyEvents.get();
+			select    += thread.selectCalls.get();
+			selectNow += thread.selectNowCalls.get();
+			wakeup    += thread.wakeupCalls.get();
+			register  += thread.registerCalls.get();
+			cancel    += thread.cancelCalls.get();
+			interest  += thread.interestUpdates.get();
+			recreate  += thread.recreations.get();
+		}
+		list.add(compName, prefix + "ready events", ready, Level.FINEST);
+		list.add(compName, prefix + "select calls", select, Level.FINEST);
+		list.add(compName, prefix + "selectNow calls", selectNow, Level.FINEST);
+		list.add(compName, prefix + "wakeup calls", wakeup, Level.FINEST);
+		list.add(compName, prefix + "register calls", register, Level.FINEST);
+		list.add(compName, prefix + "cancel calls", cancel, Level.FINEST);
+		list.add(compName, prefix + "interest updates", interest, Level.FINEST);
+		list.add(compName, prefix + "selector recreations", recreate, Level.FINEST);
+	}
+
+	/**
+	 * Returns <code>true</code> if socket threads are running in persistent
+	 * selection keys mode.
+	 *
+	 *
+	 * @return a value of <code>boolean</code>
+	 */
+	public static boolean isPersistentKeys() {
+		return persistentKeys;
+	}
+
 	//~--- methods --------------------------------------------------------------
 
+	/**
+	 * Hands off services with ready channels to the thread pool in the
+	 * persistent keys mode. Keys are not cancelled, interest ops are cleared
+	 * instead so the channel is not selected again until the service is
+	 * processed and armed again by <code>addAllWaiting()</code>.
+	 *
+	 * @param selected set of selected keys.
+	 */
+	private void processSelectedPersistent(Set<SelectionKey> selected) {
+		for (SelectionKey sk : selected) {
+			IOService<?> s = (IOService<?>) sk.attachment();
+
+			try {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "AWAKEN: {0}, readyOps() = {1}", new Object[] {
+							s.getUniqueId(),
+							sk.readyOps() });
+				}
+				sk.interestOps(0);
+				interestUpdates.incrementAndGet();
+				forCompletion.add(s);
+			} catch (CancelledKeyException e) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "CancelledKeyException, stopping the connection: {0}",
+							s.getUniqueId());
+				}
+				try {
+					s.forceStop();
+				} catch (Exception ex2) {
+					if (log.isLoggable(Level.WARNING)) {
+						log.log(Level.WARNING, "got exception during forceStop: {0}", e);
+					}
+				}
+			}
+		}
+
+		// Keys stay registered so they must be removed from the selected set
+		// manually.
+		selected.clear();
+	}
+
 	private void addAllWaiting() throws IOException {
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "waiting.size(): {0}", waiting.size());
@@ -426,6 +573,25 @@ public class SocketThread implements Runnable {
 
 			try {
 				if (sc.isConnected()) {
+					int ops = reading
+							? SelectionKey.OP_READ
+							: SelectionKey.OP_WRITE;
+
+					if (persistentKeys) {
+						SelectionKey key = sc.keyFor(clientsSel);
+
+						if ((key != null) && key.isValid() && (key.attachment() == s)) {
+							key.interestOps(ops);
+							interestUpdates.incrementAndGet();
+							if (log.isLoggable(Level.FINEST)) {
+								log.log(Level.FINEST, "ARMED {0}: {1}", new Object[] { ops,
+										s.getUniqueId() });
+							}
+
+							continue;
+						}
+					}
+					registerCalls.incrementAndGet();
 					if (reading) {
 						sc.register(clientsSel, SelectionKey.OP_READ, s);
 
@@ -487,6 +653,7 @@ public class SocketThread implements Runnable {
 		}
 
 		empty_selections = 0;
+		recreations.incrementAndGet();
 
 		// Handling a bug or not a bug described in the
 		// last comment to this issue:
@@ -531,8 +698,18 @@ public class SocketThread implements Runnable {
 			for (SelectionKey sk : tempSel.keys()) {
 				IOService<?> serv = (IOService<?>) sk.attachment();
 
+				// In the persistent keys mode a key with no interest ops belongs to
+				// a service which is being processed by the thread pool. It must not
+				// be added to waiting now, otherwise it could be selected and
+				// processed again concurrently. Once processing is completed the
+				// service comes back through addSocketService() and, as it has no
+				// key in the new selector, it is registered there again.
+				boolean inProgress = persistentKeys && sk.isValid() && (sk.interestOps() == 0);
+
 				sk.cancel();
-				waiting.add(serv);
+				if (!inProgress) {
+					waiting.add(serv);
+				}
 			}
 
 			tempSel.close();
@@ -0,0 +1,78 @@
+/*
+ * SocketThreadTransport.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.net;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.stats.StatisticsList;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Default transport using <code>ConnectionOpenThread</code> for opening
+ * connections and <code>SocketThread</code> pool for socket I/O.
+ *
+ * @author andrzej
+ */
+public class SocketThreadTransport
+				implements IOServiceTransport {
+	/** Name of the transport */
+	public static final String NAME = "socket-thread";
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public void addConnectionOpenListener(ConnectionOpenListener al) {
+		ConnectionOpenThread.getInstance().addConnectionOpenListener(al);
+	}
+
+	@Override
+	public void addSocketService(IOService<?> serv) {
+		SocketThread.addSocketService(serv);
+	}
+
+	@Override
+	public void removeConnectionOpenListener(ConnectionOpenListener al) {
+		ConnectionOpenThread.getInstance().removeConnectionOpenListener(al);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void removeSocketService(IOService<?> serv) {
+		SocketThread.removeSocketService((IOService<Object>) serv);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		SocketThread.getStatistics(compName, list);
+	}
+}
@@ -0,0 +1,530 @@
+/*
+ * NettyIO.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.net.netty;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.compression.JdkZlibDecoder;
+import io.netty.handler.codec.compression.JdkZlibEncoder;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import tigase.io.TLSEventHandler;
+import tigase.io.TLSIO;
+import tigase.io.TLSWrapper;
+import tigase.io.TransportIO;
+import tigase.io.ZLibIO;
+
+import tigase.net.IOService;
+
+import tigase.stats.StatisticsList;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>NettyIO</code> is an I/O layer of the <code>IOService</code> backed by
+ * a Netty channel.
+ *
+ * Data received by the channel is queued in the pooled buffers it was read
+ * into and copied to the service buffer when the service reads it from
+ * <code>call()</code> method, which is executed in the transport thread pool
+ * and never on the event loop. Data written by the service is copied to a
+ * pooled buffer and flushed to the channel at once, so nothing is waiting to
+ * be sent from the point of view of the service. TLS and compression are
+ * handled by <code>SslHandler</code> and <code>JdkZlibEncoder</code> added to
+ * the channel pipeline.
+ *
+ * @author andrzej
+ */
+public class NettyIO
+				implements TransportIO, Runnable {
+	private static final Logger log = Logger.getLogger(NettyIO.class.getName());
+
+	/** Name of the Tigase handler in the channel pipeline */
+	protected static final String HANDLER_NAME = "tigase";
+	private static final String DEFLATER_NAME = "deflater";
+	private static final String INFLATER_NAME = "inflater";
+	private static final String SSL_NAME      = "ssl";
+
+	//~--- fields ---------------------------------------------------------------
+
+	private int                         bytesRead          = 0;
+	private long                        bytesReceived      = 0;
+	private volatile long               bytesSent          = 0;
+	private final Channel               channel;
+	private final Queue<ByteBuf>        input              = new ConcurrentLinkedQueue<ByteBuf>();
+	private final AtomicInteger         inputSize          = new AtomicInteger();
+	private String                      logId              = null;
+	private volatile boolean            paused             = true;
+	private final AtomicInteger         pendingWrites      = new AtomicInteger();
+	private final int                   receiveBufferSize;
+	private boolean                     released           = false;
+	private final AtomicBoolean         scheduled          = new AtomicBoolean(false);
+	private volatile IOService<?>       service            = null;
+	private volatile boolean            tls                = false;
+	private long                        totalBytesReceived = 0;
+	private volatile long               totalBytesSent     = 0;
+	private final NettyTransport        transport;
+	private volatile boolean            zlib               = false;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Constructs ...
+	 *
+	 *
+	 * @param channel
+	 * @param transport
+	 * @param receiveBufferSize
+	 */
+	public NettyIO(Channel channel, NettyTransport transport, int receiveBufferSize) {
+		this.channel           = channel;
+		this.transport         = transport;
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public int bytesRead() {
+		return bytesRead;
+	}
+
+	@Override
+	public boolean checkCapabilities(String caps) {
+		return (tls && caps.contains(TLSIO.TLS_CAPS)) || (zlib && caps.contains(ZLibIO
+				.ZLIB_CAPS));
+	}
+
+	@Override
+	public ByteBuffer read(final ByteBuffer buff) throws IOException {
+		int     read = 0;
+		ByteBuf buf  = null;
+
+		// Input may be released concurrently by stop() called from another thread
+		synchronized (input) {
+			while (buff.hasRemaining() && ((buf = input.peek()) != null)) {
+				int len   = Math.min(buff.remaining(), buf.readableBytes());
+				int limit = buff.limit();
+
+				buff.limit(buff.position() + len);
+				buf.readBytes(buff);
+				buff.limit(limit);
+				read += len;
+				if (!buf.isReadable()) {
+					input.poll();
+					buf.release();
+				}
+			}
+		}
+		if ((read > 0) && (inputSize.addAndGet(-read) < transport.getInputLimit())) {
+			updateAutoRead();
+		}
+		bytesRead = ((read == 0) &&!channel.isActive())
+				? -1
+				: read;
+		if (log.isLoggable(Level.FINER)) {
+			log.log(Level.FINER, "Read from channel {0} bytes, {1}", new Object[] { bytesRead,
+					toString() });
+		}
+		if (read > 0) {
+			buff.flip();
+			bytesReceived      += read;
+			totalBytesReceived += read;
+		}
+
+		return buff;
+	}
+
+	/**
+	 * Method executes <code>call()</code> of the service bound to this
+	 * connection. It is scheduled in the transport thread pool whenever new data
+	 * arrives or the channel is closed.
+	 */
+	@Override
+	public void run() {
+		IOService<?> serv = service;
+
+		try {
+			serv.call();
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Protocol execution exception.", e);
+			serv.forceStop();
+		} finally {
+			scheduled.set(false);
+		}
+		if (!serv.isConnected()) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "REMOVED: {0}", serv.getUniqueId());
+			}
+			serv.forceStop();
+		} else if (!input.isEmpty() &&!paused) {
+			schedule();
+		}
+	}
+
+	@Override
+	public void startTLS(final TLSWrapper wrapper, final TLSEventHandler eventHandler)
+					throws IOException {
+		final SslHandler sslHandler = new SslHandler(wrapper.getTlsEngine());
+
+		sslHandler.handshakeFuture().addListener(new GenericFutureListener<Future<Channel>>() {
+			@Override
+			public void operationComplete(Future<Channel> future) throws Exception {
+				if (future.isSuccess()) {
+					transport.execute(new Runnable() {
+						@Override
+						public void run() {
+							eventHandler.handshakeCompleted(wrapper);
+						}
+					});
+				} else {
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "TLS handshake failed: " + NettyIO.this, future.cause());
+					}
+					channel.close();
+				}
+			}
+		});
+		tls = true;
+		updatePipeline(new Runnable() {
+			@Override
+			public void run() {
+				channel.pipeline().addFirst(SSL_NAME, sslHandler);
+			}
+		});
+	}
+
+	@Override
+	public void startZLib(final int level) {
+		zlib = true;
+		updatePipeline(new Runnable() {
+			@Override
+			public void run() {
+				channel.pipeline().addBefore(HANDLER_NAME, INFLATER_NAME, new JdkZlibDecoder(
+						ZlibWrapper.ZLIB));
+				channel.pipeline().addBefore(HANDLER_NAME, DEFLATER_NAME, new JdkZlibEncoder(
+						ZlibWrapper.ZLIB, level));
+			}
+		});
+	}
+
+	@Override
+	public void releaseIdleBuffers() {
+
+		// Netty manages its own pooled buffers
+	}
+
+	@Override
+	public void stop() throws IOException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest("Stop called " + toString());
+		}
+
+		// Empty write is queued after all data written so far, so connection is
+		// closed only once all of it was flushed
+		channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+		releaseInput();
+	}
+
+	@Override
+	public String toString() {
+		return logId + channel;
+	}
+
+	@Override
+	public boolean waitingToSend() {
+
+		// Written data is already handed over to the channel
+		return false;
+	}
+
+	@Override
+	public int waitingToSendSize() {
+		return pendingWrites.get();
+	}
+
+	@Override
+	public int write(final ByteBuffer buff) throws IOException {
+		if ((buff == null) ||!buff.hasRemaining()) {
+			return 0;
+		}
+		if (!channel.isActive()) {
+			throw new EOFException("Channel has been closed.");
+		}
+
+		final int len = buff.remaining();
+		ByteBuf   buf = channel.alloc().ioBuffer(len);
+
+		buf.writeBytes(buff);
+		pendingWrites.incrementAndGet();
+		if (log.isLoggable(Level.FINER)) {
+			log.log(Level.FINER, "NETTY - Writing data, remaining: {0}, {1}", new Object[] {
+					len,
+					toString() });
+		}
+		channel.writeAndFlush(buf).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				pendingWrites.decrementAndGet();
+				if (future.isSuccess()) {
+					bytesSent      += len;
+					totalBytesSent += len;
+				}
+			}
+		});
+
+		return len;
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	@Override
+	public long getBuffOverflow(boolean reset) {
+		return 0;
+	}
+
+	@Override
+	public long getBytesReceived(boolean reset) {
+		long tmp = bytesReceived;
+
+		if (reset) {
+			bytesReceived = 0;
+		}
+
+		return tmp;
+	}
+
+	@Override
+	public long getBytesSent(boolean reset) {
+		long tmp = bytesSent;
+
+		if (reset) {
+			bytesSent = 0;
+		}
+
+		return tmp;
+	}
+
+	@Override
+	public int getInputPacketSize() throws IOException {
+		return receiveBufferSize;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return (InetSocketAddress) channel.localAddress();
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return (InetSocketAddress) channel.remoteAddress();
+	}
+
+	/**
+	 * Method returns <code>null</code> as the connection is not backed by a
+	 * <code>SocketChannel</code>.
+	 *
+	 * @return <code>null</code>
+	 */
+	@Override
+	public SocketChannel getSocketChannel() {
+		return null;
+	}
+
+	@Override
+	public void getStatistics(StatisticsList list, boolean reset) {
+		list.add("nettyio", "Bytes sent", bytesSent, Level.FINE);
+		list.add("nettyio", "Bytes received", bytesReceived, Level.FINE);
+		list.add("nettyio", "Total bytes sent", totalBytesSent, Level.FINE);
+		list.add("nettyio", "Total bytes received", totalBytesReceived, Level.FINE);
+		if (reset) {
+			bytesSent     = 0;
+			bytesReceived = 0;
+		}
+	}
+
+	@Override
+	public long getTotalBuffOverflow() {
+		return 0;
+	}
+
+	@Override
+	public long getTotalBytesReceived() {
+		return totalBytesReceived;
+	}
+
+	@Override
+	public long getTotalBytesSent() {
+		return totalBytesSent;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return a value of <code>IOService<?></code>
+	 */
+	public IOService<?> getIOService() {
+		return service;
+	}
+
+	@Override
+	public boolean isConnected() {
+
+		// Data received before the channel was closed still needs to be processed
+		return channel.isActive() ||!input.isEmpty();
+	}
+
+	@Override
+	public boolean isRemoteAddress(String addr) {
+		InetSocketAddress remote = getRemoteAddress();
+
+		return (remote != null) && remote.getAddress().getHostAddress().equals(addr);
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	@Override
+	public void setLogId(String logId) {
+		this.logId = logId + " ";
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method binds the service to this connection and resumes reading from the
+	 * channel.
+	 *
+	 * @param serv service using this connection
+	 */
+	protected void resume(IOService<?> serv) {
+		service = serv;
+		paused  = false;
+		updateAutoRead();
+		if (!input.isEmpty() ||!channel.isActive()) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Method stops reading from the channel until <code>resume()</code> is
+	 * called.
+	 */
+	protected void pause() {
+		paused = true;
+		updateAutoRead();
+	}
+
+	/**
+	 * Method called from the event loop when data was read from the channel.
+	 *
+	 * @param buf received data
+	 */
+	protected void received(ByteBuf buf) {
+		synchronized (input) {
+			if (released) {
+				buf.release();
+
+				return;
+			}
+			input.offer(buf);
+		}
+		if (inputSize.addAndGet(buf.readableBytes()) >= transport.getInputLimit()) {
+			updateAutoRead();
+		}
+		if (!paused) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Method called from the event loop when the channel was closed.
+	 */
+	protected void closed() {
+		if (service != null) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Method releases any received data which was not processed. Data received
+	 * later is released immediately.
+	 */
+	protected void releaseInput() {
+		ByteBuf buf = null;
+
+		synchronized (input) {
+			released = true;
+			while ((buf = input.poll()) != null) {
+				buf.release();
+			}
+		}
+		inputSize.set(0);
+	}
+
+	private void schedule() {
+		if ((service != null) && scheduled.compareAndSet(false, true)) {
+			transport.execute(this);
+		}
+	}
+
+	private void updateAutoRead() {
+		channel.config().setAutoRead(!paused && (inputSize.get() < transport.getInputLimit()));
+	}
+
+	private void updatePipeline(Runnable task) {
+
+		// Changes are done in the event loop so data written so far is sent
+		// before the new handler is added to the pipeline.
+		if (channel.eventLoop().inEventLoop()) {
+			task.run();
+		} else {
+			channel.eventLoop().execute(task);
+		}
+	}
+}
@@ -0,0 +1,450 @@
+/*
+ * NettyTransport.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.net.netty;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import tigase.io.IOInterface;
+
+import tigase.net.ConnectionOpenListener;
+import tigase.net.ConnectionType;
+import tigase.net.IOService;
+import tigase.net.IOServiceTransport;
+import tigase.net.SocketThread;
+
+import tigase.stats.StatisticsList;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.net.InetSocketAddress;
+
+import java.nio.channels.SocketChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport based on Netty. Connections are handled by Netty event loops
+ * using pooled buffers, while <code>IOService.call()</code> is executed in a
+ * separate thread pool, the same way as with <code>SocketThread</code>, so
+ * parsing of the XMPP stream never blocks an event loop.
+ *
+ * The epoll native transport is used when it is available on the classpath
+ * and not disabled with the <code>net-netty-epoll</code> system property,
+ * otherwise the NIO transport is used.
+ *
+ * @author andrzej
+ */
+public class NettyTransport
+				implements IOServiceTransport {
+	/** System property enabling use of the epoll native transport */
+	public static final String EPOLL_PROP_KEY = "net-netty-epoll";
+
+	/**
+	 * System property with maximal number of bytes received but not processed
+	 * yet by a connection, after which reading from the connection is suspended
+	 */
+	public static final String INPUT_LIMIT_PROP_KEY = "net-netty-input-limit";
+
+	/** Name of the transport */
+	public static final String NAME = "netty";
+
+	/** System property with number of event loop threads */
+	public static final String THREADS_PROP_KEY = "net-netty-threads";
+	private static final String EPOLL_CHANNEL_CLASS =
+			"io.netty.channel.epoll.EpollSocketChannel";
+	private static final String EPOLL_GROUP_CLASS =
+			"io.netty.channel.epoll.EpollEventLoopGroup";
+	private static final String EPOLL_SERVER_CHANNEL_CLASS =
+			"io.netty.channel.epoll.EpollServerSocketChannel";
+	private static final int    INPUT_LIMIT_PROP_VAL = 256 * 1024;
+	private static final Logger log = Logger.getLogger(NettyTransport.class.getName());
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final AtomicLong                                    accepted    =
+			new AtomicLong();
+	private final EventLoopGroup                                bossGroup;
+	private final AtomicLong                                    calls       = new AtomicLong();
+	private final Class<? extends Channel>                      channelClass;
+	private final AtomicLong                                    closed      = new AtomicLong();
+	private final AtomicLong                                    connected   =
+			new AtomicLong();
+	private final boolean                                       epoll;
+	private final ThreadPoolExecutor                            executor;
+	private final int                                           inputLimit  =
+			Integer.getInteger(INPUT_LIMIT_PROP_KEY, INPUT_LIMIT_PROP_VAL);
+	private final Class<? extends ServerChannel>                serverChannelClass;
+	private final ConcurrentMap<ConnectionOpenListener, List<Channel>> servers =
+			new ConcurrentHashMap<ConnectionOpenListener, List<Channel>>();
+	private final EventLoopGroup                                workerGroup;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Constructs ...
+	 *
+	 */
+	@SuppressWarnings("unchecked")
+	public NettyTransport() {
+		int            threads = Integer.getInteger(THREADS_PROP_KEY, Runtime.getRuntime()
+				.availableProcessors() * 2);
+		EventLoopGroup boss    = null;
+		EventLoopGroup worker  = null;
+		Class<? extends ServerChannel> serverCls = NioServerSocketChannel.class;
+		Class<? extends Channel>       cls       = NioSocketChannel.class;
+
+		if (Boolean.parseBoolean(System.getProperty(EPOLL_PROP_KEY, "true"))) {
+			try {
+				Class<?> groupCls = Class.forName(EPOLL_GROUP_CLASS);
+
+				serverCls = (Class<? extends ServerChannel>) Class.forName(
+						EPOLL_SERVER_CHANNEL_CLASS);
+				cls    = (Class<? extends Channel>) Class.forName(EPOLL_CHANNEL_CLASS);
+				boss   = (EventLoopGroup) groupCls.getConstructor(int.class).newInstance(1);
+				worker = (EventLoopGroup) groupCls.getConstructor(int.class).newInstance(
+						threads);
+			} catch (Throwable ex) {
+
+				// Native transport is not available in this Netty version or platform
+				log.log(Level.CONFIG, "Epoll transport not available, using NIO: {0}", ex
+						.toString());
+				serverCls = NioServerSocketChannel.class;
+				cls       = NioSocketChannel.class;
+				if (boss != null) {
+					boss.shutdownGracefully();
+				}
+				boss = null;
+			}
+		}
+		epoll = boss != null;
+		if (!epoll) {
+			boss   = new NioEventLoopGroup(1);
+			worker = new NioEventLoopGroup(threads);
+		}
+		bossGroup          = boss;
+		workerGroup        = worker;
+		serverChannelClass = serverCls;
+		channelClass       = cls;
+
+		int nThreads = (Runtime.getRuntime().availableProcessors() * SocketThread
+				.DEF_MAX_THREADS_PER_CPU) / 2 + 1;
+
+		executor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		log.log(Level.WARNING, "Netty transport started with {0} event loop threads using {1}",
+				new Object[] { threads,
+				epoll
+				? "epoll"
+				: "NIO" });
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public void addConnectionOpenListener(ConnectionOpenListener al) {
+		try {
+			if (al.getConnectionType() == ConnectionType.connect) {
+				InetSocketAddress isa = al.getRemoteAddress();
+
+				if (isa == null) {
+					isa = new InetSocketAddress(al.getRemoteHostname(), al.getPort());
+				}
+				connect(isa, al);
+			} else if ((al.getIfcs() == null) || (al.getIfcs().length == 0) || al.getIfcs()[0]
+					.equals("ifc") || al.getIfcs()[0].equals("*")) {
+				bind(new InetSocketAddress(al.getPort()), al);
+			} else {
+				for (String ifc : al.getIfcs()) {
+					bind(new InetSocketAddress(ifc, al.getPort()), al);
+				}
+			}
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Error: creating connection for: " + al, e);
+			al.accept((SocketChannel) null);
+		}
+	}
+
+	@Override
+	public void addSocketService(IOService<?> serv) {
+		IOInterface io = serv.getIOInterface();
+
+		if (io instanceof NettyIO) {
+			((NettyIO) io).resume(serv);
+		} else {
+			SocketThread.addSocketService(serv);
+		}
+	}
+
+	@Override
+	public void removeConnectionOpenListener(ConnectionOpenListener al) {
+		List<Channel> channels = servers.remove(al);
+
+		if (channels != null) {
+			for (Channel channel : channels) {
+				channel.close();
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void removeSocketService(IOService<?> serv) {
+		IOInterface io = serv.getIOInterface();
+
+		if (io instanceof NettyIO) {
+			((NettyIO) io).pause();
+		} else {
+			SocketThread.removeSocketService((IOService<Object>) serv);
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Netty transport event loops", epoll
+				? "epoll"
+				: "NIO", Level.FINEST);
+		list.add(compName, "Netty transport accepted connections", accepted.get(), Level
+				.FINEST);
+		list.add(compName, "Netty transport opened connections", connected.get(), Level
+				.FINEST);
+		list.add(compName, "Netty transport closed connections", closed.get(), Level.FINEST);
+		list.add(compName, "Netty transport service calls", calls.get(), Level.FINEST);
+		list.add(compName, "Netty transport call queue", executor.getQueue().size(), Level
+				.FINEST);
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method executes task in the thread pool processing socket data.
+	 *
+	 * @param task to execute
+	 */
+	protected void execute(Runnable task) {
+		calls.incrementAndGet();
+		executor.execute(task);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return a value of <code>int</code>
+	 */
+	protected int getInputLimit() {
+		return inputLimit;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	private void bind(final InetSocketAddress isa, final ConnectionOpenListener al) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Setting up ''accept'' channel for: {0}", isa);
+		}
+
+		ServerBootstrap bootstrap = new ServerBootstrap();
+
+		bootstrap.group(bossGroup, workerGroup).channel(serverChannelClass).option(
+				ChannelOption.SO_RCVBUF, al.getReceiveBufferSize()).option(ChannelOption
+				.SO_REUSEADDR, true).childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator
+				.DEFAULT).childOption(ChannelOption.AUTO_READ, false).childOption(ChannelOption
+				.SO_KEEPALIVE, true).childOption(ChannelOption.IP_TOS, al.getTrafficClass())
+				.childHandler(new Initializer(al));
+
+		Channel channel = bootstrap.bind(isa).syncUninterruptibly().channel();
+		List<Channel> channels = servers.get(al);
+
+		if (channels == null) {
+			channels = new ArrayList<Channel>();
+			servers.put(al, channels);
+		}
+		channels.add(channel);
+	}
+
+	private void connect(final InetSocketAddress isa, final ConnectionOpenListener al) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Setting up ''connect'' channel for: {0}/{1}", new Object[] {
+					isa.getAddress(),
+					isa.getPort() });
+		}
+
+		Bootstrap bootstrap = new Bootstrap();
+
+		bootstrap.group(workerGroup).channel(channelClass).option(ChannelOption.ALLOCATOR,
+				PooledByteBufAllocator.DEFAULT).option(ChannelOption.AUTO_READ, false).option(
+				ChannelOption.SO_RCVBUF, al.getReceiveBufferSize()).option(ChannelOption
+				.SO_KEEPALIVE, true).option(ChannelOption.IP_TOS, al.getTrafficClass()).handler(
+				new Initializer(al));
+		bootstrap.connect(isa).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if (!future.isSuccess()) {
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "Problem connecting to: " + isa, future.cause());
+					}
+
+					// The same way as ConnectionOpenThread reports failed connection,
+					// listener is not called from the event loop as it may block
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							al.accept((SocketChannel) null);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private class Handler
+					extends ChannelHandlerAdapter {
+		private NettyIO                      io = null;
+		private final ConnectionOpenListener listener;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Handler(ConnectionOpenListener listener) {
+			this.listener = listener;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public void channelActive(ChannelHandlerContext ctx) throws Exception {
+			if (listener.getConnectionType() == ConnectionType.accept) {
+				accepted.incrementAndGet();
+			} else {
+				connected.incrementAndGet();
+			}
+			io = new NettyIO(ctx.channel(), NettyTransport.this, listener
+					.getReceiveBufferSize());
+
+			final NettyIO nio     = io;
+			final Channel channel = ctx.channel();
+
+			// Listener creates and initializes the service, which may block, so it
+			// is not called from the event loop. Data received in the meantime is
+			// kept until the service is bound to the connection.
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						listener.accept(nio);
+					} catch (Exception e) {
+						log.log(Level.WARNING, "Error accepting connection: " + nio, e);
+					}
+					if (nio.getIOService() == null) {
+
+						// Listener did not start the service for the connection
+						channel.close();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			closed.incrementAndGet();
+			if (io != null) {
+				io.closed();
+			}
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if ((io != null) && (msg instanceof ByteBuf)) {
+				io.received((ByteBuf) msg);
+			} else {
+				ReferenceCountUtil.release(msg);
+			}
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+						throws Exception {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Exception on channel: " + io, cause);
+			}
+			ctx.channel().close();
+		}
+	}
+
+
+	private class Initializer
+					extends ChannelInitializer<Channel> {
+		private final ConnectionOpenListener listener;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Initializer(ConnectionOpenListener listener) {
+			this.listener = listener;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		protected void initChannel(Channel ch) throws Exception {
+			ch.pipeline().addLast(NettyIO.HANDLER_NAME, new Handler(listener));
+		}
+	}
+}
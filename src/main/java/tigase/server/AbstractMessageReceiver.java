@@ -32,6 +32,7 @@ import tigase.stats.StatisticsContainer;
 import tigase.stats.StatisticsList;
 import tigase.stats.StatisticType;
 
+import tigase.util.HashedWheelTimer;
 import tigase.util.PatternComparator;
 import tigase.util.PriorityQueueAbstract;
 
@@ -41,7 +42,9 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -159,6 +162,8 @@ public abstract class AbstractMessageReceiver
 	 */
 	private static final Logger log = Logger.getLogger(
 			"tigase.debug.AbstractMessageReceiver");
+	private static final HashedWheelTimer timerWheel = HashedWheelTimer
+			.getSharedInstance();
 
 	//~--- fields ---------------------------------------------------------------
 
@@ -184,7 +189,7 @@ public abstract class AbstractMessageReceiver
 	private MessageReceiver          parent                = null;
 	private int                      pptIdx                = 0;
 	private final long[]             processPacketTimings  = new long[100];
-	private ScheduledExecutorService receiverScheduler     = null;
+	private volatile ScheduledExecutorService receiverScheduler = null;
 	private Timer                    receiverTasks         = null;
 	private int                      schedulerThreads_size = 1;
 
@@ -218,6 +223,20 @@ public abstract class AbstractMessageReceiver
 			null;
 	private final ConcurrentHashMap<String, PacketReceiverTask> waitingTasks =
 			new ConcurrentHashMap<String, PacketReceiverTask>(16, 0.75f, 4);
+
+	// Executes expired timer tasks on the current scheduler, which may be
+	// replaced when the component is reconfigured
+	private final Executor timerExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			ScheduledExecutorService scheduler = receiverScheduler;
+
+			if (scheduler == null) {
+				throw new RejectedExecutionException(getName() + " is stopped");
+			}
+			scheduler.execute(command);
+		}
+	};
 	private final Set<Pattern> regexRoutings = new ConcurrentSkipListSet<Pattern>(
 			new PatternComparator());
 
@@ -424,6 +443,7 @@ public abstract class AbstractMessageReceiver
 					address });
 		}
 		regexRoutings.add(Pattern.compile(address, Pattern.CASE_INSENSITIVE));
+		regexRoutingsChanged();
 		if (log.isLoggable(Level.FINE)) {
 			log.log(Level.FINE, "{0} - success adding regex routing: {1}", new Object[] {
 					getName(),
@@ -432,17 +452,17 @@ public abstract class AbstractMessageReceiver
 	}
 
 	/**
-	 * Method queues and executes timer tasks using ScheduledExecutorService
-	 * which allows using more than one thread for executing tasks.
+	 * Method queues timer tasks in the shared <code>HashedWheelTimer</code> and
+	 * executes them using ScheduledExecutorService which allows using more than
+	 * one thread for executing tasks. Tasks with delays too short for the
+	 * precision of the shared timer, or all tasks if the shared timer is
+	 * disabled, are queued directly in the ScheduledExecutorService.
 	 *
 	 * @param task
 	 * @param delay
 	 */
 	public void addTimerTask(tigase.util.TimerTask task, long delay) {
-		ScheduledFuture<?> future = receiverScheduler.schedule(task, delay, TimeUnit
-				.MILLISECONDS);
-
-		task.setScheduledFuture(future);
+		scheduleTimerTask(task, delay, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -464,6 +484,7 @@ public abstract class AbstractMessageReceiver
 	 */
 	public void clearRegexRoutings() {
 		regexRoutings.clear();
+		regexRoutingsChanged();
 	}
 
 	/**
@@ -690,7 +711,12 @@ public abstract class AbstractMessageReceiver
 	 * @return a value of <code>boolean</code>
 	 */
 	public boolean removeRegexRouting(String address) {
-		return regexRoutings.remove(Pattern.compile(address, Pattern.CASE_INSENSITIVE));
+		boolean result = regexRoutings.remove(Pattern.compile(address, Pattern
+				.CASE_INSENSITIVE));
+
+		regexRoutingsChanged();
+
+		return result;
 	}
 
 	/**
@@ -1189,17 +1215,18 @@ public abstract class AbstractMessageReceiver
 	}
 
 	/**
-	 * Method queues and executes timer tasks using ScheduledExecutorService
-	 * which allows using more than one thread for executing tasks.
+	 * Method queues timer tasks in the shared <code>HashedWheelTimer</code> and
+	 * executes them using ScheduledExecutorService which allows using more than
+	 * one thread for executing tasks. Tasks with delays too short for the
+	 * precision of the shared timer, or all tasks if the shared timer is
+	 * disabled, are queued directly in the ScheduledExecutorService.
 	 *
 	 * @param task
 	 * @param delay
 	 * @param unit
 	 */
 	protected void addTimerTask(tigase.util.TimerTask task, long delay, TimeUnit unit) {
-		ScheduledFuture<?> future = receiverScheduler.schedule(task, delay, unit);
-
-		task.setScheduledFuture(future);
+		scheduleTimerTask(task, delay, unit);
 	}
 
 	/**
@@ -1247,6 +1274,26 @@ public abstract class AbstractMessageReceiver
 		return result;
 	}
 
+	private void regexRoutingsChanged() {
+
+		// Router caches results of regex routings matching
+		if (parent instanceof MessageRouter) {
+			((MessageRouter) parent).routingsChanged();
+		}
+	}
+
+	private void scheduleTimerTask(tigase.util.TimerTask task, long delay,
+			TimeUnit unit) {
+		// Short delays, like BOSH batching, would be delayed by up to a tick on
+		// the wheel, so they go directly to the scheduler
+		ScheduledFuture<?> future = ((timerWheel != null) && timerWheel.isPreciseFor(delay,
+				unit))
+				? timerWheel.schedule(task, delay, unit, timerExecutor)
+				: receiverScheduler.schedule(task, delay, unit);
+
+		task.setScheduledFuture(future);
+	}
+
 	private void startThreads() {
 		if (threadsQueue == null) {
 			threadsQueue = new ArrayDeque<QueueListener>(8);
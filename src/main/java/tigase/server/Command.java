@@ -166,6 +166,15 @@ public enum Command {
 	 * Command sent to SessionManager to change connectionId of existing session.
 	 */
 	STREAM_MOVED(Priority.NORMAL),
+
+	/**
+	 * Command sent from the session manager to a connection manager to be
+	 * notified when data sent earlier to the client connection has been written.
+	 * The connection manager responds with result, carrying the same data fields,
+	 * when the connection write queue is empty. The session manager passes the
+	 * result to the processor named in the <code>processor</code> field.
+	 */
+	FLOW_CONTROL(Priority.NORMAL),
 	
 	/**
 	 * Identifies all other, not predefined commands.
@@ -178,6 +187,9 @@ public enum Command {
 	/** Field description */
 	public static final String FIELD_EL = "field";
 
+	/** Name of the field with ID of the processor waiting for FLOW_CONTROL result */
+	public static final String FLOW_CONTROL_PROCESSOR_FIELD = "processor";
+
 	/** Field description */
 	public static final String VALUE_EL = "value";
 
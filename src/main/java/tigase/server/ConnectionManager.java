@@ -35,6 +35,8 @@ import static tigase.xmpp.XMPPIOService.DOM_HANDLER;
 import tigase.xmpp.XMPPIOServiceListener;
 
 import tigase.annotations.TODO;
+import tigase.io.BufferPool;
+import tigase.io.TransportIO;
 import tigase.net.*;
 import tigase.stats.StatisticsList;
 import tigase.util.DataTypes;
@@ -45,6 +47,11 @@ import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -168,7 +175,6 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	protected static final String       XMPP_ACK_PROP_KEY = "xmpp-ack";
 	private static final Logger         log = Logger.getLogger(ConnectionManager.class
 			.getName());
-	private static ConnectionOpenThread connectThread = ConnectionOpenThread.getInstance();
 
 	/** Field description */
 	protected static final boolean XMPP_ACK_PROP_VAL = false;
@@ -198,6 +204,16 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	protected static final String WATCHDOG_TIMEOUT = "watchdog_timeout";
 	protected static final String WATCHDOG_PING_TYPE_KEY = "watchdog_ping_type";
 
+	/**
+	 * Key of the property selecting network transport used by the component,
+	 * <code>socket-thread</code> (default), <code>netty</code> or name of the
+	 * class implementing <code>IOServiceTransport</code>.
+	 */
+	public static final String NET_TRANSPORT_PROP_KEY = "net-transport";
+
+	/** Default network transport */
+	public static final String NET_TRANSPORT_PROP_VAL = SocketThreadTransport.NAME;
+
 
   //J+
 
@@ -210,9 +226,12 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	private int                             services_size     = 0;
 	private long                            socketOverflow    = 0;
 	private Thread                          watchdog          = null;
+	private long                            watchdogChecked   = 0;
+	private long                            watchdogMaxScanTime = 0;
 	private long                            watchdogRuns      = 0;
-	private long                            watchdogStopped   = 0;
-	private long                            watchdogTests     = 0;
+	private long                            watchdogScanTime  = 0;
+	private final AtomicLong                watchdogStopped   = new AtomicLong();
+	private final AtomicLong                watchdogTests     = new AtomicLong();
 	protected long                          watchdogDelay     = 10 * MINUTE; // 600 000
 	protected long                          watchdogTimeout   = 29 * MINUTE; // 1 740 000
 	private boolean                         white_char_ack    = WHITE_CHAR_ACK_PROP_VAL;
@@ -229,6 +248,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	 */
 	protected int elements_number_limit = 0;
 	private ConcurrentHashMap<String, IO> services = new ConcurrentHashMap<String, IO>();
+	private final IdleWheel<IO>           idleWheel = new IdleWheel<IO>(watchdogDelay);
 	private Set<ConnectionListenerImpl>   pending_open = Collections.synchronizedSet(
 			new HashSet<ConnectionListenerImpl>());;
 	private long                      maxInactivityTime       = getMaxInactiveTime();
@@ -239,6 +259,8 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	private int net_buffer_limit = 0;
 	private IOServiceStatisticsGetter ioStatsGetter = new IOServiceStatisticsGetter();
 	private boolean                   initializationCompleted = false;
+	private IOServiceTransport        transport =
+			IOServiceTransportFactory.getDefaultTransport();
 
 	/** Field description */
 	protected int net_buffer = NET_BUFFER_ST_PROP_VAL;
@@ -494,6 +516,8 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		}
 		services.put(id, service);
 		++services_size;
+		idleWheel.schedule(service, System.currentTimeMillis() + Math.min(watchdogTimeout,
+				maxInactivityTime));
 
 		// }
 	}
@@ -526,6 +550,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 
 			if (result) {
 				--services_size;
+				idleWheel.remove(service);
 			} else if (log.isLoggable(Level.FINER)) {
 
 				// Is it at all possible to happen???
@@ -588,7 +613,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 				}      // end of for ()
 				try {
 					serv.processWaitingPackets();
-					SocketThread.addSocketService(serv);
+					transport.addSocketService(serv);
 				} catch (Exception e) {
 					log.log(Level.WARNING, serv + "Exception during writing packets: ", e);
 					try {
@@ -633,7 +658,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			if (ios.writeInProgress.tryLock()) {
 				try {
 					ios.processWaitingPackets();
-					SocketThread.addSocketService(ios);
+					transport.addSocketService(ios);
 
 					return true;
 				} catch (Exception e) {
@@ -704,6 +729,12 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		}
 		props.put( WATCHDOG_PING_TYPE_KEY, pingtype);
 
+		if ( params.get( "--" + NET_TRANSPORT_PROP_KEY ) != null ){
+			props.put( NET_TRANSPORT_PROP_KEY, params.get( "--" + NET_TRANSPORT_PROP_KEY ) );
+		} else {
+			props.put( NET_TRANSPORT_PROP_KEY, NET_TRANSPORT_PROP_VAL );
+		}
+
 		int[]  ports     = null;
 		String ports_str = (String) params.get("--" + getName() + "-ports");
 
@@ -803,8 +834,23 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		list.add(getName(), "Bytes received", bytesReceived, Level.FINE);
 		list.add(getName(), "Socket overflow", socketOverflow, Level.FINE);
 		list.add(getName(), "Watchdog runs", watchdogRuns, Level.FINER);
-		list.add(getName(), "Watchdog tests", watchdogTests, Level.FINE);
-		list.add(getName(), "Watchdog stopped", watchdogStopped, Level.FINE);
+		list.add(getName(), "Watchdog tests", watchdogTests.get(), Level.FINE);
+		list.add(getName(), "Watchdog stopped", watchdogStopped.get(), Level.FINE);
+		list.add(getName(), "Watchdog last checked", watchdogChecked, Level.FINER);
+		list.add(getName(), "Watchdog last scan time [ms]", watchdogScanTime, Level.FINE);
+		list.add(getName(), "Watchdog max scan time [ms]", watchdogMaxScanTime, Level.FINER);
+		transport.getStatistics(getName(), list);
+		BufferPool.getInstance().getStatistics(getName(), list);
+	}
+
+	/**
+	 * Method returns network transport used by the component.
+	 *
+	 *
+	 * @return a value of <code>IOServiceTransport</code>
+	 */
+	public IOServiceTransport getIOServiceTransport() {
+		return transport;
 	}
 
 	/**
@@ -896,6 +942,20 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			String value = String.valueOf( props.get( WATCHDOG_PING_TYPE_KEY ) );
 			watchdogPingType = WATCHDOG_PING_TYPE.valueOf( value.toUpperCase() );
 		}
+		if ( props.get( NET_TRANSPORT_PROP_KEY ) != null && !initializationCompleted ){
+
+			// Transport can be changed only before any connection is opened
+			String name = String.valueOf( props.get( NET_TRANSPORT_PROP_KEY ) );
+			try {
+				transport = IOServiceTransportFactory.getTransport( name );
+				log.log( Level.CONFIG, "{0} is using network transport: {1}", new Object[] {
+						getName(), transport.getName() } );
+			} catch ( Exception e ) {
+				log.log( Level.WARNING, getName() + " can not create network transport: "
+						+ name + ", using default one", e );
+				transport = IOServiceTransportFactory.getDefaultTransport();
+			}
+		}
 
 		if (props.size() == 1) {
 
@@ -1064,7 +1124,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	protected void writeRawData(IO ios, String data) {
 		try {
 			ios.writeRawData(data);
-			SocketThread.addSocketService(ios);
+			transport.addSocketService(ios);
 		} catch (Exception e) {
 			log.log(Level.WARNING, ios + "Exception during writing data: " + data, e);
 			try {
@@ -1291,7 +1351,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 
 	private void releaseListeners() {
 		for (ConnectionListenerImpl cli : pending_open) {
-			connectThread.removeConnectionOpenListener(cli);
+			transport.removeConnectionOpenListener(cli);
 		}
 		pending_open.clear();
 	}
@@ -1306,7 +1366,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		if (cli.getConnectionType() == ConnectionType.accept) {
 			pending_open.add(cli);
 		}
-		connectThread.addConnectionOpenListener(cli);
+		transport.addConnectionOpenListener(cli);
 	}
 
 	//~--- inner classes --------------------------------------------------------
@@ -1325,6 +1385,15 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 
 		@Override
 		public void accept(SocketChannel sc) {
+			accept(sc, null);
+		}
+
+		@Override
+		public void accept(TransportIO io) {
+			accept(null, io);
+		}
+
+		private void accept(SocketChannel sc, TransportIO io) {
 			String cid = "" + port_props.get("local-hostname") + "@" + port_props.get(
 					"remote-hostname");
 
@@ -1340,12 +1409,16 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			serv.setIOServiceListener(ConnectionManager.this);
 			serv.setSessionData(port_props);
 			try {
-				serv.accept(sc);
+				if (io != null) {
+					serv.accept(io);
+				} else {
+					serv.accept(sc);
+				}
 				if (getSocketType() == SocketType.ssl) {
 					serv.startSSL(false, isTlsWantClientAuthEnabled());
 				}    // end of if (socket == SocketType.ssl)
 				serviceStarted(serv);
-				SocketThread.addSocketService(serv);
+				transport.addSocketService(serv);
 			} catch (Exception e) {
 				if (getConnectionType() == ConnectionType.connect) {
 
@@ -1491,6 +1564,9 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	 * is dead by performing either whitspace or XMPP ping. If client fails to
 	 * respond within defined time then the service is stopped.
 	 *
+	 * Watchdog checks only connections from expired buckets of the idle wheel.
+	 * Checks, including pings, are executed in parallel by a pool of threads,
+	 * so they do not delay the watchdog.
 	 */
 	private class Watchdog
 					implements Runnable {
@@ -1498,7 +1574,31 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		private final Element pingElement = new Element( "ping",
 																										 new String[] { "xmlns" },
 																										 new String[] { "urn:xmpp:ping" } );
-		private long pingCount = 0;
+		private final AtomicLong         pingCount = new AtomicLong();
+		private final ThreadPoolExecutor checkExecutor;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Watchdog() {
+			int threads = Runtime.getRuntime().availableProcessors();
+
+			checkExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private int counter = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Watchdog check - " + getName() + "-" + (++counter));
+
+					t.setDaemon(true);
+
+					return t;
+				}
+			});
+			checkExecutor.allowCoreThreadTimeOut(true);
+		}
+
+		//~--- methods ------------------------------------------------------------
 
 		@Override
 		public void run() {
@@ -1509,79 +1609,100 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 					Thread.sleep(watchdogDelay);
 					++watchdogRuns;
 
-					/** Walk through all connections and check whether they are really
-					 * alive. Depending on the configuration send either whitespace or
-					 * XMPP ping if the service is inactive for the configured period of
-					 * time
+					/** Check connections which may be inactive for the configured period
+					 * of time. Connections active in the meantime are moved to buckets of
+					 * their new deadlines, others get either whitespace or XMPP ping
+					 * depending on the configuration or are stopped.
 					 */
-					doForAllServices(new ServiceChecker<IO>() {
-						@Override
-						public void check(final XMPPIOService service) {
-							try {
-								if ( null != service ){
-									long curr_time = System.currentTimeMillis();
-									long lastTransfer;
-									switch (watchdogPingType) {
-										case XMPP:
-											lastTransfer = service.getLastXmppPacketReceiveTime();
-											break;
-										case WHITESPACE:
-										default:
-											lastTransfer = service.getLastTransferTime();
-											break;
-									}
-
-									if ( curr_time - lastTransfer >= maxInactivityTime ){
-
-										// Stop the service if max keep-alive time is exceeded
-										// for non-active connections.
-										if ( log.isLoggable( Level.INFO ) ){
-											log.log( Level.INFO,
-															 "{0}: Max inactive time exceeded, stopping: {1}",
-															 new Object[] { getName(),
-																							service } );
-										}
-										++watchdogStopped;
-										service.stop();
-									} else {
-										if ( curr_time - lastTransfer >= ( watchdogTimeout ) ){
-
-											/** At least once every configured timings check if the
-											 * connection is still alive with the use of configured
-											 * ping type. */
-											switch ( watchdogPingType ) {
-												case XMPP:
-													writePacketToSocket( getPingPacket( service ));
-													break;
-
-												case WHITESPACE:
-													service.writeRawData( " " );
-													break;
-											}
-											++watchdogTests;
-										}
-									}
-								}
-							} catch ( IOException e ) {
-
-								// Close the service
-								try {
-									if ( service != null ){
-										log.info( getName() + "Found dead connection, stopping: " + service );
-										++watchdogStopped;
-										service.forceStop();
-									}
-								} catch ( Exception ignore ) {
-									// Do nothing here as we expect Exception to be thrown here...
-								}
+					idleWheel.setResolution(watchdogDelay);
+
+					long     start   = System.currentTimeMillis();
+					List<IO> expired = idleWheel.expire(start);
+
+					for (final IO service : expired) {
+						checkExecutor.execute(new Runnable() {
+							@Override
+							public void run() {
+								check(service);
 							}
-						}
-					} );
+						});
+					}
+					watchdogChecked  = expired.size();
+					watchdogScanTime = System.currentTimeMillis() - start;
+					if (watchdogScanTime > watchdogMaxScanTime) {
+						watchdogMaxScanTime = watchdogScanTime;
+					}
 				} catch ( InterruptedException e ) {    /* Do nothing here */
 				}
 			}
 		}
 
+		private void check(final IO service) {
+			String id = getUniqueId(service);
+
+			// Service could be stopped after it was taken from the wheel
+			if ((id == null) || (services.get(id) != service)) {
+				return;
+			}
+			try {
+				long curr_time = System.currentTimeMillis();
+				long lastTransfer;
+				switch (watchdogPingType) {
+					case XMPP:
+						lastTransfer = service.getLastXmppPacketReceiveTime();
+						break;
+					case WHITESPACE:
+					default:
+						lastTransfer = service.getLastTransferTime();
+						break;
+				}
+
+				if ( curr_time - lastTransfer >= maxInactivityTime ){
+
+					// Stop the service if max keep-alive time is exceeded
+					// for non-active connections.
+					if ( log.isLoggable( Level.INFO ) ){
+						log.log( Level.INFO,
+										 "{0}: Max inactive time exceeded, stopping: {1}",
+										 new Object[] { getName(),
+																		service } );
+					}
+					idleWheel.schedule(service, curr_time + watchdogDelay);
+					watchdogStopped.incrementAndGet();
+					service.stop();
+				} else if ( curr_time - lastTransfer >= ( watchdogTimeout ) ){
+
+					/** At least once every configured timings check if the
+					 * connection is still alive with the use of configured
+					 * ping type. */
+					idleWheel.schedule(service, curr_time + watchdogDelay);
+					switch ( watchdogPingType ) {
+						case XMPP:
+							writePacketToSocket( getPingPacket( service ));
+							break;
+
+						case WHITESPACE:
+							service.writeRawData( " " );
+							break;
+					}
+					watchdogTests.incrementAndGet();
+				} else {
+					idleWheel.schedule(service, lastTransfer + Math.min(watchdogTimeout,
+							maxInactivityTime));
+				}
+			} catch ( IOException e ) {
+
+				// Close the service
+				try {
+					log.info( getName() + "Found dead connection, stopping: " + service );
+					watchdogStopped.incrementAndGet();
+					service.forceStop();
+				} catch ( Exception ignore ) {
+					// Do nothing here as we expect Exception to be thrown here...
+				}
+			}
+		}
+
 		/**
 		 * Creates {@code ping} {@link Packet} addressed to the {@link JID}
 		 * pertaining to the {@link XMPPIOService} object passed as argument.
@@ -1598,7 +1719,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 
 			Element iq = new Element( "iq",
 																new String[] { "type", "id" },
-																new String[] { "get", "tigase-ping-" + pingCount++ } );
+																new String[] { "get", "tigase-ping-" + pingCount.getAndIncrement() } );
 			Packet ping = Packet.packetInstance( iq, from, to );
 			ping.setPacketTo( service.getConnectionId() );
 			ping.getElement().addChild( pingElement );
@@ -0,0 +1,188 @@
+/*
+ * IdleWheel.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.server;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Coarse timing wheel tracking idle connections. Each connection is kept in a
+ * bucket of the time when it has to be checked next, so the watchdog inspects
+ * only connections from expired buckets instead of walking through all of
+ * them.
+ *
+ * Buckets are identified by their expiration time rounded up to the wheel
+ * resolution. Activity on a connection does not touch the wheel, the watchdog
+ * moves a connection found active in an expired bucket to the bucket of its
+ * new deadline.
+ *
+ * @param <T> type of tracked items
+ *
+ * @author andrzej
+ */
+class IdleWheel<T> {
+	private final ConcurrentSkipListMap<Long, Set<T>> buckets =
+			new ConcurrentSkipListMap<Long, Set<T>>();
+	private final ConcurrentHashMap<T, Long> slots = new ConcurrentHashMap<T, Long>();
+	private volatile long                    resolution;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Creates wheel with given resolution.
+	 *
+	 * @param resolution width of a bucket in milliseconds
+	 */
+	IdleWheel(long resolution) {
+		setResolution(resolution);
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method removes from the wheel and returns all items from buckets which
+	 * expired at the given time.
+	 *
+	 * @param now current time in milliseconds
+	 *
+	 * @return expired items
+	 */
+	List<T> expire(long now) {
+		List<T> result = new ArrayList<T>();
+		Map.Entry<Long, Set<T>> bucket;
+
+		while (((bucket = buckets.firstEntry()) != null) && (bucket.getKey() <= now)) {
+			if (!buckets.remove(bucket.getKey(), bucket.getValue())) {
+				continue;
+			}
+			for (T item : bucket.getValue()) {
+				if (slots.remove(item, bucket.getKey())) {
+					result.add(item);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Method removes item from the wheel.
+	 *
+	 * @param item to remove
+	 */
+	void remove(T item) {
+		Long slot = slots.remove(item);
+
+		if (slot != null) {
+			Set<T> bucket = buckets.get(slot);
+
+			if (bucket != null) {
+				bucket.remove(item);
+			}
+		}
+	}
+
+	/**
+	 * Method puts item to the bucket of given deadline, removing it from the
+	 * bucket it has been in so far.
+	 *
+	 * @param item to schedule
+	 * @param deadline time in milliseconds when the item has to be checked
+	 */
+	void schedule(T item, long deadline) {
+		long res  = resolution;
+		long slot = ((deadline + res - 1) / res) * res;
+		Long old  = slots.put(item, slot);
+
+		if ((old != null) && (old.longValue() != slot)) {
+			Set<T> bucket = buckets.get(old);
+
+			if (bucket != null) {
+				bucket.remove(item);
+			}
+		}
+
+		// The bucket may be expired concurrently, in such a case the item is
+		// put to a new bucket with the same deadline
+		while (isScheduled(item, slot)) {
+			Set<T> bucket = buckets.get(slot);
+
+			if (bucket == null) {
+				Set<T> created = Collections.newSetFromMap(new ConcurrentHashMap<T,
+						Boolean>());
+
+				bucket = buckets.putIfAbsent(slot, created);
+				if (bucket == null) {
+					bucket = created;
+				}
+			}
+			bucket.add(item);
+			if (buckets.get(slot) == bucket) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Method checks whether the item is still scheduled to the bucket.
+	 *
+	 * @param item to check
+	 * @param slot bucket deadline
+	 *
+	 * @return <code>true</code> if the item is in the bucket
+	 */
+	private boolean isScheduled(T item, long slot) {
+		Long current = slots.get(item);
+
+		return (current != null) && (current.longValue() == slot);
+	}
+
+	/**
+	 * Method returns number of tracked items.
+	 *
+	 * @return number of items
+	 */
+	int size() {
+		return slots.size();
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Method sets width of buckets for items scheduled from now on.
+	 *
+	 * @param resolution width of a bucket in milliseconds
+	 */
+	void setResolution(long resolution) {
+		this.resolution = Math.max(1, resolution);
+	}
+}
@@ -34,6 +34,8 @@ import tigase.stats.StatisticsList;
 
 import tigase.sys.TigaseRuntime;
 
+import tigase.util.HashedWheelTimer;
+import tigase.util.SymbolTable;
 import tigase.util.TigaseStringprepException;
 import tigase.util.UpdatesChecker;
 
@@ -79,6 +81,14 @@ public class MessageRouter
 	// "http://jabber.org/protocol/disco#items";
 	private static final Logger log = Logger.getLogger(MessageRouter.class.getName());
 
+	/**
+	 * System property setting maximum number of destinations cached by the
+	 * routing table
+	 */
+	public static final String ROUTING_CACHE_SIZE_PROP_KEY = "message-router-routing-cache";
+	private static final int   ROUTING_CACHE_SIZE = Integer.getInteger(
+			ROUTING_CACHE_SIZE_PROP_KEY, 10000);
+
 	//~--- fields ---------------------------------------------------------------
 
 	private ConfiguratorAbstract config = null;
@@ -97,6 +107,10 @@ public class MessageRouter
 			new ConcurrentSkipListSet<>();
 	private Map<JID, ServerComponent>         components_byId = new ConcurrentHashMap<>();
 	private Map<String, ServerComponent>      components      = new ConcurrentHashMap<>();
+	private volatile RoutingTable             routingTable    = null;
+	private long                              routingCacheHits     = 0;
+	private long                              routingCacheMisses   = 0;
+	private long                              routingTableRebuilds = 0;
 
 	//~--- methods --------------------------------------------------------------
 
@@ -123,6 +137,7 @@ public class MessageRouter
 		if (component instanceof XMPPService) {
 			xmppServices.put(component.getName(), (XMPPService) component);
 		}
+		routingsChanged();
 	}
 
 	/**
@@ -154,6 +169,7 @@ public class MessageRouter
 		log.info("Adding receiver: " + receiver.getClass().getSimpleName());
 		addComponent(receiver);
 		receivers.put(receiver.getName(), receiver);
+		routingsChanged();
 	}
 
 	/**
@@ -377,22 +393,11 @@ public class MessageRouter
 		// The code below finds all components which handle packets addressed
 		// to a virtual domains (implement VHostListener and return 'true' from
 		// handlesLocalDomains() method call)
-		String            host  = packet.getTo().getDomain();
-		ServerComponent[] comps = getComponentsForLocalDomain(host);
-
-		if (comps == null) {
-
-			// Still no component found, now the most expensive lookup.
-			// Checking regex routings provided by the component.
-			comps = getServerComponentsForRegex(packet.getTo().getBareJID().toString());
-		}
-		if ((comps == null) &&!isLocalDomain(host)) {
-
-			// None of the component want to process the packet.
-			// If the packet is addressed to non-local domain then it is processed by
-			// all components dealing with external world, like s2s
-			comps = getComponentsForNonLocalDomain(host);
-		}
+		// If none of them is found regex routings provided by the components are
+		// checked and if none of the component want to process the packet and
+		// it is addressed to non-local domain then it is processed by all
+		// components dealing with external world, like s2s
+		ServerComponent[] comps = getRoutingTable().getComponents(packet.getTo());
 
 		// Ok, if any component has been found then process the packet in a standard
 		// way
@@ -526,6 +531,7 @@ public class MessageRouter
 		if (component instanceof XMPPService) {
 			xmppServices.remove(component.getName());
 		}
+		routingsChanged();
 	}
 
 	/**
@@ -540,6 +546,19 @@ public class MessageRouter
 		removeComponent(receiver);
 	}
 
+	/**
+	 * Method description
+	 *
+	 */
+	@Override
+	public synchronized void everyMinute() {
+		super.everyMinute();
+
+		// Virtual hosts reloaded from database are not reported so the routing
+		// table is recreated from time to time
+		routingsChanged();
+	}
+
 	/**
 	 * Method description
 	 *
@@ -644,6 +663,17 @@ public class MessageRouter
 		list.add(getName(), "CPUs no", runtime.getCPUsNumber(), Level.FINEST);
 		list.add(getName(), "Threads count", runtime.getThreadsNumber(), Level.FINEST);
 
+		HashedWheelTimer timer = HashedWheelTimer.getSharedInstance();
+
+		if (timer != null) {
+			list.add(getName(), "Pending timers", timer.getPending(), Level.FINE);
+			list.add(getName(), "Timer tick lag [ms]", timer.getTickLag(), Level.FINE);
+			list.add(getName(), "Timer max tick lag [ms]", timer.getMaxTickLag(), Level
+					.FINEST);
+			list.add(getName(), "Expired timers", timer.getExpired(), Level.FINEST);
+		}
+		SymbolTable.getInstance().getStatistics(getName(), list);
+
 		float cpuUsage     = runtime.getCPUUsage();
 		float heapUsage    = runtime.getHeapMemUsage();
 		float nonHeapUsage = runtime.getNonHeapMemUsage();
@@ -679,6 +709,16 @@ public class MessageRouter
 				.FINE);
 		list.add(getName(), "Free NonHeap", format.format((nonHeap.getMax() - nonHeap
 				.getUsed()) / 1024), Level.FINE);
+
+		RoutingTable table = routingTable;
+
+		list.add(getName(), "Routing cache hits", routingCacheHits + ((table != null)
+				? table.getHits()
+				: 0), Level.FINE);
+		list.add(getName(), "Routing cache misses", routingCacheMisses + ((table != null)
+				? table.getMisses()
+				: 0), Level.FINE);
+		list.add(getName(), "Routing table rebuilds", routingTableRebuilds, Level.FINE);
 	}
 
 	//~--- set methods ----------------------------------------------------------
@@ -847,6 +887,7 @@ public class MessageRouter
 			}
 		} finally {
 			inProperties = false;
+			routingsChanged();
 		}        // end of try-finally
 		for (ServerComponent comp : components.values()) {
 			log.log(Level.INFO, "Initialization completed notification to: {0}", comp
@@ -1020,92 +1061,60 @@ public class MessageRouter
 		return vHostManager.getComponentsForLocalDomain(domain);
 	}
 
-	private ServerComponent[] getComponentsForNonLocalDomain(String domain) {
-		return vHostManager.getComponentsForNonLocalDomain(domain);
-	}
-
 	private ServerComponent getLocalComponent(JID jid) {
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Called for : {0}", jid);
 		}
+		if (vHostManager == null) {
+			return components_byId.get(jid);
+		}
 
 		// Fast lookup in the server components to find a candidate
 		// by the component ID (JID). If the packet is addressed directly
 		// to the component ID then this is where the processing must happen.
 		// Normally the component id is: component name + "@" + default hostname
 		// However the component may "choose" to have any ID.
-		ServerComponent comp = components_byId.get(jid);
-
-		if (comp != null) {
-			return comp;
-		}
-		if (log.isLoggable(Level.FINEST)) {
-			log.log(Level.FINEST, "None compId matches (fast lookup): {0}, for map: {1}", new Object[] { jid,
-					components_byId });
-		}
-
-		// Note, component ID consists of the component name + default hostname
-		// which can be different from a virtual host. There might be many
-		// virtual hosts and the packet can be addressed to the component by
-		// the component name + virtual host name
-		// Code below, tries to find a destination by the component name + any
-		// active virtual hostname.
-		if (jid.getLocalpart() != null) {
-			comp = components.get(jid.getLocalpart());
-			if ((comp != null) && (isLocalDomain(jid.getDomain()) || jid.getDomain().equals(
-					getDefHostName().getDomain()))) {
-				return comp;
-			}
-		}
-		if (log.isLoggable(Level.FINEST)) {
-			log.log(Level.FINEST,
-					"Still no comp name matches (VHost lookup): {0}, for map: {1}, for all VHosts: {3}",
-					new Object[] { jid,
-					components, vHostManager.getAllVHosts() });
-		}
-
-		// Instead of a component ID built of: component name + "@" domain name
-		// Some components have an ID of: component name + "." domain name
-		// Code below tries to find a packet receiver if the address have the other
-		// type of form.
-		int idx = jid.getDomain().indexOf('.');
+		// Then the component is searched by the component name + "@" any active
+		// virtual hostname or by component name + "." + any active virtual
+		// hostname.
+		return getRoutingTable().getLocalComponent(jid);
+	}
 
-		if (idx > 0) {
-			String cmpName  = jid.getDomain().substring(0, idx);
-			String basename = jid.getDomain().substring(idx + 1);
+	/**
+	 * Method drops the current routing table, new one is created from the
+	 * current state of components, regex routings and virtual hosts when the
+	 * next packet is routed.
+	 */
+	synchronized void routingsChanged() {
+		RoutingTable table = routingTable;
 
-			comp = components.get(cmpName);
-			if ((comp != null) && (isLocalDomain(basename) || basename.equals(getDefHostName()
-					.getDomain()))) {
-				return comp;
-			}
-			if ( log.isLoggable( Level.FINEST ) ){
-				log.log( Level.FINEST,
-								 "Component match failed: {0}, for comp: {1}, basename: {3}",
-								 new Object[] { jid,
-																components, comp, basename } );
-			}
+		if (table != null) {
+			routingTable        = null;
+			routingCacheHits   += table.getHits();
+			routingCacheMisses += table.getMisses();
 		}
-
-		return null;
 	}
 
-	private ServerComponent[] getServerComponentsForRegex(String id) {
-		LinkedHashSet<ServerComponent> comps = new LinkedHashSet<ServerComponent>();
+	private RoutingTable getRoutingTable() {
+		RoutingTable table = routingTable;
 
-		for (MessageReceiver mr : receivers.values()) {
-			if (log.isLoggable(Level.FINEST)) {
-				log.finest("Checking routings for: " + mr.getName());
-			}
-			if (mr.isInRegexRoutings(id)) {
-				comps.add(mr);
+		if ((table == null) || table.isOutdated()) {
+			synchronized (this) {
+				table = routingTable;
+				if ((table == null) || table.isOutdated()) {
+					if (table != null) {
+						routingCacheHits   += table.getHits();
+						routingCacheMisses += table.getMisses();
+					}
+					table = new RoutingTable(components_byId, components, receivers.values(),
+							vHostManager, getDefHostName().getDomain(), ROUTING_CACHE_SIZE);
+					++routingTableRebuilds;
+					routingTable = table;
+				}
 			}
 		}
-		if (comps.size() > 0) {
-			return comps.toArray(new ServerComponent[comps.size()]);
-		} else {
-			return null;
-		}
+
+		return table;
 	}
 
 	private boolean isDiscoDisabled(ServerComponent comp, JID to) {
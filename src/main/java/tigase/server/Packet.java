@@ -64,6 +64,13 @@ import java.util.Set;
  * the methods which accept preparsed JIDs. Reusing preparsed JIDs is highly
  * recommended.
  * <p/>
+ * Packets created by <code>packetInstanceShared(...)</code> share a single stanza
+ * element without destination address, which is taken from the packet stanza
+ * destination JID when the stanza is serialized. Such a packet creates its own
+ * copy of the element with destination address set as soon as the element is
+ * accessed by <code>getElement()</code>, so sharing is not visible to the code
+ * processing packets.
+ * <p/>
  * There are 3 kinds of addresses available from the <code>Packet</code> object:
  * <em>PacketFrom/To</em>, <em>StanzaFrom/To</em> and <em>From/To</em>.<br/>
  * <em>Stanza</em> addresses are the normal XMPP addresses parsed from the XML
@@ -149,6 +156,7 @@ public class Packet {
 	private Priority priority           = Priority.NORMAL;
 	private Permissions permissions     = Permissions.NONE;
 	private boolean routed;
+	private boolean shared              = false;
 	private StanzaType type;
 
 	//~--- constructors ---------------------------------------------------------
@@ -297,6 +305,36 @@ public class Packet {
 		return result;
 	}
 
+	/**
+	 * The method returns <code>Packet</code> instance sharing the stanza XML element
+	 * with other packets, which differ only in the destination address. This allows
+	 * for sending the same stanza to many recipients, like a presence broadcast,
+	 * without a copy of the stanza for each of them.<p/>
+	 * The element is never modified by the packet and must not be modified by the
+	 * caller after the packet is created. It should not have the <em>'to'</em>
+	 * attribute, the stanza destination address is set from <code>stanzaTo</code>
+	 * parameter when the stanza is serialized or when a private copy of the
+	 * element is created by <code>getElement()</code>.
+	 *
+	 * @param elem is the shared stanza XML <code>Element</code>
+	 * @param stanzaFrom is a pre-parsed <code>JID</code> instance from the given stanza
+	 * XML element.
+	 * @param stanzaTo is the stanza destination address.
+	 * @return a <code>Packet</code> instance, more specifically instance of one of the
+	 * following classes: <code>Iq</code>, <code>Message</code> or <code>Presence</code>.
+	 */
+	public static Packet packetInstanceShared(Element elem, JID stanzaFrom, JID stanzaTo) {
+
+		// Null addresses leave the element untouched
+		Packet result = packetInstance(elem, null, null);
+
+		result.stanzaFrom = stanzaFrom;
+		result.stanzaTo   = stanzaTo;
+		result.shared     = true;
+
+		return result;
+	}
+
 	/**
 	 * The method creates XML stanza from given parameters and returns
 	 * <code>Packet</code> instance for this XML stanza.
@@ -336,8 +374,13 @@ public class Packet {
 	 * @return a new copy of the packet with packet specific fields set to NULL.
 	 */
 	public Packet copyElementOnly() {
-		Element res_elem = elem.clone();
-		Packet result    = packetInstance(res_elem, getStanzaFrom(), getStanzaTo());
+		Packet result;
+
+		if (shared) {
+			result = packetInstanceShared(elem, getStanzaFrom(), getStanzaTo());
+		} else {
+			result = packetInstance(elem.clone(), getStanzaFrom(), getStanzaTo());
+		}
 
 		result.setPriority(priority);
 
@@ -441,6 +484,10 @@ public class Packet {
 	 */
 	@Deprecated
 	public String getAttribute(String key) {
+		if (key == TO_ATT) {
+			unshare();
+		}
+
 		return elem.getAttribute(key);
 	}
 
@@ -453,6 +500,10 @@ public class Packet {
 	 * 
 	 */
 	public String getAttributeStaticStr(String key) {
+		if (key == TO_ATT) {
+			unshare();
+		}
+
 		return elem.getAttributeStaticStr(key);
 	}
 
@@ -731,6 +782,20 @@ public class Packet {
 	 * @return the stanza XML element in DOM format.
 	 */
 	public Element getElement() {
+		unshare();
+
+		return elem;
+	}
+
+	/**
+	 * Method returns the stanza XML element without creating a private copy of the
+	 * element shared with other packets. If the element is shared it does not
+	 * contain the destination address, which has to be taken from
+	 * <code>getStanzaTo()</code>. The element must not be modified.
+	 *
+	 * @return the stanza XML element in DOM format.
+	 */
+	public Element getSharedElement() {
 		return elem;
 	}
 
@@ -931,6 +996,7 @@ public class Packet {
 	 * this packet.
 	 */
 	public void initVars(JID stanzaFrom, JID stanzaTo) {
+		unshare();
 		if (this.stanzaFrom != stanzaFrom) {
 			this.stanzaFrom = stanzaFrom;
 			if (stanzaFrom == null) {
@@ -970,6 +1036,7 @@ public class Packet {
 	 * JIDs parsing.
 	 */
 	public void initVars() throws TigaseStringprepException {
+		unshare();
 		String tmp = elem.getAttributeStaticStr(TO_ATT);
 
 		if (tmp != null) {
@@ -1033,6 +1100,16 @@ public class Packet {
 		return (elem.getName() == name) && (xmlns == elem.getXMLNS());
 	}
 
+	/**
+	 * Method checks whether the stanza XML element is shared with other packets.
+	 *
+	 * @return <code>true</code> if the packet was created by
+	 * <code>packetInstanceShared(...)</code> and its element has not been copied yet.
+	 */
+	public boolean isElementShared() {
+		return shared;
+	}
+
 	/**
 	 * Method determines whether the stanza represents so called <em>routed</em>
 	 * packet.
@@ -1143,6 +1220,7 @@ public class Packet {
 	 * @param xmlns a valid XMLNS string for the element.
 	 */
 	public void setXMLNS(String xmlns) {
+		unshare();
 		elem.setXMLNS(xmlns);
 		packetToString       = null;
 		packetToStringSecure = null;
@@ -1260,6 +1338,7 @@ public class Packet {
 						PERM_ATT }, new String[] { getTo().toString(), getFrom().toString(),
 																			 priority.toString(), permissions.toString() });
 
+		unshare();
 		routedp.addChild(elem);
 
 		return packetInstance(routedp, getFrom(), getTo());
@@ -1451,6 +1530,7 @@ public class Packet {
 	 * @return a <code>String</code> representation of the packet instance.
 	 */
 	public String toStringFull() {
+		unshare();
 		if (packetToString == null) {
 			String elemData = elemToString(elem);
 
@@ -1509,6 +1589,7 @@ public class Packet {
 		if (FULL_DEBUG) {
 			return toStringFull();
 		} else {
+			unshare();
 			if (packetToStringSecure == null) {
 				String elemData = elemToStringSecure(elem);
 
@@ -1578,6 +1659,25 @@ public class Packet {
 					 ", TYPE=" + type;
 	}
 
+	/**
+	 * Method replaces shared stanza element with a private copy with the
+	 * destination address set, so the element can be accessed and modified as
+	 * the element of any other packet.
+	 */
+	private void unshare() {
+		if (shared) {
+			Element copy = elem.clone();
+
+			if (stanzaTo != null) {
+				copy.setAttribute(TO_ATT, stanzaTo.toString());
+			}
+			elem                 = copy;
+			shared               = false;
+			packetToString       = null;
+			packetToStringSecure = null;
+		}
+	}
+
 	//~--- set methods ----------------------------------------------------------
 
 	private void setElem(Element elem) {
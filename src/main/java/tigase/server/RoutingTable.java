@@ -0,0 +1,269 @@
+/*
+ * RoutingTable.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.server;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.vhosts.VHostManagerIfc;
+
+import tigase.xmpp.JID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable snapshot of <code>MessageRouter</code> routing data: components by
+ * ID and by name and receivers with regex routings, together with a bounded
+ * cache of destinations resolved against virtual hosts configuration.
+ *
+ * The table is never updated. <code>MessageRouter</code> drops it and creates
+ * a new one when components, regex routings or virtual hosts change, so cached
+ * entries do not need any invalidation. When a cache reaches its maximum size
+ * it is cleared.
+ *
+ * @author andrzej
+ */
+class RoutingTable {
+	private static final ServerComponent[] NO_COMPONENTS = new ServerComponent[0];
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final Map<JID, ServerComponent>    byId;
+	private final Map<String, ServerComponent> byName;
+	private final String                       defDomain;
+	private final ConcurrentHashMap<String, DomainRoute> domains =
+			new ConcurrentHashMap<String, DomainRoute>();
+	private long                               hits     = 0;
+	private final int                          maxCacheSize;
+	private long                               misses   = 0;
+	private final ConcurrentHashMap<String, ServerComponent[]> regex =
+			new ConcurrentHashMap<String, ServerComponent[]>();
+	private final MessageReceiver[]            regexReceivers;
+	private final VHostManagerIfc              vHostManager;
+	private final long                         vhostsChanges;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Creates routing table from the current state of the router.
+	 *
+	 * @param byId components by component ID
+	 * @param byName components by component name
+	 * @param receivers which may have regex routings
+	 * @param vHostManager used to resolve domains
+	 * @param defDomain default domain of the installation
+	 * @param maxCacheSize maximum number of cached destinations
+	 */
+	RoutingTable(Map<JID, ServerComponent> byId, Map<String, ServerComponent> byName,
+			Collection<MessageReceiver> receivers, VHostManagerIfc vHostManager,
+			String defDomain, int maxCacheSize) {
+		this.byId          = new HashMap<JID, ServerComponent>(byId);
+		this.byName        = new HashMap<String, ServerComponent>(byName);
+		this.vHostManager  = vHostManager;
+		this.vhostsChanges = vHostManager.getVHostsChanges();
+		this.defDomain     = defDomain;
+		this.maxCacheSize  = maxCacheSize;
+
+		List<MessageReceiver> withRegex = new ArrayList<MessageReceiver>();
+
+		for (MessageReceiver mr : receivers) {
+			if (!(mr instanceof AbstractMessageReceiver) ||
+					!((AbstractMessageReceiver) mr).getRegexRoutings().isEmpty()) {
+				withRegex.add(mr);
+			}
+		}
+		regexReceivers = withRegex.toArray(new MessageReceiver[withRegex.size()]);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns components which should process packet addressed to the
+	 * JID if it is not addressed to a component directly. These are components
+	 * handling the local domain, components with matching regex routings or
+	 * components handling non-local domains, in this order.
+	 *
+	 * @param jid destination address
+	 *
+	 * @return components for the destination or <code>null</code>
+	 */
+	ServerComponent[] getComponents(JID jid) {
+		DomainRoute       route = getDomainRoute(jid.getDomain());
+		ServerComponent[] comps = route.localComponents;
+
+		if ((comps == null) && (regexReceivers.length > 0)) {
+			comps = getComponentsForRegex(jid.getBareJID().toString());
+		}
+		if ((comps == null) &&!route.local) {
+			comps = route.nonLocalComponents;
+		}
+
+		return comps;
+	}
+
+	/**
+	 * Method returns component to which the packet is addressed directly,
+	 * by the component ID, by component name and local domain or by component
+	 * name subdomain of a local domain.
+	 *
+	 * @param jid destination address
+	 *
+	 * @return component or <code>null</code>
+	 */
+	ServerComponent getLocalComponent(JID jid) {
+		ServerComponent comp = byId.get(jid);
+
+		if (comp != null) {
+			return comp;
+		}
+
+		DomainRoute route = getDomainRoute(jid.getDomain());
+
+		if (jid.getLocalpart() != null) {
+			comp = byName.get(jid.getLocalpart());
+			if ((comp != null) && route.localOrDefault) {
+				return comp;
+			}
+		}
+
+		return route.subdomainComponent;
+	}
+
+	/**
+	 * Method returns number of lookups served from the cache.
+	 *
+	 * @return number of cache hits
+	 */
+	long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Method returns number of lookups which had to be resolved.
+	 *
+	 * @return number of cache misses
+	 */
+	long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Method checks whether virtual hosts changed since the table was created.
+	 *
+	 * @return <code>true</code> if the table has to be recreated
+	 */
+	boolean isOutdated() {
+		return vHostManager.getVHostsChanges() != vhostsChanges;
+	}
+
+	private ServerComponent[] getComponentsForRegex(String id) {
+		ServerComponent[] comps = regex.get(id);
+
+		if (comps == null) {
+			++misses;
+
+			List<ServerComponent> result = new ArrayList<ServerComponent>();
+
+			for (MessageReceiver mr : regexReceivers) {
+				if (mr.isInRegexRoutings(id)) {
+					result.add(mr);
+				}
+			}
+			comps = result.isEmpty()
+					? NO_COMPONENTS
+					: result.toArray(new ServerComponent[result.size()]);
+			if (regex.size() >= maxCacheSize) {
+				regex.clear();
+			}
+			regex.put(id, comps);
+		} else {
+			++hits;
+		}
+
+		return (comps == NO_COMPONENTS)
+				? null
+				: comps;
+	}
+
+	private DomainRoute getDomainRoute(String domain) {
+		DomainRoute route = domains.get(domain);
+
+		if (route == null) {
+			++misses;
+			route = new DomainRoute(domain);
+			if (domains.size() >= maxCacheSize) {
+				domains.clear();
+			}
+			domains.put(domain, route);
+		} else {
+			++hits;
+		}
+
+		return route;
+	}
+
+	private boolean isLocalOrDefault(String domain) {
+		return vHostManager.isLocalDomain(domain) || domain.equals(defDomain);
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private class DomainRoute {
+		private final boolean           local;
+		private final ServerComponent[] localComponents;
+		private final boolean           localOrDefault;
+		private final ServerComponent[] nonLocalComponents;
+		private final ServerComponent   subdomainComponent;
+
+		//~--- constructors -------------------------------------------------------
+
+		private DomainRoute(String domain) {
+			local          = vHostManager.isLocalDomain(domain);
+			localOrDefault = local || domain.equals(defDomain);
+
+			// Some components have an ID of: component name + "." domain name
+			ServerComponent comp = null;
+			int             idx  = domain.indexOf('.');
+
+			if (idx > 0) {
+				comp = byName.get(domain.substring(0, idx));
+				if ((comp != null) &&!isLocalOrDefault(domain.substring(idx + 1))) {
+					comp = null;
+				}
+			}
+			subdomainComponent = comp;
+			localComponents    = vHostManager.getComponentsForLocalDomain(domain);
+			nonLocalComponents = local
+					? null
+					: vHostManager.getComponentsForNonLocalDomain(domain);
+		}
+	}
+}
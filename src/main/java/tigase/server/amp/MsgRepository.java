@@ -31,13 +31,19 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -47,6 +53,8 @@ import tigase.db.MsgRepositoryIfc;
 import tigase.db.RepositoryFactory;
 import tigase.db.UserNotFoundException;
 import tigase.server.Packet;
+import tigase.sys.ShutdownHook;
+import tigase.sys.TigaseRuntime;
 import tigase.util.Algorithms;
 import tigase.util.SimpleCache;
 import tigase.xml.DomBuilderHandler;
@@ -181,9 +189,8 @@ public class MsgRepository implements MsgRepositoryIfc {
 							+ MSG_TO_UID_COLUMN + ", "
 							+ MSG_BODY_COLUMN + ") values (?, ?, ?, ?)";
 	private static final String MSG_SELECT_TO_JID_QUERY =
-															"select * from " + MSG_TABLE + " where " + MSG_TO_UID_COLUMN + " = ?";
-	private static final String MSG_DELETE_TO_JID_QUERY =
-															"delete from " + MSG_TABLE + " where " + MSG_TO_UID_COLUMN + " = ?";
+															"select " + MSG_ID_COLUMN + ", " + MSG_BODY_COLUMN + " from " + MSG_TABLE
+															+ " where " + MSG_TO_UID_COLUMN + " = ? order by " + MSG_ID_COLUMN;
 	private static final String MSG_DELETE_ID_QUERY =
 															"delete from " + MSG_TABLE + " where " + MSG_ID_COLUMN + " = ?";
 	private static final String MSG_SELECT_EXPIRED_QUERY =
@@ -204,6 +211,9 @@ public class MsgRepository implements MsgRepositoryIfc {
 	private static final String MSGS_STORE_LIMIT_KEY = "store-limit";
 	private static final String MSGS_COUNT_LIMIT_PROP_KEY = "count-limit-query";
 	private static final long MSGS_STORE_LIMIT_VAL = 100;
+	private static final String MSGS_STORE_BATCH_KEY = "store-batch-size";
+	private static final int MSGS_STORE_BATCH_VAL = 0;
+	private static final int MAX_STORE_QUEUE_SIZE = 10000;
 	private static final int MAX_UID_CACHE_SIZE = 100000;
 	private static final long MAX_UID_CACHE_TIME = 3600000;
 	private static final Map<String, MsgRepository> repos =
@@ -218,6 +228,17 @@ public class MsgRepository implements MsgRepositoryIfc {
 	private String uid_query = GET_USER_UID_DEF_QUERY;
 	private String msg_count_for_limit_query = MSG_COUNT_FOR_TO_AND_FROM_QUERY_DEF;
 	private long msgs_store_limit = MSGS_STORE_LIMIT_VAL;
+	private int store_batch_size = MSGS_STORE_BATCH_VAL;
+	private BlockingQueue<MsgStoreItem> storeQueue = null;
+
+	// Messages are removed from storeQueue only while holding storeLock and are
+	// inserted before it is released, so a thread holding the lock knows there
+	// is no batch in flight.
+	private final Object storeLock = new Object();
+
+	// Released for each queued message, wakes up the StoreWorker without taking
+	// the message from the queue.
+	private final Semaphore storeSignal = new Semaphore(0);
 	private boolean initialized = false;
 	private Map<BareJID, Long> uids_cache = Collections
 			.synchronizedMap(new SimpleCache<BareJID, Long>(MAX_UID_CACHE_SIZE,
@@ -326,6 +347,12 @@ public class MsgRepository implements MsgRepositoryIfc {
 			if (msgs_store_limit_str != null) {
 				msgs_store_limit = Long.parseLong(msgs_store_limit_str);
 			}
+
+			String store_batch_size_str = map.get(MSGS_STORE_BATCH_KEY);
+
+			if (store_batch_size_str != null) {
+				store_batch_size = Integer.parseInt(store_batch_size_str);
+			}
 		}
 
 		try {
@@ -336,7 +363,6 @@ public class MsgRepository implements MsgRepositoryIfc {
 			data_repo.initPreparedStatement(uid_query, uid_query);
 			data_repo.initPreparedStatement(MSG_INSERT_QUERY, MSG_INSERT_QUERY);
 			data_repo.initPreparedStatement(MSG_SELECT_TO_JID_QUERY, MSG_SELECT_TO_JID_QUERY);
-			data_repo.initPreparedStatement(MSG_DELETE_TO_JID_QUERY, MSG_DELETE_TO_JID_QUERY);
 			data_repo.initPreparedStatement(MSG_DELETE_ID_QUERY, MSG_DELETE_ID_QUERY);
 			data_repo.initPreparedStatement(MSG_SELECT_EXPIRED_QUERY, MSG_SELECT_EXPIRED_QUERY);
 			data_repo.initPreparedStatement(MSG_SELECT_EXPIRED_BEFORE_QUERY,
@@ -344,6 +370,18 @@ public class MsgRepository implements MsgRepositoryIfc {
 			data_repo.initPreparedStatement(msg_count_for_limit_query,
 					msg_count_for_limit_query);
 			data_repo.initPreparedStatement(ADD_USER_JID_ID_QUERY, ADD_USER_JID_ID_QUERY);
+			if (store_batch_size > 0) {
+				storeQueue = new LinkedBlockingQueue<MsgStoreItem>(MAX_STORE_QUEUE_SIZE);
+
+				StoreWorker worker = new StoreWorker();
+				Thread thread = new Thread(worker, worker.getName());
+
+				thread.setDaemon(true);
+				thread.start();
+				TigaseRuntime.getTigaseRuntime().addShutdownHook(worker);
+				log.log(Level.CONFIG, "Offline messages are stored in batches of up to {0}",
+						store_batch_size);
+			}
 		} catch (Exception e) {
 			log.log(Level.WARNING, "MsgRepository not initialized due to exception", e);
 			// Ignore for now....
@@ -361,50 +399,77 @@ public class MsgRepository implements MsgRepositoryIfc {
 	@Override
 	public Queue<Element> loadMessagesToJID(JID to, boolean delete)
 			throws UserNotFoundException {
+		return loadMessagesToJID(to, delete, 0);
+	}
+
+	/**
+	 * Method loads messages in the order they were stored. Each message is
+	 * parsed separately and only loaded messages are deleted, so messages stored
+	 * in the meantime are left for the next call, which allows to retrieve all
+	 * messages in pages of limited size.
+	 * 
+	 * @param to
+	 * @param delete
+	 * @param limit maximum number of messages to load, <code>0</code> means no
+	 * limit.
+	 * 
+	 * @return loaded messages or <code>null</code> if there are no messages
+	 * 
+	 * @throws UserNotFoundException
+	 */
+	public Queue<Element> loadMessagesToJID(JID to, boolean delete, int limit)
+			throws UserNotFoundException {
 		Queue<Element> result = null;
-		ResultSet rs = null;
 
 		try {
+
+			// Must be called even if the queue is empty, the StoreWorker may be
+			// inserting a batch it has already taken from the queue.
+			if (storeQueue != null) {
+				flushStoreQueue();
+			}
+
 			long to_uid = getUserUID(to.getBareJID());
 
 			if (to_uid < 0) {
 				throw new UserNotFoundException("User: " + to + " was not found in database.");
 			}
 
+			List<Long> ids = new ArrayList<Long>();
+			List<String> msgs = new ArrayList<String>();
 			PreparedStatement select_to_jid_st =
 					data_repo.getPreparedStatement(to.getBareJID(), MSG_SELECT_TO_JID_QUERY);
 
 			synchronized (select_to_jid_st) {
-				select_to_jid_st.setLong(1, to_uid);
-				rs = select_to_jid_st.executeQuery();
-
-				StringBuilder sb = new StringBuilder(1000);
-
-				while (rs.next()) {
-					sb.append(rs.getString(MSG_BODY_COLUMN));
+				ResultSet rs = null;
+
+				try {
+					select_to_jid_st.setLong(1, to_uid);
+					select_to_jid_st.setMaxRows(limit);
+					rs = select_to_jid_st.executeQuery();
+					while (rs.next()) {
+						ids.add(rs.getLong(MSG_ID_COLUMN));
+						msgs.add(rs.getString(MSG_BODY_COLUMN));
+					}
+				} finally {
+					data_repo.release(null, rs);
 				}
+			}
 
-				if (sb.length() > 0) {
-					DomBuilderHandler domHandler = new DomBuilderHandler();
+			if (!msgs.isEmpty()) {
+				DomBuilderHandler domHandler = new DomBuilderHandler();
 
-					parser.parse(domHandler, sb.toString().toCharArray(), 0, sb.length());
-					result = domHandler.getParsedElements();
+				for (String msg_str : msgs) {
+					parser.parse(domHandler, msg_str.toCharArray(), 0, msg_str.length());
 				}
+				result = domHandler.getParsedElements();
 			}
 
-			if (delete) {
-				PreparedStatement delete_to_jid_st =
-						data_repo.getPreparedStatement(to.getBareJID(), MSG_DELETE_TO_JID_QUERY);
-
-				synchronized (delete_to_jid_st) {
-					delete_to_jid_st.setLong(1, to_uid);
-					delete_to_jid_st.executeUpdate();
-				}
+			if (delete && !ids.isEmpty()) {
+				deleteMessages(ids);
 			}
 		} catch (SQLException e) {
 			log.log(Level.WARNING, "Problem getting offline messages for user: " + to, e);
-		} finally {
-			data_repo.release(null, rs);
 		}
 
 		return result;
@@ -427,7 +492,12 @@ public class MsgRepository implements MsgRepositoryIfc {
 					Packet.elemToString(msg) });
 		}
 
-		ResultSet rs = null;
+		if ((storeQueue != null) && storeQueue.offer(new MsgStoreItem(from, to, expired, msg))) {
+			storeSignal.release();
+
+			return;
+		}
+
 		try {
 			long from_uid = getUserUID(from.getBareJID());
 
@@ -441,20 +511,7 @@ public class MsgRepository implements MsgRepositoryIfc {
 				to_uid = addUserJID(to.getBareJID());
 			}
 
-			long count = 0;
-			PreparedStatement count_msgs_st =
-					data_repo.getPreparedStatement(to.getBareJID(), msg_count_for_limit_query);
-
-			synchronized (count_msgs_st) {
-				count_msgs_st.setLong(1, to_uid);
-				count_msgs_st.setLong(2, from_uid);
-
-				rs = count_msgs_st.executeQuery();
-
-				if (rs.next()) {
-					count = rs.getLong(1);
-				}
-			}
+			long count = countMessages(to.getBareJID(), to_uid, from_uid);
 
 			if (msgs_store_limit <= count) {
 				if (log.isLoggable(Level.FINEST)) {
@@ -468,40 +525,16 @@ public class MsgRepository implements MsgRepositoryIfc {
 					data_repo.getPreparedStatement(to.getBareJID(), MSG_INSERT_QUERY);
 
 			synchronized (insert_msg_st) {
-				if (expired == null) {
-					insert_msg_st.setNull(1, Types.TIMESTAMP);
-				} else {
-					Timestamp time = new Timestamp(expired.getTime());
-
-					insert_msg_st.setTimestamp(1, time);
-				}
-
-				if (from_uid <= 0) {
-					insert_msg_st.setNull(2, Types.BIGINT);
-				} else {
-					insert_msg_st.setLong(2, from_uid);
-				}
-
-				insert_msg_st.setLong(3, to_uid);
-				// TODO: deal with messages bigger than the database can fit....
-				insert_msg_st.setString(4, msg.toString());
+				setInsertParameters(insert_msg_st, expired, from_uid, to_uid, msg);
 				insert_msg_st.executeUpdate();
 			}
 
 			if (expired != null) {
-				if (expired.getTime() < earliestOffline) {
-					earliestOffline = expired.getTime();
-				}
-
-				if (expiredQueue.size() == 0) {
-					loadExpiredQueue(1);
-				}
+				updateEarliestOffline(expired.getTime());
 			}
 		} catch (DataTruncation dte) {
 			log.log(Level.FINE, "Data truncated for message from {0} to {1}", new Object[] {
 					from, to });
-
-			data_repo.release(null, rs);
 		} catch (SQLException e) {
 			log.log(Level.WARNING, "Problem adding new entry to DB: ", e);
 		}
@@ -570,6 +603,186 @@ public class MsgRepository implements MsgRepositoryIfc {
 		}
 	}
 
+	private void deleteMessages(List<Long> msg_ids) throws SQLException {
+		PreparedStatement delete_id_st =
+				data_repo.getPreparedStatement(null, MSG_DELETE_ID_QUERY);
+
+		synchronized (delete_id_st) {
+			try {
+				for (Long msg_id : msg_ids) {
+					delete_id_st.setLong(1, msg_id);
+					delete_id_st.addBatch();
+				}
+				delete_id_st.executeBatch();
+			} finally {
+				delete_id_st.clearBatch();
+			}
+		}
+	}
+
+	private long countMessages(BareJID to, long to_uid, long from_uid) throws SQLException {
+		ResultSet rs = null;
+		PreparedStatement count_msgs_st =
+				data_repo.getPreparedStatement(to, msg_count_for_limit_query);
+
+		synchronized (count_msgs_st) {
+			try {
+				count_msgs_st.setLong(1, to_uid);
+				count_msgs_st.setLong(2, from_uid);
+				rs = count_msgs_st.executeQuery();
+
+				return rs.next() ? rs.getLong(1) : 0;
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
+	}
+
+	private void flushStoreQueue() {
+		List<MsgStoreItem> items = new ArrayList<MsgStoreItem>(store_batch_size);
+
+		synchronized (storeLock) {
+			while (storeQueue.drainTo(items, store_batch_size) > 0) {
+				storeMessages(items);
+				items.clear();
+			}
+		}
+	}
+
+	/**
+	 * Stores a single batch of queued messages.
+	 *
+	 * @param items list used for messages taken from the queue
+	 *
+	 * @return <code>false</code> if there were no messages in the queue
+	 */
+	private boolean storeBatch(List<MsgStoreItem> items) {
+		synchronized (storeLock) {
+			try {
+				if (storeQueue.drainTo(items, store_batch_size) == 0) {
+					return false;
+				}
+				storeMessages(items);
+			} finally {
+				items.clear();
+			}
+		}
+
+		return true;
+	}
+
+	private void setInsertParameters(PreparedStatement insert_msg_st, Date expired,
+			long from_uid, long to_uid, Element msg) throws SQLException {
+		if (expired == null) {
+			insert_msg_st.setNull(1, Types.TIMESTAMP);
+		} else {
+			Timestamp time = new Timestamp(expired.getTime());
+
+			insert_msg_st.setTimestamp(1, time);
+		}
+
+		if (from_uid <= 0) {
+			insert_msg_st.setNull(2, Types.BIGINT);
+		} else {
+			insert_msg_st.setLong(2, from_uid);
+		}
+
+		insert_msg_st.setLong(3, to_uid);
+		// TODO: deal with messages bigger than the database can fit....
+		insert_msg_st.setString(4, msg.toString());
+	}
+
+	/**
+	 * Stores messages queued by <code>storeMessage()</code> with a single batch
+	 * of inserts. Store limit is checked against messages already in the
+	 * database and messages from the same batch.
+	 *
+	 * @param items messages to store
+	 */
+	private void storeMessages(List<MsgStoreItem> items) {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		List<MsgStoreItem> accepted = new ArrayList<MsgStoreItem>(items.size());
+		long earliest = Long.MAX_VALUE;
+
+		for (MsgStoreItem item : items) {
+			try {
+				long from_uid = getUserUID(item.from.getBareJID());
+
+				if (from_uid < 0) {
+					from_uid = addUserJID(item.from.getBareJID());
+				}
+
+				long to_uid = getUserUID(item.to.getBareJID());
+
+				if (to_uid < 0) {
+					to_uid = addUserJID(item.to.getBareJID());
+				}
+
+				String key = to_uid + "/" + from_uid;
+				Long count = counts.get(key);
+
+				if (count == null) {
+					count = countMessages(item.to.getBareJID(), to_uid, from_uid);
+				}
+				if (msgs_store_limit <= count) {
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "Message store limit ({0}) exceeded for message: {1}",
+								new Object[] { msgs_store_limit, Packet.elemToString(item.msg) });
+					}
+
+					continue;
+				}
+				counts.put(key, count + 1);
+				item.from_uid = from_uid;
+				item.to_uid = to_uid;
+				accepted.add(item);
+				if ((item.expired != null) && (item.expired.getTime() < earliest)) {
+					earliest = item.expired.getTime();
+				}
+			} catch (SQLException | UserNotFoundException e) {
+				log.log(Level.WARNING, "Problem adding new entry to DB: ", e);
+			}
+		}
+
+		if (accepted.isEmpty()) {
+			return;
+		}
+
+		try {
+			PreparedStatement insert_msg_st =
+					data_repo.getPreparedStatement(null, MSG_INSERT_QUERY);
+
+			synchronized (insert_msg_st) {
+				try {
+					for (MsgStoreItem item : accepted) {
+						setInsertParameters(insert_msg_st, item.expired, item.from_uid, item.to_uid,
+								item.msg);
+						insert_msg_st.addBatch();
+					}
+					insert_msg_st.executeBatch();
+				} finally {
+					insert_msg_st.clearBatch();
+				}
+			}
+		} catch (SQLException e) {
+			log.log(Level.WARNING, "Problem adding new entries to DB: ", e);
+		}
+
+		if (earliest != Long.MAX_VALUE) {
+			updateEarliestOffline(earliest);
+		}
+	}
+
+	private void updateEarliestOffline(long expired) {
+		if (expired < earliestOffline) {
+			earliestOffline = expired;
+		}
+
+		if (expiredQueue.size() == 0) {
+			loadExpiredQueue(1);
+		}
+	}
+
 	// ~--- get methods ----------------------------------------------------------
 
 	private long getUserUID(BareJID user_id) throws SQLException, UserNotFoundException {
@@ -736,6 +949,64 @@ public class MsgRepository implements MsgRepositoryIfc {
 
 	// ~--- inner classes --------------------------------------------------------
 
+	private static class MsgStoreItem {
+		private final Date expired;
+		private final JID from;
+		private long from_uid = -1;
+		private final Element msg;
+		private final JID to;
+		private long to_uid = -1;
+
+		// ~--- constructors -------------------------------------------------------
+
+		private MsgStoreItem(JID from, JID to, Date expired, Element msg) {
+			this.from = from;
+			this.to = to;
+			this.expired = expired;
+			this.msg = msg;
+		}
+	}
+
+	/**
+	 * Thread writing messages queued by <code>storeMessage()</code>. It takes
+	 * all messages waiting in the queue, up to the batch size, so under a low
+	 * load messages are written one by one without any delay and under a high
+	 * load they are written in batches. Messages still waiting in the queue are
+	 * written when the server is stopped.
+	 */
+	private class StoreWorker implements Runnable, ShutdownHook {
+
+		// ~--- methods ------------------------------------------------------------
+
+		@Override
+		public String getName() {
+			return "msg-repository-store";
+		}
+
+		@Override
+		public void run() {
+			List<MsgStoreItem> items = new ArrayList<MsgStoreItem>(store_batch_size);
+
+			while (true) {
+				try {
+					storeSignal.acquire();
+					storeSignal.drainPermits();
+					while (storeBatch(items)) {}
+				} catch (InterruptedException ex) {
+				} catch (Exception ex) {
+					log.log(Level.WARNING, "Problem storing offline messages: ", ex);
+				}
+			}
+		}
+
+		@Override
+		public String shutdown() {
+			flushStoreQueue();
+
+			return "Offline messages stored.\n";
+		}
+	}
+
 	private class MsgDBItem implements Delayed {
 		private long db_id = -1;
 		private Date expired = null;
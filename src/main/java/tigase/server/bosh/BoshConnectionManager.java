@@ -743,6 +743,29 @@ public class BoshConnectionManager
 
 			break;
 
+		case FLOW_CONTROL :
+			if (session != null) {
+
+				// Packets for the client wait in the BOSH session for the next
+				// request, there is no socket queue to wait for.
+				Packet        result = ((Iq) packet).commandResult(null);
+				List<Element> data   = Command.getData(packet);
+
+				if (data != null) {
+					Command.setData(result, data);
+				}
+				addOutPacket(result);
+			} else {
+				try {
+					addOutPacket(Authorization.ITEM_NOT_FOUND.getResponseMessage(packet,
+							"Connection gone.", false));
+				} catch (PacketErrorTypeException e) {
+					log.log(Level.INFO, "Error packet is not really expected here: {0}", packet);
+				}
+			}
+
+			break;
+
 		default :
 			super.processCommand(packet);
 
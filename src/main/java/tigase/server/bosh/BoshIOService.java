@@ -307,6 +307,18 @@ public class BoshIOService
 		return sb;
 	}
 
+	/**
+	 * HTTP headers are added to the written data, so packets are always
+	 * converted to <code>String</code>.
+	 *
+	 *
+	 * @return a value of <code>boolean</code>
+	 */
+	@Override
+	protected boolean isElementWriterEnabled() {
+		return false;
+	}
+
 	/**
 	 * Method description
 	 *
@@ -0,0 +1,402 @@
+/*
+ * PermessageDeflate.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.server.websocket;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.stats.StatisticsList;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Implementation of the <code>permessage-deflate</code> WebSocket extension.
+ * Instance of this class keeps settings of the extension and negotiates it
+ * during handshake, creating a <code>Context</code> with compressor and
+ * decompressor for each connection which accepted it.
+ *
+ * With context takeover enabled the LZ77 window is kept between messages, so
+ * repeated XMPP names and namespaces compress to a few bytes. Each context
+ * keeps about 300kB of native zlib memory, so the number of contexts is
+ * limited: when the limit is reached new connections are not offered the
+ * extension and work uncompressed.
+ *
+ * @see <a href="http://tools.ietf.org/html/rfc7692">RFC 7692</a>
+ *
+ * @author andrzej
+ */
+public class PermessageDeflate {
+	/** Name of the extension */
+	public static final String EXTENSION = "permessage-deflate";
+	private static final String CLIENT_MAX_WINDOW_BITS     = "client_max_window_bits";
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+	private static final int    MAX_WINDOW_BITS            = 15;
+	private static final String SERVER_MAX_WINDOW_BITS     = "server_max_window_bits";
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+	/** Bytes of the empty block ending sync flush, removed from messages */
+	private static final byte[] TAIL = { 0, 0, (byte) 0xFF, (byte) 0xFF };
+	private static final Logger log  = Logger.getLogger(PermessageDeflate.class.getName());
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final AtomicLong    compressedIn  = new AtomicLong();
+	private final AtomicLong    compressedOut = new AtomicLong();
+	private final boolean       contextTakeover;
+	private final AtomicInteger contexts = new AtomicInteger();
+	private final int           level;
+	private final int           maxContexts;
+	private final int           maxMessageSize;
+	private final AtomicLong    rawIn  = new AtomicLong();
+	private final AtomicLong    rawOut = new AtomicLong();
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Creates extension with the given settings.
+	 *
+	 * @param level compression level, from 0 to 9 or -1 for zlib default
+	 * @param contextTakeover <code>false</code> to reset compressor and
+	 * decompressor after each message
+	 * @param maxContexts maximum number of connections using the extension
+	 * @param maxMessageSize maximum size of a decompressed message
+	 */
+	public PermessageDeflate(int level, boolean contextTakeover, int maxContexts,
+			int maxMessageSize) {
+		this.level           = level;
+		this.contextTakeover = contextTakeover;
+		this.maxContexts     = maxContexts;
+		this.maxMessageSize  = maxMessageSize;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Selects the first acceptable <code>permessage-deflate</code> offer from
+	 * the <code>Sec-WebSocket-Extensions</code> header. Offers asking for a
+	 * server window smaller than 15 bits are declined as <code>Deflater</code>
+	 * always uses the full window.
+	 *
+	 * @param offers value of the extensions header sent by client
+	 * @param response builder to which the accepted extension with parameters
+	 * is appended
+	 *
+	 * @return context for the connection or <code>null</code> if no offer was
+	 * accepted
+	 */
+	public Context negotiate(String offers, StringBuilder response) {
+		for (String offer : offers.split(",")) {
+			String[] params = offer.split(";");
+
+			if (!EXTENSION.equals(params[0].trim())) {
+				continue;
+			}
+
+			boolean serverReset      = !contextTakeover;
+			boolean clientReset      = !contextTakeover;
+			boolean serverWindowBits = false;
+			boolean acceptable       = true;
+
+			for (int i = 1; (i < params.length) && acceptable; i++) {
+				String param = params[i].trim();
+				String value = null;
+				int    idx   = param.indexOf('=');
+
+				if (idx > 0) {
+					value = param.substring(idx + 1).trim().replace("\"", "");
+					param = param.substring(0, idx).trim();
+				}
+				if (SERVER_NO_CONTEXT_TAKEOVER.equals(param)) {
+					serverReset = true;
+				} else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(param)) {
+					clientReset = true;
+				} else if (SERVER_MAX_WINDOW_BITS.equals(param)) {
+					serverWindowBits = true;
+					acceptable       = String.valueOf(MAX_WINDOW_BITS).equals(value);
+				} else if (!CLIENT_MAX_WINDOW_BITS.equals(param)) {
+					acceptable = false;
+				}
+			}
+			if (!acceptable) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "declining extension offer: {0}", offer);
+				}
+
+				continue;
+			}
+			if (contexts.incrementAndGet() > maxContexts) {
+				contexts.decrementAndGet();
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "limit of {0} compressed connections reached", maxContexts);
+				}
+
+				return null;
+			}
+			response.append(EXTENSION);
+			if (serverReset) {
+				response.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+			}
+			if (clientReset) {
+				response.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+			}
+			if (serverWindowBits) {
+				response.append("; ").append(SERVER_MAX_WINDOW_BITS).append('=').append(
+						MAX_WINDOW_BITS);
+			}
+
+			return new Context(serverReset, clientReset);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Method adds statistics of the extension to the list.
+	 *
+	 * @param compName name of the component reporting statistics
+	 * @param list of statistics
+	 */
+	public void getStatistics(String compName, StatisticsList list) {
+		long in  = rawIn.get();
+		long out = rawOut.get();
+
+		list.add(compName, "Deflate contexts", contexts.get(), Level.FINE);
+		list.add(compName, "Deflate received ratio %", (in > 0)
+				? (100f * compressedIn.get() / in)
+				: 0f, Level.FINE);
+		list.add(compName, "Deflate sent ratio %", (out > 0)
+				? (100f * compressedOut.get() / out)
+				: 0f, Level.FINE);
+		list.add(compName, "Deflate bytes saved", (in - compressedIn.get()) + (out -
+				compressedOut.get()), Level.FINER);
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Returns number of connections using the extension.
+	 *
+	 * @return number of contexts
+	 */
+	public int getContexts() {
+		return contexts.get();
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	/**
+	 * Compressor and decompressor of a single connection. Compression is
+	 * called by the thread writing to the connection and decompression by the
+	 * thread reading from it, each of them uses its own buffers, which are
+	 * reused for all messages.
+	 */
+	public class Context {
+		private int              messageSize = 0;
+		private final Deflater   deflater    = new Deflater(level, true);
+		private byte[]           deflated    = new byte[1024];
+		private ByteBuffer       deflatedBuffer = ByteBuffer.wrap(deflated);
+		private byte[]           inflated    = new byte[1024];
+		private ByteBuffer       inflatedBuffer = ByteBuffer.wrap(inflated);
+		private final Inflater   inflater    = new Inflater(true);
+		private byte[]           input       = null;
+		private boolean          released    = false;
+		private final boolean    resetDeflater;
+		private final boolean    resetInflater;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Context(boolean resetDeflater, boolean resetInflater) {
+			this.resetDeflater = resetDeflater;
+			this.resetInflater = resetInflater;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		/**
+		 * Compresses whole message. Returned buffer is reused and valid until
+		 * the next call.
+		 *
+		 * @param data message to compress, from position to limit
+		 *
+		 * @return compressed message without trailing empty block
+		 *
+		 * @throws IOException if the context has been released
+		 */
+		public synchronized ByteBuffer compress(ByteBuffer data) throws IOException {
+			if (released) {
+				throw new IOException("Compression context released");
+			}
+
+			int len = data.remaining();
+
+			if (data.hasArray()) {
+				deflater.setInput(data.array(), data.arrayOffset() + data.position(), len);
+			} else {
+				deflater.setInput(input(data, data.position(), len), 0, len);
+			}
+			data.position(data.limit());
+
+			int size = 0;
+
+			while ((size += deflater.deflate(deflated, size, deflated.length - size, Deflater
+					.SYNC_FLUSH)) == deflated.length) {
+				deflated       = Arrays.copyOf(deflated, deflated.length * 2);
+				deflatedBuffer = ByteBuffer.wrap(deflated);
+			}
+			if (endsWithTail(deflated, size)) {
+				size -= TAIL.length;
+			}
+			if (size == 0) {
+
+				// Empty message is sent as a single empty block
+				deflated[size++] = 0;
+			}
+			if (resetDeflater) {
+				deflater.reset();
+			}
+			rawOut.addAndGet(len);
+			compressedOut.addAndGet(size);
+			deflatedBuffer.clear();
+			deflatedBuffer.limit(size);
+
+			return deflatedBuffer;
+		}
+
+		/**
+		 * Decompresses data of a frame. The trailing empty block is appended
+		 * after the last frame of the message. Returned buffer is reused and
+		 * valid until the next call.
+		 *
+		 * @param buf buffer with the frame payload
+		 * @param start index of the first byte of the payload
+		 * @param end index after the last byte of the payload
+		 * @param fin <code>true</code> if this is the last frame of the message
+		 *
+		 * @return decompressed data
+		 *
+		 * @throws DataFormatException if data is not valid or message exceeds
+		 * allowed size
+		 */
+		public synchronized ByteBuffer decompress(ByteBuffer buf, int start, int end,
+				boolean fin)
+				throws DataFormatException {
+			if (released) {
+				throw new DataFormatException("Compression context released");
+			}
+
+			int len = end - start;
+
+			if (buf.hasArray()) {
+				inflater.setInput(buf.array(), buf.arrayOffset() + start, len);
+			} else {
+				inflater.setInput(input(buf, start, len), 0, len);
+			}
+
+			int size = inflate(0);
+
+			if (fin) {
+				inflater.setInput(TAIL);
+				size = inflate(size);
+				if (resetInflater || inflater.finished()) {
+					inflater.reset();
+				}
+				messageSize = 0;
+			}
+			rawIn.addAndGet(size);
+			compressedIn.addAndGet(len);
+			inflatedBuffer.clear();
+			inflatedBuffer.limit(size);
+
+			return inflatedBuffer;
+		}
+
+		/**
+		 * Frees native memory of compressor and decompressor. Called when the
+		 * connection is stopped, later calls of the context fail.
+		 */
+		public synchronized void release() {
+			if (!released) {
+				released = true;
+				deflater.end();
+				inflater.end();
+				contexts.decrementAndGet();
+			}
+		}
+
+		private int inflate(int size) throws DataFormatException {
+			while (true) {
+				int count = inflater.inflate(inflated, size, inflated.length - size);
+
+				size        += count;
+				messageSize += count;
+				if (messageSize > maxMessageSize) {
+					throw new DataFormatException("Message exceeds " + maxMessageSize + " bytes");
+				}
+				if (size == inflated.length) {
+					inflated       = Arrays.copyOf(inflated, inflated.length * 2);
+					inflatedBuffer = ByteBuffer.wrap(inflated);
+				} else if (inflater.needsInput() || inflater.finished() || (count == 0)) {
+					return size;
+				}
+			}
+		}
+
+		private byte[] input(ByteBuffer buf, int start, int len) {
+			if ((input == null) || (input.length < len)) {
+				input = new byte[Math.max(len, 1024)];
+			}
+			for (int i = 0; i < len; i++) {
+				input[i] = buf.get(start + i);
+			}
+
+			return input;
+		}
+
+		private boolean endsWithTail(byte[] data, int size) {
+			if (size < TAIL.length) {
+				return false;
+			}
+			for (int i = 0; i < TAIL.length; i++) {
+				if (data[size - TAIL.length + i] != TAIL[i]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -29,7 +29,9 @@ package tigase.server.websocket;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
 import tigase.conf.ConfigurationException;
+import tigase.stats.StatisticsList;
 import tigase.xmpp.XMPPIOService;
 
 /**
@@ -44,14 +46,30 @@ public class WebSocketClientConnectionManager
 	private static final String PROTOCOL_VERSIONS_KEY = "protocol-versions";
 	private static final String[] PROTOCOL_VERSIONS_DEF = { WebSocketHybi.ID };
 	
-	private static final WebSocketProtocolIfc[] SUPPORTED_PROTOCOL_VERSIONS = { new WebSocketHybi(), new WebSocketHixie76() };
+	private static final String MAX_MESSAGE_SIZE_KEY = "max-message-size";
+	private static final String PERMESSAGE_DEFLATE_KEY = "permessage-deflate";
+	private static final String PERMESSAGE_DEFLATE_LEVEL_KEY = "permessage-deflate-level";
+	private static final String PERMESSAGE_DEFLATE_CONTEXT_TAKEOVER_KEY =
+			"permessage-deflate-context-takeover";
+	private static final String PERMESSAGE_DEFLATE_MAX_CONTEXTS_KEY =
+			"permessage-deflate-max-contexts";
+	private static final int PERMESSAGE_DEFLATE_MAX_CONTEXTS_DEF = 1000;
 	
+	/** Protocol instances are per manager, as they keep its configuration */
+	private final WebSocketProtocolIfc[] supportedProtocolVersions = { new WebSocketHybi(), new WebSocketHixie76() };
+	
+	private PermessageDeflate deflate = null;
 	private WebSocketProtocolIfc[] enabledProtocolVersions = null;
 	
 	@Override
 	public Map<String, Object> getDefaults(Map<String, Object> params) {
 		Map<String,Object> defs = super.getDefaults(params);
 		defs.put(PROTOCOL_VERSIONS_KEY, PROTOCOL_VERSIONS_DEF);
+		defs.put(MAX_MESSAGE_SIZE_KEY, WebSocketHybi.MAX_MESSAGE_SIZE_DEF);
+		defs.put(PERMESSAGE_DEFLATE_KEY, false);
+		defs.put(PERMESSAGE_DEFLATE_LEVEL_KEY, Deflater.DEFAULT_COMPRESSION);
+		defs.put(PERMESSAGE_DEFLATE_CONTEXT_TAKEOVER_KEY, true);
+		defs.put(PERMESSAGE_DEFLATE_MAX_CONTEXTS_KEY, PERMESSAGE_DEFLATE_MAX_CONTEXTS_DEF);
 		return defs;
 	}
 	
@@ -72,7 +90,7 @@ public class WebSocketClientConnectionManager
 			String[] versions = (String[]) props.get(PROTOCOL_VERSIONS_KEY);
 			List<WebSocketProtocolIfc> value = new ArrayList<WebSocketProtocolIfc>();
 			for (String version : versions) {
-				for (WebSocketProtocolIfc v : SUPPORTED_PROTOCOL_VERSIONS) {
+				for (WebSocketProtocolIfc v : supportedProtocolVersions) {
 					if (version.equals(v.getId())) {
 						value.add(v);
 					}
@@ -80,8 +98,31 @@ public class WebSocketClientConnectionManager
 			}
 			enabledProtocolVersions = value.toArray(new WebSocketProtocolIfc[value.size()]);
 		}
+		if (props.containsKey(PERMESSAGE_DEFLATE_KEY)) {
+			int maxMessageSize = (Integer) props.get(MAX_MESSAGE_SIZE_KEY);
+
+			deflate = ((Boolean) props.get(PERMESSAGE_DEFLATE_KEY))
+					? new PermessageDeflate((Integer) props.get(PERMESSAGE_DEFLATE_LEVEL_KEY),
+							(Boolean) props.get(PERMESSAGE_DEFLATE_CONTEXT_TAKEOVER_KEY),
+							(Integer) props.get(PERMESSAGE_DEFLATE_MAX_CONTEXTS_KEY), maxMessageSize)
+					: null;
+			for (WebSocketProtocolIfc v : supportedProtocolVersions) {
+				if (v instanceof WebSocketHybi) {
+					((WebSocketHybi) v).setPermessageDeflate(deflate);
+					((WebSocketHybi) v).setMaxMessageSize(maxMessageSize);
+				}
+			}
+		}
 		super.setProperties(props);
 	}
+
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		if (deflate != null) {
+			deflate.getStatistics(getName(), list);
+		}
+	}
 	
 	/**
 	 * Method description
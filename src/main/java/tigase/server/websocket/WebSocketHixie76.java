@@ -188,9 +188,14 @@ public class WebSocketHixie76 implements WebSocketProtocolIfc {
 
 	@Override
 	public void encodeFrameAndWrite(WebSocketXMPPIOService service, ByteBuffer buf) throws IOException {
-		service.writeBytes(ByteBuffer.wrap(FRAME_HEADER));
-		service.writeBytes(buf);
-		service.writeBytes(ByteBuffer.wrap(FRAME_FOOTER));
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER.length + buf.remaining() +
+				FRAME_FOOTER.length);
+
+		frame.put(FRAME_HEADER);
+		frame.put(buf);
+		frame.put(FRAME_FOOTER);
+		frame.flip();
+		service.writeBytes(frame);
 	}
 
 	private void uintToBytes(byte[] arr, int offset, long val) {
@@ -22,13 +22,14 @@
 package tigase.server.websocket;
 
 import java.io.IOException;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
 import tigase.util.Base64;
 
 /**
@@ -55,7 +56,22 @@ public class WebSocketHybi implements WebSocketProtocolIfc {
 		"Access-Control-Max-Age: 86400\r\n";
 
 	private static final String WS_ACCEPT_KEY   = "Sec-WebSocket-Accept";
+	private static final String WS_EXTENSIONS_KEY = "Sec-WebSocket-Extensions";
 	private static final String WS_KEY_KEY      = "Sec-WebSocket-Key";
+
+	private static final int OPCODE_CONTINUATION = 0x00;
+	private static final int OPCODE_TEXT         = 0x01;
+	private static final int OPCODE_BINARY       = 0x02;
+	private static final int OPCODE_CLOSE        = 0x08;
+	private static final int OPCODE_PING         = 0x09;
+	private static final int OPCODE_PONG         = 0x0A;
+	private static final int RSV1                = 0x40;
+
+	/** Default maximum size of a frame and of a decompressed message */
+	public static final int MAX_MESSAGE_SIZE_DEF = 1024 * 1024;
+
+	private PermessageDeflate deflate        = null;
+	private int               maxMessageSize = MAX_MESSAGE_SIZE_DEF;
 	
 	@Override
 	public String getId() {
@@ -82,8 +98,20 @@ public class WebSocketHybi implements WebSocketProtocolIfc {
 		response.append(WS_ACCEPT_KEY + ": ");
 		response.append(Base64.encode(resp));
 		response.append("\r\n");
+
+		String extensions = headers.get(WS_EXTENSIONS_KEY);
+
+		if ((extensions != null) && (deflate != null)) {
+			StringBuilder accepted = new StringBuilder(64);
+
+			service.deflate = deflate.negotiate(extensions, accepted);
+			if (service.deflate != null) {
+				response.append(WS_EXTENSIONS_KEY + ": ");
+				response.append(accepted);
+				response.append("\r\n");
+			}
+		}
 		response.append("\r\n");
-		service.maskingKey = new byte[4];
 		service.writeRawData(response.toString());
 			
 		return true;
@@ -99,131 +127,227 @@ public class WebSocketHybi implements WebSocketProtocolIfc {
 			return null;
 		}
 
-		boolean masked = false;
-		byte type      = 0x00;
-		int position   = buf.position();
-		ByteBuffer unmasked = null;
+		// Header is parsed with absolute reads, so position is moved only after
+		// the whole frame is available
+		int position = buf.position();
+		int limit    = buf.limit();
+		int idx      = position + 2;
 
-		try {
-			if (service.frameLength == -1) {
-				type = buf.get();
-				if ((type & 0x08) == 0x08) {
-
-					// close request
-					if (log.isLoggable(Level.FINEST)) {
-						log.finest("closing connection due to client request");
-					}
-					service.forceStop();
-
-					return null;
-				}
-
-				byte b2 = buf.get();
-
-				// check if content is masked
-				masked = (b2 & 0x80) == 0x80;
-
-				// ignore sign bit
-				service.frameLength = (b2 & 0x7F);
-				if (service.frameLength > 125) {
-
-				// if frame length is bigger than 125 then
-					// if is 126 - size is short
-					// is is 127 - size is long
-					service.frameLength = (service.frameLength == 126)
-							? buf.getShort()
-							: buf.getLong();
-				}
-				if (masked) {
-
-					// if content is masked get masking key
-					buf.get(service.maskingKey);
-				}
+		if (idx > limit) {
+			return null;
+		}
+
+		byte    type   = buf.get(position);
+		byte    b2     = buf.get(position + 1);
+		boolean masked = (b2 & 0x80) == 0x80;
+		long    length = b2 & 0x7F;
+
+		// if frame length is bigger than 125 then
+		// if is 126 - size is short
+		// is is 127 - size is long
+		if (length == 126) {
+			if (idx + 2 > limit) {
+				return null;
+			}
+			length = ((buf.get(idx) & 0xFF) << 8) | (buf.get(idx + 1) & 0xFF);
+			idx    += 2;
+		} else if (length == 127) {
+			if (idx + 8 > limit) {
+				return null;
+			}
+			length = 0;
+			for (int i = 0; i < 8; i++) {
+				length = (length << 8) | (buf.get(idx++) & 0xFF);
 			}
+		}
 
-			if (buf.remaining() >= service.frameLength) {
-				byte[] data = new byte[(int) service.frameLength];
-
-				buf.get(data);
-
-				// if content is masked then unmask content
-				if (masked) {
-					byte[] maskingKey = service.maskingKey;
-					for (int i = 0; i < data.length; i++) {
-						data[i] = (byte) (data[i] ^ maskingKey[i % 4]);
-					}
-				}
-				unmasked = ByteBuffer.wrap(data);
-				service.frameLength = -1;
-			} else {
-				// not enought data so reset buffer position
-				buf.position(position);
-				service.frameLength = -1;
+		int mask = 0;
+
+		if (masked) {
+			if (idx + 4 > limit) {
 				return null;
 			}
+			for (int i = 0; i < 4; i++) {
+				mask = (mask << 8) | (buf.get(idx++) & 0xFF);
+			}
+		}
+		if ((length < 0) || (length > maxMessageSize)) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "closing connection {0}, frame of {1} bytes exceeds limit",
+						new Object[] { service, length });
+			}
+			buf.position(limit);
+			service.forceStop();
+
+			return null;
+		}
+		if (limit - idx < length) {
+
+			// not enough data, wait for the rest of the frame
+			return null;
+		}
+
+		int end = idx + (int) length;
+
+		if (masked) {
+			unmask(buf, idx, end, mask);
+		}
+		buf.position(end);
+
+		boolean fin = (type & 0x80) == 0x80;
+
+		switch (type & 0x0F) {
+		case OPCODE_CONTINUATION :
+			break;
+
+		case OPCODE_TEXT :
+		case OPCODE_BINARY :
+			service.compressedMessage = (type & RSV1) == RSV1;
+
+			break;
+
+		case OPCODE_CLOSE :
+
+			// close request
+			if (log.isLoggable(Level.FINEST)) {
+				log.finest("closing connection due to client request");
+			}
+			service.forceStop();
+
+			return null;
+
+		case OPCODE_PING :
+			if (log.isLoggable(Level.FINEST)) {
+				log.finest("sending response on ping frame");
+			}
+
+			ByteBuffer pong = createFrame((byte) (0x80 | OPCODE_PONG), (int) length);
+
+			pong.put(service.frameView(buf, idx, end));
+			pong.flip();
+			try {
+				service.writeInProgress.lock();
+				service.writeBytes(pong);
+			} finally {
+				service.writeInProgress.unlock();
+			}
+
+			return null;
+
+		case OPCODE_PONG :
+
+			// we need to ignore pong frame
+			if (log.isLoggable(Level.FINEST)) {
+				log.finest("ignoring pong frame");
+			}
+
+			return null;
+
+		default :
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "closing connection {0}, unknown frame type {1}",
+						new Object[] { service, type });
+			}
+			service.forceStop();
 
-			if (service.frameLength == -1) {
-
-				// we need to ignore pong frame
-				if ((type & 0x0A) == 0x0A) {
-					if (log.isLoggable(Level.FINEST)) {
-						log.finest("ignoring pong frame");
-					}
-					unmasked = null;
-				} // if it ping request send pong response
-				else if ((type & 0x09) == 0x09) {
-					if (log.isLoggable(Level.FINEST)) {
-						log.finest("sending response on ping frame");
-					}
-					type = (byte) (((byte) (type ^ 0x09)) | 0x0A);
-					try {
-						ByteBuffer header = createFrameHeader(type, unmasked.remaining());
-
-						service.writeInProgress.lock();
-						service.writeBytes(header);
-						service.writeBytes(unmasked);
-					} finally {
-						service.writeInProgress.unlock();
-					}
-					unmasked = null;
-				}
+			return null;
+		}
+		if (!service.compressedMessage) {
+			return service.frameView(buf, idx, end);
+		}
+		if (service.deflate == null) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "closing connection {0}, compressed frame not negotiated",
+						service);
 			}
-		} catch (BufferUnderflowException ex) {
-			// if for some reason we do not have full frame header then we need to 
-			// reset buffer to original position and wait for the rest of data
-			buf.position(position);
-			service.frameLength = -1;
-			unmasked = null;
+			service.forceStop();
+
+			return null;
 		}
+		try {
+			return service.deflate.decompress(buf, idx, end, fin);
+		} catch (DataFormatException ex) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "closing connection " + service +
+						", problem decompressing frame", ex);
+			}
+			service.forceStop();
 
-		return unmasked;	}
+			return null;
+		}
+	}
 
 	@Override
-	public void encodeFrameAndWrite(WebSocketXMPPIOService service, ByteBuffer buf) throws IOException {
-		int size = buf.remaining();
+	public void encodeFrameAndWrite(WebSocketXMPPIOService service, ByteBuffer buf)
+			throws IOException {
+		byte       type    = (byte) (0x80 | OPCODE_TEXT);
+		ByteBuffer payload = buf;
+
+		// set type as finally part (0x80) of message of type text (0x01) and
+		// mark compressed message with RSV1
+		if (service.deflate != null) {
+			payload = service.deflate.compress(buf);
+			type    |= RSV1;
+		}
+
+		int size = payload.remaining();
 
-		// set type as finally part (0x80) of message of type text (0x01)
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "sending encoded data size = {0}", size);
 		}
 
-		ByteBuffer bbuf = createFrameHeader((byte) 0x81, size);
+		// header and data are sent in one buffer as it may be queued if socket
+		// is not ready for writing
+		ByteBuffer frame = createFrame(type, size);
+
+		frame.put(payload);
+		frame.flip();
+		service.writeBytes(frame);
+	}
+
+	/**
+	 * Unmasks frame payload in place, 8 bytes at a time.
+	 *
+	 * @param buf buffer with the payload
+	 * @param start index of the first byte of the payload
+	 * @param end index after the last byte of the payload
+	 * @param mask masking key in network byte order
+	 */
+	static void unmask(ByteBuffer buf, int start, int end, int mask) {
+		long lmask = ((long) mask << 32) | (mask & 0xFFFFFFFFL);
+
+		if (buf.order() == ByteOrder.LITTLE_ENDIAN) {
+			lmask = Long.reverseBytes(lmask);
+		}
+
+		int i = start;
 
-		// send frame header
-		service.writeBytes(bbuf);
+		for (; i + 8 <= end; i += 8) {
+			buf.putLong(i, buf.getLong(i) ^ lmask);
+		}
 
-		service.writeBytes(buf);							
+		// Payload is processed from its start, so the rest begins with the first
+		// byte of the key
+		for (int shift = 24; i < end; i++, shift -= 8) {
+			buf.put(i, (byte) (buf.get(i) ^ (mask >>> shift)));
+		}
 	}
-	
+
 	/**
-	 * Create WebSocket frame header with specific type and size
+	 * Creates buffer for a WebSocket frame with specific type and size of
+	 * payload, with frame header already written.
 	 *
 	 * @param type
 	 * @param size
-	 * 
+	 *
 	 */
-	private ByteBuffer createFrameHeader(byte type, int size) {
-		ByteBuffer bbuf = ByteBuffer.allocate(12);
+	private ByteBuffer createFrame(byte type, int size) {
+		int        header = (size <= 125)
+				? 2
+				: (size <= 0xFFFF)
+				? 4
+				: 10;
+		ByteBuffer bbuf   = ByteBuffer.allocate(header + size);
 
 		bbuf.put(type);
 		if (size <= 125) {
@@ -235,8 +359,27 @@ public class WebSocketHybi implements WebSocketProtocolIfc {
 			bbuf.put((byte) 0x7F);
 			bbuf.putLong((long) size);
 		}
-		bbuf.flip();
 
 		return bbuf;
-	}	
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Sets <code>permessage-deflate</code> extension offered to clients.
+	 *
+	 * @param deflate extension or <code>null</code> to disable compression
+	 */
+	public void setPermessageDeflate(PermessageDeflate deflate) {
+		this.deflate = deflate;
+	}
+
+	/**
+	 * Sets maximum size of a frame, larger frames close the connection.
+	 *
+	 * @param maxMessageSize size in bytes
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
 }
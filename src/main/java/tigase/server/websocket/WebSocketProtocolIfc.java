@@ -71,16 +71,21 @@ public interface WebSocketProtocolIfc {
 	
 	/**
 	 * Method responsible for decoding data received from socket and returning 
-	 * data after extracting it from WebSocket frame.
+	 * data after extracting it from WebSocket frame. Returned buffer may be a
+	 * view of the input buffer or a buffer reused by the service, so it is
+	 * valid only until the next call.
 	 * 
 	 * @param service
 	 * @param buf
 	 * @return decoded data or null if not full frame is available in input buffer
+	 * (position of the buffer is not changed) or if the frame had no data
 	 */
 	ByteBuffer decodeFrame(WebSocketXMPPIOService service, ByteBuffer buf);
 	
 	/**
-	 * Method encodes data into WebSocket frame and writes it to passed service
+	 * Method encodes data into WebSocket frame and writes it to passed service.
+	 * Buffer with data is reused by the service, so data needs to be copied
+	 * if it is not written before the method returns.
 	 * 
 	 * @param service
 	 * @param buf
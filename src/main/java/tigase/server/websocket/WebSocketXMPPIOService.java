@@ -51,6 +51,7 @@ public class WebSocketXMPPIOService<RefObject>
 				extends XMPPIOService<RefObject> {
 	private static final String BAD_REQUEST    = "HTTP/1.0 400 Bad request\r\n\r\n";
 	private static final String CONNECTION_KEY = "Connection";
+	private static final int    MAX_RETAINED_BUFFER = 64 * 1024;
 	private static final Logger log            =
 		Logger.getLogger(WebSocketXMPPIOService.class.getCanonicalName());
 
@@ -58,9 +59,18 @@ public class WebSocketXMPPIOService<RefObject>
 	
 	//~--- fields ---------------------------------------------------------------
 
-	protected long frameLength  = -1;
-	protected byte[] maskingKey = null;
-	private byte[] partialData = null;
+	/** Compression context if <code>permessage-deflate</code> was negotiated */
+	protected PermessageDeflate.Context deflate = null;
+
+	/** Set if the message being received is compressed */
+	protected boolean compressedMessage = false;
+
+	// buffers reused for all reads, released if they grow above the limit
+	private ByteBuffer encodeBuffer    = null;
+	private ByteBuffer frameData       = null;
+	private ByteBuffer frameView       = null;
+	private ByteBuffer frameViewSource = null;
+	private ByteBuffer partialData     = null;
 	
 	// internal properties
 	private boolean websocket = false;
@@ -84,51 +94,49 @@ public class WebSocketXMPPIOService<RefObject>
 	 */
 	@Override
 	protected char[] readData() throws IOException {
-		ByteBuffer cb = super.readBytes();
+		ByteBuffer cb = readBytes();
 
 		if (cb == null) {
 			return null;
 		}
 
 		// handling partialy decoded frame
-		if (partialData != null) {
-			ByteBuffer oldtmp = cb;
-			cb = ByteBuffer.allocate(partialData.length + oldtmp.remaining());
-			cb.order(oldtmp.order());
-			cb.put(partialData);
-			cb.put(oldtmp);
-			cb.flip();
-			oldtmp.clear();
-			partialData = null;
+		if ((partialData != null) && (partialData.position() > 0)) {
+			partialData = ensureCapacity(partialData, cb.remaining());
+			partialData.put(cb);
+			cb.clear();
+			partialData.flip();
+			cb = partialData;
 		}
-		
 		if (websocket) {
+			frameData = ensureCapacity(frameData, 0);
+			frameData.clear();
 
-			
 			// data needs to be decoded fully not just first frame!!
-			ByteBuffer tmp = ByteBuffer.allocate(cb.remaining());	
-			// here we got buffer overflow
-			ByteBuffer decoded = null;
-			while (cb.hasRemaining() && (decoded = decodeFrame(cb)) != null) {
-				//decoded = decodeFrame(cb);
-				if (decoded != null && decoded.hasRemaining()) {
-					tmp.put(decoded);
+			while (cb.hasRemaining()) {
+				int        position = cb.position();
+				ByteBuffer decoded  = decodeFrame(cb);
+
+				if (decoded == null) {
+
+					// control frame is consumed without data, stop only if frame is
+					// not complete
+					if (cb.position() == position) {
+						break;
+					}
+
+					continue;
+				}
+				if (decoded.hasRemaining()) {
+					frameData = ensureCapacity(frameData, decoded.remaining());
+					frameData.put(decoded);
 				}
 			}
-			
+
 			// handling data which were not decoded - not complete data
-			if (cb.hasRemaining()) {
-				partialData = new byte[cb.remaining()];
-				cb.get(partialData);
-			}
-			
-			// compact buffer after reading all frames
-			cb.compact();
-			
-			if (tmp.capacity() > 0) {
-				tmp.flip();
-			}
-			cb = tmp; 
+			keepPartialData(cb);
+			frameData.flip();
+			cb = frameData;
 		}
 		if (started) {
 			return decode(cb);
@@ -150,7 +158,7 @@ public class WebSocketXMPPIOService<RefObject>
 			
 			cb.get(buf, 0, remaining);
 			//pos += read;
-			cb.compact();
+			keepPartialData(cb);
 			int pos = remaining;
 			if ((pos > 100) &&
 					(((buf[pos - 1] == '\n') && (buf[pos - 1] == buf[pos - 3])) ||
@@ -160,7 +168,8 @@ public class WebSocketXMPPIOService<RefObject>
 				websocket = true;
 			}
 			else {
-				partialData = buf;
+				partialData = ensureCapacity(partialData, remaining);
+				partialData.put(buf);
 			}
 		} catch (Exception ex) {
 			if (log.isLoggable(Level.FINE)) {
@@ -309,11 +318,35 @@ public class WebSocketXMPPIOService<RefObject>
 		}
 	}
 	
+	/**
+	 * Data is wrapped in WebSocket frames by <code>writeData()</code>, so
+	 * packets are always converted to <code>String</code>.
+	 *
+	 *
+	 * @return a value of <code>boolean</code>
+	 */
+	@Override
+	protected boolean isElementWriterEnabled() {
+		return false;
+	}
+
 	@Override
 	protected void writeBytes(ByteBuffer data) {
 		super.writeBytes(data);
 	}
 
+	/**
+	 * Releases compression context, which keeps native memory, when the
+	 * connection is closed.
+	 */
+	@Override
+	public void forceStop() {
+		super.forceStop();
+		if (deflate != null) {
+			deflate.release();
+		}
+	}
+
 	/**
 	 * Decode data encoded in WebSocket frames from buffer
 	 *
@@ -373,31 +406,109 @@ public class WebSocketXMPPIOService<RefObject>
 		}
 		tmpBuffer.clear();
 		cb.clear();
+		if ((frameData != null) && (frameData.capacity() > MAX_RETAINED_BUFFER)) {
+			frameData = null;
+		}
 
 		return result;
 	}
 
 	/**
-	 * Encode string into buffer
+	 * Encode string into buffer. Returned buffer is reused for next calls,
+	 * so protocol implementations copy data before writing it.
 	 *
 	 * @param data
 	 * 
 	 * @throws CharacterCodingException
 	 */
 	private ByteBuffer encode(String data) throws CharacterCodingException {
-		ByteBuffer dataBuffer = null;
+		int        size       = (int) (data.length() * encoder.maxBytesPerChar());
+		ByteBuffer dataBuffer = encodeBuffer;
 
+		if ((dataBuffer == null) || (dataBuffer.capacity() < size)) {
+			dataBuffer = ByteBuffer.allocate(Math.max(size, 1024));
+			if (size <= MAX_RETAINED_BUFFER) {
+				encodeBuffer = dataBuffer;
+			}
+		}
+		dataBuffer.clear();
 		encoder.reset();
 
-		// dataBuffer = encoder.encode(CharBuffer.wrap(data, idx_start,
-		// idx_offset));
-		dataBuffer = encoder.encode(CharBuffer.wrap(data));
+		CoderResult cr = encoder.encode(CharBuffer.wrap(data), dataBuffer, true);
+
+		if (cr.isError()) {
+			cr.throwException();
+		}
 		encoder.flush(dataBuffer);
+		dataBuffer.flip();
 
-		// dataBuffer.flip();
 		return dataBuffer;
 	}
-	
+
+	/**
+	 * Returns view of the frame payload in buffer <code>buf</code>. The view
+	 * object is reused while data is read from the same buffer.
+	 *
+	 * @param buf buffer with the frame
+	 * @param start index of the first byte of the payload
+	 * @param end index after the last byte of the payload
+	 *
+	 * @return view of the payload, valid until the next call
+	 */
+	protected ByteBuffer frameView(ByteBuffer buf, int start, int end) {
+		if (frameViewSource != buf) {
+			frameView       = buf.duplicate();
+			frameViewSource = buf;
+		}
+		frameView.clear();
+		frameView.position(start);
+		frameView.limit(end);
+
+		return frameView;
+	}
+
+	/**
+	 * Keeps bytes remaining in the buffer for the next read and clears the
+	 * buffer.
+	 */
+	private void keepPartialData(ByteBuffer buf) {
+		if (buf == partialData) {
+			partialData.compact();
+		} else {
+			if (buf.hasRemaining()) {
+				partialData = ensureCapacity(partialData, buf.remaining());
+				partialData.put(buf);
+			}
+			buf.clear();
+		}
+		if ((partialData != null) && (partialData.position() == 0) && (partialData
+				.capacity() > MAX_RETAINED_BUFFER)) {
+			partialData     = null;
+			frameViewSource = null;
+			frameView       = null;
+		}
+	}
+
+	/**
+	 * Returns buffer in write mode with room for <code>size</code> more bytes,
+	 * the passed one if it is large enough or a new buffer with its content.
+	 */
+	private static ByteBuffer ensureCapacity(ByteBuffer buf, int size) {
+		if (buf == null) {
+			return ByteBuffer.allocate(Math.max(size, 1024));
+		}
+		if (buf.remaining() < size) {
+			ByteBuffer tmp = ByteBuffer.allocate(Math.max(buf.position() + size, buf
+					.capacity() * 2));
+
+			buf.flip();
+			tmp.put(buf);
+			buf = tmp;
+		}
+
+		return buf;
+	}
+
 	public void dumpHeaders(Map<String,String> headers) {
 		if (log.isLoggable(Level.FINEST)) {
 			StringBuilder builder = new StringBuilder(1000);
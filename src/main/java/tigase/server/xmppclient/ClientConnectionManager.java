@@ -27,7 +27,6 @@ package tigase.server.xmppclient;
 //~--- non-JDK imports --------------------------------------------------------
 
 import tigase.net.IOService;
-import tigase.net.SocketThread;
 
 import tigase.server.Command;
 import tigase.server.ConnectionManager;
@@ -83,6 +82,7 @@ public class ClientConnectionManager
 	private static final String ROUTING_ENTRY_PROP_KEY     = ".+";
 	private static final String ROUTING_MODE_PROP_KEY      = "multi-mode";
 	private static final String ROUTINGS_PROP_KEY          = "routings";
+	private static final long   FLOW_CONTROL_CHECK_INTERVAL = 50;
 	private static final long   SOCKET_CLOSE_WAIT_PROP_DEF = 1;
 	private static final String SOCKET_CLOSE_WAIT_PROP_KEY = "socket-close-wait";
 	private static final String TLS_WANT_CLIENT_AUTH_ENABLED_KEY =
@@ -805,7 +805,7 @@ public class ClientConnectionManager
 									.toString() + "</stream:stream>";
 
 							try {
-								SocketThread.removeSocketService(serv);
+								getIOServiceTransport().removeSocketService(serv);
 								serv.writeRawData(redirectMessage);
 								serv.processWaitingPackets();
 								Thread.sleep(socket_close_wait_time);
@@ -836,7 +836,7 @@ public class ClientConnectionManager
 					Packet  p_compressed = Packet.packetInstance(compressed, null, null);
 
 					// SocketThread readThread = SocketThread.getInstance();
-					SocketThread.removeSocketService(serv);
+					getIOServiceTransport().removeSocketService(serv);
 
 					// writePacketToSocket(serv, p_proceed);
 					serv.addPacketToSend(p_compressed);
@@ -844,7 +844,7 @@ public class ClientConnectionManager
 					serv.startZLib(Deflater.BEST_COMPRESSION);
 
 					// serv.call();
-					SocketThread.addSocketService(serv);
+					getIOServiceTransport().addSocketService(serv);
 				} catch (IOException ex) {
 					log.log(Level.INFO, "Problem enabling zlib compression on the connection: ",
 							ex);
@@ -876,7 +876,7 @@ public class ClientConnectionManager
 					Packet  p_proceed = Packet.packetInstance(proceed, null, null);
 
 					// SocketThread readThread = SocketThread.getInstance();
-					SocketThread.removeSocketService(serv);
+					getIOServiceTransport().removeSocketService(serv);
 
 					// writePacketToSocket(serv, p_proceed);
 					serv.addPacketToSend(p_proceed);
@@ -886,7 +886,7 @@ public class ClientConnectionManager
 
 					serv.setX509TrustManagers(x);
 					serv.startTLS(false, isTlsWantClientAuthEnabled());
-					SocketThread.addSocketService(serv);
+					getIOServiceTransport().addSocketService(serv);
 				} catch (Exception e) {
 					log.log(Level.WARNING, "Error starting TLS: {0}", e);
 					serv.forceStop();
@@ -993,6 +993,11 @@ public class ClientConnectionManager
 
 			break;
 
+		case FLOW_CONTROL :
+			processFlowControl(serv, iqc);
+
+			break;
+
 		case STREAM_MOVED :
 			if (processors != null) {
 				for (XMPPIOProcessor processor : processors) {
@@ -1011,6 +1016,40 @@ public class ClientConnectionManager
 		}    // end of switch (pc.getCommand())
 	}
 
+	/**
+	 * Method responds to <code>FLOW_CONTROL</code> command as soon as all data
+	 * queued for the client connection has been written to the socket. Until
+	 * then the check is repeated by a timer task. If the connection is gone an
+	 * error is returned.
+	 *
+	 * @param serv connection to which the command is addressed
+	 * @param iqc <code>FLOW_CONTROL</code> command
+	 */
+	protected void processFlowControl(XMPPIOService<Object> serv, Iq iqc) {
+		if ((serv == null) ||!serv.isConnected()) {
+			try {
+				addOutPacket(Authorization.ITEM_NOT_FOUND.getResponseMessage(iqc,
+						"Connection gone.", false));
+			} catch (PacketErrorTypeException e) {
+				log.log(Level.INFO, "Error packet is not really expected here: {0}", iqc
+						.toStringSecure());
+			}
+
+			return;
+		}
+		if (serv.isWriteQueueEmpty()) {
+			Packet        result = iqc.commandResult(null);
+			List<Element> data   = Command.getData(iqc);
+
+			if (data != null) {
+				Command.setData(result, data);
+			}
+			addOutPacket(result);
+		} else {
+			addTimerTask(new FlowControlTask(serv, iqc), FLOW_CONTROL_CHECK_INTERVAL);
+		}
+	}
+
 	//~--- get methods ----------------------------------------------------------
 
 	/**
@@ -1114,6 +1153,27 @@ public class ClientConnectionManager
 
 	//~--- inner classes --------------------------------------------------------
 
+	private class FlowControlTask
+					extends tigase.util.TimerTask {
+		private final Iq                    iqc;
+		private final XMPPIOService<Object> serv;
+
+		//~--- constructors -------------------------------------------------------
+
+		private FlowControlTask(XMPPIOService<Object> serv, Iq iqc) {
+			this.serv = serv;
+			this.iqc  = iqc;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public void run() {
+			processFlowControl(serv, iqc);
+		}
+	}
+
+
 	private class StartedHandler
 					implements ReceiverTimeoutHandler {
 		/**
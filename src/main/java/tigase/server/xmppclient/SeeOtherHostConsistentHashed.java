@@ -0,0 +1,283 @@
+/*
+ * SeeOtherHostConsistentHashed.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.server.xmppclient;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.xmpp.BareJID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Implementation of SeeOtherHostIfc for cluster environment returning redirect
+ * host selected from a consistent hash ring of connected cluster nodes. Each
+ * node is placed on the ring in a number of virtual nodes, multiplied by its
+ * optional weight, and the user's JID is served by the first virtual node
+ * following the JID hash on the ring.
+ *
+ * In contrast to <code>SeeOtherHostHashed</code>, when a cluster node joins
+ * or leaves, only users mapped to this node (about 1/N of all users) are
+ * redirected to a different node. If default hosts are configured, only
+ * connected default hosts are placed on the ring. All cluster nodes have to
+ * use the same implementation and configuration, otherwise they would
+ * redirect users to each other.
+ *
+ * @author andrzej
+ */
+public class SeeOtherHostConsistentHashed
+				extends SeeOtherHost {
+	/** Property with number of virtual nodes per cluster node */
+	public static final String CM_SEE_OTHER_HOST_VIRTUAL_NODES =
+			CM_SEE_OTHER_HOST_CLASS_PROP_KEY + "/" + "virtual-nodes";
+
+	/** Property with weights of cluster nodes: <code>host=weight,...</code> */
+	public static final String CM_SEE_OTHER_HOST_WEIGHTS = CM_SEE_OTHER_HOST_CLASS_PROP_KEY +
+			"/" + "weights";
+
+	/** Default number of virtual nodes per cluster node */
+	public static final int VIRTUAL_NODES_DEF_VAL = 160;
+	private static final Logger log = Logger.getLogger(SeeOtherHostConsistentHashed.class
+			.getName());
+
+	//~--- fields ---------------------------------------------------------------
+
+	private List<BareJID>        connectedNodes = Collections.emptyList();
+	private volatile Ring        ring           = new Ring(Collections.<BareJID>emptyList(),
+			Collections.<String, Integer>emptyMap(), VIRTUAL_NODES_DEF_VAL);
+	private int                  virtualNodes   = VIRTUAL_NODES_DEF_VAL;
+	private Map<String, Integer> weights        = Collections.emptyMap();
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public BareJID findHostForJID(BareJID jid, BareJID host) {
+		BareJID result = ring.get(jid);
+
+		return (result != null)
+				? result
+				: host;
+	}
+
+	/**
+	 * Method returns hash of the string used to place users and virtual nodes
+	 * on the ring. The value does not depend on the JVM, so all cluster nodes
+	 * compute the same mapping.
+	 *
+	 * @param str to hash
+	 *
+	 * @return 64-bit hash value
+	 */
+	static long hash(String str) {
+
+		// FNV-1a followed by the MurmurHash3 finalizer for better avalanche
+		long h = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < str.length(); i++) {
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return h;
+	}
+
+	private synchronized void rebuild() {
+		List<BareJID> nodes = new ArrayList<BareJID>();
+
+		if ((defaultHost != null) &&!defaultHost.isEmpty()) {
+			for (BareJID node : connectedNodes) {
+				if (defaultHost.contains(node)) {
+					nodes.add(node);
+				}
+			}
+		}
+		if (nodes.isEmpty()) {
+			nodes.addAll(connectedNodes);
+		}
+		ring = new Ring(nodes, weights, virtualNodes);
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Hash ring rebuilt for nodes: {0}, virtual nodes: {1}",
+					new Object[] { nodes,
+					ring.size() });
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	@Override
+	public void getDefaults(Map<String, Object> defs, Map<String, Object> params) {
+		super.getDefaults(defs, params);
+		defs.put(CM_SEE_OTHER_HOST_VIRTUAL_NODES, VIRTUAL_NODES_DEF_VAL);
+		defs.put(CM_SEE_OTHER_HOST_WEIGHTS, "");
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	@Override
+	public void setNodes(List<BareJID> connectedNodes) {
+
+		// Caller modifies the list in place, so we need own copy
+		synchronized (this) {
+			this.connectedNodes = new ArrayList<BareJID>(connectedNodes);
+		}
+		rebuild();
+	}
+
+	@Override
+	public void setProperties(Map<String, Object> props) {
+		super.setProperties(props);
+
+		Object vnodes = props.get(CM_SEE_OTHER_HOST_VIRTUAL_NODES);
+
+		if (vnodes != null) {
+			int val = (vnodes instanceof Number)
+					? ((Number) vnodes).intValue()
+					: Integer.parseInt(vnodes.toString().trim());
+
+			virtualNodes = Math.max(1, val);
+		}
+
+		Object weightsStr = props.get(CM_SEE_OTHER_HOST_WEIGHTS);
+
+		if (weightsStr != null) {
+			Map<String, Integer> result = new HashMap<String, Integer>();
+
+			for (String item : weightsStr.toString().split(",")) {
+				int idx = item.indexOf('=');
+
+				if (idx <= 0) {
+					continue;
+				}
+				try {
+					result.put(item.substring(0, idx).trim(), Math.max(1, Integer.parseInt(item
+							.substring(idx + 1).trim())));
+				} catch (NumberFormatException e) {
+					log.log(Level.CONFIG, "Incorrect cluster node weight: {0}", item);
+				}
+			}
+			weights = result;
+		}
+		rebuild();
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	/**
+	 * Immutable hash ring: sorted positions of virtual nodes and cluster nodes
+	 * owning them.
+	 */
+	private static class Ring {
+		private final BareJID[] owners;
+		private final long[]    positions;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Ring(List<BareJID> nodes, Map<String, Integer> weights, int virtualNodes) {
+			List<VirtualNode> vnodes = new ArrayList<VirtualNode>();
+
+			for (BareJID node : nodes) {
+				String  name   = node.toString();
+				Integer weight = weights.get(name);
+				int     count  = virtualNodes * ((weight == null)
+						? 1
+						: weight);
+
+				for (int i = 0; i < count; i++) {
+					vnodes.add(new VirtualNode(hash(name + "#" + i), node));
+				}
+			}
+			Collections.sort(vnodes);
+			positions = new long[vnodes.size()];
+			owners    = new BareJID[vnodes.size()];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = vnodes.get(i).position;
+				owners[i]    = vnodes.get(i).node;
+			}
+		}
+
+		//~--- get methods --------------------------------------------------------
+
+		private BareJID get(BareJID jid) {
+			if (positions.length == 0) {
+				return null;
+			}
+
+			int idx = Arrays.binarySearch(positions, hash(jid.toString()));
+
+			if (idx < 0) {
+				idx = -idx - 1;
+			}
+
+			return owners[(idx == positions.length)
+					? 0
+					: idx];
+		}
+
+		private int size() {
+			return positions.length;
+		}
+	}
+
+
+	private static class VirtualNode
+					implements Comparable<VirtualNode> {
+		private final BareJID node;
+		private final long    position;
+
+		//~--- constructors -------------------------------------------------------
+
+		private VirtualNode(long position, BareJID node) {
+			this.position = position;
+			this.node     = node;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public int compareTo(VirtualNode o) {
+			int result = Long.compare(position, o.position);
+
+			// Collisions are resolved the same way on all cluster nodes
+			return (result != 0)
+					? result
+					: node.toString().compareTo(o.node.toString());
+		}
+	}
+}
@@ -31,7 +31,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import tigase.net.IOServiceListener;
-import tigase.net.SocketThread;
 import tigase.server.Command;
 import tigase.server.ConnectionManager;
 import tigase.server.Packet;
@@ -285,7 +284,7 @@ public class StreamManagementIOProcessor implements XMPPIOProcessor {
 						if (newService.writeInProgress.tryLock()) {
 							try {
 								newService.processWaitingPackets();
-								SocketThread.addSocketService(newService);
+								connectionManager.getIOServiceTransport().addSocketService(newService);
 							} catch (Exception e) {
 								log.log(Level.WARNING, newService + "Exception during writing packets: ", e);
 								try {
@@ -31,8 +31,8 @@ import tigase.net.SocketType;
 
 import tigase.server.Packet;
 
+import tigase.util.AsyncDNSResolver;
 import tigase.util.DNSEntry;
-import tigase.util.DNSResolver;
 
 import tigase.xmpp.Authorization;
 import tigase.xmpp.PacketErrorTypeException;
@@ -566,30 +566,38 @@ public class CIDConnections {
 	 * @param verify_req
 	 */
 	public void sendHandshakingOnly(final Packet verify_req) {
-		outgoingOpenTasks.schedule(new Runnable() {
+		AsyncDNSResolver.getInstance().resolve(cid.getRemoteHost(), new AsyncDNSResolver
+				.Callback() {
 			@Override
-			public void run() {
-				try {
-					DNSEntry dns_entry     = DNSResolver.getHostSRV_Entry(cid.getRemoteHost());
-					S2SConnection s2s_conn = new S2SConnection(handler, dns_entry.getIp());
+			public void resolved(String domain, DNSEntry[] entries) {
+				final DNSEntry dns_entry = AsyncDNSResolver.selectEntry(entries);
 
-					s2s_conn.addControlPacket(verify_req);
+				outgoingOpenTasks.execute(new Runnable() {
+					@Override
+					public void run() {
+						S2SConnection s2s_conn = new S2SConnection(handler, dns_entry.getIp());
 
-					Map<String, Object> port_props = new TreeMap<String, Object>();
+						s2s_conn.addControlPacket(verify_req);
 
-					port_props.put(S2SIOService.HANDSHAKING_ONLY_KEY,
-												 S2SIOService.HANDSHAKING_ONLY_KEY);
+						Map<String, Object> port_props = new TreeMap<String, Object>();
 
-					// it looks like we are sending verify requests only on handshaking-only
-					// connection so there is only one domain for verification
-					port_props.put(S2SIOService.HANDSHAKING_DOMAIN_KEY,
-												 verify_req.getStanzaTo().toString());
-					initNewConnection(dns_entry.getIp(), dns_entry.getPort(), s2s_conn, port_props);
-				} catch (UnknownHostException ex) {
-					log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost(), ex);
-				}
+						port_props.put(S2SIOService.HANDSHAKING_ONLY_KEY,
+													 S2SIOService.HANDSHAKING_ONLY_KEY);
+
+						// it looks like we are sending verify requests only on handshaking-only
+						// connection so there is only one domain for verification
+						port_props.put(S2SIOService.HANDSHAKING_DOMAIN_KEY,
+													 verify_req.getStanzaTo().toString());
+						initNewConnection(dns_entry.getIp(), dns_entry.getPort(), s2s_conn,
+															port_props);
+					}
+				});
+			}
+			@Override
+			public void failed(String domain, UnknownHostException ex) {
+				log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost(), ex);
 			}
-		}, 0, TimeUnit.MILLISECONDS);
+		});
 	}
 
 	/**
@@ -792,8 +800,33 @@ public class CIDConnections {
 				}
 			}
 
-			// Check DNS entries
-			DNSEntry[] dns_entries = DNSResolver.getHostSRV_Entries(cid.getRemoteHost());
+			// Check DNS entries, connections are opened when the lookup finishes
+			AsyncDNSResolver.getInstance().resolve(cid.getRemoteHost(),
+					new AsyncDNSResolver.Callback() {
+				@Override
+				public void resolved(String domain, DNSEntry[] entries) {
+					scheduleOpenOutgoingConnections(entries, null);
+				}
+				@Override
+				public void failed(String domain, UnknownHostException ex) {
+					scheduleOpenOutgoingConnections(null, ex);
+				}
+			});
+			result = true;
+		} catch (UnknownHostException ex) {
+			log.log(Level.INFO,
+							"Remote host not found: " + cid.getRemoteHost() + ", for: " + cid, ex);
+			sendPacketsBack();
+		}
+
+		return result;
+	}
+
+	private boolean openOutgoingConnections(DNSEntry[] dns_entries) {
+		boolean result = false;
+
+		try {
+			int all_outgoing = outgoing.size() + outgoing_handshaking.size();
 
 			// Activate 'missing' connections
 			for (DNSEntry dNSEntry : dns_entries) {
@@ -835,6 +868,33 @@ public class CIDConnections {
 		return result;
 	}
 
+	private void scheduleOpenOutgoingConnections(final DNSEntry[] dns_entries,
+					final UnknownHostException error) {
+		outgoingOpenTasks.execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean result = false;
+
+				try {
+					if (error != null) {
+						log.log(Level.INFO,
+										"Remote host not found: " + cid.getRemoteHost() + ", for: " + cid,
+										error);
+						sendPacketsBack();
+					} else {
+						result = openOutgoingConnections(dns_entries);
+					}
+				} catch (Exception e) {
+					log.log(Level.WARNING,
+									"uncaughtException in the connection opening thread: ", e);
+				}
+				if (!result) {
+					outgoingOpenInProgress.set(false);
+				}
+			}
+		});
+	}
+
 	private void sendPacketsBack() {
 		Packet p = null;
 
@@ -39,6 +39,8 @@ import tigase.server.xmppserver.proc.StreamOpen;
 
 import tigase.stats.StatisticsList;
 
+import tigase.util.AsyncDNSResolver;
+
 import tigase.xml.Element;
 
 import tigase.xmpp.Authorization;
@@ -78,6 +80,15 @@ public class S2SConnectionManager
 	public static final String CID_CONNECTIONS_TASKS_THREADS_KEY =
 			"cid-connections-tasks-threads";
 
+	/** Maximum time in seconds for which resolved domains are cached */
+	public static final String DNS_CACHE_TTL_PROP_KEY = "dns-cache-ttl";
+
+	/** Time in seconds for which unknown domains are cached */
+	public static final String DNS_NEGATIVE_CACHE_TTL_PROP_KEY = "dns-negative-cache-ttl";
+
+	/** Maximum number of concurrent DNS queries */
+	public static final String DNS_RESOLVER_THREADS_PROP_KEY = "dns-resolver-threads";
+
 	/** Field description */
 	public static final String MAX_CONNECTION_INACTIVITY_TIME_PROP_KEY =
 			"max-inactivity-time";
@@ -710,6 +721,10 @@ public class S2SConnectionManager
 		props.put(MAX_OUT_PER_IP_CONNECTIONS_PROP_KEY, MAX_OUT_PER_IP_CONNECTIONS_PROP_VAL);
 		props.put(S2S_CONNECTION_SELECTOR_PROP_KEY, S2S_CONNECTION_SELECTOR_PROP_VAL);
 		props.put(CID_CONNECTIONS_TASKS_THREADS_KEY, CID_CONNECTIONS_TASKS_THREADS_VAL);
+		props.put(DNS_RESOLVER_THREADS_PROP_KEY, AsyncDNSResolver.THREADS_PROP_VAL);
+		props.put(DNS_CACHE_TTL_PROP_KEY, AsyncDNSResolver.POSITIVE_TTL_PROP_VAL / SECOND);
+		props.put(DNS_NEGATIVE_CACHE_TTL_PROP_KEY, AsyncDNSResolver.NEGATIVE_TTL_PROP_VAL /
+				SECOND);
 
 		return props;
 	}
@@ -783,6 +798,7 @@ public class S2SConnectionManager
 	public void getStatistics(StatisticsList list) {
 		super.getStatistics(list);
 		list.add(getName(), "CIDs number", cidConnections.size(), Level.INFO);
+		AsyncDNSResolver.getInstance().getStatistics(getName(), list);
 		if (list.checkLevel(Level.FINEST)) {
 			long total_outgoing             = 0;
 			long total_outgoing_tls         = 0;
@@ -886,6 +902,18 @@ public class S2SConnectionManager
 			CIDConnections.setOutgoingOpenThreadsSize((Integer) props.get(
 					CID_CONNECTIONS_TASKS_THREADS_KEY));
 		}
+		if (props.containsKey(DNS_RESOLVER_THREADS_PROP_KEY)) {
+			AsyncDNSResolver.getInstance().setThreads((Integer) props.get(
+					DNS_RESOLVER_THREADS_PROP_KEY));
+		}
+		if (props.containsKey(DNS_CACHE_TTL_PROP_KEY)) {
+			AsyncDNSResolver.getInstance().setPositiveTTL((Long) props.get(
+					DNS_CACHE_TTL_PROP_KEY) * SECOND);
+		}
+		if (props.containsKey(DNS_NEGATIVE_CACHE_TTL_PROP_KEY)) {
+			AsyncDNSResolver.getInstance().setNegativeTTL((Long) props.get(
+					DNS_NEGATIVE_CACHE_TTL_PROP_KEY) * SECOND);
+		}
 		if (props.size() == 1) {
 
 			// If props.size() == 1, it means this is a single property update
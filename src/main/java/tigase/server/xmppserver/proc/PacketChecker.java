@@ -39,8 +39,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import tigase.server.xmppserver.S2SConnectionHandlerIfc;
+import tigase.util.AsyncDNSResolver;
 import tigase.util.DNSEntry;
-import tigase.util.DNSResolver;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -181,7 +181,7 @@ public class PacketChecker extends S2SAbstractProcessor {
                                         || Arrays.binarySearch(allowedOtherDomainsWithSameIpWhitelist, domain) >= 0) {
                         
                                         try {
-                                                DNSEntry[] entries = DNSResolver.getHostSRV_Entries(domain);
+                                                DNSEntry[] entries = AsyncDNSResolver.getInstance().getHostSRV_Entries(domain);
                                                 if (entries != null) {                                                
                                                         String remoteAddress = serv.getRemoteAddress();
                                                         for (DNSEntry entry : entries) {
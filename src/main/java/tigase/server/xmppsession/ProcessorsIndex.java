@@ -0,0 +1,296 @@
+/*
+ * ProcessorsIndex.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.server.xmppsession;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.server.Packet;
+
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.XMPPProcessor;
+import tigase.xmpp.XMPPProcessorIfc;
+import tigase.xmpp.XMPPResourceConnection;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable dispatch index of session manager processors. Processors which
+ * rely on the default <code>XMPPProcessor.canHandle()</code> implementation
+ * are indexed by the element path and xmlns they declare, so a packet is
+ * checked only against paths starting with its own element name. Processors
+ * overriding <code>canHandle()</code>, using the old API or wildcards are
+ * kept on a slow path and asked for every packet as before.
+ *
+ * The index is rebuilt by <code>SessionManager</code> each time set of
+ * loaded plugins changes.
+ *
+ * @author andrzej
+ */
+class ProcessorsIndex {
+	private static final Logger log = Logger.getLogger(ProcessorsIndex.class.getName());
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final Map<String, ElemEntry> byElemName = new HashMap<String, ElemEntry>();
+	private final XMPPProcessorIfc[] slowPath;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Constructs index for given processors.
+	 *
+	 * @param processors to index
+	 */
+	ProcessorsIndex(Collection<XMPPProcessorIfc> processors) {
+		List<XMPPProcessorIfc>              slow    = new ArrayList<XMPPProcessorIfc>();
+		Map<String, Map<String, PathEntry>> entries = new LinkedHashMap<String,
+				Map<String, PathEntry>>();
+
+		for (XMPPProcessorIfc proc : processors) {
+			if (!isIndexable(proc)) {
+				slow.add(proc);
+
+				continue;
+			}
+
+			String[][]      paths = proc.supElementNamePaths();
+			String[]        xmlns = proc.supNamespaces();
+			Set<StanzaType> types = proc.supTypes();
+
+			for (int i = 0; i < paths.length; i++) {
+				Map<String, PathEntry> byPath = entries.get(paths[i][0]);
+
+				if (byPath == null) {
+					byPath = new LinkedHashMap<String, PathEntry>();
+					entries.put(paths[i][0], byPath);
+				}
+
+				String    key   = Arrays.toString(paths[i]);
+				PathEntry entry = byPath.get(key);
+
+				if (entry == null) {
+					entry = new PathEntry(paths[i]);
+					byPath.put(key, entry);
+				}
+				entry.add(xmlns[i], new Target(proc, types));
+			}
+		}
+		for (Map.Entry<String, Map<String, PathEntry>> e : entries.entrySet()) {
+			byElemName.put(e.getKey(), new ElemEntry(e.getValue().values().toArray(
+					new PathEntry[e.getValue().size()])));
+		}
+		slowPath = slow.toArray(new XMPPProcessorIfc[slow.size()]);
+		if (log.isLoggable(Level.CONFIG)) {
+			log.log(Level.CONFIG, "Processors index built, indexed element names: {0}, " +
+					"processors on slow path: {1}", new Object[] { byElemName.keySet(),
+					Arrays.toString(slowPath) });
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method adds to the result list all indexed processors which can handle the
+	 * packet. Each processor is added only once even if it declares more than
+	 * one matching element path, the result list is checked for duplicates only
+	 * for element names with such processors.
+	 *
+	 * @param packet to be processed
+	 * @param result list to which matching processors are added
+	 */
+	void getProcessors(Packet packet, List<XMPPProcessorIfc> result) {
+		ElemEntry elem = byElemName.get(packet.getElemName());
+
+		if (elem == null) {
+			return;
+		}
+
+		StanzaType type = packet.getType();
+
+		for (PathEntry path : elem.paths) {
+			// Lookup only reads the element, so the shared element is not copied
+			String xmlns = packet.getSharedElement().getXMLNSStaticStr(path.path);
+
+			if (xmlns == null) {
+				continue;
+			}
+
+			Target[] targets = path.byXMLNS.get(xmlns);
+
+			if (targets == null) {
+				continue;
+			}
+			for (Target target : targets) {
+				if (((target.types == null) || target.types.contains(type)) && (elem.unique ||
+						!result.contains(target.proc))) {
+					result.add(target.proc);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method returns processors which have to be asked whether they can handle
+	 * a packet.
+	 *
+	 * @return processors not covered by the index
+	 */
+	XMPPProcessorIfc[] getSlowPath() {
+		return slowPath;
+	}
+
+	/**
+	 * Method checks whether the processor decision depends only on element
+	 * paths, namespaces and types it declares.
+	 *
+	 * @param proc to check
+	 *
+	 * @return <code>true</code> if the processor can be indexed
+	 */
+	static boolean isIndexable(XMPPProcessorIfc proc) {
+		if (!(proc instanceof XMPPProcessor)) {
+			return false;
+		}
+		try {
+			if (proc.getClass().getMethod("canHandle", Packet.class,
+					XMPPResourceConnection.class).getDeclaringClass() != XMPPProcessor.class) {
+				return false;
+			}
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+
+		String[][] paths = proc.supElementNamePaths();
+		String[]   xmlns = proc.supNamespaces();
+
+		if ((paths == null) || (xmlns == null) || (xmlns.length < paths.length)) {
+			return false;
+		}
+		for (int i = 0; i < paths.length; i++) {
+			if ((paths[i] == null) || (paths[i].length == 0) || (xmlns[i] == null)) {
+				return false;
+			}
+			for (String name : paths[i]) {
+				if ((name == null) || "*".equals(name)) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static class ElemEntry {
+		private final PathEntry[] paths;
+
+		/**
+		 * <code>true</code> if no processor is registered for more than one path
+		 * starting with the element name
+		 */
+		private final boolean unique;
+
+		//~--- constructors -------------------------------------------------------
+
+		private ElemEntry(PathEntry[] paths) {
+			Set<XMPPProcessorIfc> seen   = new HashSet<XMPPProcessorIfc>();
+			boolean               result = true;
+
+			for (PathEntry path : paths) {
+				Set<XMPPProcessorIfc> procs = new HashSet<XMPPProcessorIfc>();
+
+				for (Target[] targets : path.byXMLNS.values()) {
+					for (Target target : targets) {
+						procs.add(target.proc);
+					}
+				}
+				for (XMPPProcessorIfc proc : procs) {
+					result &= seen.add(proc);
+				}
+			}
+			this.paths  = paths;
+			this.unique = result;
+		}
+	}
+
+
+	private static class PathEntry {
+		private final Map<String, Target[]> byXMLNS = new HashMap<String, Target[]>();
+		private final String[]              path;
+
+		//~--- constructors -------------------------------------------------------
+
+		private PathEntry(String[] path) {
+			this.path = path;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		private void add(String xmlns, Target target) {
+			Target[] targets = byXMLNS.get(xmlns);
+
+			if (targets == null) {
+				targets = new Target[] { target };
+			} else {
+				for (Target t : targets) {
+					if (t.proc == target.proc) {
+
+						// Same path and xmlns declared twice by the processor
+						return;
+					}
+				}
+				targets                     = Arrays.copyOf(targets, targets.length + 1);
+				targets[targets.length - 1] = target;
+			}
+			byXMLNS.put(xmlns, targets);
+		}
+	}
+
+
+	private static class Target {
+		private final XMPPProcessorIfc proc;
+		private final Set<StanzaType>  types;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Target(XMPPProcessorIfc proc, Set<StanzaType> types) {
+			this.proc  = proc;
+			this.types = types;
+		}
+	}
+}
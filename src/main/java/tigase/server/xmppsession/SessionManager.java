@@ -34,9 +34,12 @@ import tigase.db.AuthorizationException;
 import tigase.db.AuthRepository;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.NonAuthUserRepositoryImpl;
+import tigase.db.RepositoryCacheIfc;
 import tigase.db.RepositoryFactory;
 import tigase.db.TigaseDBException;
 import tigase.db.UserRepository;
+import tigase.db.UserRepositoryPool;
+import tigase.db.jdbc.JDBCRepository;
 
 import tigase.disco.XMPPService;
 
@@ -93,6 +96,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -155,6 +159,19 @@ public class SessionManager
 			new StaleConnectionCloser();
 	private Map<String, XMPPProcessorIfc> processors = new ConcurrentHashMap<String,
 			XMPPProcessorIfc>(32);
+	private volatile ProcessorsIndex processorsIndex = new ProcessorsIndex(processors
+			.values());
+	private final AtomicLong         processorsIndexFallbacks = new AtomicLong();
+	private final AtomicLong         processorsIndexHits      = new AtomicLong();
+
+	/** Processors selected for a packet, reused by each thread calling walk() */
+	private final ThreadLocal<List<XMPPProcessorIfc>> walkHandlers =
+			new ThreadLocal<List<XMPPProcessorIfc>>() {
+		@Override
+		protected List<XMPPProcessorIfc> initialValue() {
+			return new ArrayList<XMPPProcessorIfc>(4);
+		}
+	};
 	private Map<String, XMPPPresenceUpdateProcessorIfc> presenceProcessors =
 			new ConcurrentHashMap<String, XMPPPresenceUpdateProcessorIfc>();
 	private Map<String, XMPPPreprocessorIfc> preProcessors = new ConcurrentHashMap<String,
@@ -279,6 +296,7 @@ public class SessionManager
 				}
 			}
 			processors.put(proc.id(), proc);
+			rebuildProcessorsIndex();
 			log.log(Level.CONFIG, "Added processor: {0} for plugin id: {1}", new Object[] { proc
 					.getClass().getSimpleName(),
 					proc.id() });
@@ -576,6 +594,7 @@ public class SessionManager
 
 		if (pt != null) {
 			p = processors.remove(plug_id);
+			rebuildProcessorsIndex();
 			pt.shutdown();
 			if (p != null) {
 				allPlugins.remove(p);
@@ -816,6 +835,17 @@ public class SessionManager
 			list.add(getName(), "Registered accounts", user_repository.getUsersCount(), Level
 					.FINEST);
 		}
+
+		RepositoryCacheIfc repoCache = null;
+
+		if (user_repository instanceof UserRepositoryPool) {
+			repoCache = ((UserRepositoryPool) user_repository).getCache();
+		} else if (user_repository instanceof JDBCRepository) {
+			repoCache = ((JDBCRepository) user_repository).getCache();
+		}
+		if (repoCache != null) {
+			repoCache.getStatistics(getName(), list);
+		}
 		list.add(getName(), "Open user connections", connectionsByFrom.size(), Level.INFO);
 		list.add(getName(), "Maximum user connections", maxUserConnections, Level.INFO);
 		list.add(getName(), "Total user connections", totalUserConnections, Level.FINER);
@@ -825,6 +855,9 @@ public class SessionManager
 		list.add(getName(), "Total user sessions", totalUserSessions, Level.FINER);
 		list.add(getName(), "Active user connections", getActiveUserNumber(), Level.FINER);
 		list.add(getName(), "Authentication timouts", authTimeouts, Level.INFO);
+		list.add(getName(), "Processors index hits", processorsIndexHits.get(), Level.FINE);
+		list.add(getName(), "Processors index fallbacks", processorsIndexFallbacks.get(),
+				Level.FINE);
 		if (list.checkLevel(Level.INFO)) {
 			int  totalQueuesWait     = list.getValue(getName(), "Total queues wait", 0);
 			long totalQueuesOverflow = list.getValue(getName(), "Total queues overflow", 0l);
@@ -1117,6 +1150,9 @@ public class SessionManager
 			for (String key : keys) {
 				removePlugin(key);
 			}
+
+			// Plugins may change supported elements during initialization
+			rebuildProcessorsIndex();
 		}
 		if (!isInitializationComplete()) {
 			smResourceConnection = new SMResourceConnection(null, user_repository,
@@ -1812,6 +1848,28 @@ public class SessionManager
 
 			break;
 
+		case FLOW_CONTROL :
+			if ((connection != null) && (iqc.getType() == StanzaType.result) && iqc.getFrom()
+					.equals(iqc.getStanzaFrom())) {
+				String           plug_id = Command.getFieldValue(iqc, Command
+						.FLOW_CONTROL_PROCESSOR_FIELD);
+				XMPPProcessorIfc proc    = (plug_id != null)
+						? processors.get(plug_id)
+						: null;
+
+				if (proc != null) {
+					ProcessingThreads<ProcessorWorkerThread> pt = workerThreads.get(proc.id());
+
+					if (pt == null) {
+						pt = workerThreads.get(defPluginsThreadsPool);
+					}
+					pt.addItem(proc, iqc, connection);
+				}
+			}
+			processing_result = true;
+
+			break;
+
 		default :
 			if (getComponentId().equals(iqc.getStanzaTo()) && getComponentId().equals(iqc
 					.getPacketFrom())) {
@@ -2368,37 +2426,32 @@ public class SessionManager
 		return processingTime;
 	}
 
-	private void walk(final Packet packet, final XMPPResourceConnection connection) {
+	private void rebuildProcessorsIndex() {
+		processorsIndex = new ProcessorsIndex(processors.values());
+	}
 
-		// final Element elem, final Queue<Packet> results) {
-		for (XMPPProcessorIfc proc_t : processors.values()) {
-			XMPPProcessorIfc processor = proc_t;
-			Authorization    result    = processor.canHandle(packet, connection);
+	private void walk(final Packet packet, final XMPPResourceConnection connection) {
+		ProcessorsIndex        index    = processorsIndex;
+		List<XMPPProcessorIfc> handlers = walkHandlers.get();
 
-			if (result == Authorization.AUTHORIZED) {
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST, "XMPPProcessorIfc: {0} ({1}" + ")" + "Request: " +
-							"{2}, conn: {3}", new Object[] { processor.getClass().getSimpleName(),
-							processor.id(), packet, connection });
-				}
+		// Processors found by the element path and xmlns of the packet
+		handlers.clear();
+		index.getProcessors(packet, handlers);
+		if (!handlers.isEmpty()) {
+			processorsIndexHits.addAndGet(handlers.size());
+		}
 
-				ProcessingThreads<ProcessorWorkerThread> pt = workerThreads.get(processor.id());
+		// Processors which have to decide on their own
+		XMPPProcessorIfc[] slowPath = index.getSlowPath();
 
-				if (pt == null) {
-					pt = workerThreads.get(defPluginsThreadsPool);
-				}
-				if (pt.addItem(processor, packet, connection)) {
-					packet.processedBy(processor.id());
-				} else {
+		if (slowPath.length > 0) {
+			processorsIndexFallbacks.addAndGet(slowPath.length);
+		}
+		for (XMPPProcessorIfc proc_t : slowPath) {
+			Authorization result = proc_t.canHandle(packet, connection);
 
-					// proc_t.debugQueue();
-					if (log.isLoggable(Level.FINE)) {
-						log.log(Level.FINE,
-								"Can not add packet: {0} to processor: {1} internal queue full.",
-								new Object[] { packet.toStringSecure(),
-								pt.getName() });
-					}
-				}
+			if (result == Authorization.AUTHORIZED) {
+				handlers.add(proc_t);
 			} else {
 				if (result != null) {
 
@@ -2406,6 +2459,32 @@ public class SessionManager
 					// with an appropriate error
 				}
 			}
+		}
+
+		for (XMPPProcessorIfc processor : handlers) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "XMPPProcessorIfc: {0} ({1}" + ")" + "Request: " +
+						"{2}, conn: {3}", new Object[] { processor.getClass().getSimpleName(),
+						processor.id(), packet, connection });
+			}
+
+			ProcessingThreads<ProcessorWorkerThread> pt = workerThreads.get(processor.id());
+
+			if (pt == null) {
+				pt = workerThreads.get(defPluginsThreadsPool);
+			}
+			if (pt.addItem(processor, packet, connection)) {
+				packet.processedBy(processor.id());
+			} else {
+
+				// proc_t.debugQueue();
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE,
+							"Can not add packet: {0} to processor: {1} internal queue full.",
+							new Object[] { packet.toStringSecure(),
+							pt.getName() });
+				}
+			}
 		}    // end of for ()
 	}
 
@@ -0,0 +1,551 @@
+/*
+ * AsyncDNSResolver.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.util;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.stats.StatisticsList;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.net.UnknownHostException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Asynchronous, caching resolver of SRV entries for server to server
+ * connections. Lookups are executed by a bounded pool of threads, concurrent
+ * lookups of the same domain are coalesced into a single query and results
+ * are cached: resolved entries for their DNS TTL, but no longer than the
+ * positive TTL, and unknown domains for the negative TTL.
+ *
+ * Actual queries are done by <code>DNSResolver</code>, a different
+ * <code>Lookup</code> can be given for tests.
+ *
+ * @author andrzej
+ */
+public class AsyncDNSResolver {
+	/** Default maximum number of cached domains */
+	public static final int CACHE_SIZE_PROP_VAL = 10000;
+
+	/** Default time in ms for which unknown domains are cached */
+	public static final long NEGATIVE_TTL_PROP_VAL = 60 * 1000;
+
+	/** Default maximum time in ms for which resolved domains are cached */
+	public static final long POSITIVE_TTL_PROP_VAL = 60 * 60 * 1000;
+
+	/** Default number of concurrent DNS queries */
+	public static final int THREADS_PROP_VAL = 8;
+	private static final Logger           log = Logger.getLogger(AsyncDNSResolver.class
+			.getName());
+	private static final Random           rand     = new Random();
+	private static final AsyncDNSResolver instance = new AsyncDNSResolver(new Lookup() {
+		@Override
+		public DNSEntry[] lookup(String domain) throws UnknownHostException {
+			return DNSResolver.getHostSRV_Entries(domain);
+		}
+	}, THREADS_PROP_VAL);
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final Map<String, CacheEntry> cache = new ConcurrentHashMap<String,
+			CacheEntry>();
+	private int                           cacheSize   = CACHE_SIZE_PROP_VAL;
+	private long                          coalesced   = 0;
+	private long                          failures    = 0;
+	private long                          hits        = 0;
+	private long                          lookups     = 0;
+	private final Lookup                  lookup;
+	private long                          maxLatency  = 0;
+	private long                          misses      = 0;
+	private long                          negativeHits = 0;
+	private long                          negativeTTL = NEGATIVE_TTL_PROP_VAL;
+	private final Map<String, Query>      pending     = new ConcurrentHashMap<String,
+			Query>();
+	private final ThreadPoolExecutor      pool;
+	private long                          positiveTTL = POSITIVE_TTL_PROP_VAL;
+	private long                          totalLatency = 0;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Constructs resolver executing queries with given lookup.
+	 *
+	 * @param lookup executing DNS queries
+	 * @param threads maximum number of concurrent queries
+	 */
+	public AsyncDNSResolver(Lookup lookup, int threads) {
+		this.lookup = lookup;
+		pool        = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "dns-resolver-" + counter.incrementAndGet());
+
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method resolves SRV entries for the domain. The callback is called
+	 * immediately, in the calling thread, if the domain is in the cache,
+	 * otherwise it is called from a resolver thread when the query finishes.
+	 *
+	 * @param domain to resolve
+	 * @param callback called with the result
+	 */
+	public void resolve(String domain, Callback callback) {
+		CacheEntry entry = getCached(domain);
+
+		if (entry != null) {
+			entry.notify(domain, callback);
+
+			return;
+		}
+		getQuery(domain).addCallback(callback);
+	}
+
+	/**
+	 * Method selects entry to connect to from SRV entries: one of the entries
+	 * with the lowest priority, chosen randomly according to their weights.
+	 *
+	 * @param entries SRV entries
+	 *
+	 * @return selected entry
+	 */
+	public static DNSEntry selectEntry(DNSEntry[] entries) {
+		if (entries.length == 1) {
+			return entries[0];
+		}
+
+		List<DNSEntry> best        = new ArrayList<DNSEntry>();
+		int            totalWeight = 0;
+
+		for (DNSEntry entry : entries) {
+			if (!best.isEmpty() && (entry.getPriority() > best.get(0).getPriority())) {
+				continue;
+			}
+			if (!best.isEmpty() && (entry.getPriority() < best.get(0).getPriority())) {
+				best.clear();
+				totalWeight = 0;
+			}
+			best.add(entry);
+			totalWeight += Math.max(0, entry.getWeight());
+		}
+		if (totalWeight == 0) {
+			return best.get(rand.nextInt(best.size()));
+		}
+
+		int pick = rand.nextInt(totalWeight);
+
+		for (DNSEntry entry : best) {
+			pick -= Math.max(0, entry.getWeight());
+			if (pick < 0) {
+				return entry;
+			}
+		}
+
+		return best.get(0);
+	}
+
+	private synchronized void cacheHit(boolean negative) {
+		if (negative) {
+			++negativeHits;
+		} else {
+			++hits;
+		}
+	}
+
+	private void queryDone(Query query, DNSEntry[] entries, UnknownHostException ex,
+			long latency) {
+		long       now  = System.currentTimeMillis();
+		CacheEntry entry;
+
+		if (entries != null) {
+			long ttl = positiveTTL;
+
+			for (DNSEntry dnsEntry : entries) {
+				if (dnsEntry.getTtl() > 0) {
+					ttl = Math.min(ttl, dnsEntry.getTtl() * 1000);
+				}
+			}
+			entry = new CacheEntry(entries, null, now + ttl);
+		} else {
+			entry = new CacheEntry(null, ex, now + negativeTTL);
+		}
+		if (cache.size() >= cacheSize) {
+			purge(now);
+		}
+		cache.put(query.domain, entry);
+		pending.remove(query.domain);
+		synchronized (this) {
+			++lookups;
+			if (ex != null) {
+				++failures;
+			}
+			totalLatency += latency;
+			if (latency > maxLatency) {
+				maxLatency = latency;
+			}
+		}
+		query.complete(entry);
+	}
+
+	private void purge(long now) {
+		for (Iterator<CacheEntry> it = cache.values().iterator(); it.hasNext(); ) {
+			if (it.next().expires <= now) {
+				it.remove();
+			}
+		}
+		if (cache.size() >= cacheSize) {
+			cache.clear();
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns resolver shared by all components.
+	 *
+	 * @return shared resolver
+	 */
+	public static AsyncDNSResolver getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Method resolves SRV entries for the domain, waiting for the result if it
+	 * is not in the cache. Concurrent calls for the same domain wait for a
+	 * single query.
+	 *
+	 * @param domain to resolve
+	 *
+	 * @return SRV entries for the domain
+	 *
+	 * @throws UnknownHostException if the domain could not be resolved
+	 */
+	public DNSEntry[] getHostSRV_Entries(String domain) throws UnknownHostException {
+		CacheEntry entry = getCached(domain);
+
+		if (entry == null) {
+			entry = getQuery(domain).await();
+		}
+		if (entry.error != null) {
+			throw entry.error;
+		}
+
+		return entry.entries;
+	}
+
+	/**
+	 * Method resolves SRV entry to connect to for the domain, waiting for the
+	 * result if it is not in the cache.
+	 *
+	 * @param domain to resolve
+	 *
+	 * @return SRV entry selected from entries for the domain
+	 *
+	 * @throws UnknownHostException if the domain could not be resolved
+	 */
+	public DNSEntry getHostSRV_Entry(String domain) throws UnknownHostException {
+		return selectEntry(getHostSRV_Entries(domain));
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param compName
+	 * @param list
+	 */
+	public synchronized void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "DNS cache hits", hits, Level.FINE);
+		list.add(compName, "DNS negative cache hits", negativeHits, Level.FINE);
+		list.add(compName, "DNS cache misses", misses, Level.FINE);
+		list.add(compName, "DNS coalesced lookups", coalesced, Level.FINE);
+		list.add(compName, "DNS lookups", lookups, Level.FINE);
+		list.add(compName, "DNS failed lookups", failures, Level.FINE);
+		list.add(compName, "DNS average lookup time [ms]", (lookups == 0)
+				? 0f
+				: (float) totalLatency / lookups, Level.FINE);
+		list.add(compName, "DNS max lookup time [ms]", maxLatency, Level.FINE);
+		list.add(compName, "DNS cached domains", cache.size(), Level.FINE);
+		list.add(compName, "DNS pending lookups", pending.size(), Level.FINER);
+	}
+
+	private CacheEntry getCached(String domain) {
+		CacheEntry entry = cache.get(domain);
+
+		if (entry != null) {
+			if (entry.expires > System.currentTimeMillis()) {
+				cacheHit(entry.error != null);
+
+				return entry;
+			}
+			cache.remove(domain, entry);
+		}
+
+		return null;
+	}
+
+	private Query getQuery(String domain) {
+		Query query = pending.get(domain);
+
+		if (query == null) {
+			Query created = new Query(domain);
+
+			query = ((ConcurrentHashMap<String, Query>) pending).putIfAbsent(domain, created);
+			if (query == null) {
+				query = created;
+				synchronized (this) {
+					++misses;
+				}
+				pool.execute(query);
+
+				return query;
+			}
+		}
+		synchronized (this) {
+			++coalesced;
+		}
+
+		return query;
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Method sets maximum number of cached domains.
+	 *
+	 * @param cacheSize
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Method sets time in ms for which unknown domains are cached.
+	 *
+	 * @param negativeTTL
+	 */
+	public void setNegativeTTL(long negativeTTL) {
+		this.negativeTTL = negativeTTL;
+	}
+
+	/**
+	 * Method sets maximum time in ms for which resolved domains are cached.
+	 *
+	 * @param positiveTTL
+	 */
+	public void setPositiveTTL(long positiveTTL) {
+		this.positiveTTL = positiveTTL;
+	}
+
+	/**
+	 * Method sets maximum number of concurrent DNS queries.
+	 *
+	 * @param threads
+	 */
+	public synchronized void setThreads(int threads) {
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	//~--- inner interfaces -----------------------------------------------------
+
+	/**
+	 * Callback notified about result of the lookup.
+	 */
+	public interface Callback {
+		/**
+		 * Method called when the domain could not be resolved.
+		 *
+		 * @param domain which was resolved
+		 * @param ex error returned by the lookup
+		 */
+		void failed(String domain, UnknownHostException ex);
+
+		/**
+		 * Method called when the domain was resolved.
+		 *
+		 * @param domain which was resolved
+		 * @param entries SRV entries for the domain
+		 */
+		void resolved(String domain, DNSEntry[] entries);
+	}
+
+
+	/**
+	 * Executes a single DNS query.
+	 */
+	public interface Lookup {
+		/**
+		 * Method returns SRV entries for the domain.
+		 *
+		 * @param domain to resolve
+		 *
+		 * @return SRV entries for the domain
+		 *
+		 * @throws UnknownHostException if the domain could not be resolved
+		 */
+		DNSEntry[] lookup(String domain) throws UnknownHostException;
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static class CacheEntry {
+		private final DNSEntry[]           entries;
+		private final UnknownHostException error;
+		private final long                 expires;
+
+		//~--- constructors -------------------------------------------------------
+
+		private CacheEntry(DNSEntry[] entries, UnknownHostException error, long expires) {
+			this.entries = entries;
+			this.error   = error;
+			this.expires = expires;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		private void notify(String domain, Callback callback) {
+			try {
+				if (error != null) {
+					callback.failed(domain, error);
+				} else {
+					callback.resolved(domain, entries);
+				}
+			} catch (Exception e) {
+				log.log(Level.WARNING, "Problem notifying about DNS lookup result for: " +
+						domain, e);
+			}
+		}
+	}
+
+
+	private class Query
+					implements Runnable {
+		private List<Callback>       callbacks = new ArrayList<Callback>();
+		private final String         domain;
+		private CacheEntry           result    = null;
+		private final CountDownLatch done      = new CountDownLatch(1);
+
+		//~--- constructors -------------------------------------------------------
+
+		private Query(String domain) {
+			this.domain = domain;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public void run() {
+			long                 start   = System.currentTimeMillis();
+			DNSEntry[]           entries = null;
+			UnknownHostException error   = null;
+
+			try {
+				entries = lookup.lookup(domain);
+				if ((entries == null) || (entries.length == 0)) {
+					error   = new UnknownHostException(domain);
+					entries = null;
+				}
+			} catch (UnknownHostException e) {
+				error = e;
+			} catch (Exception e) {
+				log.log(Level.WARNING, "DNS lookup failed for: " + domain, e);
+				error = new UnknownHostException(domain);
+			}
+			queryDone(this, entries, error, System.currentTimeMillis() - start);
+		}
+
+		private void addCallback(Callback callback) {
+			CacheEntry entry;
+
+			synchronized (this) {
+				entry = result;
+				if (entry == null) {
+					callbacks.add(callback);
+
+					return;
+				}
+			}
+			entry.notify(domain, callback);
+		}
+
+		private CacheEntry await() throws UnknownHostException {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+
+				throw new UnknownHostException(domain);
+			}
+
+			return result;
+		}
+
+		private void complete(CacheEntry entry) {
+			List<Callback> toNotify;
+
+			synchronized (this) {
+				result    = entry;
+				toNotify  = callbacks;
+				callbacks = null;
+			}
+			done.countDown();
+			for (Callback callback : toNotify) {
+				entry.notify(domain, callback);
+			}
+		}
+	}
+}
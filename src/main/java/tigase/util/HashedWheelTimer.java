@@ -0,0 +1,557 @@
+/*
+ * HashedWheelTimer.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.util;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Timer keeping scheduled tasks in a wheel of buckets, a bucket for each
+ * tick. Scheduling and cancelling a task takes constant time regardless of
+ * number of scheduled tasks, at the cost of precision: a task is executed up
+ * to one tick after its deadline. This is well suited for timeouts, which are
+ * scheduled in large numbers and mostly cancelled before they expire.
+ *
+ * A single thread moves the wheel, new and cancelled tasks are passed to it
+ * through lock-free queues. Expired tasks are handed to the executor given
+ * when the task was scheduled, so they do not delay the wheel.
+ *
+ * Tick duration in milliseconds of the shared instance is set by
+ * <code>timer-wheel-tick</code> system property, number of buckets by
+ * <code>timer-wheel-size</code>. Setting tick to 0 disables the shared
+ * instance. Tasks with delays shorter than <code>MIN_DELAY_TICKS</code>
+ * ticks should be scheduled elsewhere, as for them the tick error is too
+ * large.
+ *
+ * @author andrzej
+ */
+public class HashedWheelTimer {
+	/** Tick duration of the shared timer in milliseconds */
+	public static final String TICK_PROP_KEY = "timer-wheel-tick";
+
+	/** Default tick duration of the shared timer in milliseconds */
+	public static final int TICK_PROP_VAL = 100;
+
+	/** Number of buckets of the shared timer */
+	public static final String WHEEL_SIZE_PROP_KEY = "timer-wheel-size";
+
+	/** Default number of buckets of the shared timer */
+	public static final int WHEEL_SIZE_PROP_VAL = 512;
+
+	/**
+	 * Minimal delay, in ticks, of tasks for which the timer is precise enough:
+	 * a task may be executed up to one tick late.
+	 */
+	public static final int      MIN_DELAY_TICKS = 10;
+	private static final int     CANCELLED    = 1;
+	private static final int     DONE         = 3;
+	private static final int     EXPIRED      = 2;
+	private static final int     INIT         = 0;
+	private static final int     MAX_TRANSFER = 100000;
+	private static final Logger  log = Logger.getLogger(HashedWheelTimer.class.getName());
+	private static final HashedWheelTimer shared = createSharedInstance();
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final ConcurrentLinkedQueue<Timeout> cancelled =
+			new ConcurrentLinkedQueue<Timeout>();
+	private long                                 expired     = 0;
+	private final int                            mask;
+	private volatile long                        maxTickLag  = 0;
+	private final String                         name;
+	private final ConcurrentLinkedQueue<Timeout> newTimeouts =
+			new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger                  pending     = new AtomicInteger();
+	private final long                           startTime   = System.nanoTime();
+	private volatile boolean                     stopped     = false;
+	private long                                 tick        = 0;
+	private volatile long                        tickLag     = 0;
+	private final long                           tickNanos;
+	private final Bucket[]                       wheel;
+	private Thread                               worker      = null;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Creates timer. The timer thread is started when the first task is
+	 * scheduled.
+	 *
+	 * @param name of the timer thread
+	 * @param tickDuration duration of a single tick
+	 * @param unit of the tick duration
+	 * @param wheelSize number of buckets, rounded up to the power of 2
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+		if ((tickDuration <= 0) || (wheelSize <= 0)) {
+			throw new IllegalArgumentException("Tick duration and wheel size must be " +
+					"greater than 0");
+		}
+
+		int size = 1;
+
+		while (size < wheelSize) {
+			size <<= 1;
+		}
+		this.name      = name;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.mask      = size - 1;
+		this.wheel     = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns timer shared by all components.
+	 *
+	 * @return shared timer or <code>null</code> if it is disabled
+	 */
+	public static HashedWheelTimer getSharedInstance() {
+		return shared;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method schedules task for execution after given delay.
+	 *
+	 * @param task to execute
+	 * @param delay after which the task is executed
+	 * @param unit of the delay
+	 * @param executor which executes the task, if <code>null</code> the task is
+	 * executed by the timer thread
+	 *
+	 * @return future which may be used to cancel the task
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit,
+			Executor executor) {
+		if (stopped) {
+			throw new RejectedExecutionException("Timer " + name + " is stopped");
+		}
+		startWorker();
+
+		Timeout timeout = new Timeout(task, executor, System.nanoTime() - startTime + unit
+				.toNanos(Math.max(0, delay)));
+
+		pending.incrementAndGet();
+		newTimeouts.add(timeout);
+
+		return timeout;
+	}
+
+	/**
+	 * Method stops the timer thread. Tasks which have not expired yet are not
+	 * executed.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (worker != null) {
+			worker.interrupt();
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns number of tasks which expired since the timer started.
+	 *
+	 * @return number of expired tasks
+	 */
+	public long getExpired() {
+		return expired;
+	}
+
+	/**
+	 * Method checks whether the delay is long enough for the task to be
+	 * scheduled in the timer, that is at least <code>MIN_DELAY_TICKS</code>
+	 * ticks.
+	 *
+	 * @param delay of the task
+	 * @param unit of the delay
+	 *
+	 * @return <code>true</code> if the timer is precise enough for the delay
+	 */
+	public boolean isPreciseFor(long delay, TimeUnit unit) {
+		return unit.toNanos(delay) >= tickNanos * MIN_DELAY_TICKS;
+	}
+
+	/**
+	 * Method returns the largest delay of a tick since the timer started.
+	 *
+	 * @return delay in milliseconds
+	 */
+	public long getMaxTickLag() {
+		return TimeUnit.NANOSECONDS.toMillis(maxTickLag);
+	}
+
+	/**
+	 * Method returns number of scheduled tasks which have been neither executed
+	 * nor cancelled yet.
+	 *
+	 * @return number of pending tasks
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Method returns delay of the last tick, that is how late the timer thread
+	 * processed expired tasks.
+	 *
+	 * @return delay in milliseconds
+	 */
+	public long getTickLag() {
+		return TimeUnit.NANOSECONDS.toMillis(tickLag);
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	private static HashedWheelTimer createSharedInstance() {
+		int tick = Integer.getInteger(TICK_PROP_KEY, TICK_PROP_VAL);
+
+		if (tick <= 0) {
+			return null;
+		}
+
+		return new HashedWheelTimer("timer-wheel", tick, TimeUnit.MILLISECONDS, Integer
+				.getInteger(WHEEL_SIZE_PROP_KEY, WHEEL_SIZE_PROP_VAL));
+	}
+
+	private void expire(Timeout timeout) {
+		if (!timeout.setState(INIT, EXPIRED)) {
+			return;
+		}
+		pending.decrementAndGet();
+		++expired;
+		if (timeout.executor != null) {
+			try {
+				timeout.executor.execute(timeout);
+
+				return;
+			} catch (RejectedExecutionException ex) {
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Executor rejected expired task {0}: {1}",
+							new Object[] { timeout.task,
+							ex.getMessage() });
+				}
+				timeout.finish(ex);
+
+				return;
+			}
+		}
+		timeout.run();
+	}
+
+	private void processCancelled() {
+		Timeout timeout;
+
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void run() {
+		while (!stopped) {
+			long deadline = tickNanos * (tick + 1);
+			long current  = System.nanoTime() - startTime;
+			long sleep    = TimeUnit.NANOSECONDS.toMillis(deadline - current + 999999);
+
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException ex) {
+
+					// Only stop() interrupts the timer thread
+				}
+
+				continue;
+			}
+			tickLag = current - deadline;
+			if (tickLag > maxTickLag) {
+				maxTickLag = tickLag;
+			}
+			processCancelled();
+			transferNewTimeouts();
+			wheel[(int) (tick & mask)].expire(current);
+			++tick;
+		}
+	}
+
+	private synchronized void startWorker() {
+		if ((worker == null) &&!stopped) {
+			worker = new Thread(name) {
+				@Override
+				public void run() {
+					HashedWheelTimer.this.run();
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void transferNewTimeouts() {
+
+		// Limit number of transferred timeouts, so a burst of new tasks does not
+		// stop the wheel for too long
+		for (int i = 0; i < MAX_TRANSFER; i++) {
+			Timeout timeout = newTimeouts.poll();
+
+			if (timeout == null) {
+				return;
+			}
+			if (timeout.state != INIT) {
+				continue;
+			}
+
+			long calculated = timeout.deadline / tickNanos;
+
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+			wheel[(int) (Math.max(calculated, tick) & mask)].add(timeout);
+		}
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	/**
+	 * Doubly linked list of timeouts in a single bucket of the wheel. It is
+	 * accessed only by the timer thread.
+	 */
+	private class Bucket {
+		private Timeout head = null;
+		private Timeout tail = null;
+
+		//~--- methods ------------------------------------------------------------
+
+		private void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next    = timeout;
+				timeout.prev = tail;
+				tail         = timeout;
+			}
+		}
+
+		private void expire(long current) {
+			Timeout timeout = head;
+
+			while (timeout != null) {
+				Timeout next = timeout.next;
+
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					if (timeout.deadline <= current) {
+						HashedWheelTimer.this.expire(timeout);
+					} else {
+
+						// Should not happen, timeout was put into a wrong bucket
+						wheel[(int) ((tick + 1) & mask)].add(timeout);
+					}
+				} else if (timeout.state == CANCELLED) {
+					remove(timeout);
+				} else {
+					--timeout.remainingRounds;
+				}
+				timeout = next;
+			}
+		}
+
+		private void remove(Timeout timeout) {
+			if (timeout.bucket != this) {
+				return;
+			}
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = timeout.next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev   = null;
+			timeout.next   = null;
+			timeout.bucket = null;
+		}
+	}
+
+
+	/**
+	 * Scheduled task. Cancelling the task only marks it as cancelled and passes
+	 * it to the timer thread, which removes it from its bucket. Threads waiting
+	 * in <code>get()</code> are released when the task is cancelled or has
+	 * finished.
+	 */
+	private class Timeout
+					implements ScheduledFuture<Object>, Runnable {
+		private Bucket           bucket          = null;
+		private final long       deadline;
+		private final CountDownLatch done        = new CountDownLatch(1);
+		private volatile Throwable   exception   = null;
+		private final Executor   executor;
+		private Timeout          next            = null;
+		private Timeout          prev            = null;
+		private long             remainingRounds = 0;
+		private volatile int     state           = INIT;
+		private final Runnable   task;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Timeout(Runnable task, Executor executor, long deadline) {
+			this.task     = task;
+			this.executor = executor;
+			this.deadline = deadline;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!setState(INIT, CANCELLED)) {
+				return false;
+			}
+			pending.decrementAndGet();
+			cancelled.add(this);
+			done.countDown();
+
+			return true;
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			long diff = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+
+			return (diff < 0)
+					? -1
+					: ((diff > 0)
+					? 1
+					: 0);
+		}
+
+		@Override
+		public Object get() throws InterruptedException, ExecutionException {
+			done.await();
+
+			return result();
+		}
+
+		@Override
+		public Object get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+
+			return result();
+		}
+
+		/**
+		 * Executes the task, called by the executor or the timer thread after
+		 * the task expired.
+		 */
+		@Override
+		public void run() {
+			Throwable error = null;
+
+			try {
+				task.run();
+			} catch (Throwable ex) {
+				log.log(Level.WARNING, "Exception executing timer task " + task, ex);
+				error = ex;
+			}
+			finish(error);
+		}
+
+		private void finish(Throwable error) {
+			exception = error;
+			state     = DONE;
+			done.countDown();
+		}
+
+		private Object result() throws ExecutionException {
+			if (state == CANCELLED) {
+				throw new CancellationException();
+			}
+			if (exception != null) {
+				throw new ExecutionException(exception);
+			}
+
+			return null;
+		}
+
+		//~--- get methods --------------------------------------------------------
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - (System.nanoTime() - startTime), TimeUnit
+					.NANOSECONDS);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		@Override
+		public boolean isDone() {
+			return (state == CANCELLED) || (state == DONE);
+		}
+
+		//~--- set methods --------------------------------------------------------
+
+		private synchronized boolean setState(int expected, int newState) {
+			if (state != expected) {
+				return false;
+			}
+			state = newState;
+
+			return true;
+		}
+	}
+}
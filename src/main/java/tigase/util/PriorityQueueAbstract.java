@@ -42,7 +42,11 @@ public abstract class PriorityQueueAbstract<E> {
 	/** Field description */
 	public static final String NONPRIORITY_QUEUE = "nonpriority-queue";
 
-	/** Field description */
+	/**
+	 * System property with the class name of the queue implementation.
+	 * <code>PriorityQueueLockFree</code> preallocates about 12KB of heap for
+	 * each used priority of each queue instance.
+	 */
 	public static final String QUEUE_IMPLEMENTATION = "queue-implementation";
 
 	//~--- methods --------------------------------------------------------------
@@ -0,0 +1,449 @@
+/*
+ * PriorityQueueLockFree.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.util;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Priority queue built on lock-free ring buffers, one for each priority.
+ * Elements are stored directly in preallocated arrays, so adding and removing
+ * elements does not allocate any memory and does not take any monitor.
+ * Consumers spin for a while before they park, producers unpark a consumer
+ * only if there is one waiting.
+ *
+ * Semantics are the same as for <code>PriorityQueueRelaxed</code>: element
+ * which does not fit into the queue of its priority is added to the queue of
+ * the next (lower) priority. Size of each queue is limited by
+ * <code>maxSize</code>, the limit is checked without locking, so it may be
+ * exceeded by a few elements under contention.
+ *
+ * Ring buffer of a priority has fixed capacity of <code>RING_SIZE</code>
+ * (1024) elements, independent of <code>maxSize</code>, and is created when
+ * the priority is used for the first time. It takes about 12KB of heap (4KB
+ * for element references with compressed oops and 8KB for slot sequences),
+ * so a queue with 10 used priorities takes about 120KB. Elements which do
+ * not fit into the ring buffer, up to <code>maxSize</code>, are kept in an
+ * overflow linked queue of the priority, which allocates a node for each
+ * element, so a queue which is constantly more than 1024 elements behind
+ * works like <code>PriorityQueueRelaxed</code>. While the overflow queue is
+ * not empty new elements are added to it as well, so elements added by a
+ * single thread are taken in the same order. Change of <code>maxSize</code>
+ * only changes the limit, buffers are not reallocated.
+ *
+ * The implementation may be selected by setting
+ * <code>queue-implementation</code> system property to
+ * <code>tigase.util.PriorityQueueLockFree</code>.
+ *
+ * @param <E>
+ * @author andrzej
+ */
+public class PriorityQueueLockFree<E>
+				extends PriorityQueueAbstract<E> {
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	private static final int  RING_SIZE  = 1024;
+	private static final int  SPINS      = 64;
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final ConcurrentLinkedQueue<Thread> waiters =
+			new ConcurrentLinkedQueue<Thread>();
+	private volatile int                                 maxSize       = 0;
+	private volatile ConcurrentLinkedQueue<E>[]          overflow      = null;
+	private volatile AtomicInteger[]                     overflowSizes = null;
+	private volatile AtomicReferenceArray<RingBuffer<E>> rings         = null;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Constructs ...
+	 *
+	 */
+	public PriorityQueueLockFree() {}
+
+	/**
+	 * Constructs ...
+	 *
+	 *
+	 * @param maxPriority
+	 * @param maxSize
+	 */
+	protected PriorityQueueLockFree(int maxPriority, int maxSize) {
+		init(maxPriority, maxSize);
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param maxPriority
+	 * @param maxSize
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public final void init(int maxPriority, int maxSize) {
+		ConcurrentLinkedQueue<E>[] queues = new ConcurrentLinkedQueue[maxPriority];
+		AtomicInteger[]            sizes  = new AtomicInteger[maxPriority];
+
+		for (int i = 0; i < maxPriority; i++) {
+			queues[i] = new ConcurrentLinkedQueue<E>();
+			sizes[i]  = new AtomicInteger();
+		}
+		this.maxSize  = maxSize;
+		overflow      = queues;
+		overflowSizes = sizes;
+		rings         = new AtomicReferenceArray<RingBuffer<E>>(maxPriority);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param element
+	 * @param priority
+	 *
+	 * @return <code>true</code> if element was added to the queue
+	 */
+	@Override
+	public boolean offer(E element, int priority) {
+		checkPriority(priority);
+		for (int i = priority; i < overflow.length; i++) {
+			if (offer(element, i, maxSize)) {
+				signalNotEmpty();
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param element
+	 * @param priority
+	 *
+	 * @throws InterruptedException
+	 */
+	@Override
+	public void put(E element, int priority) throws InterruptedException {
+		int spins = 0;
+
+		checkPriority(priority);
+		while (!offer(element, priority, maxSize)) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (++spins < SPINS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+		}
+		signalNotEmpty();
+	}
+
+	//~--- set methods ----------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param maxSize
+	 */
+	@Override
+	public void setMaxSize(int maxSize) {
+
+		// Elements above the new limit are kept, new elements are not accepted
+		// until the queue is below the limit
+		this.maxSize = maxSize;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return sizes of queues for each priority
+	 */
+	@Override
+	public int[] size() {
+		int[] result = new int[overflow.length];
+
+		for (int i = 0; i < result.length; i++) {
+			RingBuffer<E> ring = rings.get(i);
+
+			result[i] = ((ring == null)
+					? 0
+					: ring.size()) + overflowSizes[i].get();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return next element with the highest priority
+	 *
+	 * @throws InterruptedException
+	 */
+	@Override
+	public E take() throws InterruptedException {
+		E   e     = null;
+		int spins = 0;
+
+		while ((e = poll()) == null) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (++spins < SPINS) {
+				continue;
+			}
+
+			Thread current = Thread.currentThread();
+
+			waiters.add(current);
+
+			// Element might have been added before producer could see us waiting
+			if ((e = poll()) != null) {
+				waiters.remove(current);
+
+				break;
+			}
+			LockSupport.park(this);
+			waiters.remove(current);
+			spins = 0;
+		}
+
+		return e;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return number of elements in all queues
+	 */
+	@Override
+	public int totalSize() {
+		int   result = 0;
+		int[] sizes  = size();
+
+		for (int i = 0; i < sizes.length; i++) {
+			result += sizes[i];
+		}
+
+		return result;
+	}
+
+	private void checkPriority(int priority) {
+		if ((priority < 0) || (overflow.length <= priority)) {
+			throw new IllegalArgumentException("parameter priority must be " + "between 0 and "
+					+ (overflow.length - 1));
+		}
+	}
+
+	/**
+	 * Adds element to the ring buffer of the priority or, if the ring buffer is
+	 * full or there are already elements waiting in the overflow queue, to the
+	 * overflow queue.
+	 */
+	private boolean offer(E element, int priority, int limit) {
+		RingBuffer<E> ring       = ring(priority);
+		AtomicInteger overflowed = overflowSizes[priority];
+		int           waiting    = overflowed.get();
+
+		if (ring.size() + waiting >= limit) {
+			return false;
+		}
+		if ((waiting == 0) && ring.offer(element)) {
+			return true;
+		}
+
+		// Counted before it is added, so consumers check the overflow queue
+		// and producers keep adding to it until the element is taken
+		overflowed.incrementAndGet();
+		overflow[priority].offer(element);
+
+		return true;
+	}
+
+	private E poll() {
+		for (int i = 0; i < overflow.length; i++) {
+			RingBuffer<E> ring = rings.get(i);
+			E             e    = (ring == null)
+					? null
+					: ring.poll();
+
+			if (e != null) {
+				return e;
+			}
+
+			// Overflow queue holds elements added after the ring buffer, so it
+			// is checked when the ring buffer is empty
+			if (overflowSizes[i].get() > 0) {
+				e = overflow[i].poll();
+				if (e != null) {
+					overflowSizes[i].decrementAndGet();
+
+					return e;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private RingBuffer<E> ring(int priority) {
+		RingBuffer<E> ring = rings.get(priority);
+
+		if (ring == null) {
+			ring = new RingBuffer<E>(RING_SIZE);
+			if (!rings.compareAndSet(priority, null, ring)) {
+				ring = rings.get(priority);
+			}
+		}
+
+		return ring;
+	}
+
+	private void signalNotEmpty() {
+		if (!waiters.isEmpty()) {
+			Thread waiter = waiters.poll();
+
+			if (waiter != null) {
+				LockSupport.unpark(waiter);
+			}
+		}
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	/**
+	 * Bounded multi-producer, multi-consumer ring buffer. Each slot has a
+	 * sequence number telling whether the slot is ready to be written or read
+	 * for the current lap, so producers and consumers only need to compare and
+	 * set the tail or head position. Capacity is rounded up to the power of 2.
+	 */
+	private static class RingBuffer<E> {
+		private final AtomicLong      head = new AtomicLong();
+		private final AtomicLong      tail = new AtomicLong();
+		private final Object[]        items;
+		private final int             mask;
+		private final AtomicLongArray sequences;
+
+		//~--- constructors -------------------------------------------------------
+
+		private RingBuffer(int maxSize) {
+			int capacity = 1;
+
+			while (capacity < maxSize) {
+				capacity <<= 1;
+			}
+			items     = new Object[capacity];
+			mask      = capacity - 1;
+			sequences = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				sequences.set(i, i);
+			}
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		private boolean offer(E element) {
+			long pos = tail.get();
+
+			while (true) {
+				int  idx  = (int) (pos & mask);
+				long diff = sequences.get(idx) - pos;
+
+				if (diff == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						items[idx] = element;
+
+						// Volatile write, so the element is visible to a consumer
+						// which checks waiting threads after polling empty queue
+						sequences.set(idx, pos + 1);
+
+						return true;
+					}
+					pos = tail.get();
+				} else if (diff < 0) {
+					return false;
+				} else {
+					pos = tail.get();
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private E poll() {
+			long pos = head.get();
+
+			while (true) {
+				int  idx  = (int) (pos & mask);
+				long diff = sequences.get(idx) - (pos + 1);
+
+				if (diff == 0) {
+					if (head.compareAndSet(pos, pos + 1)) {
+						E e = (E) items[idx];
+
+						items[idx] = null;
+						sequences.lazySet(idx, pos + mask + 1);
+
+						return e;
+					}
+					pos = head.get();
+				} else if (diff < 0) {
+					return null;
+				} else {
+					pos = head.get();
+				}
+			}
+		}
+
+		private int size() {
+			long size = tail.get() - head.get();
+
+			return (int) Math.max(0, Math.min(size, items.length));
+		}
+	}
+}
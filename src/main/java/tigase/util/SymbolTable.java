@@ -0,0 +1,408 @@
+/*
+ * SymbolTable.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.util;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.stats.StatisticsList;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded table of canonical strings for XML element and attribute names and
+ * namespaces. Lookup takes characters straight from the parser buffer, so a
+ * known name is returned without allocating a new <code>String</code>.
+ * Returned symbols are interned, so they may be compared with
+ * <code>==</code> to string constants.
+ *
+ * Common XMPP names are loaded on startup and never removed. Other names are
+ * added only when they are seen repeatedly: each miss is counted in a small
+ * count-min sketch and a name is admitted when its count is at least 2 and
+ * higher than the number of hits of the least used symbol it would replace.
+ * The sketch has many more counters than the number of misses counted between
+ * agings, so a flood of unique names is almost never admitted and can not
+ * push out the names used by regular traffic. Counts are halved periodically,
+ * so the table follows changes of traffic.
+ *
+ * @author andrzej
+ */
+public class SymbolTable {
+	/** Name of the property with maximum number of symbols in the table */
+	public static final String SIZE_PROP_KEY = "xml-symbol-table-size";
+
+	/** Default maximum number of symbols in the table */
+	public static final int     SIZE_PROP_VAL     = 4096;
+	private static final int    MAX_SYMBOL_LENGTH = 128;
+	private static final int    PROBES            = 8;
+	private static final int    SKETCH_DEPTH      = 4;
+	private static final int    SKETCH_WIDTH      = 64;
+	private static final int    STRIPES           = 16;
+	private static final int    STRIPE_PAD        = 8;
+	private static final Logger log = Logger.getLogger(SymbolTable.class.getName());
+
+	/** Names and namespaces of XMPP core and common extensions */
+	private static final String[] PRELOADED = {
+		"stream:stream", "stream:features", "stream:error", "xmlns", "xmlns:stream", "xml:lang",
+		"version", "id", "to", "from", "type", "message", "presence", "iq", "body", "subject",
+		"thread", "error", "text", "code", "show", "status", "priority", "query", "item",
+		"items", "jid", "name", "subscription", "ask", "group", "c", "node", "ver", "hash",
+		"ext", "x", "delay", "stamp", "feature", "var", "identity", "category", "bind",
+		"resource", "session", "starttls", "proceed", "auth", "mechanism", "mechanisms",
+		"response", "challenge", "success", "failure", "ping", "vCard", "request",
+		"received", "active", "composing", "paused", "inactive", "gone", "enable", "enabled",
+		"resume", "resumed", "r", "a", "h", "get", "set", "result", "chat", "groupchat",
+		"headline", "normal", "unavailable", "subscribe", "subscribed", "unsubscribe",
+		"unsubscribed", "probe", "away", "xa", "dnd", "jabber:client", "jabber:server",
+		"jabber:iq:roster", "jabber:iq:privacy", "jabber:iq:private", "jabber:iq:version",
+		"jabber:iq:last", "jabber:x:delay", "jabber:x:data", "vcard-temp",
+		"http://etherx.jabber.org/streams", "urn:ietf:params:xml:ns:xmpp-streams",
+		"urn:ietf:params:xml:ns:xmpp-stanzas", "urn:ietf:params:xml:ns:xmpp-tls",
+		"urn:ietf:params:xml:ns:xmpp-sasl", "urn:ietf:params:xml:ns:xmpp-bind",
+		"urn:ietf:params:xml:ns:xmpp-session", "http://jabber.org/protocol/caps",
+		"http://jabber.org/protocol/disco#info", "http://jabber.org/protocol/disco#items",
+		"http://jabber.org/protocol/chatstates", "http://jabber.org/protocol/muc",
+		"http://jabber.org/protocol/muc#user", "urn:xmpp:delay", "urn:xmpp:ping",
+		"urn:xmpp:receipts", "urn:xmpp:sm:3", "urn:xmpp:carbons:2"
+	};
+	private static final SymbolTable instance = new SymbolTable(Integer.getInteger(
+			SIZE_PROP_KEY, SIZE_PROP_VAL));
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final AtomicLong                   admitted = new AtomicLong();
+	private final AtomicLongArray              hits     = new AtomicLongArray(STRIPES *
+			STRIPE_PAD);
+	private final int                          mask;
+	private final AtomicLong                   misses   = new AtomicLong();
+	private final AtomicInteger                missesSinceAging = new AtomicInteger();
+	private final int                          agingPeriod;
+	private final byte[]                       sketch;
+	private final AtomicInteger                size     = new AtomicInteger();
+	private final AtomicReferenceArray<Symbol> slots;
+
+	//~--- constructors ---------------------------------------------------------
+
+	/**
+	 * Creates symbol table with common XMPP names loaded.
+	 *
+	 * @param maxSize maximum number of symbols in the table
+	 */
+	public SymbolTable(int maxSize) {
+		int capacity = 64;
+
+		while ((capacity < maxSize) || (capacity < PRELOADED.length * 2)) {
+			capacity <<= 1;
+		}
+		mask        = capacity - 1;
+		slots       = new AtomicReferenceArray<Symbol>(capacity);
+		sketch      = new byte[capacity * SKETCH_WIDTH];
+		agingPeriod = capacity / 2;
+		for (String name : PRELOADED) {
+			preload(name);
+		}
+		if (log.isLoggable(Level.CONFIG)) {
+			log.log(Level.CONFIG, "XML symbol table size: {0}, preloaded: {1}", new Object[] {
+					capacity,
+					size.get() });
+		}
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Returns symbol table shared by all XML parsers.
+	 *
+	 * @return shared symbol table
+	 */
+	public static SymbolTable getInstance() {
+		return instance;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Returns canonical string for the characters of the sequence.
+	 *
+	 * @param chars characters of the symbol
+	 *
+	 * @return symbol from the table or a new string if the symbol is not in the
+	 * table
+	 */
+	public String lookup(CharSequence chars) {
+		return lookup(chars, 0, chars.length());
+	}
+
+	/**
+	 * Returns canonical string for the characters of the sequence from
+	 * <code>start</code> to <code>end</code>.
+	 *
+	 * @param chars buffer with characters of the symbol
+	 * @param start index of the first character
+	 * @param end index after the last character
+	 *
+	 * @return symbol from the table or a new string if the symbol is not in the
+	 * table
+	 */
+	public String lookup(CharSequence chars, int start, int end) {
+		int len = end - start;
+
+		if (len > MAX_SYMBOL_LENGTH) {
+			misses.incrementAndGet();
+
+			return chars.subSequence(start, end).toString();
+		}
+
+		int hash = 0;
+
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + chars.charAt(i);
+		}
+
+		int    idx       = spread(hash) & mask;
+		int    free      = -1;
+		int    victimIdx = -1;
+		Symbol victim    = null;
+
+		for (int p = 0; p < PROBES; p++) {
+			int    i   = (idx + p) & mask;
+			Symbol sym = slots.get(i);
+
+			if (sym == null) {
+
+				// Symbols are replaced, never removed, so there is nothing further
+				free = i;
+
+				break;
+			}
+			if ((sym.hash == hash) && sym.matches(chars, start, end)) {
+				++sym.hits;
+				hits.incrementAndGet((int) (Thread.currentThread().getId() & (STRIPES - 1)) *
+						STRIPE_PAD);
+
+				return sym.value;
+			}
+			if (!sym.pinned && ((victim == null) || (sym.hits < victim.hits))) {
+				victim    = sym;
+				victimIdx = i;
+			}
+		}
+		misses.incrementAndGet();
+
+		String str  = chars.subSequence(start, end).toString();
+		int    freq = recordMiss(hash);
+
+		if (freq < 2) {
+			return str;
+		}
+		if (free >= 0) {
+			Symbol sym = new Symbol(str.intern(), hash, false);
+
+			if (slots.compareAndSet(free, null, sym)) {
+				size.incrementAndGet();
+				admitted.incrementAndGet();
+
+				return sym.value;
+			}
+		} else if ((victim != null) && (freq > victim.hits)) {
+			Symbol sym = new Symbol(str.intern(), hash, false);
+
+			if (slots.compareAndSet(victimIdx, victim, sym)) {
+				admitted.incrementAndGet();
+
+				return sym.value;
+			}
+		}
+
+		return str;
+	}
+
+	/**
+	 * Method adds symbol table statistics to the list.
+	 *
+	 * @param compName name of the component reporting statistics
+	 * @param list of statistics
+	 */
+	public void getStatistics(String compName, StatisticsList list) {
+		long hit  = getHits();
+		long miss = misses.get();
+
+		list.add(compName, "XML symbols", size.get(), Level.FINE);
+		list.add(compName, "XML symbol hits", hit, Level.FINER);
+		list.add(compName, "XML symbol misses", miss, Level.FINER);
+		list.add(compName, "XML symbols admitted", admitted.get(), Level.FINER);
+		list.add(compName, "XML symbol hit ratio %", (hit + miss > 0)
+				? (100f * hit / (hit + miss))
+				: 0f, Level.FINE);
+	}
+
+	/**
+	 * Returns number of symbols added to the table after startup.
+	 *
+	 * @return number of admitted symbols
+	 */
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	/**
+	 * Returns number of lookups which found the symbol in the table.
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		long result = 0;
+
+		for (int i = 0; i < STRIPES; i++) {
+			result += hits.get(i * STRIPE_PAD);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns number of lookups which did not find the symbol in the table.
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns number of symbols in the table.
+	 *
+	 * @return number of symbols
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+	private void preload(String name) {
+		int hash = name.hashCode();
+		int idx  = spread(hash) & mask;
+
+		for (int p = 0; p < PROBES; p++) {
+			int i = (idx + p) & mask;
+
+			if (slots.get(i) == null) {
+				slots.set(i, new Symbol(name.intern(), hash, true));
+				size.incrementAndGet();
+
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Counts the miss in the sketch and returns estimated number of misses of
+	 * the symbol. The sketch has 32 times more counters than the number of
+	 * counters incremented between agings, so only a few percent of them are
+	 * set when a unique name is checked and all <code>SKETCH_DEPTH</code>
+	 * counters of the name being set by other names is very unlikely. Counters are updated without
+	 * synchronization, lost updates only make the estimate lower.
+	 */
+	private int recordMiss(int hash) {
+		int h1    = spread(hash);
+		int h2    = spread(hash * 0x9E3779B9 + 0x7F4A7C15) | 1;
+		int count = Byte.MAX_VALUE;
+
+		for (int k = 0; k < SKETCH_DEPTH; k++) {
+			int i = (h1 + k * h2) & (sketch.length - 1);
+			int c = sketch[i];
+
+			if (c < Byte.MAX_VALUE) {
+				sketch[i] = (byte) ++c;
+			}
+			count = Math.min(count, c);
+		}
+
+		if (missesSinceAging.incrementAndGet() >= agingPeriod) {
+			missesSinceAging.set(0);
+			age();
+		}
+
+		return count;
+	}
+
+	private void age() {
+		for (int i = 0; i < sketch.length; i++) {
+			sketch[i] >>= 1;
+		}
+		for (int i = 0; i <= mask; i++) {
+			Symbol sym = slots.get(i);
+
+			if ((sym != null) &&!sym.pinned) {
+				sym.hits >>>= 1;
+			}
+		}
+	}
+
+	private static int spread(int hash) {
+		int h = hash * 0x85EBCA6B;
+
+		return h ^ (h >>> 16);
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static final class Symbol {
+		private final int    hash;
+
+		/** Approximate number of hits, updated without synchronization */
+		private int          hits = 0;
+		private final boolean pinned;
+		private final String value;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Symbol(String value, int hash, boolean pinned) {
+			this.value  = value;
+			this.hash   = hash;
+			this.pinned = pinned;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		private boolean matches(CharSequence chars, int start, int end) {
+			if (value.length() != end - start) {
+				return false;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				if (value.charAt(i) != chars.charAt(start + i)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
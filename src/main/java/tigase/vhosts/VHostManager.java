@@ -27,6 +27,7 @@ package tigase.vhosts;
 //~--- non-JDK imports --------------------------------------------------------
 
 import tigase.db.comp.ComponentRepository;
+import tigase.db.comp.RepositoryChangeListenerIfc;
 import tigase.db.TigaseDBException;
 
 import tigase.server.AbstractComponentRegistrator;
@@ -92,6 +93,22 @@ public class VHostManager
 	private ConcurrentSkipListSet<String> registeredComponentDomains =
 			new ConcurrentSkipListSet<String>();
 	protected ComponentRepository<VHostItem> repo = null;
+	private volatile long                    vhostsChanges = 0;
+	private final RepositoryChangeListenerIfc<VHostItem> repoChangeListener =
+			new RepositoryChangeListenerIfc<VHostItem>() {
+		@Override
+		public void itemAdded(VHostItem item) {
+			++vhostsChanges;
+		}
+		@Override
+		public void itemUpdated(VHostItem item) {
+			++vhostsChanges;
+		}
+		@Override
+		public void itemRemoved(VHostItem item) {
+			++vhostsChanges;
+		}
+	};
 
 	//~--- constructors ---------------------------------------------------------
 
@@ -132,6 +149,7 @@ public class VHostManager
 		if (component.handlesNameSubdomains()) {
 			nameSubdomainsHandlers.add(component);
 		}
+		++vhostsChanges;
 	}
 
 	/**
@@ -145,6 +163,7 @@ public class VHostManager
 		localDomainsHandlers.remove(component);
 		nonLocalDomainsHandlers.remove(component);
 		nameSubdomainsHandlers.remove(component);
+		++vhostsChanges;
 	}
 
 	/**
@@ -328,7 +347,20 @@ public class VHostManager
 	 *
 	 *
 	 *
-	 * @return a value of <code>BareJID</code>
+	 * @return a value of <code>long</code>
+	 */
+	@Override
+	public long getVHostsChanges() {
+		return vhostsChanges;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 *
+	 *
+	 * @return a value of <code>BareJID</code>
 	 */
 	@Override
 	public BareJID getDefVHostItem() {
@@ -520,7 +552,9 @@ public class VHostManager
 						.forName(repo_class).newInstance();
 
 				repo_tmp.setProperties(properties);
+				repo_tmp.addRepoChangeListener(repoChangeListener);
 				repo = repo_tmp;
+				++vhostsChanges;
 				log.warning(repo.toString());
 			} catch (Exception e) {
 				log.log(Level.SEVERE, "Can not create VHost repository instance for class: " +
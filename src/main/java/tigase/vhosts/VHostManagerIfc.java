@@ -153,6 +153,16 @@ public interface VHostManagerIfc {
 	 * 
 	 */
 	List<JID> getAllVHosts();
+
+	/**
+	 * Method returns counter of changes in virtual hosts configuration. It allows
+	 * components to cache data depending on virtual hosts and detect when the
+	 * cached data has to be recalculated.
+	 *
+	 * @return a <code>long</code> value increased on each change of virtual
+	 * hosts or components handling them.
+	 */
+	long getVHostsChanges();
 }
 
 
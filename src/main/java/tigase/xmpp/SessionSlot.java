@@ -0,0 +1,127 @@
+/*
+ * SessionSlot.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.xmpp;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed key of data stored in a user session, either in
+ * <code>XMPPResourceConnection</code> session data or in
+ * <code>XMPPSession</code> common session data. Plugins claim their slots
+ * once, usually in a static field, and use them instead of <code>String</code>
+ * keys:
+ * <pre>
+ * private static final SessionSlot&lt;Set&lt;JID&gt;&gt; DIRECT =
+ *     SessionSlot.register("direct-presences");
+ *
+ * Set&lt;JID&gt; direct = session.getSessionData(DIRECT);
+ * </pre>
+ * There is exactly one slot for each key name, so data stored with a slot is
+ * also accessible with its name through the <code>String</code> based API and
+ * the other way around.
+ *
+ * @param <T> type of data kept in the slot
+ * @author andrzej
+ */
+public final class SessionSlot<T> {
+	private static final ConcurrentHashMap<String, SessionSlot<?>> slots =
+			new ConcurrentHashMap<String, SessionSlot<?>>();
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final String key;
+
+	//~--- constructors ---------------------------------------------------------
+
+	private SessionSlot(String key) {
+		this.key = key;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method returns slot for data with the given key name, the slot is
+	 * created if it does not exist yet.
+	 *
+	 * @param key name of the data
+	 * @param <T> type of data kept in the slot
+	 *
+	 * @return slot for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> SessionSlot<T> register(String key) {
+		SessionSlot<?> slot = slots.get(key);
+
+		if (slot == null) {
+			SessionSlot<?> created = new SessionSlot<T>(key);
+
+			slot = slots.putIfAbsent(key, created);
+			if (slot == null) {
+				slot = created;
+			}
+		}
+
+		return (SessionSlot<T>) slot;
+	}
+
+	/**
+	 * Method returns slot for data with the given key name if it has been
+	 * registered. Unlike <code>register()</code> it does not create the slot, so
+	 * lookups of arbitrary names do not grow the slots map.
+	 *
+	 * @param key name of the data
+	 * @param <T> type of data kept in the slot
+	 *
+	 * @return slot for the key or <code>null</code> if there is no such slot
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> SessionSlot<T> lookup(String key) {
+		return (SessionSlot<T>) slots.get(key);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @return a value of <code>String</code>
+	 */
+	@Override
+	public String toString() {
+		return key;
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns name of the data kept in the slot.
+	 *
+	 * @return key name
+	 */
+	public String getKey() {
+		return key;
+	}
+}
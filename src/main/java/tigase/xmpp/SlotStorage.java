@@ -0,0 +1,144 @@
+/*
+ * SlotStorage.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.xmpp;
+
+/**
+ * Compact thread safe storage of session data. Slots and values are kept
+ * in a single array of pairs, searched linearly, as a session usually keeps
+ * only a few entries. Reads do not lock, changes are done under the storage
+ * monitor and published by a write to the volatile array field. Adding or
+ * removing a slot copies the array, replacing value of an existing slot is
+ * done in place.
+ *
+ * Like <code>ConcurrentHashMap</code> used before, the storage does not accept
+ * <code>null</code> values.
+ *
+ * @author andrzej
+ */
+final class SlotStorage {
+	private static final Object[] EMPTY = new Object[0];
+
+	//~--- fields ---------------------------------------------------------------
+
+	private volatile Object[] entries = EMPTY;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method returns value stored in the slot.
+	 *
+	 * @param slot
+	 *
+	 * @return value or <code>null</code>
+	 */
+	Object get(SessionSlot<?> slot) {
+		Object[] e = entries;
+
+		for (int i = 0; i < e.length; i += 2) {
+			if (e[i] == slot) {
+				return e[i + 1];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Method stores value in the slot.
+	 *
+	 * @param slot
+	 * @param value
+	 *
+	 * @return previous value or <code>null</code>
+	 */
+	synchronized Object put(SessionSlot<?> slot, Object value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+
+		Object[] e = entries;
+
+		for (int i = 0; i < e.length; i += 2) {
+			if (e[i] == slot) {
+				Object old = e[i + 1];
+
+				e[i + 1] = value;
+
+				// Volatile write publishes the value to readers
+				entries = e;
+
+				return old;
+			}
+		}
+
+		Object[] tmp = new Object[e.length + 2];
+
+		System.arraycopy(e, 0, tmp, 0, e.length);
+		tmp[e.length]     = slot;
+		tmp[e.length + 1] = value;
+		entries           = tmp;
+
+		return null;
+	}
+
+	/**
+	 * Method removes value from the slot.
+	 *
+	 * @param slot
+	 *
+	 * @return removed value or <code>null</code>
+	 */
+	synchronized Object remove(SessionSlot<?> slot) {
+		Object[] e = entries;
+
+		for (int i = 0; i < e.length; i += 2) {
+			if (e[i] == slot) {
+				Object   old = e[i + 1];
+				Object[] tmp = (e.length == 2)
+						? EMPTY
+						: new Object[e.length - 2];
+
+				System.arraycopy(e, 0, tmp, 0, i);
+				System.arraycopy(e, i + 2, tmp, i, e.length - i - 2);
+				entries = tmp;
+
+				return old;
+			}
+		}
+
+		return null;
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns number of slots with values.
+	 *
+	 * @return number of values
+	 */
+	int size() {
+		return entries.length / 2;
+	}
+}
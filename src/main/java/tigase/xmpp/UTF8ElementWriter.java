@@ -0,0 +1,324 @@
+/*
+ * UTF8ElementWriter.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.xmpp;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.xml.Element;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.nio.ByteBuffer;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>UTF8ElementWriter</code> serializes <code>Element</code> trees
+ * directly as UTF-8 bytes into a reusable output buffer, without creating
+ * the intermediate <code>String</code> and encoded copy of it for every
+ * stanza.
+ *
+ * Writers are kept per thread. The buffer returned by <code>write()</code> is
+ * reused for the next element only if it was completely consumed by the I/O
+ * layer, otherwise it is left to the layer which queued it and a new one is
+ * allocated.
+ *
+ * Attribute values and character data are stored escaped in the
+ * <code>Element</code> so they are written as they are, the same way as
+ * <code>Element.toString()</code> does.
+ *
+ * @author andrzej
+ */
+public class UTF8ElementWriter {
+	/**
+	 * System property switching output buffers to direct buffers, this saves a
+	 * copy when data is written to a socket channel without TLS or compression
+	 */
+	public static final String DIRECT_BUFFERS_PROP_KEY = "xmpp-element-writer-direct";
+	private static final boolean directBuffers = Boolean.getBoolean(
+			DIRECT_BUFFERS_PROP_KEY);
+	private static final int INITIAL_CAPACITY      = 1024;
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+	private static final String TO_ATT             = "to";
+	private static final ThreadLocal<UTF8ElementWriter> writers =
+			new ThreadLocal<UTF8ElementWriter>() {
+		@Override
+		protected UTF8ElementWriter initialValue() {
+			return new UTF8ElementWriter();
+		}
+	};
+
+	//~--- fields ---------------------------------------------------------------
+
+	private ByteBuffer buffer = allocate(INITIAL_CAPACITY);
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns writer for the current thread.
+	 *
+	 * @return writer for the current thread
+	 */
+	public static UTF8ElementWriter getInstance() {
+		return writers.get();
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method appends element to the data serialized since last call to
+	 * <code>begin()</code>.
+	 *
+	 * @param elem element to serialize
+	 */
+	public void append(Element elem) {
+		writeElement(elem, null);
+	}
+
+	/**
+	 * Method appends element to the data serialized since last call to
+	 * <code>begin()</code> with the destination address replaced. This allows
+	 * for serializing element shared by many packets.
+	 *
+	 * @param elem element to serialize
+	 * @param to value of the <code>to</code> attribute of the element or
+	 * <code>null</code> to keep the element attribute
+	 */
+	public void append(Element elem, String to) {
+		writeElement(elem, to);
+	}
+
+	/**
+	 * Method starts serialization of a new batch of elements.
+	 */
+	public void begin() {
+		buffer.clear();
+	}
+
+	/**
+	 * Method finishes serialization of elements appended since last call to
+	 * <code>begin()</code>.
+	 *
+	 * @return buffer ready for reading with serialized elements
+	 */
+	public ByteBuffer finish() {
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Method must be called after data returned by <code>write()</code> or
+	 * <code>finish()</code> was passed to the I/O layer, so the buffer can be
+	 * reused if possible.
+	 *
+	 * @param data buffer returned by <code>write()</code> or
+	 * <code>finish()</code>
+	 */
+	public void release(ByteBuffer data) {
+		if (data != buffer) {
+			return;
+		}
+
+		// Data which was not sent at once is queued by the I/O layer so we can
+		// not touch the buffer anymore
+		if (data.hasRemaining() || (data.capacity() > MAX_RETAINED_CAPACITY)) {
+			buffer = allocate(INITIAL_CAPACITY);
+		} else {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Method serializes element to the writer buffer.
+	 *
+	 * @param elem element to serialize
+	 *
+	 * @return buffer ready for reading with serialized element
+	 */
+	public ByteBuffer write(Element elem) {
+		return write(elem, null);
+	}
+
+	/**
+	 * Method serializes element to the writer buffer with the destination
+	 * address replaced.
+	 *
+	 * @param elem element to serialize
+	 * @param to value of the <code>to</code> attribute of the element or
+	 * <code>null</code> to keep the element attribute
+	 *
+	 * @return buffer ready for reading with serialized element
+	 */
+	public ByteBuffer write(Element elem, String to) {
+		begin();
+		writeElement(elem, to);
+
+		return finish();
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns number of bytes serialized since last call to
+	 * <code>begin()</code>.
+	 *
+	 * @return number of bytes
+	 */
+	public int size() {
+		return buffer.position();
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	private ByteBuffer allocate(int capacity) {
+		return directBuffers
+				? ByteBuffer.allocateDirect(capacity)
+				: ByteBuffer.allocate(capacity);
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (buffer.remaining() < bytes) {
+			ByteBuffer tmp = allocate(Math.max(buffer.capacity() * 2, buffer.position() +
+					bytes));
+
+			buffer.flip();
+			tmp.put(buffer);
+			buffer = tmp;
+		}
+	}
+
+	private void writeAscii(String str) {
+		int len = str.length();
+
+		ensureCapacity(len);
+		for (int i = 0; i < len; i++) {
+			buffer.put((byte) str.charAt(i));
+		}
+	}
+
+	private void writeAttribute(String name, String value) {
+		char quote = (value.indexOf('"') < 0)
+				? '"'
+				: '\'';
+
+		ensureCapacity(3);
+		buffer.put((byte) ' ');
+		writeString(name);
+		ensureCapacity(2);
+		buffer.put((byte) '=');
+		buffer.put((byte) quote);
+		writeString(value);
+		ensureCapacity(1);
+		buffer.put((byte) quote);
+	}
+
+	private void writeElement(Element elem, String to) {
+		List<Element> children = elem.getChildren();
+		String        cdata    = elem.getCData();
+		boolean       hasChildren = (children != null) &&!children.isEmpty();
+		boolean       hasCData    = (cdata != null) &&!cdata.isEmpty();
+
+		if (hasChildren && hasCData) {
+
+			// Order of mixed content is known only to the element itself
+			if (to != null) {
+				elem = elem.clone();
+				elem.setAttribute(TO_ATT, to);
+			}
+			writeString(elem.toString());
+
+			return;
+		}
+		ensureCapacity(1);
+		buffer.put((byte) '<');
+		writeString(elem.getName());
+
+		Map<String, String> attributes = elem.getAttributes();
+
+		if (attributes != null) {
+			for (Map.Entry<String, String> attr : attributes.entrySet()) {
+				if ((to == null) ||!TO_ATT.equals(attr.getKey())) {
+					writeAttribute(attr.getKey(), attr.getValue());
+				}
+			}
+		}
+		if (to != null) {
+			writeAttribute(TO_ATT, to);
+		}
+		if (!hasChildren &&!hasCData) {
+			writeAscii("/>");
+
+			return;
+		}
+		ensureCapacity(1);
+		buffer.put((byte) '>');
+		if (hasCData) {
+			writeString(cdata);
+		} else {
+			for (Element child : children) {
+				writeElement(child, null);
+			}
+		}
+		writeAscii("</");
+		writeString(elem.getName());
+		ensureCapacity(1);
+		buffer.put((byte) '>');
+	}
+
+	private void writeString(String str) {
+		int len = str.length();
+
+		// UTF-8 needs at most 3 bytes per UTF-16 char
+		ensureCapacity(len * 3);
+		for (int i = 0; i < len; i++) {
+			char c = str.charAt(i);
+
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && (i + 1 < len) && Character
+					.isLowSurrogate(str.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+
+				buffer.put((byte) (0xF0 | (cp >> 18)));
+				buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (cp & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+
+				// Unpaired surrogate can not be encoded
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+}
@@ -29,6 +29,8 @@ import tigase.xml.Element;
 import tigase.xml.ElementFactory;
 import tigase.xml.SimpleHandler;
 
+import tigase.util.SymbolTable;
+
 import static tigase.server.ConnectionManager.ELEMENTS_NUMBER_LIMIT_PROP_KEY;
 
 //~--- JDK imports ------------------------------------------------------------
@@ -69,7 +71,10 @@ public class XMPPDomBuilderHandler<RefObject> implements SimpleHandler {
 	private static final Logger log = Logger.getLogger(XMPPDomBuilderHandler.class.getName());
 
 	private static final String ELEM_STREAM_STREAM = "stream:stream";
+	private static final String XMLNS = "xmlns";
+	private static final String XMLNS_PREFIX = "xmlns:";
 	private static ElementFactory defaultFactory = new DefaultElementFactory();
+	private static final SymbolTable symbols = SymbolTable.getInstance();
 
 	//~--- fields ---------------------------------------------------------------
 
@@ -150,7 +155,7 @@ public class XMPPDomBuilderHandler<RefObject> implements SimpleHandler {
 			log.finest("End element name: " + name);
 		}
 
-		String tmp_name = name.toString();
+		String tmp_name = symbols.lookup(name);
 
 		if (tmp_name.equals(ELEM_STREAM_STREAM)) {
 			service.xmppStreamClosed();
@@ -284,12 +289,9 @@ public class XMPPDomBuilderHandler<RefObject> implements SimpleHandler {
 					break;
 				}
 
-				if (attr_names[i].toString().startsWith("xmlns:")) {
-
-					// TODO should use a StringCache instead of intern() to avoid potential
-					// DOS by exhausting permgen
-					namespaces.put(attr_names[i].substring("xmlns:".length(),
-							attr_names[i].length()).intern(), attr_values[i].toString());
+				if (startsWith(attr_names[i], XMLNS_PREFIX)) {
+					namespaces.put(symbols.lookup(attr_names[i], XMLNS_PREFIX.length(),
+							attr_names[i].length()), symbols.lookup(attr_values[i]));
 
 					if (log.isLoggable(Level.FINEST)) {
 						log.finest("Namespace found: " + attr_values[i].toString());
@@ -298,7 +300,7 @@ public class XMPPDomBuilderHandler<RefObject> implements SimpleHandler {
 			}      // end of for (String att_name : attnames)
 		}        // end of if (attr_names != null)
 
-		String tmp_name = name.toString();
+		String tmp_name = symbols.lookup(name);
 
 		if (tmp_name.equals(ELEM_STREAM_STREAM)) {
 			Map<String, String> attribs = new HashMap<String, String>();
@@ -335,7 +337,7 @@ public class XMPPDomBuilderHandler<RefObject> implements SimpleHandler {
 			for (String pref : namespaces.keySet()) {
 				if (tmp_name_prefix.equals(pref)) {
 					new_xmlns = namespaces.get(pref);
-					tmp_name = tmp_name.substring(pref.length() + 1, tmp_name.length());
+					tmp_name = symbols.lookup(tmp_name, pref.length() + 1, tmp_name.length());
 					prefix = pref;
 
 					if (log.isLoggable(Level.FINEST)) {
@@ -363,7 +365,7 @@ public class XMPPDomBuilderHandler<RefObject> implements SimpleHandler {
 
 		if (new_xmlns != null) {
 			elem.setXMLNS(new_xmlns);
-			elem.removeAttribute("xmlns:" + prefix);
+			elem.removeAttribute(XMLNS_PREFIX + prefix);
 
 			if (log.isLoggable(Level.FINEST)) {
 				log.finest("new_xmlns assigned: " + elem.toString());
@@ -373,17 +375,60 @@ public class XMPPDomBuilderHandler<RefObject> implements SimpleHandler {
 		el_stack.push(elem);
 	}
 
+	/**
+	 * Creates element with attribute names and namespace taken from the symbol
+	 * table, other attribute values are copied from the parser buffers.
+	 * <code>ElementFactory</code> takes attributes only as parser buffers, so a
+	 * custom factory gets them as before and symbols are used only with the
+	 * default factory.
+	 */
 	private Element newElement( String name, String cdata, StringBuilder[] attnames,
 															StringBuilder[] attvals ) {
 		++elements_number_limit_count;
-		Element el = customFactory.elementInstance( name, cdata, attnames, attvals );
-
 		if ( elements_number_limit_count > elements_number_limit ){
 			throw new XMPPParserException( "Too many elements for staza, possible DoS attack."
 																		 + "Current service " + service.getClass() + " limit of elements: " + elements_number_limit );
 		}
+
+		if ( customFactory != defaultFactory ){
+			return customFactory.elementInstance( name, cdata, attnames, attvals );
+		}
+
+		Element el = customFactory.elementInstance( name, cdata, null, null );
+
+		if ( attnames != null ){
+			for ( int i = 0; i < attnames.length; i++ ) {
+				if ( ( attnames[i] == null ) || ( attvals[i] == null ) ){
+					break;
+				}
+
+				String att_name = symbols.lookup( attnames[i] );
+
+				if ( XMLNS.equals( att_name ) ){
+					el.setXMLNS( symbols.lookup( attvals[i] ) );
+				} else if ( startsWith( attnames[i], XMLNS_PREFIX ) ){
+					el.setAttribute( att_name, symbols.lookup( attvals[i] ) );
+				} else {
+					el.setAttribute( att_name, attvals[i].toString() );
+				}
+			}
+		}
+
 		return el;
 	}
+
+	private static boolean startsWith( StringBuilder sb, String prefix ) {
+		if ( sb.length() < prefix.length() ){
+			return false;
+		}
+		for ( int i = 0; i < prefix.length(); i++ ) {
+			if ( sb.charAt( i ) != prefix.charAt( i ) ){
+				return false;
+			}
+		}
+
+		return true;
+	}
 }    // XMPPDomBuilderHandler
 
 
@@ -31,6 +31,8 @@ import tigase.net.IOService;
 import tigase.server.Packet;
 import tigase.server.xmppclient.XMPPIOProcessor;
 
+import tigase.stats.StatisticsList;
+
 import tigase.util.TigaseStringprepException;
 
 import tigase.xml.Element;
@@ -43,6 +45,9 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
+
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.locks.ReentrantLock;
@@ -84,6 +89,27 @@ public class XMPPIOService<RefObject>
 	 */
 	public static final String DOM_HANDLER = "XMPPDomBuilderHandler";
 
+	/**
+	 * System property enabling serialization of packets directly to UTF-8
+	 * bytes with <code>UTF8ElementWriter</code>, when disabled packets are
+	 * converted to <code>String</code> first. It is enabled by default.
+	 */
+	public static final String ELEMENT_WRITER_PROP_KEY = "xmpp-element-writer";
+
+	/**
+	 * System property enabling batched writes, all packets waiting for a
+	 * connection are serialized to a single buffer and written at once instead
+	 * of writing each packet separately. Batched writes require
+	 * <code>UTF8ElementWriter</code> to be enabled.
+	 */
+	public static final String BATCH_WRITES_PROP_KEY = "xmpp-batch-writes";
+
+	/** System property with maximal number of bytes in a single batch */
+	public static final String BATCH_MAX_BYTES_PROP_KEY = "xmpp-batch-max-bytes";
+
+	/** System property with maximal number of packets in a single batch */
+	public static final String BATCH_MAX_PACKETS_PROP_KEY = "xmpp-batch-max-packets";
+
 	/** Field description */
 	public static final String ID_ATT = "id";
 
@@ -95,6 +121,16 @@ public class XMPPIOService<RefObject>
 	 * Variable <code>log</code> is a class logger.
 	 */
 	private static final Logger log = Logger.getLogger(XMPPIOService.class.getName());
+	private static final boolean elementWriter = Boolean.parseBoolean(System.getProperty(
+			ELEMENT_WRITER_PROP_KEY, "true"));
+	private static final boolean batchWrites = Boolean.getBoolean(BATCH_WRITES_PROP_KEY);
+	private static final int batchMaxBytes = Integer.getInteger(BATCH_MAX_BYTES_PROP_KEY,
+			64 * 1024);
+	private static final int batchMaxPackets = Integer.getInteger(
+			BATCH_MAX_PACKETS_PROP_KEY, 128);
+
+	// Upper bounds of batch size ranges in batch size distribution
+	private static final int[] BATCH_SIZE_BOUNDS = { 1, 4, 16, 64 };
 
 	//~--- fields ---------------------------------------------------------------
 
@@ -111,6 +147,10 @@ public class XMPPIOService<RefObject>
 	private XMPPIOServiceListener serviceListener      = null;
 	private long                  totalPacketsReceived = 0;
 	private long                  totalPacketsSent     = 0;
+	private long[]                batchSizes           = new long[BATCH_SIZE_BOUNDS
+			.length + 1];
+	private long                  batchBytes           = 0;
+	private int                   maxBatchBytes        = 0;
 	/**
 	 * This variable keeps the time of last received XMPP packet, it is used to
 	 * help detect dead connections.
@@ -278,6 +318,10 @@ public class XMPPIOService<RefObject>
 	public void processWaitingPackets() throws IOException {
 		Packet packet = null;
 
+		if (batchWrites && isElementWriterEnabled()) {
+			processWaitingPacketsBatched();
+		}
+
 		// int cnt = 0;
 		// while ((packet = waitingPackets.poll()) != null && (cnt < 1000)) {
 		while ((packet = waitingPackets.poll()) != null) {
@@ -287,7 +331,11 @@ public class XMPPIOService<RefObject>
 				log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[] { toString(),
 						packet });
 			}
-			writeRawData(packet.getElement().toString());
+			if (isElementWriterEnabled()) {
+				writeElement(packet);
+			} else {
+				writeRawData(packet.getElement().toString());
+			}
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "{0}, SENT: {1}", new Object[] { toString(),
 						packet.getElement().toString() });
@@ -351,6 +399,120 @@ public class XMPPIOService<RefObject>
 		// }
 	}
 
+	/**
+	 * Method returns next packet waiting to be sent, it allows extending
+	 * classes to write waiting packets in their own format.
+	 *
+	 * @return next waiting packet or <code>null</code>
+	 */
+	protected Packet pollWaitingPacket() {
+		return waitingPackets.poll();
+	}
+
+	/**
+	 * Method writes all waiting packets in batches limited by the number of
+	 * packets and bytes, so a presence broadcast results in a single socket
+	 * write and a single TLS record instead of one for each packet.
+	 *
+	 */
+	protected void processWaitingPacketsBatched() {
+		UTF8ElementWriter writer  = UTF8ElementWriter.getInstance();
+		Packet            packet  = null;
+		int               packets = 0;
+
+		writer.begin();
+		while ((packet = waitingPackets.poll()) != null) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[] { toString(),
+						packet });
+			}
+			if (packet.isElementShared()) {
+				writer.append(packet.getSharedElement(), getStanzaTo(packet));
+			} else {
+				writer.append(packet.getElement());
+			}
+			if ((++packets >= batchMaxPackets) || (writer.size() >= batchMaxBytes)) {
+				writeBatch(writer, packets);
+				packets = 0;
+				writer.begin();
+			}
+		}
+		if (packets > 0) {
+			writeBatch(writer, packets);
+		}
+	}
+
+	/**
+	 * Method writes element to the socket serializing it directly to UTF-8
+	 * bytes.
+	 *
+	 *
+	 * @param elem
+	 */
+	protected void writeElement(Element elem) {
+		UTF8ElementWriter writer = UTF8ElementWriter.getInstance();
+		ByteBuffer        data   = writer.write(elem);
+
+		try {
+			writeBytes(data);
+		} finally {
+			writer.release(data);
+		}
+	}
+
+	/**
+	 * Method writes packet stanza to the socket serializing it directly to UTF-8
+	 * bytes. Stanza element shared with other packets is serialized with the
+	 * destination address of the packet, without copying the element.
+	 *
+	 *
+	 * @param packet
+	 */
+	protected void writeElement(Packet packet) {
+		if (!packet.isElementShared()) {
+			writeElement(packet.getElement());
+
+			return;
+		}
+
+		UTF8ElementWriter writer = UTF8ElementWriter.getInstance();
+		ByteBuffer        data   = writer.write(packet.getSharedElement(), getStanzaTo(
+				packet));
+
+		try {
+			writeBytes(data);
+		} finally {
+			writer.release(data);
+		}
+	}
+
+	private void writeBatch(UTF8ElementWriter writer, int packets) {
+		ByteBuffer data = writer.finish();
+		int        size = data.remaining();
+
+		try {
+			writeBytes(data);
+		} finally {
+			writer.release(data);
+		}
+
+		int idx = 0;
+
+		while ((idx < BATCH_SIZE_BOUNDS.length) && (packets > BATCH_SIZE_BOUNDS[idx])) {
+			++idx;
+		}
+		++batchSizes[idx];
+		batchBytes += size;
+		if (size > maxBatchBytes) {
+			maxBatchBytes = size;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "{0}, Written batch of {1} packets, {2} bytes",
+					new Object[] { toString(),
+					packets, size });
+		}
+	}
+
 	/**
 	 * Method description
 	 *
@@ -375,6 +537,12 @@ public class XMPPIOService<RefObject>
 
 	//~--- get methods ----------------------------------------------------------
 
+	private static String getStanzaTo(Packet packet) {
+		return (packet.getStanzaTo() != null)
+				? packet.getStanzaTo().toString()
+				: null;
+	}
+
 //	/**
 //	 *
 //	 * @return
@@ -384,6 +552,68 @@ public class XMPPIOService<RefObject>
 //	}
 
 
+	/**
+	 * Method returns distribution of sizes of batched writes, the number of
+	 * batches with 1, 2-4, 5-16, 17-64 and more packets.
+	 *
+	 *
+	 * @param reset
+	 *
+	 * @return a value of <code>long[]</code>
+	 */
+	public long[] getBatchSizes(boolean reset) {
+		long[] tmp = batchSizes.clone();
+
+		if (reset) {
+			Arrays.fill(batchSizes, 0);
+		}
+
+		return tmp;
+	}
+
+	@Override
+	public void getStatistics(StatisticsList list, boolean reset) {
+		super.getStatistics(list, reset);
+		if (batchWrites) {
+			long[] sizes = getBatchSizes(false);
+			long   total = 0;
+
+			for (int i = 0; i < sizes.length; i++) {
+				String range = (i == 0)
+						? "1"
+						: ((i < BATCH_SIZE_BOUNDS.length)
+						? (BATCH_SIZE_BOUNDS[i - 1] + 1) + "-" + BATCH_SIZE_BOUNDS[i]
+						: "over " + BATCH_SIZE_BOUNDS[i - 1]);
+
+				list.add("xmppio", "Batches of " + range + " packets", sizes[i], Level.FINER);
+				total += sizes[i];
+			}
+			list.add("xmppio", "Batched bytes", batchBytes, Level.FINER);
+			list.add("xmppio", "Average batch bytes", (total > 0)
+					? batchBytes / total
+					: 0, Level.FINER);
+			list.add("xmppio", "Max batch bytes", maxBatchBytes, Level.FINER);
+			if (reset) {
+				Arrays.fill(batchSizes, 0);
+				batchBytes    = 0;
+				maxBatchBytes = 0;
+			}
+		}
+	}
+
+	/**
+	 * Method returns <code>true</code> if packets should be serialized with
+	 * <code>UTF8ElementWriter</code>. Services which need to process written
+	 * data as <code>String</code> should override it and return
+	 * <code>false</code>.
+	 *
+	 *
+	 * @return a value of <code>boolean</code>
+	 */
+	protected boolean isElementWriterEnabled() {
+		return elementWriter;
+	}
+
 	/**
 	 * Method description
 	 *
@@ -509,6 +739,16 @@ public class XMPPIOService<RefObject>
 		return this.xmlns;
 	}
 
+	/**
+	 * Method checks whether all packets queued for the connection have been
+	 * written to the socket.
+	 *
+	 * @return <code>true</code> if there is no data waiting to be sent
+	 */
+	public boolean isWriteQueueEmpty() {
+		return waitingPackets.isEmpty() && (waitingToSendSize() == 0);
+	}
+
 	//~--- set methods ----------------------------------------------------------
 
 	/**
@@ -40,7 +40,6 @@ import tigase.xml.Element;
 
 
 
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -82,6 +81,10 @@ public class XMPPResourceConnection
 	 */
 	public static final String PRESENCE_KEY = "user-presence";
 
+	/** Slot of {@code PRESENCE_KEY} session data */
+	public static final SessionSlot<Element> PRESENCE_SLOT = SessionSlot.register(
+			PRESENCE_KEY);
+
 	/**
 	 * Private logger for class instances.
 	 */
@@ -117,10 +120,10 @@ public class XMPPResourceConnection
 	private String resource = null;
 
 	/**
-	 * Session temporary data. All data stored in this <code>Map</code> disappear
-	 * when session finishes.
+	 * Session temporary data. All data stored here disappear when session
+	 * finishes.
 	 */
-	private Map<String, Object> sessionData = null;
+	private final SlotStorage sessionData = new SlotStorage();
 
 	/**
 	 * <code>sessionId</code> keeps XMPP stream session ID given at connection
@@ -151,7 +154,6 @@ public class XMPPResourceConnection
 		this.loginHandler = loginHandler;
 		this.creationTime = currTime;
 		this.lastAccessed = currTime;
-		sessionData       = new ConcurrentHashMap<String, Object>(4, 0.9f);
 	}
 
 	//~--- methods --------------------------------------------------------------
@@ -333,8 +335,21 @@ public class XMPPResourceConnection
 	 * @param value
 	 */
 	public void putCommonSessionData(String key, Object value) {
-		if (parentSession != null) {
-			parentSession.putCommonSessionData(key, value);
+		putCommonSessionData(SessionSlot.register(key), value);
+	}
+
+	/**
+	 * Saves data common for all user sessions in the slot.
+	 *
+	 *
+	 * @param slot
+	 * @param value
+	 */
+	public <T> void putCommonSessionData(SessionSlot<T> slot, T value) {
+		XMPPSession parent = parentSession;
+
+		if (parent != null) {
+			parent.putCommonSessionData(slot, value);
 		}
 	}
 
@@ -364,8 +379,22 @@ public class XMPPResourceConnection
 	 * @see #getSessionData(String)
 	 */
 	public final void putSessionData(final String key, final Object value) {
+		putSessionData(SessionSlot.register(key), value);
+	}
+
+	/**
+	 * Saves given session data in the slot. Works the same way as
+	 * <code>putSessionData(String, Object)</code> with the slot key.
+	 *
+	 * @param slot
+	 *          a <code>SessionSlot</code> of stored data.
+	 * @param value
+	 *          a value of data stored in session.
+	 * @see #getSessionData(SessionSlot)
+	 */
+	public final <T> void putSessionData(final SessionSlot<T> slot, final T value) {
 		lastAccessed = System.currentTimeMillis();
-		sessionData.put(key, value);
+		sessionData.put(slot, value);
 	}
 
 	/**
@@ -391,9 +420,27 @@ public class XMPPResourceConnection
 	 * @return a value of <code>Object</code>
 	 */
 	public Object removeCommonSessionData(String key) {
-		return (parentSession == null)
+		SessionSlot<Object> slot = SessionSlot.lookup(key);
+
+		return (slot != null)
+				? removeCommonSessionData(slot)
+				: null;
+	}
+
+	/**
+	 * Method removes data common for all user sessions from the slot.
+	 *
+	 *
+	 * @param slot
+	 *
+	 * @return removed value
+	 */
+	public <T> T removeCommonSessionData(SessionSlot<T> slot) {
+		XMPPSession parent = parentSession;
+
+		return (parent == null)
 				? null
-				: parentSession.removeCommonSessionData(key);
+				: parent.removeCommonSessionData(slot);
 	}
 
 	/**
@@ -415,8 +462,22 @@ public class XMPPResourceConnection
 	 * @param key
 	 */
 	public final void removeSessionData(final String key) {
+		SessionSlot<Object> slot = SessionSlot.lookup(key);
+
+		if (slot != null) {
+			removeSessionData(slot);
+		}
+	}
+
+	/**
+	 * Method removes session data from the slot.
+	 *
+	 *
+	 * @param slot
+	 */
+	public final void removeSessionData(final SessionSlot<?> slot) {
 		lastAccessed = System.currentTimeMillis();
-		sessionData.remove(key);
+		sessionData.remove(slot);
 	}
 
 	// ~--- methods --------------------------------------------------------------
@@ -575,9 +636,27 @@ public class XMPPResourceConnection
 	 * @return a value of <code>Object</code>
 	 */
 	public Object getCommonSessionData(String key) {
-		return (parentSession == null)
+		SessionSlot<Object> slot = SessionSlot.lookup(key);
+
+		return (slot != null)
+				? getCommonSessionData(slot)
+				: null;
+	}
+
+	/**
+	 * Method returns data common for all user sessions stored in the slot.
+	 *
+	 * @param slot
+	 *
+	 *
+	 * @return a value of data in the slot
+	 */
+	public <T> T getCommonSessionData(SessionSlot<T> slot) {
+		XMPPSession parent = parentSession;
+
+		return (parent == null)
 				? null
-				: parentSession.getCommonSessionData(key);
+				: parent.getCommonSessionData(slot);
 	}
 
 	/**
@@ -717,7 +796,7 @@ public class XMPPResourceConnection
 	 *         user.
 	 */
 	public Element getPresence() {
-		return (Element) getSessionData(PRESENCE_KEY);
+		return getSessionData(PRESENCE_SLOT);
 	}
 
 	/**
@@ -752,9 +831,27 @@ public class XMPPResourceConnection
 	 * @see #putSessionData(String, Object)
 	 */
 	public final Object getSessionData(final String key) {
+		SessionSlot<Object> slot = SessionSlot.lookup(key);
+
+		return (slot != null)
+				? getSessionData(slot)
+				: null;
+	}
+
+	/**
+	 * Retrieves session data from the slot. Works the same way as
+	 * <code>getSessionData(String)</code> with the slot key.
+	 *
+	 * @param slot
+	 *          a <code>SessionSlot</code> of stored data.
+	 * @return a value of data in the slot.
+	 * @see #putSessionData(SessionSlot, Object)
+	 */
+	@SuppressWarnings("unchecked")
+	public final <T> T getSessionData(final SessionSlot<T> slot) {
 		lastAccessed = System.currentTimeMillis();
 
-		return sessionData.get(key);
+		return (T) sessionData.get(slot);
 	}
 
 	/**
@@ -961,7 +1058,7 @@ public class XMPPResourceConnection
 	 * @param packet
 	 */
 	public void setPresence(Element packet) {
-		putSessionData(PRESENCE_KEY, packet);
+		putSessionData(PRESENCE_SLOT, packet);
 
 		// Parse resource priority:
 		String pr_str = packet.getCDataStaticStr(Presence.PRESENCE_PRIORITY_PATH);
@@ -32,13 +32,11 @@ import tigase.util.TigaseStringprepException;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.Map;
 
 /**
  * Describe class XMPPSession here.
@@ -60,7 +58,8 @@ public class XMPPSession {
 	private CopyOnWriteArrayList<XMPPResourceConnection> activeResources = null;
 	private long                                         creationTime    = 0;
 	private long                                         packets_counter = 0;
-	private Map<String, Object>                          sessionData     = null;
+	private final SlotStorage                            sessionData     =
+			new SlotStorage();
 
 	/**
 	 * User name - part of user's JID
@@ -76,7 +75,6 @@ public class XMPPSession {
 	 * @param username
 	 */
 	public XMPPSession(final String username) {
-		sessionData       = new ConcurrentHashMap<String, Object>();
 		activeResources   = new CopyOnWriteArrayList<XMPPResourceConnection>();
 		this.username     = username;
 		this.creationTime = System.currentTimeMillis();
@@ -245,7 +243,22 @@ public class XMPPSession {
 	 * 
 	 */
 	public Object getCommonSessionData(String key) {
-		return sessionData.get(key);
+		SessionSlot<?> slot = SessionSlot.lookup(key);
+
+		return (slot != null)
+				? sessionData.get(slot)
+				: null;
+	}
+
+	/**
+	 *
+	 * @param slot
+	 *
+	 * @return a value of data in the slot
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getCommonSessionData(SessionSlot<T> slot) {
+		return (T) sessionData.get(slot);
 	}
 
 	/**
@@ -479,7 +492,18 @@ public class XMPPSession {
 	 * @param value
 	 */
 	protected void putCommonSessionData(String key, Object value) {
-		sessionData.put(key, value);
+		sessionData.put(SessionSlot.register(key), value);
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param slot
+	 * @param value
+	 */
+	protected <T> void putCommonSessionData(SessionSlot<T> slot, T value) {
+		sessionData.put(slot, value);
 	}
 
 	/**
@@ -491,7 +515,24 @@ public class XMPPSession {
 	 * 
 	 */
 	protected Object removeCommonSessionData(String key) {
-		return sessionData.remove(key);
+		SessionSlot<?> slot = SessionSlot.lookup(key);
+
+		return (slot != null)
+				? sessionData.remove(slot)
+				: null;
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param slot
+	 *
+	 * @return removed value
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> T removeCommonSessionData(SessionSlot<T> slot) {
+		return (T) sessionData.remove(slot);
 	}
 }    // XMPPSession
 
@@ -53,8 +53,6 @@ import static tigase.xmpp.impl.Privacy.*;
 
 //~--- JDK imports ------------------------------------------------------------
 
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -86,9 +84,6 @@ public class JabberIqPrivacy
 	 * Private logger for class instances.
 	 */
 	private static Logger          log = Logger.getLogger(JabberIqPrivacy.class.getName());
-	private static final String    PRESENCE_EL_NAME     = "presence";
-	private static final String    PRESENCE_IN_EL_NAME  = "presence-in";
-	private static final String    PRESENCE_OUT_EL_NAME = "presence-out";
 	private static final String    XMLNS                = "jabber:iq:privacy";
 	private static final String    ID                   = XMLNS;
 	private static final String[]  XMLNSS               = { XMLNS };
@@ -96,15 +91,6 @@ public class JabberIqPrivacy
 			true);
 	private static final Element[] DISCO_FEATURES = { new Element("feature", new String[] {
 			"var" }, new String[] { XMLNS }) };
-	private static final Comparator<Element> compar = new Comparator<Element>() {
-		@Override
-		public int compare(Element el1, Element el2) {
-			String or1 = el1.getAttributeStaticStr(ORDER);
-			String or2 = el2.getAttributeStaticStr(ORDER);
-
-			return or1.compareTo(or2);
-		}
-	};
 
 	//~--- constant enums -------------------------------------------------------
 
@@ -305,149 +291,33 @@ public class JabberIqPrivacy
 				return true;
 			}
 
-			Element list = Privacy.getActiveList(session);
+			PrivacyList list = Privacy.getActivePrivacyList(session);
 
 			if ((list == null) ) {
-				list = Privacy.getDefaultList( session );
+				list = Privacy.getDefaultPrivacyList( session );
 			}                  // end of if (lName == null)
 			if (log.isLoggable(Level.FINEST)) {
-				log.log(Level.FINEST, "Using privcy list: {0}", list);
+				log.log(Level.FINEST, "Using privcy list: {0}", (list == null)
+						? null
+						: list.getElement());
 			}
-			if (list != null) {
-				List<Element> items = list.getChildren();
-
-				if (items != null) {
-					Collections.sort(items, compar);
-					for (Element item : items) {
-						boolean   type_matched = false;
-						boolean   elem_matched = false;
-						ITEM_TYPE type         = ITEM_TYPE.all;
-
-						if (item.getAttributeStaticStr(TYPE) != null) {
-							type = ITEM_TYPE.valueOf(item.getAttributeStaticStr(TYPE));
-						}            // end of if (item.getAttribute(TYPE) != null)
-
-						String  value         = item.getAttributeStaticStr(VALUE);
-						BareJID sessionUserId = session.getBareJID();
-						JID     jid           = packet.getStanzaFrom();
-						boolean packetIn      = true;
-
-						if ((jid == null) || sessionUserId.equals(jid.getBareJID())) {
-							jid      = packet.getStanzaTo();
-							packetIn = false;
-						}
-						if (jid != null) {
-							switch (type) {
-							case jid :
-								type_matched = jid.toString().contains(value);
-
-								break;
-
-							case group :
-								String[] groups = roster_util.getBuddyGroups(session, jid);
-
-								if (groups != null) {
-									for (String group : groups) {
-										if (type_matched = group.equals(value)) {
-											break;
-										}    // end of if (group.equals(value))
-									}      // end of for (String group: groups)
-								}
-
-								break;
-
-							case subscription :
-								ITEM_SUBSCRIPTIONS subscr = ITEM_SUBSCRIPTIONS.valueOf(value);
-
-								switch (subscr) {
-								case to :
-									type_matched = roster_util.isSubscribedTo(session, jid);
-
-									break;
-
-								case from :
-									type_matched = roster_util.isSubscribedFrom(session, jid);
-
-									break;
 
-								case none :
-									type_matched = (!roster_util.isSubscribedFrom(session, jid) &&
-											!roster_util.isSubscribedTo(session, jid));
-
-									break;
-
-								case both :
-									type_matched = (roster_util.isSubscribedFrom(session, jid) &&
-											roster_util.isSubscribedTo(session, jid));
-
-									break;
-
-								default :
-									break;
-								}    // end of switch (subscr)
-
-								break;
-
-							case all :
-							default :
-								type_matched = true;
-
-								break;
-							}      // end of switch (type)
-						} else {
-							if (type == ITEM_TYPE.all) {
-								type_matched = true;
-							}
-						}        // end of if (from != null) else
-						if (!type_matched) {
-							continue;
-						}        // end of if (!type_matched)
-
-						List<Element> elems = item.getChildren();
-
-						if ((elems == null) || (elems.size() == 0)) {
-							elem_matched = true;
-						} else {
-							for (Element elem : elems) {
-								if ((packet.getElemName() == PRESENCE_EL_NAME) && ((packetIn && (elem
-										.getName() == PRESENCE_IN_EL_NAME)) || (!packetIn && (elem
-										.getName() == PRESENCE_OUT_EL_NAME))) && ((packet.getType() ==
-										null) || (packet.getType() == StanzaType.unavailable))) {
-									elem_matched = true;
-
-									break;
-								}
-								if (packetIn && (elem.getName() == packet.getElemName())) {
-									elem_matched = true;
-
-									break;
-								}    // end of if (elem.getName().equals(packet.getElemName()))
-							}      // end of for (Element elem: elems)
-						}        // end of else
-						if (!elem_matched) {
-							break;
-						}        // end of if (!elem_matched)
-
-						ITEM_ACTION action = ITEM_ACTION.valueOf(item.getAttributeStaticStr(ACTION));
-
-						switch (action) {
-						case allow :
-							return true;
-
-						case deny :
-							return false;
-
-						default :
-							break;
-						}        // end of switch (action)
-					}          // end of for (Element item: items)
-				}            // end of if (items != null)
-			}              // end of if (lName != null)
 			// there is no active nor default list, as per XEP-0016 2.2 Business rules
 			// such stanza should be processed normally
-			else {
+			if (list == null) {
 				return true;
 			}
+
+			BareJID sessionUserId = session.getBareJID();
+			JID     jid           = packet.getStanzaFrom();
+			boolean packetIn      = true;
+
+			if ((jid == null) || sessionUserId.equals(jid.getBareJID())) {
+				jid      = packet.getStanzaTo();
+				packetIn = false;
+			}
+
+			return list.isAllowed(packet, jid, packetIn, session, roster_util);
 		} catch (NoConnectionIdException e) {
 
 			// Always allow, this is server dummy session
@@ -136,6 +136,8 @@ public class MessageAmp
 			offlineProcessor = null;
 			DISCO_FEATURES = new Element[] { new Element("feature", new String[] { "var" },
 					new String[] { XMLNS }) };
+		} else {
+			offlineProcessor.init(settings);
 		}
 
 		String msg_repo_uri = (String) settings.get(AmpFeatureIfc.AMP_MSG_REPO_URI_PROP_KEY);
@@ -218,19 +220,14 @@ public class MessageAmp
 	public void process(Packet packet, XMPPResourceConnection session,
 			NonAuthUserRepository repo, Queue<Packet> results, Map<String, Object> settings)
 					throws XMPPException {
-		if (packet.getElemName() == "presence") {
-			if ((offlineProcessor != null) && offlineProcessor.loadOfflineMessages(packet,
-					session)) {
+		boolean nextPage = (offlineProcessor != null) && offlineProcessor.isNextPageRequest(
+				packet, session);
+
+		if (nextPage || (packet.getElemName() == "presence")) {
+			if (nextPage || ((offlineProcessor != null) && offlineProcessor.loadOfflineMessages(
+					packet, session))) {
 				try {
-					Queue<Packet> packets = offlineProcessor.restorePacketForOffLineUser(session,
-							msg_repo);
-
-					if (packets != null) {
-						if (log.isLoggable(Level.FINER)) {
-							log.finer("Sending off-line messages: " + packets.size());
-						}
-						results.addAll(packets);
-					}    // end of if (packets != null)
+					offlineProcessor.sendOfflineMessages(session, msg_repo, results, ID);
 				} catch (UserNotFoundException e) {
 					log.info("Something wrong, DB problem, cannot load offline messages. " + e);
 				}      // end of try-catch
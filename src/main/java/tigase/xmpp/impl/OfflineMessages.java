@@ -27,7 +27,9 @@ import tigase.db.NonAuthUserRepository;
 import tigase.db.TigaseDBException;
 import tigase.db.UserNotFoundException;
 
+import tigase.server.Command;
 import tigase.server.Packet;
+import tigase.server.amp.MsgRepository;
 import static tigase.server.Message.ELEM_NAME;
 
 import tigase.util.DNSResolver;
@@ -39,6 +41,7 @@ import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 
 import tigase.xmpp.JID;
+import tigase.xmpp.NoConnectionIdException;
 import tigase.xmpp.NotAuthorizedException;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.XMPPPostprocessorIfc;
@@ -110,10 +113,17 @@ public class OfflineMessages
 	 * processing capabilities. In case of {@code msgoffline} plugin it is
 	 * <em>presence</em> stanza */
 	public static final String[] MESSAGE_HEADER_PATH = { ELEM_NAME, "header" };
+	/** Field holds name of the property with maximum number of messages loaded
+	 * from repository and sent to the user at once, {@code 0} disables paging */
+	public static final String PAGE_SIZE_PROP_KEY = "page-size";
+	/** Field holds default number of messages sent to the user at once */
+	public static final int PAGE_SIZE_PROP_VAL = 100;
 	//~--- fields ---------------------------------------------------------------
 	/** Field holds class for formatting and parsing dates in a locale-sensitive
 	 * manner */
 	private final SimpleDateFormat formatter;
+	/** Field holds maximum number of messages sent to the user at once */
+	private int pageSize = PAGE_SIZE_PROP_VAL;
 
 	{
 		this.formatter = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" );
@@ -131,6 +141,18 @@ public class OfflineMessages
 		return ID;
 	}
 
+	@Override
+	public void init( Map<String, Object> settings ) throws TigaseDBException {
+		super.init( settings );
+
+		Object page_size = settings.get( PAGE_SIZE_PROP_KEY );
+
+		if ( page_size != null ){
+			pageSize = Integer.parseInt( page_size.toString() );
+		}
+		log.log( Level.CONFIG, "Offline messages page size: {0}", pageSize );
+	}
+
 	/**
 	 * OfflineMessages postprocessor simply calls {@code savePacketForOffLineUser}
 	 * method to store packet to offline repository.
@@ -163,7 +185,9 @@ public class OfflineMessages
 	/**
 	 * {@code OfflineMessages} processor is triggered by {@code <presence>}
 	 * stanza. Upon receiving it plugin tries to load messages from repository
-	 * and, if the result is not empty, sends them to the user
+	 * and, if the result is not empty, sends them to the user. Messages are
+	 * sent in pages, each next page is sent upon {@code FLOW_CONTROL} command
+	 * result.
 	 *
 	 * {@inheritDoc}
 	 *
@@ -176,17 +200,11 @@ public class OfflineMessages
 											 final NonAuthUserRepository repo, final Queue<Packet> results,
 											 final Map<String, Object> settings )
 			throws NotAuthorizedException {
-		if ( loadOfflineMessages( packet, conn ) ){
+		if ( isNextPageRequest( packet, conn ) || loadOfflineMessages( packet, conn ) ){
 			try {
 				MsgRepositoryIfc msg_repo = getMsgRepoImpl( repo, conn );
-				Queue<Packet> packets = restorePacketForOffLineUser( conn, msg_repo );
 
-				if ( packets != null ){
-					if ( log.isLoggable( Level.FINER ) ){
-						log.finer( "Sending off-line messages: " + packets.size() );
-					}
-					results.addAll( packets );
-				}    // end of if (packets != null)
+				sendOfflineMessages( conn, msg_repo, results, ID );
 			} catch ( UserNotFoundException e ) {
 				log.info( "Something wrong, DB problem, cannot load offline messages. " + e );
 			}      // end of try-catch
@@ -213,7 +231,35 @@ public class OfflineMessages
 	public Queue<Packet> restorePacketForOffLineUser( XMPPResourceConnection conn,
 																										MsgRepositoryIfc repo )
 			throws UserNotFoundException, NotAuthorizedException {
-		Queue<Element> elems = repo.loadMessagesToJID( conn.getJID(), true );
+		return restorePacketForOffLineUser( conn, repo, 0 );
+	}
+
+	/**
+	 * Method restores at most {@code limit} oldest messages from repository for
+	 * the JID of the current session and removes them from repository. Limit
+	 * is supported by {@link MsgRepository} only, other implementations return
+	 * all messages. All
+	 * retrieved elements are then instantiated as {@code Packet} objects added
+	 * to {@code LinkedList} collection and, if possible, sorted by timestamp.
+	 *
+	 * @param conn  user session which keeps all the user session data and also
+	 *              gives an access to the user's repository data.
+	 * @param repo  an implementation of {@link MsgRepositoryIfc} interface
+	 * @param limit maximum number of messages to restore, {@code 0} means no
+	 *              limit.
+	 *
+	 * @return a {@link Queue} of {@link Packet} objects based on restored
+	 *         payloads for the JID of the current session.
+	 *
+	 * @throws UserNotFoundException
+	 * @throws NotAuthorizedException
+	 */
+	public Queue<Packet> restorePacketForOffLineUser( XMPPResourceConnection conn,
+																										MsgRepositoryIfc repo, int limit )
+			throws UserNotFoundException, NotAuthorizedException {
+		Queue<Element> elems = ( repo instanceof MsgRepository )
+				? ( (MsgRepository) repo ).loadMessagesToJID( conn.getJID(), true, limit )
+				: repo.loadMessagesToJID( conn.getJID(), true );
 
 		if ( elems != null ){
 			LinkedList<Packet> pacs = new LinkedList<Packet>();
@@ -242,6 +288,69 @@ public class OfflineMessages
 		return null;
 	}
 
+	/**
+	 * Method sends to the user next page of messages restored from repository.
+	 * If the page is full, {@code FLOW_CONTROL} command is sent to the user
+	 * connection after the messages, so the next page is loaded only when the
+	 * connection manager reports that the messages have been written to the
+	 * client. Result of the command is passed to the processor with given ID
+	 * which should call this method again.
+	 *
+	 * @param conn      user session which keeps all the user session data and
+	 *                  also gives an access to the user's repository data.
+	 * @param repo      an implementation of {@link MsgRepositoryIfc} interface
+	 * @param results   queue to which messages are added
+	 * @param processor ID of the processor handling {@code FLOW_CONTROL} results
+	 *
+	 * @throws UserNotFoundException
+	 * @throws NotAuthorizedException
+	 */
+	public void sendOfflineMessages( XMPPResourceConnection conn, MsgRepositoryIfc repo,
+																	 Queue<Packet> results, String processor )
+			throws UserNotFoundException, NotAuthorizedException {
+		Queue<Packet> packets = restorePacketForOffLineUser( conn, repo, pageSize );
+
+		if ( packets == null ){
+			return;
+		}
+		if ( log.isLoggable( Level.FINER ) ){
+			log.finer( "Sending off-line messages: " + packets.size() );
+		}
+
+		int count = packets.size();
+
+		results.addAll( packets );
+		if ( ( pageSize > 0 ) && ( count >= pageSize ) ){
+			try {
+				Packet cmd = Command.FLOW_CONTROL.getPacket( conn.getDomainAsJID(),
+						conn.getConnectionId(), StanzaType.get, conn.nextStanzaId() );
+
+				Command.addFieldValue( cmd, Command.FLOW_CONTROL_PROCESSOR_FIELD, processor );
+				cmd.setPacketFrom( conn.getSMComponentId() );
+				cmd.setPacketTo( conn.getConnectionId() );
+				results.offer( cmd );
+			} catch ( NoConnectionIdException ex ) {
+				log.log( Level.FINE, "Session without connection, remaining off-line messages "
+																 + "are left in the repository: {0}", conn );
+			}
+		}
+	}
+
+	/**
+	 * Method checks whether the packet is a result of {@code FLOW_CONTROL}
+	 * command sent after a page of offline messages.
+	 *
+	 * @param packet a {@link Packet} object to check
+	 * @param conn   user session
+	 *
+	 * @return {@code true} if the next page of messages should be sent
+	 */
+	public boolean isNextPageRequest( Packet packet, XMPPResourceConnection conn ) {
+		return ( conn != null ) && packet.isCommand()
+					 && ( packet.getCommand() == Command.FLOW_CONTROL )
+					 && ( packet.getType() == StanzaType.result ) && ( conn.getSessionData( ID ) != null );
+	}
+
 	/**
 	 * Method stores messages to offline repository with the following rules
 	 * applied, i.e. saves only:
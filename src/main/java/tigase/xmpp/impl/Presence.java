@@ -57,6 +57,15 @@ public class Presence
 	public static final String OFFLINE_BUD_SENT = "offline-bud-sent";
 	/** Field description */
 	public static final String OFFLINE_RES_SENT = "offline-res-sent";
+	/** Slot of {@code DIRECT_PRESENCE} session data */
+	public static final SessionSlot<Set<JID>> DIRECT_PRESENCE_SLOT = SessionSlot.register(
+			DIRECT_PRESENCE);
+	/** Slot of {@code OFFLINE_BUD_SENT} session data */
+	public static final SessionSlot<String> OFFLINE_BUD_SENT_SLOT = SessionSlot.register(
+			OFFLINE_BUD_SENT);
+	/** Slot of {@code OFFLINE_RES_SENT} session data */
+	public static final SessionSlot<String> OFFLINE_RES_SENT_SLOT = SessionSlot.register(
+			OFFLINE_RES_SENT);
 	/** Field description */
 	public static final String OFFLINE_ROSTER_LAST_SEEN_PROP_KEY =
 														 "offline-roster-last-seen";
@@ -66,6 +75,11 @@ public class Presence
 	 * key allowing setting global forwarding JID address.
 	 */
 	public static final String PRESENCE_GLOBAL_FORWARD = "presence-global-forward";
+	/**
+	 * System property enabling presence broadcast in which all packets share a
+	 * single presence element and differ only in the destination address.
+	 */
+	public static final String SHARED_BROADCAST_PROP_KEY = "presence-shared-broadcast";
 	/** Field description */
 	public static final String SKIP_OFFLINE_PROP_KEY = "skip-offline";
 	public static final String SKIP_OFFLINE_SYS_PROP_KEY = "skip-offline-sys";
@@ -83,6 +97,8 @@ public class Presence
 	private static final long MAX_DIRECT_PRESENCES_NO = 1000;
 	private static final String[] PRESENCE_PRIORITY_PATH = { "presence", "priority" };
 	private static final String[] XMLNSS = { XMLNS };
+	private static final boolean sharedBroadcast = Boolean.getBoolean(
+			SHARED_BROADCAST_PROP_KEY );
 	private static boolean skipOffline = false;
 	private static boolean skipOfflineSys = true;
 	/** variable holding setting regarding auto authorisation of items added to
@@ -109,13 +125,12 @@ public class Presence
 	 * @param session user session which keeps all the user session data and also
 	 *                gives an access to the user's repository data.
 	 */
-	@SuppressWarnings({ "unchecked" })
 	public static void addDirectPresenceJID( JID jid, XMPPResourceConnection session ) {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData( DIRECT_PRESENCE );
+		Set<JID> direct_presences = session.getSessionData( DIRECT_PRESENCE_SLOT );
 
 		if ( direct_presences == null ){
 			direct_presences = new LinkedHashSet<JID>( 10 );
-			session.putSessionData( DIRECT_PRESENCE, direct_presences );
+			session.putSessionData( DIRECT_PRESENCE_SLOT, direct_presences );
 		}    // end of if (direct_presences == null)
 		if ( direct_presences.size() < MAX_DIRECT_PRESENCES_NO ){
 			direct_presences.add( jid );
@@ -145,10 +160,10 @@ public class Presence
 			throws NotAuthorizedException, TigaseDBException {
 
 		// Preventing sending offline notifications more than once
-		if ( session.getSessionData( OFFLINE_BUD_SENT ) != null ){
+		if ( session.getSessionData( OFFLINE_BUD_SENT_SLOT ) != null ){
 			return;
 		}
-		session.putSessionData( OFFLINE_BUD_SENT, OFFLINE_BUD_SENT );
+		session.putSessionData( OFFLINE_BUD_SENT_SLOT, OFFLINE_BUD_SENT );
 
 		Element pres = session.getPresence();
 
@@ -482,9 +497,8 @@ public class Presence
 	 * @param session user session which keeps all the user session data and also
 	 *                gives an access to the user's repository data.
 	 */
-	@SuppressWarnings({ "unchecked" })
 	public static void removeDirectPresenceJID( JID jid, XMPPResourceConnection session ) {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData( DIRECT_PRESENCE );
+		Set<JID> direct_presences = session.getSessionData( DIRECT_PRESENCE_SLOT );
 
 		if ( direct_presences != null ){
 			direct_presences.remove( jid );
@@ -600,6 +614,69 @@ public class Presence
 		return result;
 	}
 
+	/**
+	 * Sends presence stanza shared with other packets to the given address. The
+	 * stanza element is not copied, only a new {@link Packet} with a different
+	 * destination address is created.
+	 *
+	 * @param to      is a <code>JID</code> instance with stanza destination
+	 *                address.
+	 * @param results this a collection with packets which have been generated as
+	 *                input packet processing results.
+	 * @param shared  packet created by {@link #createSharedPresence(StanzaType, JID,
+	 *                Element)} holding the shared presence stanza.
+	 *
+	 * @return an instance of {@link Packet} holding the shared Presence stanza.
+	 */
+	public static Packet sendPresenceShared( JID to, Queue<Packet> results, Packet shared ) {
+		Packet result = Packet.packetInstanceShared( shared.getSharedElement(),
+				shared.getStanzaFrom(), to );
+
+		if ( log.isLoggable( Level.FINEST ) ){
+			log.log( Level.FINEST, "Sending shared presence to: {0}", to );
+		}
+		results.offer( result );
+
+		return result;
+	}
+
+	/**
+	 * Creates presence stanza which may be shared by packets sent to many
+	 * recipients, the same way as {@link #sendPresence(StanzaType, JID, JID, Queue,
+	 * Element)} does but without the destination address.
+	 *
+	 * @param t    specifies type of the presence to be send.
+	 * @param from is a <code>JID</code> instance with stanza source address.
+	 * @param pres an Object of type {@link Element} holding Presence stanza to
+	 *             be sent.
+	 *
+	 * @return a {@link Packet} holding the presence stanza to be shared or
+	 *         <code>null</code> if the stanza source address is incorrect.
+	 */
+	public static Packet createSharedPresence( StanzaType t, JID from, Element pres ) {
+		Element presence = null;
+
+		if ( pres == null ){
+			presence = new Element( PRESENCE_ELEMENT_NAME );
+			presence.setAttribute( "type", ( t != null )
+																		 ? t.toString()
+																		 : StanzaType.unavailable.toString() );
+			presence.setAttribute( "from", from.toString() );
+			presence.setXMLNS( XMLNS );
+		} else {
+			presence = pres.clone();
+			presence.removeAttribute( "to" );
+		}
+		try {
+			return Packet.packetInstance( presence );
+		} catch ( TigaseStringprepException ex ) {
+			log.log( Level.FINE,
+							 "Packet stringprep addressing problem, not sharing presence: {0}", presence );
+
+			return null;
+		}
+	}
+
 	/**
 	 * <code>sendPresenceBroadcast</code> method broadcasts given presence to all
 	 * buddies from roster and to all users to which direct presence was sent.
@@ -653,10 +730,15 @@ public class Presence
 
 			Priority pack_priority = Priority.PRESENCE;
 			int pres_cnt = 0;
+			Packet shared = sharedBroadcast
+											? createSharedPresence( t, session.getJID(), pres )
+											: null;
 
 			for ( JID buddy : buddies ) {
 				if ( requiresPresenceSending( roster, buddy, session, false ) ){
-					Packet pack = sendPresence( t, session.getJID(), buddy, results, pres );
+					Packet pack = ( shared != null )
+												? sendPresenceShared( buddy, results, shared )
+												: sendPresence( t, session.getJID(), buddy, results, pres );
 
 					if ( pres_cnt == HIGH_PRIORITY_PRESENCES_NO ){
 						++pres_cnt;
@@ -873,11 +955,10 @@ public class Presence
 	 * @throws NotAuthorizedException
 	 * @throws TigaseDBException
 	 */
-	@SuppressWarnings({ "unchecked" })
 	protected static void broadcastDirectPresences( StanzaType t, XMPPResourceConnection session,
 																									Queue<Packet> results, Element pres )
 			throws NotAuthorizedException, TigaseDBException {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData( DIRECT_PRESENCE );
+		Set<JID> direct_presences = session.getSessionData( DIRECT_PRESENCE_SLOT );
 
 		if ( ( direct_presences != null ) && ( t != null ) && ( t == StanzaType.unavailable ) ){
 			for ( JID buddy : direct_presences ) {
@@ -1481,8 +1562,8 @@ public class Presence
 
 			// Special actions on the first availability presence
 			if ( ( packet.getType() == null ) || ( packet.getType() == StanzaType.available ) ){
-				session.removeSessionData( OFFLINE_BUD_SENT );
-				session.removeSessionData( OFFLINE_RES_SENT );
+				session.removeSessionData( OFFLINE_BUD_SENT_SLOT );
+				session.removeSessionData( OFFLINE_RES_SENT_SLOT );
 				if ( first ){
 					try {
 						sendRosterOfflinePresence( session, results );
@@ -1759,10 +1840,10 @@ public class Presence
 			throws NotAuthorizedException {
 
 		// Preventing sending offline notifications more than once
-		if ( session.getSessionData( OFFLINE_RES_SENT ) != null ){
+		if ( session.getSessionData( OFFLINE_RES_SENT_SLOT ) != null ){
 			return;
 		}
-		session.putSessionData( OFFLINE_RES_SENT, OFFLINE_RES_SENT );
+		session.putSessionData( OFFLINE_RES_SENT_SLOT, OFFLINE_RES_SENT );
 		for ( XMPPResourceConnection conn : session.getActiveSessions() ) {
 			try {
 				if ( log.isLoggable( Level.FINER ) ){
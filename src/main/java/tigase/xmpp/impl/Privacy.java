@@ -175,7 +175,25 @@ public class Privacy {
 	 */
 	public static Element getActiveList(XMPPResourceConnection session)
 					throws NotAuthorizedException {
-		return (Element) session.getSessionData(ACTIVE);
+		PrivacyList list = getActivePrivacyList(session);
+
+		return (list == null)
+				? null
+				: list.getElement();
+	}
+
+	/**
+	 * Method returns compiled active privacy list of the session.
+	 *
+	 * @param session
+	 *
+	 * @return compiled active list or <code>null</code>
+	 *
+	 * @throws NotAuthorizedException
+	 */
+	public static PrivacyList getActivePrivacyList(XMPPResourceConnection session)
+					throws NotAuthorizedException {
+		return (PrivacyList) session.getSessionData(ACTIVE);
 	}
 
 	/**
@@ -208,16 +226,34 @@ public class Privacy {
 	 */
 	public static Element getDefaultList(XMPPResourceConnection session)
 					throws NotAuthorizedException, TigaseDBException {
-		Element sessionDefaultList = null;
-		if (session.getCommonSessionData(PRIVACY_LIST_LOADED) == null) {
-			sessionDefaultList = (Element) session.getCommonSessionData( DEFAULT );
-			if ( sessionDefaultList == null ){
-				String defaultListName = getDefaultListName( session );
-				if ( defaultListName != null ){
-					sessionDefaultList = Privacy.getList( session, defaultListName);
-					if ( null != sessionDefaultList ){
-						session.putCommonSessionData( DEFAULT, sessionDefaultList );
-					}
+		PrivacyList list = getDefaultPrivacyList(session);
+
+		return (list == null)
+				? null
+				: list.getElement();
+	}
+
+	/**
+	 * Method returns compiled default privacy list of the user. The list is
+	 * loaded from the repository and compiled on first use and shared by all
+	 * user sessions.
+	 *
+	 * @param session
+	 *
+	 * @return compiled default list or <code>null</code>
+	 *
+	 * @throws NotAuthorizedException
+	 * @throws TigaseDBException
+	 */
+	public static PrivacyList getDefaultPrivacyList(XMPPResourceConnection session)
+					throws NotAuthorizedException, TigaseDBException {
+		PrivacyList sessionDefaultList = (PrivacyList) session.getCommonSessionData( DEFAULT );
+		if ((sessionDefaultList == null) && (session.getCommonSessionData(PRIVACY_LIST_LOADED) == null)) {
+			String defaultListName = getDefaultListName( session );
+			if ( defaultListName != null ){
+				sessionDefaultList = PrivacyList.create(Privacy.getList( session, defaultListName));
+				if ( null != sessionDefaultList ){
+					session.putCommonSessionData( DEFAULT, sessionDefaultList );
 				}
 			}
 			session.putCommonSessionData(PRIVACY_LIST_LOADED, PRIVACY_LIST_LOADED);
@@ -390,7 +426,7 @@ public class Privacy {
 			Element list = getList(session, lName);
 
 			if (list != null) {
-				session.putSessionData(ACTIVE, list);
+				session.putSessionData(ACTIVE, PrivacyList.create(list));
 			} else {
 				log.log(
 						Level.INFO,
@@ -413,7 +449,7 @@ public class Privacy {
 					throws NotAuthorizedException, TigaseDBException {
 		if ((list != null) && (list.getAttributeStaticStr(NAME) != null)) {
 			session.setData(PRIVACY, DEFAULT, list.getAttributeStaticStr(NAME));
-			session.putCommonSessionData( DEFAULT, list);
+			session.putCommonSessionData( DEFAULT, PrivacyList.create(list));
 		} else {
 			session.removeData(PRIVACY, DEFAULT);
 			session.removeCommonSessionData( DEFAULT );
@@ -0,0 +1,405 @@
+/*
+ * PrivacyList.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.xmpp.impl;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.db.TigaseDBException;
+
+import tigase.server.Packet;
+
+import tigase.util.TigaseStringprepException;
+
+import tigase.xml.Element;
+
+import tigase.xmpp.JID;
+import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.roster.RosterAbstract;
+
+import static tigase.xmpp.impl.Privacy.*;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Privacy list compiled for evaluation of stanzas. The list is compiled once,
+ * when it is set, activated or loaded, into an immutable array of rules sorted
+ * by their order. JIDs of rules are parsed, subscription types and stanza
+ * kinds are turned into constants and masks, so evaluation of a stanza does
+ * not touch the XML form of the list.
+ *
+ * Roster groups and subscription of the stanza peer are retrieved at most once
+ * for each evaluated stanza, no matter how many rules refer to them.
+ *
+ * @author andrzej
+ */
+public class PrivacyList {
+	private static final int      ALL_KINDS = -1;
+	private static final int      IQ = 1;
+	private static final String   IQ_EL_NAME = "iq";
+	private static final Logger   log = Logger.getLogger(PrivacyList.class.getName());
+	private static final int      MESSAGE = 2;
+	private static final String   MESSAGE_EL_NAME = "message";
+	private static final int      PRESENCE = 4;
+	private static final String   PRESENCE_EL_NAME = "presence";
+	private static final int      PRESENCE_IN = 8;
+	private static final int      PRESENCE_OUT = 16;
+	private static final int      SUBSCR_BOTH = 3;
+	private static final int      SUBSCR_FROM = 1;
+	private static final int      SUBSCR_NONE = 0;
+	private static final int      SUBSCR_TO = 2;
+	private static final int      SUBSCR_UNKNOWN = -1;
+	private static final Comparator<Rule> compar = new Comparator<Rule>() {
+		@Override
+		public int compare(Rule r1, Rule r2) {
+			return (r1.order < r2.order)
+					? -1
+					: ((r1.order == r2.order)
+							? 0
+							: 1);
+		}
+	};
+
+	//~--- constant enums -------------------------------------------------------
+
+	private enum RuleType { jid, group, subscription, all }
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final Element list;
+	private final String  name;
+	private final Rule[]  rules;
+
+	//~--- constructors ---------------------------------------------------------
+
+	private PrivacyList(Element list, Rule[] rules) {
+		this.list  = list;
+		this.name  = list.getAttributeStaticStr(NAME);
+		this.rules = rules;
+	}
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Method compiles privacy list. Items which can not be parsed are skipped.
+	 *
+	 * @param list privacy list element
+	 *
+	 * @return compiled privacy list or <code>null</code> if list is
+	 * <code>null</code>
+	 */
+	public static PrivacyList create(Element list) {
+		if (list == null) {
+			return null;
+		}
+
+		List<Rule>    result = new ArrayList<Rule>();
+		List<Element> items  = list.getChildren();
+
+		if (items != null) {
+			for (Element item : items) {
+				try {
+					result.add(new Rule(item));
+				} catch (Exception ex) {
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Skipping invalid privacy list item: {0}, {1}",
+								new Object[] { item,
+								ex.getMessage() });
+					}
+				}
+			}
+		}
+		Collections.sort(result, compar);
+
+		return new PrivacyList(list, result.toArray(new Rule[result.size()]));
+	}
+
+	/**
+	 * Method checks whether the stanza is allowed by the list.
+	 *
+	 * @param packet checked stanza
+	 * @param jid address of the stanza peer
+	 * @param packetIn <code>true</code> if the stanza is sent to the user
+	 * @param session of the user
+	 * @param roster used to retrieve groups and subscription of the peer
+	 *
+	 * @return <code>false</code> if the stanza is blocked
+	 *
+	 * @throws NotAuthorizedException
+	 * @throws TigaseDBException
+	 */
+	public boolean isAllowed(Packet packet, JID jid, boolean packetIn,
+			XMPPResourceConnection session, RosterAbstract roster)
+					throws NotAuthorizedException, TigaseDBException {
+		int      kind   = stanzaKind(packet, packetIn);
+		String[] groups = null;
+		int      subscr = SUBSCR_UNKNOWN;
+
+		for (Rule rule : rules) {
+			if ((rule.kinds != ALL_KINDS) && ((rule.kinds & kind) == 0)) {
+				continue;
+			}
+
+			boolean matched = false;
+
+			switch (rule.type) {
+			case jid :
+				matched = (jid != null) && rule.matches(jid);
+
+				break;
+
+			case group :
+				if (jid != null) {
+					if (groups == null) {
+						groups = roster.getBuddyGroups(session, jid);
+						if (groups == null) {
+							groups = new String[0];
+						}
+					}
+					for (String group : groups) {
+						if (matched = group.equals(rule.value)) {
+							break;
+						}
+					}
+				}
+
+				break;
+
+			case subscription :
+				if (jid != null) {
+					if (subscr == SUBSCR_UNKNOWN) {
+						subscr = (roster.isSubscribedFrom(session, jid)
+								? SUBSCR_FROM
+								: SUBSCR_NONE) | (roster.isSubscribedTo(session, jid)
+								? SUBSCR_TO
+								: SUBSCR_NONE);
+					}
+					matched = subscr == rule.subscr;
+				}
+
+				break;
+
+			case all :
+			default :
+				matched = true;
+
+				break;
+			}
+			if (matched) {
+				return rule.allow;
+			}
+		}
+
+		return true;
+	}
+
+	private static int stanzaKind(Packet packet, boolean packetIn) {
+		String     elemName = packet.getElemName();
+		StanzaType type     = packet.getType();
+		int        kind     = 0;
+
+		if (packetIn) {
+			if (elemName == MESSAGE_EL_NAME) {
+				kind = MESSAGE;
+			} else if (elemName == IQ_EL_NAME) {
+				kind = IQ;
+			} else if (elemName == PRESENCE_EL_NAME) {
+				kind = PRESENCE;
+			}
+		}
+		if ((elemName == PRESENCE_EL_NAME) && ((type == null) || (type == StanzaType
+				.unavailable))) {
+			kind |= packetIn
+					? PRESENCE_IN
+					: PRESENCE_OUT;
+		}
+
+		return kind;
+	}
+
+	//~--- get methods ----------------------------------------------------------
+
+	/**
+	 * Method returns privacy list element from which the list was compiled.
+	 *
+	 * @return privacy list element
+	 */
+	public Element getElement() {
+		return list;
+	}
+
+	/**
+	 * Method returns name of the privacy list.
+	 *
+	 * @return name of the list
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Method returns number of rules of the list.
+	 *
+	 * @return number of rules
+	 */
+	public int size() {
+		return rules.length;
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static class Rule {
+		private final boolean  allow;
+		private final String   domain;
+		private final int      kinds;
+		private final String   localpart;
+		private final long     order;
+		private final String   resource;
+		private final int      subscr;
+		private final RuleType type;
+		private final String   value;
+
+		//~--- constructors -------------------------------------------------------
+
+		private Rule(Element item) throws TigaseStringprepException {
+			String typeStr = item.getAttributeStaticStr(TYPE);
+
+			type  = (typeStr == null)
+					? RuleType.all
+					: RuleType.valueOf(typeStr);
+			value = item.getAttributeStaticStr(VALUE);
+			allow = "allow".equals(item.getAttributeStaticStr(ACTION));
+			if (!allow &&!"deny".equals(item.getAttributeStaticStr(ACTION))) {
+				throw new IllegalArgumentException("Invalid action: " + item
+						.getAttributeStaticStr(ACTION));
+			}
+			order = Long.parseLong(item.getAttributeStaticStr(ORDER));
+
+			JID jid = (type == RuleType.jid)
+					? JID.jidInstance(value)
+					: null;
+
+			localpart = (jid == null)
+					? null
+					: jid.getLocalpart();
+			domain = (jid == null)
+					? null
+					: jid.getDomain();
+			resource = (jid == null)
+					? null
+					: jid.getResource();
+			subscr = (type == RuleType.subscription)
+					? parseSubscription(value)
+					: SUBSCR_UNKNOWN;
+			if ((type == RuleType.group) && (value == null)) {
+				throw new IllegalArgumentException("Missing group name");
+			}
+
+			List<Element> elems = item.getChildren();
+			int           mask  = 0;
+
+			if ((elems == null) || elems.isEmpty()) {
+				mask = ALL_KINDS;
+			} else {
+				for (Element elem : elems) {
+					switch (elem.getName()) {
+					case "message" :
+						mask |= MESSAGE;
+
+						break;
+
+					case "iq" :
+						mask |= IQ;
+
+						break;
+
+					case "presence" :
+						mask |= PRESENCE;
+
+						break;
+
+					case "presence-in" :
+						mask |= PRESENCE_IN;
+
+						break;
+
+					case "presence-out" :
+						mask |= PRESENCE_OUT;
+
+						break;
+
+					default :
+						break;
+					}
+				}
+			}
+			kinds = mask;
+		}
+
+		//~--- methods ------------------------------------------------------------
+
+		/**
+		 * Matches JID in order defined by XEP-0016: full JID, bare JID, domain
+		 * with resource and domain.
+		 */
+		private boolean matches(JID jid) {
+			if (!domain.equals(jid.getDomain())) {
+				return false;
+			}
+			if ((localpart != null) &&!localpart.equals(jid.getLocalpart())) {
+				return false;
+			}
+
+			return (resource == null) || resource.equals(jid.getResource());
+		}
+
+		private static int parseSubscription(String value) {
+			switch (value) {
+			case "both" :
+				return SUBSCR_BOTH;
+
+			case "to" :
+				return SUBSCR_TO;
+
+			case "from" :
+				return SUBSCR_FROM;
+
+			case "none" :
+				return SUBSCR_NONE;
+
+			default :
+				throw new IllegalArgumentException("Invalid subscription: " + value);
+			}
+		}
+	}
+}
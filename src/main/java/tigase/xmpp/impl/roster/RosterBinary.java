@@ -0,0 +1,334 @@
+/*
+ * RosterBinary.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+
+
+
+package tigase.xmpp.impl.roster;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import tigase.db.TigaseDBException;
+
+import tigase.util.Algorithms;
+import tigase.util.Base64;
+
+import tigase.xmpp.BareJID;
+import tigase.xmpp.JID;
+import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.XMPPResourceConnection;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Roster implementation storing each roster item as a separate entry of a
+ * data list in compact binary form. A change of a roster item appends only
+ * the item (or a removal mark) to the list, so the cost of the change does
+ * not depend on the roster size, and loading the roster does not require
+ * XML parsing.
+ *
+ * Each entry has a sequence number and the entry with the highest number wins
+ * when there are more entries for the same contact, so the order in which the
+ * repository returns entries does not matter. When the list contains too many
+ * outdated entries it is rewritten with current items at the next roster
+ * load.
+ *
+ * If the user does not have roster in this format yet, it is loaded by
+ * <code>RosterFlat</code> (which also converts the old style roster) and
+ * stored in the binary format. The flat roster is not removed, so after
+ * switching back to <code>RosterFlat</code> users get their roster from the
+ * time of the conversion.
+ *
+ * The implementation may be selected by setting
+ * <code>roster-implementation</code> system property to
+ * <code>tigase.xmpp.impl.roster.RosterBinary</code>.
+ *
+ * @author andrzej
+ */
+public class RosterBinary
+				extends RosterFlat {
+	/** Subnode of the user repository with roster items */
+	public static final String ROSTER_ITEMS = "roster-items";
+	private static final byte   HEADER      = 0;
+	private static final byte   ITEM        = 1;
+	private static final String ITEMS_KEY   = "items";
+	private static final Logger log         = Logger.getLogger(RosterBinary.class.getName());
+
+	/** Minimal number of outdated entries triggering list rewrite */
+	private static final int    MIN_OUTDATED = 64;
+	private static final byte   REMOVED      = 2;
+	private static final String SEQUENCE     = "roster-items-seq";
+	private static final int    VERSION      = 1;
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	public boolean removeBuddy(XMPPResourceConnection session, JID jid)
+					throws NotAuthorizedException, TigaseDBException {
+		Map<BareJID, RosterElement> roster = getUserRoster(session);
+		RosterElement               relem  = roster.remove(jid.getBareJID());
+
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Removing roster buddy: {0}, removed: {1}", new Object[] { jid,
+					relem });
+		}
+		if ((relem != null) && relem.isPersistent()) {
+			session.addDataList(ROSTER_ITEMS, ITEMS_KEY, new String[] { encode(REMOVED,
+					nextSequence(session), relem) });
+		}
+
+		return true;
+	}
+
+	/**
+	 * Method appends to the repository all modified roster items.
+	 *
+	 *
+	 * @param session
+	 *
+	 * @throws NotAuthorizedException
+	 * @throws TigaseDBException
+	 */
+	@Override
+	protected void saveUserRoster(XMPPResourceConnection session)
+					throws NotAuthorizedException, TigaseDBException {
+		Map<BareJID, RosterElement> roster  = getUserRoster(session);
+		List<String>                entries = null;
+
+		for (RosterElement relem : roster.values()) {
+			if (relem.isPersistent() && relem.isModified()) {
+				if (entries == null) {
+					entries = new ArrayList<String>();
+				}
+				entries.add(encode(ITEM, nextSequence(session), relem));
+			}
+		}
+		if (entries != null) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Saving {0} modified roster items", entries.size());
+			}
+			session.addDataList(ROSTER_ITEMS, ITEMS_KEY, entries.toArray(new String[entries
+					.size()]));
+		}
+	}
+
+	/**
+	 * Method description
+	 *
+	 *
+	 * @param session
+	 *
+	 * @return loaded user roster
+	 *
+	 * @throws NotAuthorizedException
+	 * @throws TigaseDBException
+	 */
+	@Override
+	protected Map<BareJID, RosterElement> loadUserRoster(XMPPResourceConnection session)
+					throws NotAuthorizedException, TigaseDBException {
+		String[] entries = session.getDataList(ROSTER_ITEMS, ITEMS_KEY);
+
+		if ((entries == null) || (entries.length == 0)) {
+			Map<BareJID, RosterElement> roster = super.loadUserRoster(session);
+
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Converting roster of {0} items to binary format", roster
+						.size());
+			}
+			writeSnapshot(session, roster);
+
+			return roster;
+		}
+
+		// Same as in RosterFlat, mostly read, modified very rarely
+		Map<BareJID, RosterElement> roster = new ConcurrentHashMap<BareJID,
+				RosterElement>(100, 0.25f, 1);
+
+		session.putCommonSessionData(ROSTER, roster);
+
+		Map<BareJID, Long> sequences = new HashMap<BareJID, Long>(entries.length * 2);
+		MessageDigest      digest    = newDigest();
+		long               sequence  = 0;
+		boolean            modified  = false;
+
+		for (String entry : entries) {
+			if (digest != null) {
+				digest.update(entry.getBytes(StandardCharsets.UTF_8));
+			}
+			try {
+				DataInputStream in  = new DataInputStream(new ByteArrayInputStream(Base64.decode(
+						entry)));
+				byte            type = in.readByte();
+				long            seq  = in.readLong();
+
+				sequence = Math.max(sequence, seq);
+				if (type == HEADER) {
+					continue;
+				}
+
+				RosterElement relem = (type == ITEM)
+						? new RosterElement(in, session)
+						: null;
+				BareJID       jid   = (relem != null)
+						? relem.getJid().getBareJID()
+						: BareJID.bareJIDInstanceNS(in.readUTF());
+				Long          last  = sequences.get(jid);
+
+				if ((last != null) && (last > seq)) {
+					continue;
+				}
+				sequences.put(jid, seq);
+				if (relem == null) {
+					roster.remove(jid);
+				} else {
+					modified |= relem.isModified();
+					if (!addBuddy(relem, roster)) {
+						break;
+					}
+				}
+			} catch (Exception e) {
+				log.log(Level.WARNING, "Can't load roster entry: " + entry, e);
+			}
+		}
+		if (digest != null) {
+			session.putCommonSessionData(ROSTERHASH, Algorithms.bytesToHex(digest.digest()));
+		}
+		nextSequence(session, sequence);
+
+		int outdated = entries.length - 1 - roster.size();
+
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Loaded user roster: {0} items from {1} entries",
+					new Object[] { roster.size(),
+					entries.length });
+		}
+		if (modified || (outdated > Math.max(MIN_OUTDATED, roster.size() / 2))) {
+			writeSnapshot(session, roster);
+		}
+
+		return roster;
+	}
+
+	private String encode(byte type, long seq, RosterElement relem) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			DataOutputStream      out   = new DataOutputStream(bytes);
+
+			out.writeByte(type);
+			out.writeLong(seq);
+			switch (type) {
+			case HEADER :
+				out.writeInt(VERSION);
+
+				break;
+
+			case ITEM :
+				relem.writeTo(out);
+
+				break;
+
+			case REMOVED :
+				out.writeUTF(relem.getJid().getBareJID().toString());
+
+				break;
+			}
+			out.flush();
+
+			return Base64.encode(bytes.toByteArray());
+		} catch (IOException e) {
+
+			// Can not happen for in-memory stream
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private long nextSequence(XMPPResourceConnection session) {
+		return nextSequence(session, 0);
+	}
+
+	private long nextSequence(XMPPResourceConnection session, long min) {
+		AtomicLong counter = (AtomicLong) session.getCommonSessionData(SEQUENCE);
+
+		if (counter == null) {
+			synchronized (session) {
+				counter = (AtomicLong) session.getCommonSessionData(SEQUENCE);
+				if (counter == null) {
+					counter = new AtomicLong();
+					session.putCommonSessionData(SEQUENCE, counter);
+				}
+			}
+		}
+
+		// Time based, so entries written by sessions on different cluster nodes
+		// are ordered reasonably
+		long next = Math.max(min, System.currentTimeMillis());
+		long curr;
+
+		do {
+			curr = counter.get();
+		} while (!counter.compareAndSet(curr, Math.max(curr + 1, next)));
+
+		return Math.max(curr + 1, next);
+	}
+
+	private MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	private void writeSnapshot(XMPPResourceConnection session,
+			Map<BareJID, RosterElement> roster)
+					throws NotAuthorizedException, TigaseDBException {
+		List<String> entries = new ArrayList<String>(roster.size() + 1);
+
+		entries.add(encode(HEADER, nextSequence(session), null));
+		for (RosterElement relem : roster.values()) {
+			if (relem.isPersistent()) {
+				entries.add(encode(ITEM, nextSequence(session), relem));
+			}
+		}
+		session.setDataList(ROSTER_ITEMS, ITEMS_KEY, entries.toArray(new String[entries
+				.size()]));
+	}
+}
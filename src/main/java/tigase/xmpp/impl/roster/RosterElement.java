@@ -39,6 +39,12 @@ import static tigase.xmpp.impl.roster.RosterAbstract.SubscriptionType;
 
 //~--- JDK imports ------------------------------------------------------------
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashSet;
 import java.util.logging.Logger;
@@ -162,6 +168,40 @@ public class RosterElement
 		}
 	}
 
+	/**
+	 * Creates a new <code>RosterElement</code> instance from data written by
+	 * {@link #writeTo(DataOutput)}.
+	 *
+	 *
+	 * @param in
+	 * @param session
+	 * @throws IOException
+	 * @throws TigaseStringprepException
+	 */
+	public RosterElement(DataInput in, XMPPResourceConnection session)
+					throws IOException, TigaseStringprepException {
+		this.session      = session;
+		this.stringpreped = in.readUTF();
+		setJid(in.readUTF());
+		subscription = SubscriptionType.valueOf(in.readUTF());
+		name         = readString(in);
+
+		int grps = in.readUnsignedShort();
+
+		if (grps > 0) {
+			groups = new String[grps];
+			for (int i = 0; i < grps; i++) {
+				groups[i] = readString(in);
+			}
+		}
+		if (in.readBoolean()) {
+			otherData = readString(in);
+		}
+		activity = in.readDouble();
+		weight   = in.readDouble();
+		lastSeen = in.readLong();
+	}
+
 	/**
 	 * Constructs ...
 	 *
@@ -481,6 +521,64 @@ public class RosterElement
 		stringpreped = XMPPStringPrepFactory.STRINGPREP_PROCESSOR;
 	}
 
+	/**
+	 * Method writes persistent data of the element in a compact binary form
+	 * which can be read by {@link #RosterElement(DataInput, XMPPResourceConnection)}.
+	 * After that the element is no longer modified, as after
+	 * {@link #getRosterElement()}.
+	 *
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(stringpreped);
+		out.writeUTF(jid.toString());
+		out.writeUTF(subscription.name());
+		writeString(out, name);
+		if (groups == null) {
+			out.writeShort(0);
+		} else {
+			out.writeShort(groups.length);
+			for (String group : groups) {
+				writeString(out, group);
+			}
+		}
+		out.writeBoolean(otherData != null);
+		if (otherData != null) {
+			writeString(out, otherData);
+		}
+		out.writeDouble(activity);
+		out.writeDouble(weight);
+		out.writeLong(lastSeen);
+		modified = false;
+	}
+
+	/**
+	 * Strings set by users are written as UTF-8 bytes prefixed with their
+	 * length, as <code>writeUTF</code> is limited to 64KB.
+	 */
+	private static String readString(DataInput in) throws IOException {
+		int len = in.readInt();
+
+		if (len < 0) {
+			throw new IOException("Incorrect string length: " + len);
+		}
+
+		byte[] bytes = new byte[len];
+
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutput out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
 	//~--- get methods ----------------------------------------------------------
 
 	/**
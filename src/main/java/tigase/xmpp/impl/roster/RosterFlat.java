@@ -528,7 +528,19 @@ public class RosterFlat
 		session.setData(null, ROSTER, sb.toString());
 	}
 
-	private Map<BareJID, RosterElement> loadUserRoster(XMPPResourceConnection session)
+	/**
+	 * Method loads user roster from the repository and puts it into the
+	 * session cache.
+	 *
+	 *
+	 * @param session
+	 *
+	 * @return loaded user roster
+	 *
+	 * @throws NotAuthorizedException
+	 * @throws TigaseDBException
+	 */
+	protected Map<BareJID, RosterElement> loadUserRoster(XMPPResourceConnection session)
 					throws NotAuthorizedException, TigaseDBException {
 
 		// In most times we just read from this data structure
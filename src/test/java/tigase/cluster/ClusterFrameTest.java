@@ -0,0 +1,344 @@
+/*
+ * ClusterFrameTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.cluster;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import tigase.cluster.api.ClusterElement;
+
+import tigase.xml.CData;
+import tigase.xml.Element;
+import tigase.xml.XMLNodeIfc;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Test class for <code>ClusterFrameWriter</code> and
+ * <code>ClusterFrameReader</code>. Elements and cluster packets are written
+ * to frames and read back, whole or in small chunks.
+ *
+ * @author andrzej
+ */
+public class ClusterFrameTest
+				extends TestCase {
+	private static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+	//~--- methods --------------------------------------------------------------
+
+	/**
+	 * Plain elements with attributes, namespaces, mixed content and non-ASCII
+	 * characters are rebuilt as they were written.
+	 */
+	@Test
+	public void testElementRoundTrip() throws Exception {
+		Element message = message(1);
+
+		message.addChild(new Element("active", new String[] { "xmlns" }, new String[] {
+				"http://jabber.org/protocol/chatstates" }));
+
+		Element mixed = new Element("html", new String[] { "xmlns" }, new String[] {
+				"http://jabber.org/protocol/xhtml-im" });
+
+		mixed.addCData("Zażółć &amp; ");
+		mixed.addChild(new Element("b", "gęślą ☃"));
+		mixed.addCData(" jaźń");
+		message.addChild(mixed);
+
+		Queue<Element> results = readAll(write(message), 0);
+
+		assertEquals(1, results.size());
+		assertElementEquals(message, results.poll());
+	}
+
+	/**
+	 * Cluster packets are written with the fixed header and rebuilt with the
+	 * same structure.
+	 */
+	@Test
+	public void testClusterPacketRoundTrip() throws Exception {
+		Element packet = cluster(true);
+
+		assertTrue(ClusterFrameWriter.isClusterPacket(packet));
+
+		Queue<Element> results = readAll(write(packet), 0);
+
+		assertEquals(1, results.size());
+		assertElementEquals(packet, results.poll());
+
+		// Cluster packet without method call and data
+		packet = cluster(false);
+		assertTrue(ClusterFrameWriter.isClusterPacket(packet));
+		results = readAll(write(packet), 0);
+		assertElementEquals(packet, results.poll());
+
+		// Unknown child makes it a plain element, which is still rebuilt
+		packet = cluster(true);
+		packet.getChild(ClusterElement.CLUSTER_CONTROL_EL_NAME).addChild(new Element(
+				"unknown"));
+		assertFalse(ClusterFrameWriter.isClusterPacket(packet));
+		results = readAll(write(packet), 0);
+		assertElementEquals(packet, results.poll());
+	}
+
+	/**
+	 * Frames delivered in small chunks are decoded when they are complete,
+	 * ping frames are skipped and the stream end frame is reported.
+	 */
+	@Test
+	public void testPartialFrames() throws Exception {
+		ClusterFrameWriter writer = ClusterFrameWriter.getInstance();
+
+		writer.begin();
+		for (int i = 0; i < 20; i++) {
+			writer.append(message(i));
+			writer.append(cluster(i % 2 == 0));
+			writer.appendEmpty(ClusterFrameWriter.FRAME_PING);
+		}
+		writer.appendEmpty(ClusterFrameWriter.FRAME_STREAM_END);
+
+		byte[] data = bytes(writer);
+
+		for (int chunk : new int[] { 1, 3, 7, 100 }) {
+			ClusterFrameReader reader  = new ClusterFrameReader(MAX_FRAME_SIZE);
+			Queue<Element>     results = new ArrayDeque<Element>();
+
+			for (int i = 0; i < data.length; i += chunk) {
+				assertFalse(reader.isStreamEnd());
+				reader.read(ByteBuffer.wrap(data, i, Math.min(chunk, data.length - i)),
+						results);
+			}
+			assertTrue(reader.isStreamEnd());
+			assertEquals(40, results.size());
+			for (int i = 0; i < 20; i++) {
+				assertElementEquals(message(i), results.poll());
+				assertElementEquals(cluster(i % 2 == 0), results.poll());
+			}
+		}
+	}
+
+	/**
+	 * Frame much larger than the read buffer is read once the whole frame
+	 * arrives and following frames are still decoded.
+	 */
+	@Test
+	public void testLargeFrame() throws Exception {
+		StringBuilder body = new StringBuilder();
+
+		for (int i = 0; i < 100000; i++) {
+			body.append((char) ('a' + (i % 26)));
+		}
+
+		Element large = new Element("message", new String[] { "to" }, new String[] {
+				"large@example.com" });
+
+		large.addChild(new Element("body", body.toString()));
+
+		ClusterFrameWriter writer = ClusterFrameWriter.getInstance();
+
+		writer.begin();
+		writer.append(large);
+		writer.append(message(1));
+
+		Queue<Element> results = readAll(bytes(writer), 1000);
+
+		assertEquals(2, results.size());
+		assertElementEquals(large, results.poll());
+		assertElementEquals(message(1), results.poll());
+	}
+
+	/**
+	 * Incorrect frames are reported with <code>IOException</code>.
+	 */
+	@Test
+	public void testIncorrectData() throws Exception {
+		byte[] frame = write(message(1));
+
+		// Frame size below 1 and above the maximum
+		assertIncorrect(new byte[] { 0, 0, 0, 0, 1 });
+		assertIncorrect(new byte[] { 0x7F, 0, 0, 0, 1 });
+
+		// Unknown frame kind
+		assertIncorrect(new byte[] { 0, 0, 0, 1, 9 });
+
+		// Frame size shorter than the element
+		byte[] data = frame.clone();
+
+		data[3] -= 2;
+		assertIncorrect(data);
+
+		// Frame size longer than the element
+		data = new byte[frame.length + 1];
+		System.arraycopy(frame, 0, data, 0, frame.length);
+		data[3] += 1;
+		assertIncorrect(data);
+
+		// Unknown element node type
+		data = frame.clone();
+		for (int i = data.length - 1; i > 0; i--) {
+			if (data[i] == ClusterFrameWriter.NODE_CDATA) {
+				data[i] = 7;
+
+				break;
+			}
+		}
+		assertIncorrect(data);
+
+		// Elements nested deeper than the limit
+		Element root = new Element("root");
+		Element elem = root;
+
+		for (int i = 0; i < 1000; i++) {
+			Element child = new Element("child");
+
+			elem.addChild(child);
+			elem = child;
+		}
+		assertIncorrect(write(root));
+	}
+
+	private void assertIncorrect(byte[] data) {
+		try {
+			readAll(data, 0);
+			fail("Incorrect data accepted");
+		} catch (IOException e) {
+
+			// Expected
+		}
+	}
+
+	private static void assertElementEquals(Element expected, Element actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getName(), expected.getAttributes(), actual.getAttributes());
+
+		List<XMLNodeIfc> expectedNodes = expected.getChildrenNodes();
+		List<XMLNodeIfc> actualNodes   = actual.getChildrenNodes();
+
+		if ((expectedNodes == null) || expectedNodes.isEmpty()) {
+			assertTrue((actualNodes == null) || actualNodes.isEmpty());
+
+			return;
+		}
+		assertEquals(expected.getName(), expectedNodes.size(), actualNodes.size());
+		for (int i = 0; i < expectedNodes.size(); i++) {
+			XMLNodeIfc node = expectedNodes.get(i);
+
+			if (node instanceof Element) {
+				assertTrue(actualNodes.get(i) instanceof Element);
+				assertElementEquals((Element) node, (Element) actualNodes.get(i));
+			} else {
+				assertTrue(actualNodes.get(i) instanceof CData);
+				assertEquals(((CData) node).getCData(), ((CData) actualNodes.get(i))
+						.getCData());
+			}
+		}
+	}
+
+	private static byte[] bytes(ClusterFrameWriter writer) {
+		ByteBuffer buf  = writer.finish();
+		byte[]     data = new byte[buf.remaining()];
+
+		buf.get(data);
+		writer.release(buf);
+
+		return data;
+	}
+
+	private static Element cluster(boolean full) {
+		Element cluster = new Element(ClusterElement.CLUSTER_EL_NAME, new String[] { "from",
+				"to", "type", "id", "xmlns" }, new String[] { "sess-man@node1",
+				"sess-man@node2", "set", "cl-1", ClusterElement.XMLNS });
+		Element control = new Element(ClusterElement.CLUSTER_CONTROL_EL_NAME);
+		Element visited = new Element(ClusterElement.VISITED_NODES_EL_NAME);
+
+		visited.addChild(new Element(ClusterElement.NODE_ID_EL_NAME, "sess-man@node1"));
+		visited.addChild(new Element(ClusterElement.NODE_ID_EL_NAME, "sess-man@node3"));
+		control.addChild(visited);
+		if (full) {
+
+			// Control children are rebuilt in this order, they are found by name
+			Element method = new Element(ClusterElement.CLUSTER_METHOD_EL_NAME, new String[] {
+					ClusterElement.CLUSTER_NAME_ATTR }, new String[] { "packet-forward" });
+
+			method.addChild(new Element(ClusterElement.CLUSTER_METHOD_PAR_EL_NAME, "value",
+					new String[] { ClusterElement.CLUSTER_NAME_ATTR }, new String[] { "key" }));
+			control.addChild(new Element(ClusterElement.FIRST_NODE_EL_NAME,
+					"sess-man@node1"));
+			control.addChild(method);
+		}
+		cluster.addChild(control);
+		if (full) {
+			Element data = new Element(ClusterElement.CLUSTER_DATA_EL_NAME);
+
+			data.addChild(message(1));
+			data.addChild(message(2));
+			cluster.addChild(data);
+		}
+
+		return cluster;
+	}
+
+	private static Element message(int i) {
+		Element message = new Element("message", new String[] { "to", "from", "type", "id",
+				"xmlns" }, new String[] { "juliet@capulet.example/balcony",
+				"romeo@montague.example/orchard", "chat", "msg-" + i, "jabber:client" });
+
+		message.addChild(new Element("body", "Message &lt;" + i + "&gt;"));
+
+		return message;
+	}
+
+	private static Queue<Element> readAll(byte[] data, int chunk) throws IOException {
+		ClusterFrameReader reader  = new ClusterFrameReader(MAX_FRAME_SIZE);
+		Queue<Element>     results = new ArrayDeque<Element>();
+
+		if (chunk <= 0) {
+			chunk = data.length;
+		}
+		for (int i = 0; i < data.length; i += chunk) {
+			reader.read(ByteBuffer.wrap(data, i, Math.min(chunk, data.length - i)), results);
+		}
+
+		return results;
+	}
+
+	private static byte[] write(Element elem) {
+		ClusterFrameWriter writer = ClusterFrameWriter.getInstance();
+
+		writer.begin();
+		writer.append(elem);
+
+		return bytes(writer);
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * ClusterCommandBatcherTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.cluster.strategy;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import tigase.cluster.api.ClusterControllerIfc;
+import tigase.cluster.api.CommandListener;
+import tigase.cluster.api.CommandListenerAbstract;
+
+import tigase.xml.Element;
+
+import tigase.xmpp.JID;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Test class for <code>ClusterCommandBatcher</code>. Batches are captured by
+ * a cluster controller stub and executed with the batch command listener.
+ *
+ * @author andrzej
+ */
+public class ClusterCommandBatcherTest
+				extends TestCase {
+	private static final String CMD = "test-cmd";
+
+	//~--- fields ---------------------------------------------------------------
+
+	private ClusterCommandBatcher batcher;
+	private RecordingController   cluster;
+	private JID                   local;
+	private JID                   remote;
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	protected void setUp() throws Exception {
+		local   = JID.jidInstance("sess-man@node1");
+		remote  = JID.jidInstance("sess-man@node2");
+		cluster = new RecordingController();
+		batcher = new ClusterCommandBatcher();
+		batcher.setClusterController(cluster);
+	}
+
+	/**
+	 * Full batches are sent right away, remaining commands on flush.
+	 */
+	@Test
+	public void testFullBatchesAndFlush() throws Exception {
+		configure(60000, 3);
+		for (int i = 0; i < 10; i++) {
+			batcher.send(CMD, params("a", i), null, local, remote);
+		}
+		assertEquals(3, cluster.batches.size());
+		batcher.flush();
+		assertEquals(4, cluster.batches.size());
+		assertEquals(1, cluster.batches.get(3).size());
+
+		List<String> executed = execute();
+
+		assertEquals(10, executed.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("a/" + i, executed.get(i));
+		}
+	}
+
+	/**
+	 * Commands added concurrently with flushes triggered by the timer and by
+	 * full batches must be received in the order each sender added them.
+	 */
+	@Test
+	public void testConcurrentSendersKeepOrder() throws Exception {
+		final int senders  = 4;
+		final int commands = 2000;
+
+		configure(1, 7);
+
+		Thread[] threads = new Thread[senders];
+
+		for (int t = 0; t < senders; t++) {
+			final String sender = "s" + t;
+
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < commands; i++) {
+						batcher.send(CMD, params(sender, i), null, local, remote);
+						if (i % 100 == 0) {
+							batcher.flush();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		batcher.flush();
+
+		Map<String, Integer> last     = new HashMap<String, Integer>();
+		List<String>         executed = execute();
+
+		assertEquals(senders * commands, executed.size());
+		for (String cmd : executed) {
+			String[] parts = cmd.split("/");
+			int      seq   = Integer.parseInt(parts[1]);
+			Integer  prev  = last.put(parts[0], seq);
+
+			assertEquals("Command out of order: " + cmd, (prev == null)
+					? 0
+					: prev + 1, seq);
+		}
+	}
+
+	/**
+	 * Commands which do not fill a batch are sent after the time window.
+	 */
+	@Test
+	public void testWindowFlush() throws Exception {
+		configure(20, 100);
+		batcher.send(CMD, params("a", 0), null, local, remote);
+		assertEquals(0, cluster.batches.size());
+
+		long timeout = System.currentTimeMillis() + 5000;
+
+		while (cluster.batches.isEmpty() && (System.currentTimeMillis() < timeout)) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, cluster.batches.size());
+		assertEquals("a/0", execute().get(0));
+	}
+
+	/**
+	 * Without the time window commands are sent immediately, one by one.
+	 */
+	@Test
+	public void testZeroWindowSendsImmediately() throws Exception {
+		configure(0, 100);
+		batcher.send(CMD, params("a", 0), null, local, remote);
+		assertEquals(0, cluster.batches.size());
+		assertEquals(1, cluster.direct);
+	}
+
+	/**
+	 * Commands waiting for a disconnected node are dropped.
+	 */
+	@Test
+	public void testNodeDisconnectedDropsCommands() throws Exception {
+		configure(60000, 100);
+		batcher.send(CMD, params("a", 0), null, local, remote);
+		batcher.nodeDisconnected(remote);
+		batcher.flush();
+		assertEquals(0, cluster.batches.size());
+	}
+
+	private void configure(long window, int maxSize) {
+		Map<String, Object> props = new HashMap<String, Object>();
+
+		props.put(ClusterCommandBatcher.BATCH_WINDOW_PROP_KEY, window);
+		props.put(ClusterCommandBatcher.BATCH_MAX_SIZE_PROP_KEY, maxSize);
+		batcher.setProperties(props);
+	}
+
+	/**
+	 * Executes captured batches in the order they were sent and returns
+	 * executed commands as <code>sender/seq</code> strings.
+	 */
+	private List<String> execute() throws Exception {
+		final List<String> result = new ArrayList<String>();
+
+		batcher.register(new CommandListenerAbstract(CMD) {
+			@Override
+			public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String,
+					String> data, Queue<Element> packets) {
+				result.add(data.get("sender") + "/" + data.get("seq"));
+			}
+		});
+
+		CommandListener batch = batcher.getBatchCommand();
+
+		for (Queue<Element> packets : cluster.batches) {
+			batch.executeCommand(local, null, null, new ArrayDeque<Element>(packets));
+		}
+
+		return result;
+	}
+
+	private static Map<String, String> params(String sender, int seq) {
+		Map<String, String> data = new HashMap<String, String>();
+
+		data.put("sender", sender);
+		data.put("seq", String.valueOf(seq));
+
+		return data;
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static class RecordingController
+					implements ClusterControllerIfc {
+		private final List<Queue<Element>> batches =
+				new CopyOnWriteArrayList<Queue<Element>>();
+		private volatile int direct = 0;
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public void handleClusterPacket(Element packet) {}
+
+		@Override
+		public void nodeConnected(String addr) {}
+
+		@Override
+		public void nodeDisconnected(String addr) {}
+
+		@Override
+		public void removeCommandListener(CommandListener listener) {}
+
+		@Override
+		public void sendToNodes(String command, Map<String, String> data,
+				Queue<Element> packets, JID fromNode, Set<JID> visitedNodes, JID... toNodes) {}
+
+		@Override
+		public void sendToNodes(String command, Queue<Element> packets, JID fromNode,
+				Set<JID> visitedNodes, JID... toNodes) {
+			assertEquals(ClusterCommandBatcher.BATCH_CMD, command);
+			batches.add(packets);
+		}
+
+		@Override
+		public void sendToNodes(String command, Map<String, String> data, JID fromNode,
+				Set<JID> visitedNodes, JID... toNodes) {}
+
+		@Override
+		public void sendToNodes(String command, Map<String, String> data, JID fromNode,
+				JID... toNodes) {
+			++direct;
+		}
+
+		@Override
+		public void sendToNodes(String command, JID fromNode, JID... toNodes) {}
+
+		@Override
+		public void sendToNodes(String command, Element packet, JID fromNode,
+				Set<JID> visitedNodes, JID... toNodes) {}
+
+		@Override
+		public void sendToNodes(String command, Map<String, String> data, Element packet,
+				JID fromNode, Set<JID> visitedNodes, JID... toNodes) {}
+
+		@Override
+		public void setCommandListener(CommandListener listener) {}
+	}
+}
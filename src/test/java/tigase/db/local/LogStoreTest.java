@@ -0,0 +1,204 @@
+/*
+ * LogStoreTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.db.local;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.junit.Test;
+import tigase.db.UserNotFoundException;
+import tigase.xmpp.BareJID;
+
+/**
+ * Test class for LogStore class.
+ *
+ * Each test uses a new temporary directory with small segments and
+ * background compaction disabled, closing and opening the store again to
+ * replay the log.
+ *
+ * @author andrzej
+ */
+public class LogStoreTest extends TestCase {
+
+	private static final BareJID USER = BareJID.bareJIDInstanceNS("user@example.com");
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("logstore").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testDataIsReplayedAfterReopen() throws Exception {
+		LogStore store = open();
+
+		assertTrue(store.addUser(USER));
+		assertFalse(store.addUser(USER));
+		store.setData(USER, "roster", "item", "value-1");
+		store.setData(USER, "roster", "item", "value-2");
+		store.setDataList(USER, "/privacy/list/", "items", new String[] { "a", "b" });
+		store.addDataList(USER, "privacy/list", "items", new String[] { "c" });
+		store.setData(USER, "vcard", "photo", "x");
+		store.removeSubnode(USER, "vcard");
+		store.close();
+
+		store = open();
+		assertTrue(store.userExists(USER));
+		assertEquals("value-2", store.getData(USER, "roster", "item"));
+		assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(store.getDataList(USER,
+				"privacy/list", "items")));
+
+		String[] subnodes = store.getSubnodes(USER, null);
+
+		Arrays.sort(subnodes);
+		assertEquals(Arrays.asList("privacy", "roster"), Arrays.asList(subnodes));
+		assertEquals(Arrays.asList("list"), Arrays.asList(store.getSubnodes(USER, "privacy")));
+		assertNull(store.getKeys(USER, "vcard"));
+		store.close();
+	}
+
+	@Test
+	public void testRemovedUserIsNotReplayed() throws Exception {
+		LogStore store = open();
+
+		store.addUser(USER);
+		store.setData(USER, "roster", "item", "value");
+		assertTrue(store.removeUser(USER));
+		assertFalse(store.removeUser(USER));
+		store.close();
+
+		store = open();
+		assertFalse(store.userExists(USER));
+		try {
+			store.getData(USER, "roster", "item");
+			fail("UserNotFoundException expected");
+		} catch (UserNotFoundException e) {
+		}
+		store.close();
+	}
+
+	@Test
+	public void testTornWriteIsDropped() throws Exception {
+		LogStore store = open();
+
+		store.addUser(USER);
+		store.setData(USER, null, "key-1", "value-1");
+		store.setData(USER, null, "key-2", "value-2");
+		store.close();
+
+		// Simulate record partially written before a crash: valid length,
+		// wrong checksum and data of the record cut off
+		File segment = dir.listFiles()[0];
+		int  end     = findEnd(segment);
+
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.seek(end);
+			raf.writeInt(100);
+			raf.writeInt(12345);
+			raf.write(new byte[] { 3, 0, 0 });
+		}
+
+		store = open();
+		assertEquals("value-1", store.getData(USER, null, "key-1"));
+		assertEquals("value-2", store.getData(USER, null, "key-2"));
+		store.setData(USER, null, "key-3", "value-3");
+		store.close();
+
+		store = open();
+		assertEquals("value-3", store.getData(USER, null, "key-3"));
+		assertEquals(2 + 1, store.getKeys(USER, null).length);
+		store.close();
+	}
+
+	@Test
+	public void testCompactionKeepsCurrentData() throws Exception {
+		LogStore store = open();
+
+		for (int u = 0; u < 10; u++) {
+			BareJID user = BareJID.bareJIDInstanceNS("user" + u + "@example.com");
+
+			store.addUser(user);
+			for (int i = 0; i < 1000; i++) {
+				store.setData(user, "roster", "item", "value-" + i);
+			}
+			if (u % 2 == 1) {
+				store.removeUser(user);
+			}
+		}
+
+		int before = dir.listFiles().length;
+
+		store.compact();
+		assertTrue(dir.listFiles().length < before);
+		for (int u = 0; u < 10; u++) {
+			BareJID user = BareJID.bareJIDInstanceNS("user" + u + "@example.com");
+
+			assertEquals(u % 2 == 0, store.userExists(user));
+			if (u % 2 == 0) {
+				assertEquals("value-999", store.getData(user, "roster", "item"));
+			}
+		}
+		store.close();
+
+		store = open();
+		assertEquals(5, store.getUsersCount());
+		assertEquals("value-999", store.getData(BareJID.bareJIDInstanceNS("user4@example.com"),
+				"roster", "item"));
+		store.close();
+	}
+
+	private LogStore open() throws Exception {
+		Map<String, String> params = new HashMap<String, String>();
+
+		params.put(LogStore.SEGMENT_SIZE_KEY, String.valueOf(64 * 1024));
+		params.put(LogStore.COMPACTION_INTERVAL_KEY, "0");
+
+		return LogStore.getInstance(dir, params);
+	}
+
+	private static int findEnd(File segment) throws Exception {
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+			int pos = 0;
+			int size;
+
+			while ((size = raf.readInt()) > 0) {
+				pos += 8 + size;
+				raf.seek(pos);
+			}
+
+			return pos;
+		}
+	}
+}
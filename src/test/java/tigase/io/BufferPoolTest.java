@@ -0,0 +1,103 @@
+/*
+ * BufferPoolTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test class for BufferPool class.
+ *
+ * @author andrzej
+ */
+public class BufferPoolTest extends TestCase {
+
+	@Test
+	public void testDisabledPoolAllocatesRequestedSize() {
+		BufferPool pool = new BufferPool(0, false, 64 * 1024);
+
+		ByteBuffer buf = pool.acquire(16709);
+
+		assertFalse(pool.isEnabled());
+		assertEquals(16709, buf.capacity());
+		assertEquals(16709, pool.getCapacity(16709));
+
+		pool.release(buf);
+		assertNotSame(buf, pool.acquire(16709));
+	}
+
+	@Test
+	public void testReleasedBufferIsReused() {
+		BufferPool pool = new BufferPool(4, false, 64 * 1024);
+
+		ByteBuffer buf = pool.acquire(16709);
+
+		assertEquals(17 * 1024, buf.capacity());
+		assertEquals(buf.capacity(), pool.getCapacity(16709));
+
+		buf.put((byte) 1);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		pool.release(buf);
+
+		ByteBuffer reused = pool.acquire(17000);
+
+		assertSame(buf, reused);
+		assertEquals(0, reused.position());
+		assertEquals(reused.capacity(), reused.limit());
+		assertEquals(ByteOrder.BIG_ENDIAN, reused.order());
+	}
+
+	@Test
+	public void testPoolSizeIsBounded() {
+		BufferPool pool = new BufferPool(2, false, 64 * 1024);
+		ByteBuffer[] bufs = new ByteBuffer[3];
+
+		for (int i = 0; i < bufs.length; i++) {
+			bufs[i] = pool.acquire(2048);
+		}
+		for (ByteBuffer buf : bufs) {
+			pool.release(buf);
+		}
+
+		assertSame(bufs[0], pool.acquire(2048));
+		assertSame(bufs[1], pool.acquire(2048));
+		assertNotSame(bufs[2], pool.acquire(2048));
+	}
+
+	@Test
+	public void testForeignBuffersAreIgnored() {
+		BufferPool pool = new BufferPool(4, false, 4096);
+
+		pool.release(ByteBuffer.allocate(1000));
+		pool.release(ByteBuffer.allocateDirect(1024));
+		pool.release(ByteBuffer.allocate(8192));
+		pool.release(BufferPool.EMPTY_BUFFER);
+
+		ByteBuffer big = pool.acquire(8192);
+
+		assertEquals(8192, big.capacity());
+		assertEquals(1024, pool.acquire(1000).capacity());
+		assertFalse(pool.acquire(1000).isDirect());
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * SocketThreadTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import junit.framework.TestCase;
+import org.junit.Test;
+import tigase.stats.StatisticsList;
+
+/**
+ * Test class for the <code>SocketThread</code> selector loop.
+ *
+ * Opens a number of mostly idle loopback connections and sends small messages
+ * over a few of them, one message per connection at a time, so each message
+ * results in a separate readiness event. Checks that all data is delivered and
+ * that selector calls made for each event match the selector loop mode, which
+ * is selected with <code>-Dnet-persistent-keys=true</code>.
+ *
+ * @author andrzej
+ */
+public class SocketThreadTest extends TestCase {
+
+	private static final int IDLE_CONNECTIONS = 200;
+	private static final int ACTIVE_CONNECTIONS = 20;
+	private static final int ROUNDS = 100;
+	private static final byte[] MESSAGE = "<message to='a@b'><body>test</body></message>".getBytes();
+
+	@Test
+	public void testSelectorLoop() throws Exception {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+
+		List<Socket> clients = new ArrayList<Socket>();
+		List<CountingService> services = new ArrayList<CountingService>();
+		AtomicLong received = new AtomicLong();
+
+		try {
+			for (int i = 0; i < IDLE_CONNECTIONS + ACTIVE_CONNECTIONS; i++) {
+				Socket client = new Socket("127.0.0.1", server.socket().getLocalPort());
+				SocketChannel sc = server.accept();
+
+				sc.configureBlocking(false);
+
+				CountingService serv = new CountingService(received);
+
+				serv.accept(sc);
+				SocketThread.addSocketService(serv);
+				clients.add(client);
+				services.add(serv);
+			}
+
+			// First round registers active connections in the persistent keys
+			// mode, it is not counted.
+			long expected = sendRound(clients, received, 0, 0);
+			StatisticsList before = statistics();
+
+			for (int round = 1; round <= ROUNDS; round++) {
+				expected = sendRound(clients, received, round, expected);
+			}
+
+			StatisticsList after = statistics();
+			long ready = delta(before, after, "ready events");
+			long cancel = delta(before, after, "cancel calls");
+			long register = delta(before, after, "register calls");
+			long interest = delta(before, after, "interest updates");
+
+			assertTrue("No ready events counted", ready > 0);
+			assertTrue("More ready events than messages: " + ready,
+					ready <= ROUNDS * ACTIVE_CONNECTIONS);
+			if (SocketThread.isPersistentKeys()) {
+				assertEquals("Keys cancelled in persistent keys mode", 0, cancel);
+				assertEquals("Keys registered in persistent keys mode", 0, register);
+				assertEquals("Each event should clear and set interest ops", 2 * ready, interest);
+			} else {
+				assertEquals("Each event should cancel the key", ready, cancel);
+				assertEquals("Each event should register the key", ready, register);
+				assertEquals("Interest ops updated in cancel and register mode", 0, interest);
+			}
+		} finally {
+			for (Socket client : clients) {
+				client.close();
+			}
+			for (CountingService serv : services) {
+				serv.forceStop();
+			}
+			server.close();
+		}
+	}
+
+	private static long sendRound(List<Socket> clients, AtomicLong received, int round,
+			long expected)
+					throws Exception {
+		for (int i = 0; i < ACTIVE_CONNECTIONS; i++) {
+			OutputStream out = clients.get(i).getOutputStream();
+
+			out.write(MESSAGE);
+			out.flush();
+		}
+		expected += ACTIVE_CONNECTIONS * MESSAGE.length;
+
+		long timeout = System.currentTimeMillis() + 10000;
+
+		while (received.get() < expected && System.currentTimeMillis() < timeout) {
+			Thread.sleep(1);
+		}
+		assertEquals("Not all data received in round " + round, expected, received.get());
+
+		// Wait until processed services are armed again so they are counted in
+		// the round they belong to.
+		Thread.sleep(10);
+
+		return expected;
+	}
+
+	private static long delta(StatisticsList before, StatisticsList after, String counter) {
+		return after.getValue("test", "Socket read threads " + counter, 0L) - before.getValue(
+				"test", "Socket read threads " + counter, 0L);
+	}
+
+	private static StatisticsList statistics() {
+		StatisticsList list = new StatisticsList(Level.ALL);
+
+		SocketThread.getStatistics("test", list);
+
+		return list;
+	}
+	private static class CountingService extends IOService<Object> {
+
+		private final AtomicLong received;
+
+		CountingService(AtomicLong received) {
+			this.received = received;
+		}
+
+		@Override
+		public void processWaitingPackets() throws IOException {
+		}
+
+		@Override
+		protected void processSocketData() throws IOException {
+			char[] data = readData();
+
+			while (data != null && data.length > 0) {
+				received.addAndGet(data.length);
+				data = readData();
+			}
+		}
+
+		@Override
+		protected int receivedPackets() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * IdleWheelTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.server;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test class for IdleWheel class.
+ *
+ * @author andrzej
+ */
+public class IdleWheelTest extends TestCase {
+
+	@Test
+	public void testOnlyExpiredBucketsAreReturned() {
+		IdleWheel<String> wheel = new IdleWheel<String>(100);
+
+		wheel.schedule("a", 50);
+		wheel.schedule("b", 100);
+		wheel.schedule("c", 150);
+		wheel.schedule("d", 1000);
+
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")),
+				new HashSet<String>(wheel.expire(120)));
+		assertEquals(Arrays.asList("c"), wheel.expire(200));
+		assertTrue(wheel.expire(900).isEmpty());
+		assertEquals(1, wheel.size());
+	}
+
+	@Test
+	public void testRescheduledItemIsMoved() {
+		IdleWheel<String> wheel = new IdleWheel<String>(100);
+
+		wheel.schedule("a", 100);
+		wheel.schedule("a", 500);
+
+		assertTrue(wheel.expire(100).isEmpty());
+		assertEquals(Arrays.asList("a"), wheel.expire(500));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testRemovedItemIsNotReturned() {
+		IdleWheel<String> wheel = new IdleWheel<String>(100);
+
+		wheel.schedule("a", 100);
+		wheel.schedule("b", 100);
+		wheel.remove("a");
+
+		List<String> expired = wheel.expire(100);
+
+		assertEquals(Arrays.asList("b"), expired);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testItemScheduledInThePastExpiresOnNextRun() {
+		IdleWheel<String> wheel = new IdleWheel<String>(100);
+
+		wheel.expire(1000);
+		wheel.schedule("a", 10);
+
+		assertEquals(Arrays.asList("a"), wheel.expire(1000));
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * MsgRepositoryTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.server.amp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.logging.Logger;
+import junit.framework.TestCase;
+import org.junit.Test;
+import tigase.xml.Element;
+import tigase.xmpp.JID;
+
+/**
+ * Test class for MsgRepository class.
+ *
+ * Uses in-memory embedded Derby database and stores a large backlog of
+ * messages for a single user, which is then retrieved in pages.
+ *
+ * @author andrzej
+ */
+public class MsgRepositoryTest extends TestCase {
+
+	private static final Logger log = Logger.getLogger(MsgRepositoryTest.class.getName());
+
+	private static final int BACKLOG = 20000;
+	private static final int PAGE_SIZE = 100;
+
+	@Test
+	public void testLargeBacklogIsLoadedInPages() throws Exception {
+		Map<String, String> params = new HashMap<String, String>();
+
+		params.put("store-limit", String.valueOf(BACKLOG));
+		params.put("store-batch-size", "500");
+
+		MsgRepository repo = MsgRepository.getInstance("msg-repository-test");
+
+		repo.initRepository("jdbc:derby:memory:msg-repository-test;create=true", params);
+
+		JID from = JID.jidInstance("bot@example.com/res");
+		JID to = JID.jidInstance("user@example.com/res");
+		long start = System.currentTimeMillis();
+
+		for (int i = 0; i < BACKLOG; i++) {
+			repo.storeMessage(from, to, null, message(from, to, i));
+		}
+		log.info("Stored " + BACKLOG + " messages in " + (System.currentTimeMillis() - start)
+				+ "ms");
+
+		Runtime runtime = Runtime.getRuntime();
+		long maxPageMem = 0;
+		long maxPageTime = 0;
+		int loaded = 0;
+		Queue<Element> page;
+
+		while (true) {
+			long used = runtime.totalMemory() - runtime.freeMemory();
+			long pageStart = System.currentTimeMillis();
+
+			page = repo.loadMessagesToJID(to, true, PAGE_SIZE);
+			maxPageTime = Math.max(maxPageTime, System.currentTimeMillis() - pageStart);
+			maxPageMem = Math.max(maxPageMem, runtime.totalMemory() - runtime.freeMemory() - used);
+			if (page == null) {
+				break;
+			}
+			assertTrue(page.size() <= PAGE_SIZE);
+			for (Element msg : page) {
+				assertEquals(String.valueOf(loaded), msg.getCData("/message/body"));
+				loaded++;
+			}
+		}
+		log.info("Loaded " + loaded + " messages, max page time " + maxPageTime
+				+ "ms, max page memory " + maxPageMem + " bytes");
+
+		assertEquals(BACKLOG, loaded);
+		assertNull(repo.loadMessagesToJID(to, true, PAGE_SIZE));
+	}
+
+	private static Element message(JID from, JID to, int i) {
+		Element msg = new Element("message", new String[] { "from", "to", "type" },
+				new String[] { from.toString(), to.toString(), "chat" });
+
+		msg.addChild(new Element("body", String.valueOf(i)));
+
+		return msg;
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * PermessageDeflateTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.server.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test class for <code>permessage-deflate</code> extension. Simple WebSocket
+ * client exchanges XMPP stanzas with <code>WebSocketXMPPIOService</code>
+ * through memory buffers, delivering data in small chunks, so frames are
+ * split between reads, and counts bytes passed on the wire and CPU time
+ * used by the service per frame.
+ *
+ * @author andrzej
+ */
+public class PermessageDeflateTest extends TestCase {
+
+	private static final Logger log = Logger.getLogger(PermessageDeflateTest.class.getName());
+
+	private static final int FRAMES     = 2000;
+	private static final int READ_CHUNK = 1000;
+
+	@Test
+	public void testCompressedExchange() throws Exception {
+		Result plain = exchange(false);
+		Result deflate = exchange(true);
+
+		log.info("uncompressed: " + plain + ", compressed: " + deflate);
+		assertTrue("Client data not compressed", deflate.received * 2 < plain.received);
+		assertTrue("Server data not compressed", deflate.sent * 2 < plain.sent);
+	}
+
+	@Test
+	public void testMessageSizeLimit() throws Exception {
+		Client client = new Client(true, 4096);
+
+		client.handshake();
+		assertNotNull(client.service.deflate);
+
+		char[] data = new char[8192];
+
+		Arrays.fill(data, 'a');
+		client.send(new String(data));
+		client.receive();
+		assertEquals(0, client.extension.getContexts());
+	}
+
+	private Result exchange(boolean compress) throws Exception {
+		Client client = new Client(compress, 1024 * 1024);
+
+		client.handshake();
+		assertEquals(compress, client.service.deflate != null);
+
+		ThreadMXBean  mx       = ManagementFactory.getThreadMXBean();
+		StringBuilder expected = new StringBuilder();
+		StringBuilder received = new StringBuilder();
+		long          readCpu  = 0;
+		long          writeCpu = 0;
+
+		for (int i = 0; i < FRAMES; i++) {
+			String stanza = stanza(i);
+
+			expected.append(stanza);
+			client.send(stanza);
+
+			long start = mx.getCurrentThreadCpuTime();
+
+			received.append(client.receive());
+			readCpu += mx.getCurrentThreadCpuTime() - start;
+		}
+		assertEquals(expected.toString(), received.toString());
+
+		StringBuilder response = new StringBuilder();
+
+		for (int i = 0; i < FRAMES; i++) {
+			long start = mx.getCurrentThreadCpuTime();
+
+			client.service.writeData(stanza(i));
+			writeCpu += mx.getCurrentThreadCpuTime() - start;
+			response.append(client.readFrame());
+		}
+		assertEquals(expected.toString(), response.toString());
+		client.service.forceStop();
+		assertEquals(0, client.extension.getContexts());
+
+		return new Result(client.wireIn, client.wireOut, readCpu / FRAMES, writeCpu / FRAMES);
+	}
+
+	private static String stanza(int i) {
+		return "<message xmlns=\"jabber:client\" type=\"chat\" id=\"msg-" + i +
+				"\" to=\"juliet@capulet.example/balcony\" from=\"romeo@montague.example/orchard\">" +
+				"<body>Message number " + i + "</body><active xmlns=" +
+				"\"http://jabber.org/protocol/chatstates\"/></message>";
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static class Client {
+		private final PermessageDeflate               extension;
+		private final Queue<ByteBuffer>               network  = new ArrayDeque<ByteBuffer>();
+		private final ByteArrayOutputStream           output   = new ByteArrayOutputStream();
+		private final WebSocketXMPPIOService<Object>  service;
+		private final ByteBuffer                      socketInput = ByteBuffer.allocate(
+				READ_CHUNK);
+		private final boolean                         compress;
+		private final Deflater                        deflater = new Deflater(Deflater
+				.DEFAULT_COMPRESSION, true);
+		private final Inflater                        inflater = new Inflater(true);
+		private int                                   mask     = 0x1F2E3D4C;
+		private long                                  wireIn   = 0;
+		private long                                  wireOut  = 0;
+		private int                                   outputRead = 0;
+
+		private Client(boolean compress, int maxMessageSize) {
+			WebSocketHybi hybi = new WebSocketHybi();
+
+			this.compress  = compress;
+			this.extension = new PermessageDeflate(Deflater.DEFAULT_COMPRESSION, true, 10,
+					maxMessageSize);
+			hybi.setPermessageDeflate(extension);
+			hybi.setMaxMessageSize(maxMessageSize);
+			service = new WebSocketXMPPIOService<Object>(new WebSocketProtocolIfc[] { hybi }) {
+				@Override
+				protected ByteBuffer readBytes() throws IOException {
+					ByteBuffer chunk = network.poll();
+
+					if (chunk == null) {
+						return null;
+					}
+					socketInput.put(chunk);
+					socketInput.flip();
+
+					return socketInput;
+				}
+
+				@Override
+				protected void writeBytes(ByteBuffer data) {
+					if (data != null) {
+						byte[] bytes = new byte[data.remaining()];
+
+						data.get(bytes);
+						output.write(bytes, 0, bytes.length);
+					}
+				}
+			};
+		}
+
+		private void handshake() throws IOException {
+			String request = "GET /xmpp HTTP/1.1\r\n" + "Host: localhost:5290\r\n" +
+					"Upgrade: websocket\r\n" + "Connection: Upgrade\r\n" +
+					"Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+					"Sec-WebSocket-Protocol: xmpp\r\n" + "Sec-WebSocket-Version: 13\r\n" +
+					(compress
+					? "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n"
+					: "") + "\r\n";
+
+			deliver(request.getBytes("UTF-8"));
+			receive();
+
+			String response = new String(output.toByteArray(), "UTF-8");
+
+			assertTrue(response, response.startsWith("HTTP/1.1 101"));
+			assertEquals(compress, response.contains("permessage-deflate"));
+			outputRead = output.size();
+		}
+
+		private void send(String stanza) throws IOException {
+			byte[] data = stanza.getBytes("UTF-8");
+			byte   type = (byte) 0x81;
+
+			if (compress) {
+				byte[] buf = new byte[data.length + 64];
+				int    len;
+
+				deflater.setInput(data);
+				len = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+				data = Arrays.copyOf(buf, len - 4);
+				type |= 0x40;
+			}
+			mask = mask * 31 + 7;
+			deliver(WebSocketHybiTest.maskedFrame(type, data, mask));
+		}
+
+		/**
+		 * Passes all data sent by client to the service, returns data decoded by
+		 * the service.
+		 */
+		private String receive() throws IOException {
+			StringBuilder result = new StringBuilder();
+
+			while (!network.isEmpty()) {
+				char[] chars = service.readData();
+
+				if (chars != null) {
+					result.append(chars);
+				}
+			}
+
+			return result.toString();
+		}
+
+		private void deliver(byte[] data) {
+			wireIn += data.length;
+			for (int i = 0; i < data.length; i += READ_CHUNK) {
+				network.add(ByteBuffer.wrap(data, i, Math.min(READ_CHUNK, data.length - i)));
+			}
+		}
+
+		private String readFrame() throws Exception {
+			byte[] out = output.toByteArray();
+			int    idx = outputRead;
+			byte   type = out[idx++];
+			int    len  = out[idx++] & 0x7F;
+
+			if (len == 126) {
+				len = ((out[idx] & 0xFF) << 8) | (out[idx + 1] & 0xFF);
+				idx += 2;
+			}
+			assertEquals(compress, (type & 0x40) == 0x40);
+
+			byte[] data = Arrays.copyOfRange(out, idx, idx + len);
+
+			wireOut    += idx + len - outputRead;
+			outputRead = idx + len;
+			if (compress) {
+				byte[] buf = new byte[4096];
+
+				inflater.setInput(concat(data, new byte[] { 0, 0, (byte) 0xFF, (byte) 0xFF }));
+				data = Arrays.copyOf(buf, inflater.inflate(buf));
+			}
+
+			return new String(data, "UTF-8");
+		}
+
+		private static byte[] concat(byte[] a, byte[] b) {
+			byte[] result = Arrays.copyOf(a, a.length + b.length);
+
+			System.arraycopy(b, 0, result, a.length, b.length);
+
+			return result;
+		}
+	}
+
+
+	private static class Result {
+		private final long readCpu;
+		private final long received;
+		private final long sent;
+		private final long writeCpu;
+
+		private Result(long received, long sent, long readCpu, long writeCpu) {
+			this.received = received;
+			this.sent     = sent;
+			this.readCpu  = readCpu;
+			this.writeCpu = writeCpu;
+		}
+
+		@Override
+		public String toString() {
+			return "received " + received + " bytes, sent " + sent + " bytes, " + readCpu +
+					"ns CPU per frame read, " + writeCpu + "ns CPU per frame written";
+		}
+	}
+}
@@ -23,6 +23,7 @@ package tigase.server.websocket;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
@@ -64,7 +65,134 @@ public class WebSocketHybiTest extends TestCase {
 		impl.encodeFrameAndWrite(io, buf);
 		tmp.flip();
 		ByteBuffer decoded = impl.decodeFrame(io, tmp);
-		Assert.assertArrayEquals("Data before encoding do not match data after decoding", input.getBytes(), decoded.array());
+		Assert.assertArrayEquals("Data before encoding do not match data after decoding", input.getBytes(), toBytes(decoded));
+	}
+	
+	@Test
+	public void testMaskedFrameDecoding() {
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(new WebSocketProtocolIfc[]{ impl });
+		int[] sizes = { 0, 1, 3, 7, 8, 9, 15, 17, 125, 126, 1000, 40000, 70000 };
+		
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			for (int size : sizes) {
+				byte[] data = new byte[size];
+				for (int i = 0; i < size; i++) {
+					data[i] = (byte) ('a' + (i % 26));
+				}
+				
+				// frame starts at odd position to check unaligned unmasking
+				ByteBuffer buf = ByteBuffer.allocate(size + 20).order(order);
+				buf.put((byte) 0);
+				buf.put(maskedFrame((byte) 0x81, data, 0x12345678));
+				buf.flip();
+				buf.get();
+				
+				ByteBuffer decoded = impl.decodeFrame(io, buf);
+				Assert.assertArrayEquals("Wrong data for frame of " + size + " bytes", data, toBytes(decoded));
+				Assert.assertFalse(buf.hasRemaining());
+			}
+		}
+	}
+
+	@Test
+	public void testPartialFrameIsNotConsumed() {
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(new WebSocketProtocolIfc[]{ impl });
+		byte[] frame = maskedFrame((byte) 0x81, new byte[300], 0x01020304);
+		
+		for (int len = 0; len < frame.length; len++) {
+			ByteBuffer buf = ByteBuffer.wrap(frame, 0, len);
+			Assert.assertNull(impl.decodeFrame(io, buf));
+			Assert.assertEquals(0, buf.position());
+		}
+	}
+	
+	@Test
+	public void testPingIsAnswered() {
+		final ByteBuffer tmp = ByteBuffer.allocate(1024);
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(new WebSocketProtocolIfc[]{ impl }) {
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				tmp.put(data);
+			}
+
+		};
+		ByteBuffer buf = ByteBuffer.wrap(maskedFrame((byte) 0x89, "ping".getBytes(), 0x0A0B0C0D));
+		
+		Assert.assertNull(impl.decodeFrame(io, buf));
+		Assert.assertFalse("Ping frame not consumed", buf.hasRemaining());
+		tmp.flip();
+		Assert.assertEquals((byte) 0x8A, tmp.get());
+		Assert.assertEquals(4, tmp.get());
+		Assert.assertArrayEquals("ping".getBytes(), toBytes(tmp));
+	}
+	
+	@Test
+	public void testPermessageDeflateNegotiation() throws NoSuchAlgorithmException, IOException {
+		impl.setPermessageDeflate(new PermessageDeflate(-1, true, 10, 1024 * 1024));
+		Assert.assertEquals("permessage-deflate; client_no_context_takeover", negotiate(
+				"permessage-deflate; server_max_window_bits=10, permessage-deflate; client_no_context_takeover"));
+		Assert.assertEquals("permessage-deflate", negotiate(
+				"x-webkit-deflate-frame, permessage-deflate; client_max_window_bits"));
+		Assert.assertNull(negotiate("permessage-deflate; server_max_window_bits=10"));
+		Assert.assertNull(negotiate("permessage-deflate; unknown_param"));
+	}
+	
+	private String negotiate(String offers) throws NoSuchAlgorithmException, IOException {
+		final ByteBuffer tmp = ByteBuffer.allocate(2048);
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(new WebSocketProtocolIfc[]{ impl }) {
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				tmp.put(data);
+			}
+
+		};		
+		Map<String,String> params = new HashMap<String,String>();
+		params.put("Sec-WebSocket-Version", "13");
+		params.put("Sec-WebSocket-Key", "some random data as a key");
+		params.put("Sec-WebSocket-Extensions", offers);
+		Assert.assertTrue("Handshake failed", impl.handshake(io, params, new byte[0]));
+		tmp.flip();
+		
+		String response = new String(toBytes(tmp));
+		String header = "Sec-WebSocket-Extensions: ";
+		int idx = response.indexOf(header);
+		
+		Assert.assertEquals(idx >= 0, io.deflate != null);
+		if (io.deflate != null) {
+			io.deflate.release();
+		}
+		
+		return idx < 0 ? null : response.substring(idx + header.length(), response.indexOf("\r\n", idx));
+	}
+	
+	static byte[] maskedFrame(byte type, byte[] data, int mask) {
+		ByteBuffer buf = ByteBuffer.allocate(data.length + 14);
+		buf.put(type);
+		if (data.length <= 125) {
+			buf.put((byte) (0x80 | data.length));
+		} else if (data.length <= 0xFFFF) {
+			buf.put((byte) (0x80 | 126));
+			buf.putShort((short) data.length);
+		} else {
+			buf.put((byte) (0x80 | 127));
+			buf.putLong(data.length);
+		}
+		buf.putInt(mask);
+		for (int i = 0; i < data.length; i++) {
+			buf.put((byte) (data[i] ^ (mask >>> (24 - 8 * (i % 4)))));
+		}
+		buf.flip();
+		
+		return toBytes(buf);
+	}
+	
+	static byte[] toBytes(ByteBuffer buf) {
+		byte[] data = new byte[buf.remaining()];
+		buf.get(data);
+		
+		return data;
 	}
 	
 	@Test
@@ -0,0 +1,213 @@
+/*
+ * SeeOtherHostConsistentHashedTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.server.xmppclient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import junit.framework.TestCase;
+import org.junit.Test;
+import tigase.xmpp.BareJID;
+
+/**
+ * Test class for SeeOtherHostConsistentHashed class.
+ *
+ * Checks how many users are redirected to a different node when a cluster
+ * node leaves or joins, compared to SeeOtherHostHashed, and measures cost of
+ * a single lookup.
+ *
+ * @author andrzej
+ */
+public class SeeOtherHostConsistentHashedTest extends TestCase {
+
+	private static final Logger log = Logger.getLogger(SeeOtherHostConsistentHashedTest.class
+			.getName());
+
+	private static final int NODES = 8;
+	private static final int USERS = 50000;
+	private static final BareJID LOCAL = BareJID.bareJIDInstanceNS(null, "local.example.com");
+
+	@Test
+	public void testNodeLeavingMovesOnlyItsUsers() {
+		List<BareJID> nodes = nodes(NODES);
+		BareJID removed = nodes.get(3);
+		SeeOtherHostIfc strategy = create(null);
+
+		strategy.setNodes(nodes);
+		BareJID[] before = lookup(strategy);
+
+		nodes.remove(removed);
+		strategy.setNodes(nodes);
+		BareJID[] after = lookup(strategy);
+
+		int moved = 0;
+		for (int i = 0; i < USERS; i++) {
+			if (!before[i].equals(after[i])) {
+				assertEquals(removed, before[i]);
+				moved++;
+			}
+		}
+
+		float hashedMoved = movedByHashed(nodes(NODES), removed);
+		log.info("Node leaving, users moved: consistent " + ((float) moved / USERS) +
+				", modulo " + hashedMoved);
+		assertTrue("moved: " + moved, moved < 2 * USERS / NODES);
+		assertTrue("modulo moved: " + hashedMoved, hashedMoved > 0.5f);
+	}
+
+	@Test
+	public void testNodeJoiningMovesAboutOneNth() {
+		List<BareJID> nodes = nodes(NODES);
+		SeeOtherHostIfc strategy = create(null);
+
+		strategy.setNodes(nodes);
+		BareJID[] before = lookup(strategy);
+
+		BareJID added = BareJID.bareJIDInstanceNS(null, "node" + NODES + ".example.com");
+		nodes.add(added);
+		strategy.setNodes(nodes);
+		BareJID[] after = lookup(strategy);
+
+		int moved = 0;
+		for (int i = 0; i < USERS; i++) {
+			if (!before[i].equals(after[i])) {
+				assertEquals(added, after[i]);
+				moved++;
+			}
+		}
+		log.info("Node joining, users moved: " + ((float) moved / USERS));
+		assertTrue("moved: " + moved, moved > USERS / (2 * (NODES + 1)));
+		assertTrue("moved: " + moved, moved < 2 * USERS / (NODES + 1));
+	}
+
+	@Test
+	public void testWeights() {
+		List<BareJID> nodes = nodes(NODES);
+		SeeOtherHostIfc strategy = create(nodes.get(0) + "=3");
+
+		strategy.setNodes(nodes);
+
+		Map<BareJID, Integer> counts = new HashMap<BareJID, Integer>();
+		for (BareJID host : lookup(strategy)) {
+			Integer count = counts.get(host);
+			counts.put(host, count == null ? 1 : count + 1);
+		}
+
+		float expected = 3f * USERS / (NODES + 2);
+		int heavy = counts.get(nodes.get(0));
+		assertTrue("heavy node users: " + heavy, Math.abs(heavy - expected) < expected * 0.3f);
+		assertEquals(NODES, counts.size());
+	}
+
+	@Test
+	public void testNoNodes() {
+		SeeOtherHostIfc strategy = create(null);
+
+		strategy.setNodes(new ArrayList<BareJID>());
+		assertEquals(LOCAL, strategy.findHostForJID(user(1), LOCAL));
+	}
+
+	@Test
+	public void testLookupCost() {
+		SeeOtherHostIfc strategy = create(null);
+		BareJID[] users = new BareJID[USERS];
+
+		for (int i = 0; i < USERS; i++) {
+			users[i] = user(i);
+		}
+		strategy.setNodes(nodes(NODES));
+
+		int rounds = 20;
+		long start = 0;
+		for (int r = 0; r < rounds * 2; r++) {
+			// first half of rounds is a warm-up
+			if (r == rounds) {
+				start = System.nanoTime();
+			}
+			for (BareJID user : users) {
+				assertNotNull(strategy.findHostForJID(user, LOCAL));
+			}
+		}
+
+		long time = System.nanoTime() - start;
+		log.info("Lookup cost, ns: " + (time / ((long) rounds * USERS)) + " with " +
+				(NODES * SeeOtherHostConsistentHashed.VIRTUAL_NODES_DEF_VAL) + " virtual nodes");
+	}
+
+	private static SeeOtherHostIfc create(String weights) {
+		SeeOtherHostIfc strategy = new SeeOtherHostConsistentHashed();
+		Map<String, Object> props = new HashMap<String, Object>();
+
+		strategy.getDefaults(props, new HashMap<String, Object>());
+		if (weights != null) {
+			props.put(SeeOtherHostConsistentHashed.CM_SEE_OTHER_HOST_WEIGHTS, weights);
+		}
+		strategy.setProperties(props);
+
+		return strategy;
+	}
+
+	private static BareJID[] lookup(SeeOtherHostIfc strategy) {
+		BareJID[] result = new BareJID[USERS];
+
+		for (int i = 0; i < USERS; i++) {
+			result[i] = strategy.findHostForJID(user(i), LOCAL);
+		}
+
+		return result;
+	}
+
+	private static float movedByHashed(List<BareJID> nodes, BareJID removed) {
+		SeeOtherHostIfc strategy = new SeeOtherHostHashed();
+
+		strategy.setNodes(new ArrayList<BareJID>(nodes));
+		BareJID[] before = lookup(strategy);
+		nodes.remove(removed);
+		strategy.setNodes(nodes);
+		BareJID[] after = lookup(strategy);
+
+		int moved = 0;
+		for (int i = 0; i < USERS; i++) {
+			if (!before[i].equals(after[i])) {
+				moved++;
+			}
+		}
+
+		return (float) moved / USERS;
+	}
+
+	private static List<BareJID> nodes(int count) {
+		List<BareJID> nodes = new ArrayList<BareJID>();
+
+		for (int i = 0; i < count; i++) {
+			nodes.add(BareJID.bareJIDInstanceNS(null, "node" + i + ".example.com"));
+		}
+
+		return nodes;
+	}
+
+	private static BareJID user(int idx) {
+		return BareJID.bareJIDInstanceNS("user" + idx, "example.com");
+	}
+}
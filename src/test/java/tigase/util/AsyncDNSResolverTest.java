@@ -0,0 +1,168 @@
+/*
+ * AsyncDNSResolverTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.util;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test class for AsyncDNSResolver class.
+ *
+ * Uses a stub lookup in place of DNS server which counts queries, can hold
+ * them until released and knows only domains ending with ".example.com".
+ *
+ * @author andrzej
+ */
+public class AsyncDNSResolverTest extends TestCase {
+
+	@Test
+	public void testConcurrentLookupsAreCoalesced() throws Exception {
+		StubLookup lookup = new StubLookup(new CountDownLatch(1));
+		AsyncDNSResolver resolver = new AsyncDNSResolver(lookup, 4);
+		ResultCallback callback = new ResultCallback(10);
+
+		for (int i = 0; i < 10; i++) {
+			resolver.resolve("a.example.com", callback);
+		}
+		lookup.release.countDown();
+
+		assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		assertEquals(10, callback.resolved.get());
+		assertEquals(1, lookup.queries.get());
+	}
+
+	@Test
+	public void testResolvedDomainIsCached() throws Exception {
+		StubLookup lookup = new StubLookup(null);
+		AsyncDNSResolver resolver = new AsyncDNSResolver(lookup, 4);
+
+		DNSEntry[] first = resolver.getHostSRV_Entries("a.example.com");
+		DNSEntry[] second = resolver.getHostSRV_Entries("a.example.com");
+
+		assertSame(first, second);
+		assertEquals(1, lookup.queries.get());
+	}
+
+	@Test
+	public void testUnknownDomainIsCachedForNegativeTTL() throws Exception {
+		StubLookup lookup = new StubLookup(null);
+		AsyncDNSResolver resolver = new AsyncDNSResolver(lookup, 4);
+
+		resolver.setNegativeTTL(100);
+		for (int i = 0; i < 3; i++) {
+			try {
+				resolver.getHostSRV_Entries("unknown.net");
+				fail("domain should not be resolved");
+			} catch (UnknownHostException ex) {
+				// expected
+			}
+		}
+		assertEquals(1, lookup.queries.get());
+
+		Thread.sleep(150);
+		ResultCallback callback = new ResultCallback(1);
+		resolver.resolve("unknown.net", callback);
+		assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		assertEquals(1, callback.failed.get());
+		assertEquals(2, lookup.queries.get());
+	}
+
+	@Test
+	public void testConcurrencyIsBounded() throws Exception {
+		StubLookup lookup = new StubLookup(new CountDownLatch(1));
+		AsyncDNSResolver resolver = new AsyncDNSResolver(lookup, 2);
+		ResultCallback callback = new ResultCallback(20);
+
+		for (int i = 0; i < 20; i++) {
+			resolver.resolve("host" + i + ".example.com", callback);
+		}
+		Thread.sleep(100);
+		assertEquals(2, lookup.running.get());
+		lookup.release.countDown();
+
+		assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		assertEquals(20, callback.resolved.get());
+		assertTrue("max concurrent: " + lookup.maxRunning.get(), lookup.maxRunning.get() <= 2);
+	}
+
+	private static class StubLookup implements AsyncDNSResolver.Lookup {
+
+		private final AtomicInteger maxRunning = new AtomicInteger();
+		private final AtomicInteger queries = new AtomicInteger();
+		private final CountDownLatch release;
+		private final AtomicInteger running = new AtomicInteger();
+
+		private StubLookup(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public DNSEntry[] lookup(String domain) throws UnknownHostException {
+			queries.incrementAndGet();
+			int now = running.incrementAndGet();
+			if (now > maxRunning.get()) {
+				maxRunning.set(now);
+			}
+			try {
+				if (release != null) {
+					release.await();
+				}
+			} catch (InterruptedException ex) {
+				throw new UnknownHostException(domain);
+			} finally {
+				running.decrementAndGet();
+			}
+			if (!domain.endsWith(".example.com")) {
+				throw new UnknownHostException(domain);
+			}
+
+			return new DNSEntry[] { new DNSEntry(domain, "10.0.0.1") };
+		}
+	}
+
+	private static class ResultCallback implements AsyncDNSResolver.Callback {
+
+		private final CountDownLatch done;
+		private final AtomicInteger failed = new AtomicInteger();
+		private final AtomicInteger resolved = new AtomicInteger();
+
+		private ResultCallback(int count) {
+			done = new CountDownLatch(count);
+		}
+
+		@Override
+		public void failed(String domain, UnknownHostException ex) {
+			failed.incrementAndGet();
+			done.countDown();
+		}
+
+		@Override
+		public void resolved(String domain, DNSEntry[] entries) {
+			resolved.incrementAndGet();
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * HashedWheelTimerTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test class for HashedWheelTimer class.
+ *
+ * @author andrzej
+ */
+public class HashedWheelTimerTest extends TestCase {
+
+	private HashedWheelTimer timer;
+
+	@Override
+	protected void setUp() throws Exception {
+		timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 64);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		timer.stop();
+	}
+
+	@Test
+	public void testGetWaitsForTask() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ScheduledFuture<?>   future  = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {}
+			}
+		}, 20, TimeUnit.MILLISECONDS, null);
+
+		assertFalse(future.isDone());
+		try {
+			future.get(5, TimeUnit.MILLISECONDS);
+			fail("TimeoutException expected");
+		} catch (TimeoutException ex) {}
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+
+		// task expired but is still running
+		assertFalse(future.isDone());
+		release.countDown();
+		assertNull(future.get(1, TimeUnit.SECONDS));
+		assertTrue(future.isDone());
+		assertFalse(future.isCancelled());
+	}
+
+	@Test
+	public void testCancelledTask() throws Exception {
+		ScheduledFuture<?> future = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				fail("Cancelled task executed");
+			}
+		}, 1, TimeUnit.SECONDS, null);
+
+		assertTrue(future.cancel(false));
+		assertTrue(future.isDone());
+		assertTrue(future.isCancelled());
+		try {
+			future.get();
+			fail("CancellationException expected");
+		} catch (CancellationException ex) {}
+	}
+
+	@Test
+	public void testTaskException() throws Exception {
+		ScheduledFuture<?> future = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("test");
+			}
+		}, 10, TimeUnit.MILLISECONDS, null);
+
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("ExecutionException expected");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+		assertTrue(future.isDone());
+	}
+
+	@Test
+	public void testPrecision() {
+		assertFalse(timer.isPreciseFor(50, TimeUnit.MILLISECONDS));
+		assertTrue(timer.isPreciseFor(100, TimeUnit.MILLISECONDS));
+	}
+}
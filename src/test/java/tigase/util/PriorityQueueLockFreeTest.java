@@ -0,0 +1,157 @@
+/*
+ * PriorityQueueLockFreeTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test class for PriorityQueueLockFree class.
+ *
+ * @author andrzej
+ */
+public class PriorityQueueLockFreeTest extends TestCase {
+
+	private static final int PRIORITIES = 3;
+	private static final int PRODUCERS  = 4;
+	private static final int ELEMENTS   = 50000;
+
+	@Test
+	public void testPriorityOrder() throws Exception {
+		PriorityQueueLockFree<Integer> queue = new PriorityQueueLockFree<Integer>(PRIORITIES,
+				16);
+
+		assertTrue(queue.offer(2, 2));
+		assertTrue(queue.offer(1, 1));
+		assertTrue(queue.offer(0, 0));
+		assertEquals(3, queue.totalSize());
+		for (int i = 0; i < PRIORITIES; i++) {
+			assertEquals(i, queue.take().intValue());
+		}
+		assertEquals(0, queue.totalSize());
+	}
+
+	@Test
+	public void testOverflowKeepsOrder() throws Exception {
+		PriorityQueueLockFree<Integer> queue = new PriorityQueueLockFree<Integer>(PRIORITIES,
+				5000);
+
+		// More elements than fit into the ring buffer of the priority
+		for (int i = 0; i < 5000; i++) {
+			assertTrue(queue.offer(i, 0));
+		}
+		assertEquals(5000, queue.size()[0]);
+		assertTrue(queue.offer(-1, 0));
+		assertEquals(1, queue.size()[1]);
+		for (int i = 0; i < 2000; i++) {
+			assertEquals(i, queue.take().intValue());
+		}
+
+		// Added after the overflowed elements, so taken after them
+		for (int i = 5000; i < 6000; i++) {
+			assertTrue(queue.offer(i, 0));
+		}
+		for (int i = 2000; i < 6000; i++) {
+			assertEquals(i, queue.take().intValue());
+		}
+		assertEquals(-1, queue.take().intValue());
+		assertEquals(0, queue.totalSize());
+	}
+
+	@Test
+	public void testResizeDoesNotLoseElements() throws Exception {
+		final PriorityQueueLockFree<Integer> queue = new PriorityQueueLockFree<Integer>(
+				PRIORITIES, 16);
+		final int                total    = PRODUCERS * ELEMENTS;
+		final AtomicIntegerArray received = new AtomicIntegerArray(total);
+		final AtomicInteger      count    = new AtomicInteger();
+		Thread[]                 producers = new Thread[PRODUCERS];
+		Thread[]                 consumers = new Thread[2];
+
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int base = p * ELEMENTS;
+
+			producers[p] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < ELEMENTS; i++) {
+							queue.put(base + i, i % PRIORITIES);
+						}
+					} catch (InterruptedException ex) {}
+				}
+			};
+		}
+		for (int c = 0; c < consumers.length; c++) {
+			consumers[c] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							received.incrementAndGet(queue.take());
+							count.incrementAndGet();
+						}
+					} catch (InterruptedException ex) {}
+				}
+			};
+			consumers[c].start();
+		}
+		for (Thread producer : producers) {
+			producer.start();
+		}
+
+		int resizes = 0;
+
+		while (isAlive(producers)) {
+			queue.setMaxSize(((resizes++ % 2) == 0)
+					? 1024
+					: 16);
+		}
+
+		long timeout = System.currentTimeMillis() + 10000;
+
+		while ((count.get() < total) && (System.currentTimeMillis() < timeout)) {
+			Thread.sleep(10);
+		}
+		for (Thread consumer : consumers) {
+			consumer.interrupt();
+			consumer.join();
+		}
+		assertEquals("Elements lost after " + resizes + " resizes", total, count.get());
+		for (int i = 0; i < total; i++) {
+			assertEquals("Element " + i, 1, received.get(i));
+		}
+		assertEquals(0, queue.totalSize());
+	}
+
+	private static boolean isAlive(Thread[] threads) {
+		for (Thread thread : threads) {
+			if (thread.isAlive()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * SymbolTableTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.util;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test class for SymbolTable class.
+ *
+ * @author andrzej
+ */
+public class SymbolTableTest extends TestCase {
+
+	@Test
+	public void testPreloadedSymbolsAreCanonical() {
+		SymbolTable table = new SymbolTable(256);
+
+		assertSame("message", table.lookup(new StringBuilder("message")));
+		assertSame("jabber:client", table.lookup(new StringBuilder("xmlns=jabber:client"), 6,
+				19));
+		assertEquals(2, table.getHits());
+		assertEquals(0, table.getMisses());
+	}
+
+	@Test
+	public void testRepeatedSymbolIsAdmitted() {
+		SymbolTable table = new SymbolTable(256);
+		String      first = table.lookup(new StringBuilder("custom-element"));
+
+		assertNotSame(first.intern(), first);
+
+		String second = table.lookup(new StringBuilder("custom-element"));
+		String third  = table.lookup(new StringBuilder("custom-element"));
+
+		assertSame(second, third);
+		assertSame("custom-element", third);
+		assertEquals(1, table.getHits());
+	}
+
+	@Test
+	public void testUniqueNamesFloodDoesNotEvictUsedSymbols() {
+		SymbolTable table = new SymbolTable(256);
+		String      used  = null;
+
+		for (int i = 0; i < 3; i++) {
+			used = table.lookup(new StringBuilder("custom-element"));
+		}
+
+		long admitted = table.getAdmitted();
+
+		for (int i = 0; i < 100000; i++) {
+			assertEquals("flood-" + i, table.lookup(new StringBuilder("flood-" + i)));
+			if (i % 100 == 0) {
+				table.lookup(new StringBuilder("custom-element"));
+			}
+		}
+		assertTrue("Flood names admitted: " + (table.getAdmitted() - admitted), table
+				.getAdmitted() - admitted < 5);
+		assertSame(used, table.lookup(new StringBuilder("custom-element")));
+		assertSame("presence", table.lookup(new StringBuilder("presence")));
+	}
+}
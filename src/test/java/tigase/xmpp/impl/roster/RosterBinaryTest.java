@@ -0,0 +1,290 @@
+/*
+ * RosterBinaryTest.java
+ *
+ * Tigase Jabber/XMPP Server
+ * Copyright (C) 2004-2014 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package tigase.xmpp.impl.roster;
+
+//~--- non-JDK imports --------------------------------------------------------
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import tigase.db.AuthRepositoryImpl;
+import tigase.db.xml.XMLRepository;
+
+import tigase.server.xmppsession.SessionManagerHandler;
+
+import tigase.util.TigaseStringprepException;
+
+import tigase.vhosts.VHostItem;
+
+import tigase.xmpp.BareJID;
+import tigase.xmpp.JID;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.XMPPSession;
+
+import static tigase.xmpp.impl.roster.RosterAbstract.SubscriptionType;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Test class for <code>RosterBinary</code> and the binary form of
+ * <code>RosterElement</code>. Roster is stored in a temporary XML user
+ * repository and loaded again after each change.
+ *
+ * @author andrzej
+ */
+public class RosterBinaryTest
+				extends TestCase {
+	private static final String DOMAIN    = "example.com";
+	private static final String ITEMS_KEY = "items";
+
+	//~--- fields ---------------------------------------------------------------
+
+	private final RosterBinary roster = new RosterBinary();
+	private XMPPResourceConnection session;
+
+	//~--- methods --------------------------------------------------------------
+
+	@Override
+	protected void setUp() throws Exception {
+		File file = File.createTempFile("tigase-roster-", ".xml");
+
+		file.delete();
+		file.deleteOnExit();
+
+		XMLRepository repo = new XMLRepository();
+
+		repo.initRepository(file.getPath() + "?autoCreateUser=true", new HashMap<String,
+				String>());
+		session = new XMPPResourceConnection(JID.jidInstanceNS("c2s", DOMAIN, "conn-1"), repo,
+				new AuthRepositoryImpl(repo), new TestSessionHandler());
+		session.setDomain(new VHostItem(DOMAIN).getUnmodifiableVHostItem());
+		session.authorizeJID(BareJID.bareJIDInstanceNS("user", DOMAIN), false);
+		session.setResource("res");
+	}
+
+	/**
+	 * All persistent fields are read back, including strings longer than the
+	 * 64KB limit of <code>writeUTF</code>.
+	 */
+	@Test
+	public void testWriteToRoundTrip() throws Exception {
+		StringBuilder large = new StringBuilder();
+
+		for (int i = 0; i < 70000; i++) {
+			large.append((char) ('a' + (i % 26)));
+		}
+
+		RosterElement relem = new RosterElement(JID.jidInstanceNS("buddy", DOMAIN, null),
+				"Zażółć gęślą jaźń", new String[] { "Friends", "Grupa ☃", large.toString() },
+				null);
+
+		relem.setSubscription(SubscriptionType.both);
+		relem.setOtherData(large.toString());
+		assertTrue(relem.isModified());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		relem.writeTo(new DataOutputStream(bytes));
+		assertFalse(relem.isModified());
+
+		RosterElement read = new RosterElement(new DataInputStream(new ByteArrayInputStream(
+				bytes.toByteArray())), null);
+
+		assertEquals(relem.getJid(), read.getJid());
+		assertEquals(relem.getName(), read.getName());
+		assertEquals(SubscriptionType.both, read.getSubscription());
+		assertTrue(Arrays.equals(relem.getGroups(), read.getGroups()));
+		assertEquals(large.toString(), read.getOtherData());
+		assertEquals(relem.getActivity(), read.getActivity(), 0d);
+		assertEquals(relem.getWeight(), read.getWeight(), 0d);
+		assertEquals(relem.getLastSeen(), read.getLastSeen());
+		assertFalse(read.isModified());
+	}
+
+	/**
+	 * Entry with the highest sequence number wins even if the repository
+	 * returns it before the older one.
+	 */
+	@Test
+	public void testNewestEntryWins() throws Exception {
+		JID buddy = JID.jidInstanceNS("buddy", DOMAIN, null);
+
+		roster.addBuddy(session, buddy, "Old", null, null);
+		roster.setBuddyName(session, buddy, "New");
+		reverseEntries();
+		reload();
+		assertEquals("New", roster.getBuddyName(session, buddy));
+	}
+
+	/**
+	 * Removal mark hides older items of the contact, also when it is returned
+	 * first, and the contact added again after removal is visible.
+	 */
+	@Test
+	public void testRemovalHidesOlderItems() throws Exception {
+		JID removed = JID.jidInstanceNS("removed", DOMAIN, null);
+		JID kept    = JID.jidInstanceNS("kept", DOMAIN, null);
+
+		roster.addBuddy(session, removed, "Removed", null, null);
+		roster.addBuddy(session, kept, "Kept", null, null);
+		roster.removeBuddy(session, removed);
+		reverseEntries();
+		reload();
+		assertFalse(roster.containsBuddy(session, removed));
+		assertTrue(roster.containsBuddy(session, kept));
+		roster.addBuddy(session, removed, "Added again", null, null);
+		reload();
+		assertEquals("Added again", roster.getBuddyName(session, removed));
+	}
+
+	/**
+	 * List is rewritten with current items only when the number of outdated
+	 * entries exceeds the threshold.
+	 */
+	@Test
+	public void testSnapshotRewrite() throws Exception {
+		JID buddy = JID.jidInstanceNS("buddy", DOMAIN, null);
+
+		roster.addBuddy(session, buddy, "Name 0", null, null);
+		for (int i = 1; i <= 10; i++) {
+			roster.setBuddyName(session, buddy, "Name " + i);
+		}
+		reload();
+
+		// Header, added item and 10 updates
+		assertEquals(12, entries().length);
+		for (int i = 11; i <= 100; i++) {
+			roster.setBuddyName(session, buddy, "Name " + i);
+		}
+		reload();
+
+		// Header and the current item
+		assertEquals(2, entries().length);
+		assertEquals("Name 100", roster.getBuddyName(session, buddy));
+		reload();
+		assertEquals("Name 100", roster.getBuddyName(session, buddy));
+	}
+
+	/**
+	 * Roster stored by <code>RosterFlat</code> is converted at the first load
+	 * and the flat roster is kept.
+	 */
+	@Test
+	public void testFlatRosterMigration() throws Exception {
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < 3; i++) {
+			RosterElement relem = new RosterElement(JID.jidInstanceNS("buddy" + i, DOMAIN, null),
+					"Buddy " + i, new String[] { "Group " + i }, session);
+
+			relem.setSubscription(SubscriptionType.both);
+			sb.append(relem.getRosterElement().toString());
+		}
+		session.setData(null, RosterAbstract.ROSTER, sb.toString());
+		assertTrue((entries() == null) || (entries().length == 0));
+		assertEquals(3, roster.getBuddies(session).length);
+
+		// Header and converted items
+		assertEquals(4, entries().length);
+		assertNotNull(session.getData(null, RosterAbstract.ROSTER, null));
+		reload();
+		assertEquals(3, roster.getBuddies(session).length);
+		for (int i = 0; i < 3; i++) {
+			JID buddy = JID.jidInstanceNS("buddy" + i, DOMAIN, null);
+
+			assertEquals("Buddy " + i, roster.getBuddyName(session, buddy));
+			assertEquals(SubscriptionType.both, roster.getBuddySubscription(session, buddy));
+			assertTrue(Arrays.equals(new String[] { "Group " + i }, roster.getBuddyGroups(
+					session, buddy)));
+		}
+	}
+
+	private String[] entries() throws Exception {
+		return session.getDataList(RosterBinary.ROSTER_ITEMS, ITEMS_KEY);
+	}
+
+	private void reload() throws Exception {
+		session.removeCommonSessionData(RosterAbstract.ROSTER);
+		roster.getBuddies(session);
+	}
+
+	private void reverseEntries() throws Exception {
+		List<String> list = Arrays.asList(entries());
+
+		Collections.reverse(list);
+		session.setDataList(RosterBinary.ROSTER_ITEMS, ITEMS_KEY, list.toArray(
+				new String[list.size()]));
+	}
+
+	//~--- inner classes --------------------------------------------------------
+
+	private static class TestSessionHandler
+					implements SessionManagerHandler {
+		private final JID compId = JID.jidInstanceNS("sess-man", DOMAIN, null);
+
+		//~--- methods ------------------------------------------------------------
+
+		@Override
+		public void handleLogin(BareJID userId, XMPPResourceConnection conn) {
+			XMPPSession session = new XMPPSession(userId.getLocalpart());
+
+			try {
+				session.addResourceConnection(conn);
+			} catch (TigaseStringprepException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		@Override
+		public void handleLogout(BareJID userId, XMPPResourceConnection conn) {}
+
+		@Override
+		public void handlePresenceSet(XMPPResourceConnection conn) {}
+
+		@Override
+		public void handleResourceBind(XMPPResourceConnection conn) {}
+
+		//~--- get methods --------------------------------------------------------
+
+		@Override
+		public JID getComponentId() {
+			return compId;
+		}
+
+		@Override
+		public boolean isLocalDomain(String domain, boolean includeComponents) {
+			return DOMAIN.equals(domain);
+		}
+	}
+}